@@ -0,0 +1,441 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.ahocorasick;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton compiled to deterministic transition table. Failure
+ * links are resolved at compile time, so search takes exactly one table lookup
+ * per byte. Bytes which never appear in keywords share one byte class, and the
+ * table has a column per byte class instead of 256 columns. Output patterns of
+ * each state, including patterns of its failure chain, are precomputed into
+ * one flat array.
+ *
+ * Keywords can be tagged with group number, so that several pattern sets are
+ * scanned in one pass and each match reports its group. Case insensitive
+ * keywords are matched by mapping upper case ascii letters to the byte class
+ * of lower case letters, so input is never copied. If case sensitive and case
+ * insensitive keywords are mixed, case of last 64 bytes is tracked in search
+ * context and case sensitive matches are verified against it.
+ *
+ * Compiled automaton is immutable, and can be searched by multiple threads
+ * with their own search context.
+ *
+ * @author xeraph
+ *
+ */
+public class AhoCorasickDfa {
+	private static final int MAX_VERIFIED_LENGTH = 64;
+
+	private Set<Keyword> keywords = new LinkedHashSet<Keyword>();
+
+	// true if any keyword is case insensitive
+	private boolean folded;
+
+	// byte to byte class, class 0 is for bytes not used in any keyword
+	private int[] byteClasses;
+	private int classCount;
+
+	// next state = table[state * classCount + class]
+	private int[] table;
+	private int stateCount;
+
+	// outputs of state are patterns[outputs[outputOffsets[state]] ..
+	// outputs[outputOffsets[state + 1] - 1]], and own patterns of the state
+	// come first until ownOutputEnds[state]
+	private int[] outputOffsets;
+	private int[] ownOutputEnds;
+	private int[] outputs;
+	private Pattern[] patterns;
+	private int[] patternGroups;
+	private int[] patternLengths;
+
+	// upper case bits of keyword tail, and bits to verify. check mask is zero
+	// for case insensitive keywords.
+	private long[] caseMasks;
+	private long[] caseCheckMasks;
+
+	public AhoCorasickDfa addKeyword(Pattern pattern) {
+		return addKeyword(pattern, 0, false);
+	}
+
+	public AhoCorasickDfa addKeyword(Pattern pattern, int group, boolean ignoreCase) {
+		if (pattern.getKeyword().length == 0)
+			throw new IllegalArgumentException("empty keyword");
+
+		keywords.add(new Keyword(pattern, group, ignoreCase));
+		table = null;
+		return this;
+	}
+
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	public int getByteClassCount() {
+		return classCount;
+	}
+
+	/**
+	 * @return the approximate size of transition table and outputs in bytes
+	 */
+	public long getMemoryUsage() {
+		if (table == null)
+			return 0;
+
+		return 1024 + table.length * 4L + outputOffsets.length * 4L + ownOutputEnds.length * 4L + outputs.length * 4L
+				+ patterns.length * 28L;
+	}
+
+	public void compile() {
+		Keyword[] entries = keywords.toArray(new Keyword[0]);
+		boolean fold = false;
+		for (Keyword e : entries)
+			fold |= e.ignoreCase;
+
+		// case sensitive keyword in folded automaton is verified with 64 bits
+		if (fold) {
+			for (Keyword e : entries) {
+				byte[] b = e.pattern.getKeyword();
+				if (!e.ignoreCase && b.length > MAX_VERIFIED_LENGTH && hasLetter(b))
+					throw new IllegalArgumentException("case sensitive keyword longer than " + MAX_VERIFIED_LENGTH
+							+ " bytes cannot be mixed with case insensitive keywords: " + e.pattern);
+			}
+		}
+
+		// assign byte classes
+		byte[][] keywordBytes = new byte[entries.length][];
+		boolean[] used = new boolean[256];
+		for (int i = 0; i < keywordBytes.length; i++) {
+			keywordBytes[i] = entries[i].pattern.getKeyword();
+			if (fold)
+				keywordBytes[i] = toLowerCase(keywordBytes[i]);
+
+			for (byte b : keywordBytes[i])
+				used[b & 0xff] = true;
+		}
+
+		int[] classes = new int[256];
+		int k = 1;
+		for (int b = 0; b < 256; b++)
+			if (used[b])
+				classes[b] = k++;
+
+		if (fold)
+			for (int b = 'A'; b <= 'Z'; b++)
+				classes[b] = classes[b + ('a' - 'A')];
+
+		// build trie in transition table, 0 means no child because root
+		// cannot be a child
+		int capacity = 64;
+		int[] t = new int[capacity * k];
+		List<Set<Integer>> own = new ArrayList<Set<Integer>>();
+		own.add(null);
+		int n = 1;
+
+		for (int i = 0; i < keywordBytes.length; i++) {
+			int s = 0;
+			for (byte b : keywordBytes[i]) {
+				int c = classes[b & 0xff];
+				int next = t[s * k + c];
+				if (next == 0) {
+					if (n == capacity) {
+						capacity *= 2;
+						t = Arrays.copyOf(t, capacity * k);
+					}
+
+					next = n++;
+					t[s * k + c] = next;
+					own.add(null);
+				}
+				s = next;
+			}
+
+			Set<Integer> set = own.get(s);
+			if (set == null) {
+				set = new LinkedHashSet<Integer>();
+				own.set(s, set);
+			}
+			set.add(i);
+		}
+
+		// resolve failure links in breadth first order, and replace missing
+		// transitions with transitions of failure state. row of state is not
+		// modified until the state is dequeued, so non-zero entry is child.
+		int[] failure = new int[n];
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+
+		for (int c = 0; c < k; c++) {
+			int child = t[c];
+			if (child != 0)
+				queue[tail++] = child;
+		}
+
+		while (head < tail) {
+			int s = queue[head++];
+			int f = failure[s];
+			for (int c = 0; c < k; c++) {
+				int child = t[s * k + c];
+				if (child != 0) {
+					failure[child] = t[f * k + c];
+					queue[tail++] = child;
+				} else {
+					t[s * k + c] = t[f * k + c];
+				}
+			}
+		}
+
+		// flatten own patterns and failure chain patterns. failure state is
+		// shallower, so it is already flattened in breadth first order.
+		int[][] flat = new int[n][];
+		int[] ownCounts = new int[n];
+		flat[0] = new int[0];
+
+		for (int i = 0; i < tail; i++) {
+			int s = queue[i];
+			Set<Integer> set = own.get(s);
+			int ownCount = set == null ? 0 : set.size();
+			int[] inherited = flat[failure[s]];
+			int[] l = new int[ownCount + inherited.length];
+			int j = 0;
+			if (set != null)
+				for (int id : set)
+					l[j++] = id;
+			System.arraycopy(inherited, 0, l, j, inherited.length);
+			flat[s] = l;
+			ownCounts[s] = ownCount;
+		}
+
+		int[] offsets = new int[n + 1];
+		int[] ownEnds = new int[n];
+		int[] out = new int[16];
+		int outCount = 0;
+
+		for (int s = 0; s < n; s++) {
+			offsets[s] = outCount;
+			ownEnds[s] = outCount + ownCounts[s];
+			int[] l = flat[s];
+			if (outCount + l.length > out.length)
+				out = Arrays.copyOf(out, Math.max(out.length * 2, outCount + l.length));
+			System.arraycopy(l, 0, out, outCount, l.length);
+			outCount += l.length;
+		}
+		offsets[n] = outCount;
+
+		Pattern[] pa = new Pattern[entries.length];
+		int[] groups = new int[entries.length];
+		int[] lengths = new int[entries.length];
+		long[] masks = new long[entries.length];
+		long[] checkMasks = new long[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			byte[] b = entries[i].pattern.getKeyword();
+			pa[i] = entries[i].pattern;
+			groups[i] = entries[i].group;
+			lengths[i] = b.length;
+
+			if (fold && !entries[i].ignoreCase) {
+				// last byte of keyword is lowest bit
+				for (int j = Math.max(0, b.length - MAX_VERIFIED_LENGTH); j < b.length; j++) {
+					long bit = 1L << (b.length - 1 - j);
+					if (isLetter(b[j]))
+						checkMasks[i] |= bit;
+					if (isUpperCase(b[j]))
+						masks[i] |= bit;
+				}
+			}
+		}
+
+		this.folded = fold;
+		this.byteClasses = classes;
+		this.classCount = k;
+		this.table = Arrays.copyOf(t, n * k);
+		this.stateCount = n;
+		this.outputOffsets = offsets;
+		this.ownOutputEnds = ownEnds;
+		this.outputs = Arrays.copyOf(out, outCount);
+		this.patterns = pa;
+		this.patternGroups = groups;
+		this.patternLengths = lengths;
+		this.caseMasks = masks;
+		this.caseCheckMasks = checkMasks;
+	}
+
+	private static boolean hasLetter(byte[] b) {
+		for (byte c : b)
+			if (isLetter(c))
+				return true;
+		return false;
+	}
+
+	private static boolean isLetter(byte b) {
+		return isUpperCase(b) || (b >= 'a' && b <= 'z');
+	}
+
+	private static boolean isUpperCase(byte b) {
+		return b >= 'A' && b <= 'Z';
+	}
+
+	private static byte[] toLowerCase(byte[] b) {
+		byte[] l = new byte[b.length];
+		for (int i = 0; i < b.length; i++)
+			l[i] = isUpperCase(b[i]) ? (byte) (b[i] + ('a' - 'A')) : b[i];
+		return l;
+	}
+
+	public List<Pair> search(byte[] buf) {
+		return search(buf, 0, buf.length, new SearchContext());
+	}
+
+	public List<Pair> search(byte[] buf, SearchContext ctx) {
+		return search(buf, 0, buf.length, ctx);
+	}
+
+	public List<Pair> search(byte[] buf, int offset, int limit, SearchContext ctx) {
+		final List<Pair> result = new ArrayList<Pair>();
+		search(buf, offset, limit, ctx, new MatchCallback() {
+			@Override
+			public boolean onMatch(int position, Pattern pattern) {
+				result.add(new Pair(position, pattern));
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Searches chunk of stream, and reports matches to callback. Search
+	 * context keeps automaton state and stream length, so that matches across
+	 * chunk boundary are found when next chunk is searched with same context.
+	 *
+	 * @return the reported match count
+	 */
+	public int search(byte[] buf, int offset, int limit, SearchContext ctx, final MatchCallback callback) {
+		return search(buf, offset, limit, ctx, new GroupMatchCallback() {
+			@Override
+			public boolean onMatch(int group, int position, Pattern pattern) {
+				return callback.onMatch(position, pattern);
+			}
+		});
+	}
+
+	/**
+	 * Searches chunk of stream like
+	 * {@link #search(byte[], int, int, SearchContext, MatchCallback)}, and
+	 * reports group of matched keyword together. Matches of all groups are
+	 * found in one pass.
+	 *
+	 * @return the reported match count
+	 */
+	public int search(byte[] buf, int offset, int limit, SearchContext ctx, GroupMatchCallback callback) {
+		if (table == null)
+			throw new IllegalStateException("not compiled");
+
+		int needResultCount = ctx.getNeedResultCount();
+		if (needResultCount == 0)
+			return 0;
+
+		if (offset < 0)
+			offset = 0;
+		if (buf.length < offset)
+			return 0;
+		if (buf.length < offset + limit)
+			limit = buf.length - offset;
+
+		final int[] t = table;
+		final int[] classes = byteClasses;
+		final int k = classCount;
+		final int[] offsets = outputOffsets;
+		final int[] ends = ctx.isIncludeFailurePatterns() ? null : ownOutputEnds;
+		final boolean verifyCase = folded;
+		long caseBits = ctx.getCaseBits();
+
+		int state = ctx.getLastNodeId();
+		if (state >= stateCount)
+			state = 0;
+
+		int base = ctx.getLength() - offset;
+		int searchLimit = offset + limit;
+		int count = 0;
+		boolean stopped = false;
+
+		for (int i = offset; i < searchLimit; i++) {
+			byte b = buf[i];
+			state = t[state * k + classes[b & 0xff]];
+			if (verifyCase)
+				caseBits = (caseBits << 1) | (b >= 'A' && b <= 'Z' ? 1 : 0);
+
+			int begin = offsets[state];
+			int end = ends == null ? offsets[state + 1] : ends[state];
+			if (begin == end)
+				continue;
+
+			for (int j = begin; j < end; j++) {
+				int id = outputs[j];
+				if (verifyCase && ((caseBits ^ caseMasks[id]) & caseCheckMasks[id]) != 0)
+					continue;
+
+				count++;
+				int position = base + i - patternLengths[id] + 1;
+				if (!callback.onMatch(patternGroups[id], position, patterns[id]) || count == needResultCount) {
+					stopped = true;
+					break;
+				}
+			}
+
+			if (stopped)
+				break;
+		}
+
+		ctx.setLastNodeId(state);
+		ctx.setCaseBits(caseBits);
+		ctx.addLength(limit);
+		ctx.addResultCount(count);
+		return count;
+	}
+
+	private static class Keyword {
+		private Pattern pattern;
+		private int group;
+		private boolean ignoreCase;
+
+		public Keyword(Pattern pattern, int group, boolean ignoreCase) {
+			this.pattern = pattern;
+			this.group = group;
+			this.ignoreCase = ignoreCase;
+		}
+
+		@Override
+		public int hashCode() {
+			return pattern.hashCode() * 31 + group;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Keyword))
+				return false;
+
+			Keyword o = (Keyword) obj;
+			return pattern.equals(o.pattern) && group == o.group && ignoreCase == o.ignoreCase;
+		}
+	}
+}
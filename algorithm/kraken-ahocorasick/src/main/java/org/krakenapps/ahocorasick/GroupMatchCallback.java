@@ -0,0 +1,27 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.ahocorasick;
+
+public interface GroupMatchCallback {
+	/**
+	 * @param group
+	 *            the group number of matched keyword
+	 * @param position
+	 *            the start position of the match in the searched stream
+	 * @return false to stop search
+	 */
+	boolean onMatch(int group, int position, Pattern pattern);
+}
@@ -22,6 +22,9 @@ public class SearchContext {
 	private int maxResultCount;
 	private boolean includeFailurePatterns;
 
+	// upper case bits of recent bytes, used by case insensitive dfa search
+	private long caseBits;
+
 	public SearchContext() {
 		this(0);
 	}
@@ -46,6 +49,14 @@ public class SearchContext {
 		this.lastNodeId = lastNodeId;
 	}
 
+	long getCaseBits() {
+		return caseBits;
+	}
+
+	void setCaseBits(long caseBits) {
+		this.caseBits = caseBits;
+	}
+
 	public boolean isIncludeFailurePatterns() {
 		return includeFailurePatterns;
 	}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.ahocorasick;
+
+import java.util.Random;
+
+/**
+ * Compares trie search and compiled dfa search with http path like keywords.
+ * Run main() manually, it is not a unit test. Heap usage is measured after
+ * gc, so it is approximate.
+ *
+ * @author xeraph
+ *
+ */
+public class AhoCorasickBenchmark {
+	private static final int KEYWORD_COUNT = 5000;
+	private static final int INPUT_SIZE = 4 * 1024 * 1024;
+	private static final int WARMUP_MILLIS = 2000;
+	private static final int MEASURE_MILLIS = 5000;
+
+	private static final String[] WORDS = { "admin", "login", "cmd", "exec", "select", "union", "passwd", "etc",
+			"script", "alert", "include", "php", "asp", "cgi-bin", "shell", "upload", "config", "backup", "..", "%00" };
+
+	private interface Case {
+		int run(byte[] input);
+	}
+
+	public static void main(String[] args) {
+		Random r = new Random(1);
+		String[] keywords = new String[KEYWORD_COUNT];
+		for (int i = 0; i < keywords.length; i++)
+			keywords[i] = randomPath(r, 2 + r.nextInt(3)) + i;
+
+		byte[] input = new byte[INPUT_SIZE];
+		int p = 0;
+		while (p < input.length) {
+			byte[] b = (randomPath(r, 1 + r.nextInt(5)) + "?id=" + r.nextInt(1000) + " ").getBytes();
+			int len = Math.min(b.length, input.length - p);
+			System.arraycopy(b, 0, input, p, len);
+			p += len;
+		}
+
+		// plant some keywords
+		for (int i = 0; i < 1000; i++) {
+			byte[] b = keywords[r.nextInt(keywords.length)].getBytes();
+			System.arraycopy(b, 0, input, r.nextInt(input.length - b.length), b.length);
+		}
+
+		long before = usedMemory();
+		final AhoCorasickSearch trie = new AhoCorasickSearch();
+		for (int i = 0; i < keywords.length; i++)
+			trie.addKeyword(new CustomPattern(keywords[i], null));
+		trie.compile();
+		long trieMemory = usedMemory() - before;
+
+		before = usedMemory();
+		final AhoCorasickDfa dfa = new AhoCorasickDfa();
+		for (int i = 0; i < keywords.length; i++)
+			dfa.addKeyword(new CustomPattern(keywords[i], null));
+		dfa.compile();
+		long dfaMemory = usedMemory() - before;
+
+		System.out.println(String.format("keywords=%d, states=%d, byte classes=%d, dfa table=%dKB", keywords.length,
+				dfa.getStateCount(), dfa.getByteClassCount(), dfa.getMemoryUsage() / 1024));
+		System.out.println(String.format("heap: trie=%dKB, dfa=%dKB", trieMemory / 1024, dfaMemory / 1024));
+
+		measure("trie search", input, new Case() {
+			@Override
+			public int run(byte[] input) {
+				SearchContext ctx = new SearchContext();
+				ctx.setIncludeFailurePatterns(true);
+				return trie.search(input, ctx).size();
+			}
+		});
+
+		measure("dfa search", input, new Case() {
+			@Override
+			public int run(byte[] input) {
+				SearchContext ctx = new SearchContext();
+				ctx.setIncludeFailurePatterns(true);
+				return dfa.search(input, 0, input.length, ctx, new MatchCallback() {
+					@Override
+					public boolean onMatch(int position, Pattern pattern) {
+						return true;
+					}
+				});
+			}
+		});
+
+		// keep both alive until measured
+		System.out.println(trie.hashCode() + dfa.hashCode() > 0 ? "" : " ");
+	}
+
+	private static void measure(String name, byte[] input, Case c) {
+		long end = System.currentTimeMillis() + WARMUP_MILLIS;
+		while (System.currentTimeMillis() < end)
+			c.run(input);
+
+		long count = 0;
+		int matches = 0;
+		long begin = System.currentTimeMillis();
+		end = begin + MEASURE_MILLIS;
+		while (System.currentTimeMillis() < end) {
+			matches = c.run(input);
+			count++;
+		}
+
+		long elapsed = System.currentTimeMillis() - begin;
+		System.out.println(String.format("%s: %d MB/sec, %d matches", name, count * input.length / 1024 / 1024 * 1000
+				/ elapsed, matches));
+	}
+
+	private static String randomPath(Random r, int depth) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			sb.append('/');
+			sb.append(WORDS[r.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
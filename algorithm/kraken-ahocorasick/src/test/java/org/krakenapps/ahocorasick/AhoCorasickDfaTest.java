@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.ahocorasick;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AhoCorasickDfaTest {
+	@Test
+	public void testSameResultAsTrieSearch() {
+		Random r = new Random(1);
+		AhoCorasickSearch trie = new AhoCorasickSearch();
+		AhoCorasickDfa dfa = new AhoCorasickDfa();
+		for (int i = 0; i < 200; i++) {
+			CustomPattern p = new CustomPattern(randomString(r, 1 + r.nextInt(5)), "p" + i);
+			trie.addKeyword(p);
+			dfa.addKeyword(p);
+		}
+		trie.compile();
+		dfa.compile();
+
+		for (int n = 0; n < 50; n++) {
+			byte[] b = randomString(r, 500).getBytes();
+			for (boolean includeFailure : new boolean[] { false, true }) {
+				SearchContext c1 = new SearchContext();
+				c1.setIncludeFailurePatterns(includeFailure);
+				SearchContext c2 = new SearchContext();
+				c2.setIncludeFailurePatterns(includeFailure);
+
+				assertEquals(sort(trie.search(b, c1)), sort(dfa.search(b, c2)));
+			}
+		}
+	}
+
+	@Test
+	public void testStreaming() {
+		AhoCorasickDfa dfa = new AhoCorasickDfa();
+		dfa.addKeyword(new CustomPattern("abc", "1"));
+		dfa.addKeyword(new CustomPattern("bcd", "2"));
+		dfa.addKeyword(new CustomPattern("c", "3"));
+		dfa.compile();
+
+		byte[] b = "xxabcdxxabcd".getBytes();
+		SearchContext whole = new SearchContext();
+		whole.setIncludeFailurePatterns(true);
+		List<Pair> expected = sort(dfa.search(b, whole));
+		assertEquals(6, expected.size());
+
+		// every split point, including offset and limit of chunk
+		for (int split = 0; split <= b.length; split++) {
+			SearchContext ctx = new SearchContext();
+			ctx.setIncludeFailurePatterns(true);
+
+			byte[] padded = ("__" + new String(b)).getBytes();
+			List<Pair> l = new ArrayList<Pair>();
+			l.addAll(dfa.search(padded, 2, split, ctx));
+			l.addAll(dfa.search(b, split, b.length - split, ctx));
+			assertEquals(expected, sort(l));
+		}
+	}
+
+	@Test
+	public void testStopByCallbackAndMaxResult() {
+		AhoCorasickDfa dfa = new AhoCorasickDfa();
+		dfa.addKeyword(new CustomPattern("a", "1"));
+		dfa.compile();
+
+		final List<Pair> l = new ArrayList<Pair>();
+		dfa.search("aaaa".getBytes(), 0, 4, new SearchContext(), new MatchCallback() {
+			@Override
+			public boolean onMatch(int position, Pattern pattern) {
+				l.add(new Pair(position, pattern));
+				return l.size() < 2;
+			}
+		});
+		assertEquals(2, l.size());
+
+		SearchContext ctx = new SearchContext(3);
+		assertEquals(2, dfa.search("aa".getBytes(), ctx).size());
+		assertEquals(1, dfa.search("aa".getBytes(), ctx).size());
+		assertEquals(0, dfa.search("aa".getBytes(), ctx).size());
+	}
+
+	@Test
+	public void testIgnoreCaseAndGroups() {
+		AhoCorasickDfa dfa = new AhoCorasickDfa();
+		dfa.addKeyword(new CustomPattern("Admin", "1"), 0, true);
+		dfa.addKeyword(new CustomPattern("Admin", "2"), 1, false);
+		dfa.addKeyword(new CustomPattern("min.", "3"), 1, false);
+		dfa.compile();
+
+		final List<String> l = new ArrayList<String>();
+		GroupMatchCallback callback = new GroupMatchCallback() {
+			@Override
+			public boolean onMatch(int group, int position, Pattern pattern) {
+				l.add(group + ":" + position + ":" + ((CustomPattern) pattern).getDescription());
+				return true;
+			}
+		};
+
+		// case of previous chunk is kept in context
+		SearchContext ctx = new SearchContext();
+		ctx.setIncludeFailurePatterns(true);
+		dfa.search("/ADMIN/Ad".getBytes(), 0, 9, ctx, callback);
+		dfa.search("min.php".getBytes(), 0, 7, ctx, callback);
+		assertEquals(Arrays.asList("0:1:1", "0:7:1", "1:7:2", "1:9:3"), l);
+	}
+
+	private List<Pair> sort(List<Pair> l) {
+		Collections.sort(l, new Comparator<Pair>() {
+			@Override
+			public int compare(Pair o1, Pair o2) {
+				if (o1.getPosition() != o2.getPosition())
+					return o1.getPosition() - o2.getPosition();
+				return o1.getPattern().toString().compareTo(o2.getPattern().toString());
+			}
+		});
+		return l;
+	}
+
+	private String randomString(Random r, int length) {
+		char[] c = new char[length];
+		for (int i = 0; i < length; i++)
+			c[i] = (char) ('a' + r.nextInt(4));
+		return new String(c);
+	}
+}
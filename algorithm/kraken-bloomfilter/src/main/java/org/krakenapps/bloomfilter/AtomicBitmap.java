@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010 NCHOVY, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.bloomfilter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size bitmap indexed by long. Bits are set by compare and swap, so
+ * concurrent writers and readers do not need lock. Bit count is limited by
+ * 64 * Integer.MAX_VALUE.
+ *
+ * @author xeraph
+ *
+ */
+public class AtomicBitmap {
+	private static final long MAX_BITS = 64L * Integer.MAX_VALUE;
+
+	private final long size;
+	private final AtomicLongArray words;
+
+	public AtomicBitmap(long size) {
+		if (size <= 0 || size > MAX_BITS)
+			throw new IllegalArgumentException("invalid bitmap size: " + size);
+
+		this.size = size;
+		this.words = new AtomicLongArray((int) ((size + 63) >>> 6));
+	}
+
+	/**
+	 * @return the bit count
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return true if bit was not set before
+	 */
+	public boolean set(long index) {
+		int i = wordIndex(index);
+		long mask = 1L << index;
+		while (true) {
+			long old = words.get(i);
+			if ((old & mask) != 0)
+				return false;
+
+			if (words.compareAndSet(i, old, old | mask))
+				return true;
+		}
+	}
+
+	public boolean get(long index) {
+		return (words.get(wordIndex(index)) & (1L << index)) != 0;
+	}
+
+	public long cardinality() {
+		long count = 0;
+		for (int i = 0; i < words.length(); i++)
+			count += Long.bitCount(words.get(i));
+		return count;
+	}
+
+	/**
+	 * Sets all bits of other bitmap to this bitmap.
+	 */
+	public void union(AtomicBitmap other) {
+		if (other.size != size)
+			throw new IllegalArgumentException("bitmap size mismatch: " + size + ", " + other.size);
+
+		for (int i = 0; i < words.length(); i++) {
+			long bits = other.words.get(i);
+			if (bits == 0)
+				continue;
+
+			while (true) {
+				long old = words.get(i);
+				if ((old | bits) == old || words.compareAndSet(i, old, old | bits))
+					break;
+			}
+		}
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(size);
+		for (int i = 0; i < words.length(); i++)
+			out.writeLong(words.get(i));
+	}
+
+	public static AtomicBitmap readFrom(DataInput in) throws IOException {
+		long size = in.readLong();
+		if (size <= 0 || size > MAX_BITS)
+			throw new IOException("invalid bitmap size: " + size);
+
+		AtomicBitmap bitmap = new AtomicBitmap(size);
+		for (int i = 0; i < bitmap.words.length(); i++)
+			bitmap.words.set(i, in.readLong());
+		return bitmap;
+	}
+
+	private int wordIndex(long index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+
+		return (int) (index >>> 6);
+	}
+}
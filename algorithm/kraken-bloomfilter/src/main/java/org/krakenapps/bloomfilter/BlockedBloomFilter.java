@@ -0,0 +1,254 @@
+/*
+ * Copyright 2010 NCHOVY, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.bloomfilter;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter which sets all bits of a key in one 512 bit block, so lookup
+ * costs one cache miss regardless of hash function count. Blocked layout has
+ * higher false positive rate than plain layout because key count varies by
+ * block, so bits are added until expected rate of blocked layout meets given
+ * error rate. Bit offset in block is taken from fresh 9 bits of hash for each
+ * probe, since double hashing modulo 512 leaves too few distinct patterns.
+ * Add and contains are lock-free and thread-safe.
+ *
+ * @author xeraph
+ *
+ */
+public class BlockedBloomFilter<T> {
+	private static final int BLOCK_BITS = 512;
+
+	// 9 bit offsets per 64 bit hash
+	private static final int SLICE_BITS = 9;
+	private static final int SLICES = 64 / SLICE_BITS;
+
+	private final double errorRate;
+	private final long capacity;
+	private final int numOfHashFunction;
+	private final long blockCount;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private final AtomicBitmap bitmap;
+	private final AtomicLong count;
+
+	public BlockedBloomFilter(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		long[] opt = optimum(errorRate, capacity);
+
+		this.errorRate = errorRate;
+		this.capacity = capacity;
+		this.numOfHashFunction = (int) opt[1];
+		this.blockCount = opt[0];
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.bitmap = new AtomicBitmap(blockCount * BLOCK_BITS);
+		this.count = new AtomicLong();
+	}
+
+	private BlockedBloomFilter(double errorRate, long capacity, int numOfHashFunction, long count, AtomicBitmap bitmap,
+			HashFunction<T> first, HashFunction<T> second) {
+		this.errorRate = errorRate;
+		this.capacity = capacity;
+		this.numOfHashFunction = numOfHashFunction;
+		this.blockCount = bitmap.size() / BLOCK_BITS;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.bitmap = bitmap;
+		this.count = new AtomicLong(count);
+	}
+
+	/**
+	 * @return true if key was not in filter before
+	 */
+	public boolean add(T key) {
+		long h = Hashes.hash(firstFunction, secondFunction, key);
+		long base = blockOf(h) * BLOCK_BITS;
+
+		boolean changed = false;
+		long r = 0;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			if (i % SLICES == 0)
+				r = remix(h, i / SLICES);
+
+			changed |= bitmap.set(base + (r & (BLOCK_BITS - 1)));
+			r >>>= SLICE_BITS;
+		}
+
+		if (changed)
+			count.incrementAndGet();
+
+		return changed;
+	}
+
+	public boolean contains(T key) {
+		long h = Hashes.hash(firstFunction, secondFunction, key);
+		long base = blockOf(h) * BLOCK_BITS;
+
+		long r = 0;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			if (i % SLICES == 0)
+				r = remix(h, i / SLICES);
+
+			if (!bitmap.get(base + (r & (BLOCK_BITS - 1))))
+				return false;
+			r >>>= SLICE_BITS;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds all keys of other filter. Both filters should have same parameters
+	 * and hash functions.
+	 */
+	public void union(BlockedBloomFilter<T> other) {
+		if (other.numOfHashFunction != numOfHashFunction)
+			throw new IllegalArgumentException("hash function count mismatch");
+
+		bitmap.union(other.bitmap);
+		count.addAndGet(other.count.get());
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the approximate count of added keys
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getBitCount() {
+		return bitmap.size();
+	}
+
+	public int getHashFunctionCount() {
+		return numOfHashFunction;
+	}
+
+	public void writeTo(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		Hashes.writeHeader(out, Hashes.BLOCKED);
+		write(out);
+		out.flush();
+	}
+
+	public static <T> BlockedBloomFilter<T> readFrom(InputStream is, HashFunction<T> first, HashFunction<T> second)
+			throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		Hashes.readHeader(in, Hashes.BLOCKED);
+		return read(in, first, second);
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeDouble(errorRate);
+		out.writeLong(capacity);
+		out.writeByte(numOfHashFunction);
+		out.writeLong(count.get());
+		bitmap.writeTo(out);
+	}
+
+	static <T> BlockedBloomFilter<T> read(DataInput in, HashFunction<T> first, HashFunction<T> second)
+			throws IOException {
+		double errorRate = in.readDouble();
+		long capacity = in.readLong();
+		int k = in.readByte();
+		long count = in.readLong();
+		AtomicBitmap bitmap = AtomicBitmap.readFrom(in);
+		if (bitmap.size() % BLOCK_BITS != 0)
+			throw new IOException("invalid blocked bloom filter size: " + bitmap.size());
+
+		return new BlockedBloomFilter<T>(errorRate, capacity, k, count, bitmap, first, second);
+	}
+
+	/**
+	 * Calculates block count and hash function count, starting from optimum
+	 * of plain layout.
+	 * 
+	 * @return the block count and hash function count
+	 */
+	private static long[] optimum(double errorRate, long capacity) {
+		long[] opt = Hashes.optimum(errorRate, capacity);
+		long blocks = (opt[0] + BLOCK_BITS - 1) / BLOCK_BITS;
+		while (true) {
+			double keysPerBlock = (double) capacity / blocks;
+			int bestK = 1;
+			double best = 1;
+			for (int k = 1; k <= 16; k++) {
+				double rate = falsePositiveRate(keysPerBlock, k);
+				if (rate < best) {
+					best = rate;
+					bestK = k;
+				}
+			}
+
+			if (best <= errorRate)
+				return new long[] { blocks, bestK };
+
+			blocks += Math.max(1, blocks / 16);
+		}
+	}
+
+	/**
+	 * Returns expected false positive rate when key count of a block follows
+	 * poisson distribution with given mean.
+	 */
+	private static double falsePositiveRate(double keysPerBlock, int k) {
+		double rate = 0;
+		double logProb = -keysPerBlock;
+		int max = (int) (keysPerBlock + 10 * Math.sqrt(keysPerBlock) + 20);
+		for (int j = 0; j <= max; j++) {
+			if (j > 0)
+				logProb += Math.log(keysPerBlock / j);
+
+			double setRatio = 1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) k * j);
+			rate += Math.exp(logProb) * Math.pow(setRatio, k);
+		}
+		return rate;
+	}
+
+	/**
+	 * Returns n-th 64 bits for in-block offsets, independent of block index
+	 * bits. Each round is mixed from whole hash, not from shifted out bits.
+	 */
+	private static long remix(long h, int n) {
+		return Hashes.mix(h + (n + 1) * 0x9e3779b97f4a7c15L);
+	}
+
+	private long blockOf(long h) {
+		// multiply and shift instead of modulo, block count is less than 2^32
+		return ((h >>> 32) * blockCount) >>> 32;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BlockedBloomFilter-[%d KB, %d hashFunctions (%s, %s), count=%d]", bitmap.size() / 8 / 1024,
+				numOfHashFunction, firstFunction, secondFunction, count.get());
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010 NCHOVY, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter with 4 bit counter per slot, supports removal of added keys.
+ * Counter sticks at 15 when overflowed and is never decreased after that, so
+ * removal never causes false negative. Counters are updated by compare and
+ * swap, and all operations are thread-safe.
+ *
+ * @author xeraph
+ *
+ */
+public class CountingBloomFilter<T> {
+	private static final int COUNTER_BITS = 4;
+	private static final int COUNTERS_PER_WORD = 64 / COUNTER_BITS;
+	private static final long MAX_COUNT = (1 << COUNTER_BITS) - 1;
+
+	private final double errorRate;
+	private final long capacity;
+	private final int numOfHashFunction;
+	private final long size;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private final AtomicLongArray counters;
+
+	public CountingBloomFilter(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		long[] opt = Hashes.optimum(errorRate, capacity);
+		if (opt[0] > (long) Integer.MAX_VALUE * COUNTERS_PER_WORD)
+			throw new IllegalArgumentException("too large capacity: " + capacity);
+
+		this.errorRate = errorRate;
+		this.capacity = capacity;
+		this.numOfHashFunction = (int) opt[1];
+		this.size = opt[0];
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.counters = new AtomicLongArray((int) ((size + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD));
+	}
+
+	private CountingBloomFilter(double errorRate, long capacity, int numOfHashFunction, long size,
+			AtomicLongArray counters, HashFunction<T> first, HashFunction<T> second) {
+		this.errorRate = errorRate;
+		this.capacity = capacity;
+		this.numOfHashFunction = numOfHashFunction;
+		this.size = size;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.counters = counters;
+	}
+
+	public void add(T key) {
+		long h = Hashes.hash(firstFunction, secondFunction, key);
+		long step = Hashes.step(h);
+		for (int i = 0; i < numOfHashFunction; i++)
+			increment(Hashes.index(h, step, i, size));
+	}
+
+	/**
+	 * Removes key which was added before. Removing key which was never added
+	 * may cause false negative of other keys, so key is not removed if it is
+	 * not contained.
+	 *
+	 * @return true if key was contained and removed
+	 */
+	public boolean remove(T key) {
+		if (!contains(key))
+			return false;
+
+		long h = Hashes.hash(firstFunction, secondFunction, key);
+		long step = Hashes.step(h);
+		for (int i = 0; i < numOfHashFunction; i++)
+			decrement(Hashes.index(h, step, i, size));
+
+		return true;
+	}
+
+	public boolean contains(T key) {
+		long h = Hashes.hash(firstFunction, secondFunction, key);
+		long step = Hashes.step(h);
+		for (int i = 0; i < numOfHashFunction; i++)
+			if (get(Hashes.index(h, step, i, size)) == 0)
+				return false;
+
+		return true;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public int getHashFunctionCount() {
+		return numOfHashFunction;
+	}
+
+	private long get(long index) {
+		long word = counters.get((int) (index / COUNTERS_PER_WORD));
+		return (word >>> shift(index)) & MAX_COUNT;
+	}
+
+	private void increment(long index) {
+		int i = (int) (index / COUNTERS_PER_WORD);
+		int shift = shift(index);
+		while (true) {
+			long old = counters.get(i);
+			if (((old >>> shift) & MAX_COUNT) == MAX_COUNT)
+				return;
+
+			if (counters.compareAndSet(i, old, old + (1L << shift)))
+				return;
+		}
+	}
+
+	private void decrement(long index) {
+		int i = (int) (index / COUNTERS_PER_WORD);
+		int shift = shift(index);
+		while (true) {
+			long old = counters.get(i);
+			long c = (old >>> shift) & MAX_COUNT;
+			if (c == 0 || c == MAX_COUNT)
+				return;
+
+			if (counters.compareAndSet(i, old, old - (1L << shift)))
+				return;
+		}
+	}
+
+	private int shift(long index) {
+		return (int) (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+	}
+
+	public void writeTo(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		Hashes.writeHeader(out, Hashes.COUNTING);
+		out.writeDouble(errorRate);
+		out.writeLong(capacity);
+		out.writeByte(numOfHashFunction);
+		out.writeLong(size);
+		for (int i = 0; i < counters.length(); i++)
+			out.writeLong(counters.get(i));
+		out.flush();
+	}
+
+	public static <T> CountingBloomFilter<T> readFrom(InputStream is, HashFunction<T> first, HashFunction<T> second)
+			throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		Hashes.readHeader(in, Hashes.COUNTING);
+		double errorRate = in.readDouble();
+		long capacity = in.readLong();
+		int k = in.readByte();
+		long size = in.readLong();
+		if (size <= 0 || size > (long) Integer.MAX_VALUE * COUNTERS_PER_WORD)
+			throw new IOException("invalid counting bloom filter size: " + size);
+
+		AtomicLongArray counters = new AtomicLongArray((int) ((size + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD));
+		for (int i = 0; i < counters.length(); i++)
+			counters.set(i, in.readLong());
+
+		return new CountingBloomFilter<T>(errorRate, capacity, k, size, counters, first, second);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CountingBloomFilter-[%d KB, %d hashFunctions (%s, %s)]", size * COUNTER_BITS / 8 / 1024,
+				numOfHashFunction, firstFunction, secondFunction);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010 NCHOVY, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.bloomfilter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Hash mixing and serialization header shared by filters. Two 32bit hash
+ * codes are mixed into 64bit hash, and k indexes are derived by double
+ * hashing without modulo of negative values.
+ *
+ * @author xeraph
+ *
+ */
+class Hashes {
+	// "KBF" and format version
+	private static final int MAGIC = 0x4b424601;
+
+	static final byte BLOCKED = 1;
+	static final byte SCALABLE = 2;
+	static final byte COUNTING = 3;
+
+	private Hashes() {
+	}
+
+	static <T> long hash(HashFunction<T> first, HashFunction<T> second, T key) {
+		long h = ((long) first.hashCode(key) << 32) | (second.hashCode(key) & 0xffffffffL);
+		return mix(h);
+	}
+
+	/**
+	 * murmur3 64bit finalizer
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @return the i-th index in [0, size)
+	 */
+	static long index(long hash, long step, int i, long size) {
+		return ((hash + i * step) & Long.MAX_VALUE) % size;
+	}
+
+	/**
+	 * @return the odd step for double hashing
+	 */
+	static long step(long hash) {
+		return mix(hash) | 1;
+	}
+
+	/**
+	 * Calculates optimal bit count and hash function count.
+	 *
+	 * @return the bit count and hash function count
+	 */
+	static long[] optimum(double errorRate, long capacity) {
+		if (errorRate <= 0 || errorRate >= 1)
+			throw new IllegalArgumentException("error rate should be between 0 and 1: " + errorRate);
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity should be positive: " + capacity);
+
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-capacity * Math.log(errorRate) / (ln2 * ln2));
+		int k = (int) Math.round((double) bits / capacity * ln2);
+		k = Math.max(1, Math.min(k, 16));
+		return new long[] { Math.max(64, bits), k };
+	}
+
+	static void writeHeader(DataOutput out, byte type) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(type);
+	}
+
+	static void readHeader(DataInput in, byte type) throws IOException {
+		int magic = in.readInt();
+		if (magic != MAGIC)
+			throw new IOException("invalid bloom filter magic: " + Integer.toHexString(magic));
+
+		byte t = in.readByte();
+		if (t != type)
+			throw new IOException("bloom filter type mismatch, expected " + type + " but " + t);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010 NCHOVY, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Bloom filter which grows by chaining blocked bloom filters when current
+ * filter is full. Each new filter has doubled capacity and halved error rate,
+ * so total false positive rate stays under given error rate. Lookup checks
+ * all chained filters. Add and contains are thread-safe, and only growth
+ * takes lock.
+ *
+ * @author xeraph
+ *
+ */
+public class ScalableBloomFilter<T> {
+	private static final int GROWTH = 2;
+	private static final double TIGHTENING = 0.5;
+
+	private final double errorRate;
+	private final long initialCapacity;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private volatile BlockedBloomFilter<T>[] filters;
+
+	public ScalableBloomFilter(double errorRate, long initialCapacity, HashFunction<T> first, HashFunction<T> second) {
+		this.errorRate = errorRate;
+		this.initialCapacity = initialCapacity;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.filters = newArray(0);
+		grow(null);
+	}
+
+	private ScalableBloomFilter(double errorRate, long initialCapacity, BlockedBloomFilter<T>[] filters,
+			HashFunction<T> first, HashFunction<T> second) {
+		this.errorRate = errorRate;
+		this.initialCapacity = initialCapacity;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.filters = filters;
+	}
+
+	/**
+	 * @return true if key was not in filter before
+	 */
+	public boolean add(T key) {
+		if (contains(key))
+			return false;
+
+		BlockedBloomFilter<T>[] l = filters;
+		BlockedBloomFilter<T> last = l[l.length - 1];
+		boolean added = last.add(key);
+		if (last.getCount() >= last.getCapacity())
+			grow(last);
+
+		return added;
+	}
+
+	public boolean contains(T key) {
+		BlockedBloomFilter<T>[] l = filters;
+
+		// recent filter has more keys
+		for (int i = l.length - 1; i >= 0; i--)
+			if (l[i].contains(key))
+				return true;
+
+		return false;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * @return the approximate count of added keys
+	 */
+	public long getCount() {
+		long count = 0;
+		for (BlockedBloomFilter<T> f : filters)
+			count += f.getCount();
+		return count;
+	}
+
+	public int getFilterCount() {
+		return filters.length;
+	}
+
+	public long getBitCount() {
+		long bits = 0;
+		for (BlockedBloomFilter<T> f : filters)
+			bits += f.getBitCount();
+		return bits;
+	}
+
+	private synchronized void grow(BlockedBloomFilter<T> full) {
+		BlockedBloomFilter<T>[] l = filters;
+
+		// other thread already added new filter
+		if (full != null && l[l.length - 1] != full)
+			return;
+
+		int n = l.length;
+		double rate = errorRate * (1 - TIGHTENING) * Math.pow(TIGHTENING, n);
+		long capacity = initialCapacity * (long) Math.pow(GROWTH, n);
+
+		BlockedBloomFilter<T>[] grown = Arrays.copyOf(l, n + 1);
+		grown[n] = new BlockedBloomFilter<T>(rate, capacity, firstFunction, secondFunction);
+		filters = grown;
+	}
+
+	public void writeTo(OutputStream os) throws IOException {
+		BlockedBloomFilter<T>[] l = filters;
+
+		DataOutputStream out = new DataOutputStream(os);
+		Hashes.writeHeader(out, Hashes.SCALABLE);
+		out.writeDouble(errorRate);
+		out.writeLong(initialCapacity);
+		out.writeInt(l.length);
+		for (BlockedBloomFilter<T> f : l)
+			f.write(out);
+		out.flush();
+	}
+
+	public static <T> ScalableBloomFilter<T> readFrom(InputStream is, HashFunction<T> first, HashFunction<T> second)
+			throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		Hashes.readHeader(in, Hashes.SCALABLE);
+		double errorRate = in.readDouble();
+		long initialCapacity = in.readLong();
+		int count = in.readInt();
+		if (count <= 0)
+			throw new IOException("invalid scalable bloom filter count: " + count);
+
+		BlockedBloomFilter<T>[] filters = newArray(count);
+		for (int i = 0; i < count; i++)
+			filters[i] = BlockedBloomFilter.read(in, first, second);
+
+		return new ScalableBloomFilter<T>(errorRate, initialCapacity, filters, first, second);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> BlockedBloomFilter<T>[] newArray(int size) {
+		return new BlockedBloomFilter[size];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ScalableBloomFilter-[%d filters, %d KB, count=%d]", filters.length,
+				getBitCount() / 8 / 1024, getCount());
+	}
+}
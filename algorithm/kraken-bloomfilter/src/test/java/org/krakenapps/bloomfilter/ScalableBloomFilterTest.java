@@ -0,0 +1,119 @@
+package org.krakenapps.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+	@SuppressWarnings("unchecked")
+	private HashFunction<String> first = GeneralHashFunction.stringHashFunctions[2];
+	@SuppressWarnings("unchecked")
+	private HashFunction<String> second = GeneralHashFunction.stringHashFunctions[1];
+
+	@Test
+	public void testGrowth() {
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.01, 1000, first, second);
+		for (int i = 0; i < 20000; i++)
+			filter.add("key" + i);
+
+		assertTrue(filter.getFilterCount() > 1);
+		for (int i = 0; i < 20000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 20000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		assertTrue("false positive count: " + count, count < 20000 * 0.01 * 2);
+	}
+
+	@Test
+	public void testBlockedFalsePositiveRate() {
+		for (double rate : new double[] { 0.01, 0.001, 0.0001 }) {
+			BlockedBloomFilter<String> filter = new BlockedBloomFilter<String>(rate, 100000, first, second);
+			for (int i = 0; i < 100000; i++)
+				filter.add("key" + i);
+
+			double measured = falsePositiveRate(filter, null);
+			assertTrue("rate " + rate + ", measured " + measured, measured < rate);
+		}
+	}
+
+	@Test
+	public void testScalableFalsePositiveRate() {
+		// total rate of chained filters stays under given rate
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.001, 1000, first, second);
+		for (int i = 0; i < 100000; i++)
+			filter.add("key" + i);
+
+		assertTrue(filter.getFilterCount() > 5);
+		double measured = falsePositiveRate(null, filter);
+		assertTrue("measured " + measured, measured < 0.001);
+	}
+
+	private double falsePositiveRate(BlockedBloomFilter<String> blocked, ScalableBloomFilter<String> scalable) {
+		int probes = 1000000;
+		int count = 0;
+		for (int i = 0; i < probes; i++) {
+			String key = "other" + i;
+			if (blocked != null ? blocked.contains(key) : scalable.contains(key))
+				count++;
+		}
+		return (double) count / probes;
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.01, 100, first, second);
+		for (int i = 0; i < 1000; i++)
+			filter.add("key" + i);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		filter.writeTo(bos);
+		ScalableBloomFilter<String> loaded = ScalableBloomFilter.readFrom(new ByteArrayInputStream(bos.toByteArray()),
+				first, second);
+
+		assertEquals(filter.getFilterCount(), loaded.getFilterCount());
+		assertEquals(filter.getCount(), loaded.getCount());
+		for (int i = 0; i < 1000; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+
+	@Test
+	public void testBlockedUnion() {
+		BlockedBloomFilter<String> f1 = new BlockedBloomFilter<String>(0.01, 1000, first, second);
+		BlockedBloomFilter<String> f2 = new BlockedBloomFilter<String>(0.01, 1000, first, second);
+		f1.add("a");
+		f2.add("b");
+		assertFalse(f1.contains("b"));
+
+		f1.union(f2);
+		assertTrue(f1.contains("a"));
+		assertTrue(f1.contains("b"));
+	}
+
+	@Test
+	public void testCountingRemove() throws IOException {
+		CountingBloomFilter<String> filter = new CountingBloomFilter<String>(0.01, 1000, first, second);
+		for (int i = 0; i < 100; i++)
+			filter.add("key" + i);
+
+		assertTrue(filter.remove("key0"));
+		assertFalse(filter.contains("key0"));
+		assertFalse(filter.remove("key0"));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		filter.writeTo(bos);
+		CountingBloomFilter<String> loaded = CountingBloomFilter.readFrom(new ByteArrayInputStream(bos.toByteArray()),
+				first, second);
+		for (int i = 1; i < 100; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.btree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.krakenapps.btree.types.IntegerValue;
+
+/**
+ * Builds btree file from rows sorted by key. Leaf pages are filled up to fill
+ * factor and written sequentially, and index pages are built bottom-up level
+ * by level. Pages are written once except for upper page links, so bulk load
+ * is much faster than one-at-a-time inserts and leaves free space for later
+ * inserts.
+ *
+ * Smallest key of each page of current level is kept in memory until upper
+ * level is built.
+ *
+ * @author xeraph
+ *
+ */
+public class BtreeBuilder {
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	private File file;
+	private Schema schema;
+	private int usableSize;
+	private double fillFactor;
+	private RandomAccessFile raf;
+	private int nextId = 1;
+
+	private Page leaf;
+	private RowKey lastKey;
+	private List<Child> leaves = new ArrayList<Child>();
+	private long count;
+	private boolean built;
+
+	public BtreeBuilder(File file, Schema schema) throws IOException {
+		this(file, schema, DEFAULT_FILL_FACTOR);
+	}
+
+	public BtreeBuilder(File file, Schema schema, double fillFactor) throws IOException {
+		if (fillFactor <= 0 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor should be in (0, 1]: " + fillFactor);
+
+		PageFile pf = PageFile.create(file, schema);
+		this.schema = pf.getSchema();
+		this.schema.setRowValueFactory(schema.getRowValueFactory());
+		pf.close();
+
+		this.file = file;
+		this.usableSize = this.schema.getPageSize() - Page.PAGE_HEADER_SIZE;
+		this.fillFactor = fillFactor;
+		this.raf = new RandomAccessFile(file, "rw");
+
+		// discard old pages, keep file header and empty root page
+		raf.setLength(PageFile.FILE_HEADER_SIZE + this.schema.getPageSize());
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Appends row. Key should be equal to or larger than previous key.
+	 */
+	public void add(RowKey key, RowEntry value) throws IOException {
+		if (built)
+			throw new IllegalStateException("already built");
+
+		if (lastKey != null && key.compareTo(lastKey) < 0)
+			throw new IllegalArgumentException("key is not sorted: " + key + " after " + lastKey);
+
+		if (leaf == null)
+			leaf = newPage(PageType.LEAF, null);
+		else if (isFull(leaf))
+			leaf = closeLeaf();
+
+		if (!leaf.insert(key, value)) {
+			if (leaf.getRecordCount() > 0)
+				leaf = closeLeaf();
+
+			if (!leaf.insert(key, value))
+				throw new IllegalArgumentException("too large row for page size " + schema.getPageSize() + ": " + key);
+		}
+
+		lastKey = key;
+		count++;
+	}
+
+	/**
+	 * Writes remaining pages and opens built btree.
+	 */
+	public Btree build() throws IOException {
+		if (built)
+			throw new IllegalStateException("already built");
+
+		built = true;
+		int root;
+		try {
+			// empty tree has empty root leaf
+			if (leaf == null)
+				return new BtreeImpl(file);
+
+			write(leaf);
+			leaves.add(new Child(leaf.getNumber(), leaf.getKey(0)));
+			leaf = null;
+
+			List<Child> level = leaves;
+			while (level.size() > 1)
+				level = buildIndexLevel(level);
+
+			root = level.get(0).number;
+			leaves = null;
+		} finally {
+			raf.close();
+		}
+
+		PageFile pf = new PageFile(file);
+		try {
+			pf.setRootPage(root);
+		} finally {
+			pf.close();
+		}
+
+		return new BtreeImpl(file);
+	}
+
+	private Page closeLeaf() throws IOException {
+		Page next = newPage(PageType.LEAF, leaf);
+		write(leaf);
+		leaves.add(new Child(leaf.getNumber(), leaf.getKey(0)));
+		return next;
+	}
+
+	private List<Child> buildIndexLevel(List<Child> children) throws IOException {
+		List<Child> parents = new ArrayList<Child>();
+
+		// previous page is written after last page is balanced
+		Page prev = null;
+		int prevLastChild = 0;
+		RowKey prevLastKey = null;
+
+		Page page = newPage(PageType.INDEX, null);
+		RowKey pageMin = children.get(0).smallestKey;
+		int lastChild = 0;
+		RowKey lastKey = null;
+
+		// every child except rightmost one is linked by smallest key of next
+		// child
+		Child pending = children.get(0);
+		setUpperPage(pending.number, page.getNumber());
+
+		for (int i = 1; i < children.size(); i++) {
+			Child c = children.get(i);
+			boolean added = !isFull(page) && page.insert(c.smallestKey, new IntegerValue(pending.number));
+			if (added) {
+				lastChild = pending.number;
+				lastKey = c.smallestKey;
+			} else {
+				if (page.getRecordCount() == 0)
+					throw new IllegalArgumentException("too large key for page size " + schema.getPageSize());
+
+				page.setRightChildPage(pending.number);
+				if (prev != null)
+					write(prev);
+
+				parents.add(new Child(page.getNumber(), pageMin));
+				prev = page;
+				prevLastChild = lastChild;
+				prevLastKey = lastKey;
+
+				page = newPage(PageType.INDEX, page);
+				pageMin = c.smallestKey;
+			}
+
+			pending = c;
+			setUpperPage(c.number, page.getNumber());
+		}
+
+		page.setRightChildPage(pending.number);
+
+		// move last link of previous page, so that every page has key
+		if (page.getRecordCount() == 0 && prev != null && prev.getRecordCount() >= 2) {
+			int moved = prev.getRightChildPage();
+			prev.delete(prev.getRecordCount() - 1);
+			prev.setRightChildPage(prevLastChild);
+
+			page.insert(pageMin, new IntegerValue(moved));
+			pageMin = prevLastKey;
+			setUpperPage(moved, page.getNumber());
+		}
+
+		if (prev != null)
+			write(prev);
+
+		write(page);
+		parents.add(new Child(page.getNumber(), pageMin));
+		return parents;
+	}
+
+	private boolean isFull(Page page) {
+		return usableSize - page.getFreeSpace() >= usableSize * fillFactor;
+	}
+
+	private Page newPage(int flag, Page left) {
+		byte[] b = new byte[schema.getPageSize()];
+		b[1] = (byte) flag;
+
+		Page page = new Page(nextId++, schema, b);
+		if (left != null) {
+			left.setRightPage(page.getNumber());
+			page.setLeftPage(left.getNumber());
+		}
+		return page;
+	}
+
+	private void write(Page page) throws IOException {
+		raf.seek(offsetOf(page.getNumber()));
+		raf.write(page.getData());
+	}
+
+	private void setUpperPage(int pageNumber, int upperPageNumber) throws IOException {
+		// upper page link is at 16 of page header
+		raf.seek(offsetOf(pageNumber) + 16);
+		raf.writeInt(upperPageNumber);
+	}
+
+	private long offsetOf(int pageNumber) {
+		return PageFile.FILE_HEADER_SIZE + (long) (pageNumber - 1) * schema.getPageSize();
+	}
+
+	private static class Child {
+		private int number;
+		private RowKey smallestKey;
+
+		public Child(int number, RowKey smallestKey) {
+			this.number = number;
+			this.smallestKey = smallestKey;
+		}
+	}
+}
@@ -18,6 +18,9 @@ package org.krakenapps.btree;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.krakenapps.btree.types.IntegerValue;
 import org.slf4j.Logger;
@@ -29,12 +32,36 @@ import org.slf4j.LoggerFactory;
  *  * ... 
  */
 
+/**
+ * Lookups and cursors run concurrently using latch coupling. Readers hold
+ * read latch of parent until read latch of child is acquired, and never wait
+ * for a latch while holding another one. If child is busy, reader releases
+ * all latches, waits for the child and restarts from root.
+ *
+ * Writers are serialized by write lock. Insert descends like reader and write
+ * latches leaf page only. If leaf page should be split, insert restarts and
+ * write latches whole path from root. Writer may wait for a latch in any
+ * order, because readers never wait while holding a latch.
+ *
+ * Open cursor holds read latch of its current page, so writer of that page
+ * waits until cursor moves or is closed. Close cursor before writing in the
+ * same thread.
+ *
+ * @author xeraph
+ *
+ */
 public class BtreeImpl implements CursorCallback, Btree {
 	private final Logger logger = LoggerFactory.getLogger(BtreeImpl.class.getName());
 
 	private PageManager pageManager;
 	private PageFile pf;
 
+	// serializes insert, delete and sync
+	private ReentrantLock writeLock = new ReentrantLock();
+
+	// write latched by current writer, guarded by write lock
+	private List<Page> latchedPages = new ArrayList<Page>();
+
 	public static Btree create(File file, Schema schema) throws IOException {
 		PageFile pf = PageFile.create(file, schema);
 		pf.close();
@@ -42,8 +69,16 @@ public class BtreeImpl implements CursorCallback, Btree {
 	}
 
 	public BtreeImpl(File file) throws IOException {
+		this(file, PageManager.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param cacheSize
+	 *            the max page count of buffer pool
+	 */
+	public BtreeImpl(File file, int cacheSize) throws IOException {
 		this.pf = new PageFile(file);
-		this.pageManager = new PageManager(pf.getSchema(), pf);
+		this.pageManager = new PageManager(pf.getSchema(), pf, cacheSize);
 	}
 
 	@Override
@@ -63,45 +98,101 @@ public class BtreeImpl implements CursorCallback, Btree {
 
 	@Override
 	public Cursor openCursor(int order) throws IOException {
-		Page p = pageManager.get(pf.getRootPage());
+		try {
+			return openCursorAt(order);
+		} finally {
+			pageManager.release();
+		}
+	}
 
-		if (order == Cursor.ASC) {
-			// find leftmost page in ascending
-			while (!p.getFlag(PageType.LEAF)) {
-				int left = ((IntegerValue) p.getValue(0)).getValue();
-				p = pageManager.get(left);
-			}
+	private Cursor openCursorAt(int order) throws IOException {
+		if (order != Cursor.ASC && order != Cursor.DESC)
+			throw new IllegalArgumentException("invalid sort order: " + order);
 
-			CursorContext context = new CursorContext(this, p, 0, true, null);
-			context.addListener(this);
-			return new Cursor(context);
-		} else if (order == Cursor.DESC) {
-			// find rightmost page in descending
-			while (!p.getFlag(PageType.LEAF)) {
-				if (p.getFlag(PageType.INDEX) && p.getRightChildPage() != 0)
-					p = pageManager.get(p.getRightChildPage());
-			}
+		Page p = null;
+		while (p == null) {
+			p = latchRoot();
+
+			// find leftmost page in ascending, rightmost page in descending
+			while (p != null && !p.getFlag(PageType.LEAF)) {
+				int child = 0;
+				if (order == Cursor.ASC)
+					child = ((IntegerValue) p.getValue(0)).getValue();
+				else
+					child = p.getRightChildPage();
 
-			CursorContext context = new CursorContext(this, p, p.getRecordCount() - 1, false, null);
-			context.addListener(this);
-			return new Cursor(context);
+				p = latchChild(p, child);
+			}
 		}
 
-		throw new IllegalArgumentException("invalid sort order: " + order);
+		int slot = order == Cursor.ASC ? 0 : p.getRecordCount() - 1;
+		return newCursor(p, slot, order == Cursor.ASC, null);
 	}
 
 	@Override
 	public Cursor openCursor(RowKey searchKey, int order) throws IOException {
-		return get(pf.getRootPage(), searchKey, order == Cursor.ASC);
+		try {
+			return search(searchKey, order == Cursor.ASC);
+		} finally {
+			pageManager.release();
+		}
 	}
 
 	@Override
 	public void insert(RowKey key, RowEntry value) throws IOException {
-		Page root = pageManager.get(pf.getRootPage());
+		writeLock.lock();
+		try {
+			if (!insertLeaf(key, value)) {
+				unlatchAll();
+				insertRoot(key, value);
+			}
+		} finally {
+			unlatchAll();
+			pageManager.release();
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts to leaf page if split is not required. Index pages are read
+	 * latched like lookup, and only leaf page is write latched.
+	 *
+	 * @return false if leaf page should be split
+	 */
+	private boolean insertLeaf(RowKey key, RowEntry value) throws IOException {
+		Page p = null;
+		while (true) {
+			if (p == null) {
+				p = latchRoot();
+				if (p.getFlag(PageType.LEAF)) {
+					p.getLatch().readLock().unlock();
+					return false;
+				}
+			}
+
+			int childNumber = findChild(p, key);
+
+			// page type is changed by writer only
+			Page child = pageManager.get(childNumber);
+			if (child == null)
+				throw new IOException("page not found: " + childNumber);
+
+			if (child.getFlag(PageType.LEAF)) {
+				latch(child);
+				p.getLatch().readLock().unlock();
+				return child.insert(key, value);
+			}
+
+			p = latchChild(p, childNumber);
+		}
+	}
+
+	private void insertRoot(RowKey key, RowEntry value) throws IOException {
+		Page root = latch(pageManager.get(pageManager.getRootPage()));
 		Page newPage = insert(root, key, value);
 		if (newPage != null) {
 			// create new root
-			Page newRoot = pageManager.allocate(PageType.INDEX);
+			Page newRoot = latch(pageManager.allocate(PageType.INDEX));
 			RowKey smallestKey = newPage.getKey(0);
 			newRoot.insert(smallestKey, new IntegerValue(root.getNumber()));
 			newRoot.setRightChildPage(newPage.getNumber());
@@ -110,7 +201,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 			root.setUpperPage(newRootPageNumber);
 			newPage.setUpperPage(newRootPageNumber);
 
-			// change root pointer
+			// change root pointer before old root is unlatched
 			pageManager.setRootPage(newRootPageNumber);
 		}
 	}
@@ -129,20 +220,24 @@ public class BtreeImpl implements CursorCallback, Btree {
 		if (key == null)
 			throw new IllegalArgumentException("key must not be null");
 
-		Cursor cursor = openCursor(key, Cursor.ASC);
-		if (cursor == null)
-			return;
-
+		writeLock.lock();
 		try {
-			cursor.delete();
-		} finally {
-			if (cursor != null)
+			Cursor cursor = openCursor(key, Cursor.ASC);
+			if (cursor == null)
+				return;
+
+			try {
+				cursor.delete();
+			} finally {
 				cursor.close();
+			}
+		} finally {
+			writeLock.unlock();
 		}
 	}
 
 	private Page split(int pageType, Page page, RowKey key, RowEntry value) throws IOException {
-		Page newPage = pageManager.allocate(pageType);
+		Page newPage = latch(pageManager.allocate(pageType));
 		redistribute(page, newPage);
 
 		RowKey smallestKey = newPage.getKey(0);
@@ -153,7 +248,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 
 		// set left/right link
 		if (page.getRightPage() != 0) {
-			Page right = pageManager.get(page.getRightPage());
+			Page right = latch(pageManager.get(page.getRightPage()));
 			newPage.setRightPage(right.getNumber());
 			right.setLeftPage(newPage.getNumber());
 		}
@@ -191,25 +286,15 @@ public class BtreeImpl implements CursorCallback, Btree {
 	}
 
 	private Page insertIndex(Page page, RowKey key, RowEntry value) throws IOException {
-		int nextPageNumber = -1;
-
-		// traverse and find page
-		for (int i = 0; i < page.getRecordCount(); i++) {
-			RowKey k = page.getKey(i);
-			if (key.compareTo(k) <= 0) {
-				nextPageNumber = ((IntegerValue) page.getValue(i)).getValue();
-				break;
-			}
-		}
-
+		int nextPageNumber = findChild(page, key);
 		int currentRightChildPageNumber = page.getRightChildPage();
-		if (nextPageNumber == -1)
-			nextPageNumber = currentRightChildPageNumber;
 
 		Page nextPage = pageManager.get(nextPageNumber);
 		if (nextPage == null)
 			throw new IOException("page not found: " + nextPageNumber);
 
+		latch(nextPage);
+
 		// try insert to leaf page
 		Page newPage = insert(nextPage, key, value);
 		if (newPage != null) {
@@ -256,7 +341,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 					page.setRightChildPage(newRightChildPageNumber);
 					splitPage.setRightChildPage(currentRightChildPageNumber);
 
-					// update up link
+					// update up link (not latched, readers never use it)
 					Page currentRightChildPage = pageManager.get(currentRightChildPageNumber);
 					currentRightChildPage.setUpperPage(splitPage.getNumber());
 
@@ -294,7 +379,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 			RowEntry value = oldPage.getValue(i);
 			newPage.insert(key, value);
 
-			// update up link
+			// update up link (not latched, readers never use it)
 			if (newPage.getFlag() == PageType.INDEX) {
 				Page child = pageManager.get(((IntegerValue) value).getValue());
 				child.setUpperPage(newPage.getNumber());
@@ -310,7 +395,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 	public RowEntry get(RowKey searchKey) throws IOException {
 		Cursor cursor = null;
 		try {
-			cursor = get(pf.getRootPage(), searchKey, true);
+			cursor = search(searchKey, true);
 			if (cursor == null)
 				return null;
 
@@ -318,77 +403,205 @@ public class BtreeImpl implements CursorCallback, Btree {
 		} finally {
 			if (cursor != null)
 				cursor.close();
+
+			pageManager.release();
 		}
 	}
 
-	private Cursor get(int pageNumber, RowKey searchKey, boolean asc) throws IOException {
-		Page page = pageManager.get(pageNumber);
+	private Cursor search(RowKey searchKey, boolean asc) throws IOException {
+		while (true) {
+			Page page = latchRoot();
+			while (page != null && page.getFlag(PageType.INDEX))
+				page = latchChild(page, findChild(page, searchKey));
 
-		if (page.getFlag(PageType.LEAF)) {
-			return findFirstKey(page, searchKey, asc);
-		} else if (page.getFlag(PageType.INDEX)) {
-			for (int i = 0; i < page.getRecordCount(); i++) {
-				RowKey k = page.getKey(i);
-				if (searchKey.compareTo(k) <= 0) {
-					int nextPageNumber = ((IntegerValue) page.getValue(i)).getValue();
-					return get(nextPageNumber, searchKey, asc);
-				}
+			if (page == null)
+				continue;
+
+			if (!page.getFlag(PageType.LEAF)) {
+				page.getLatch().readLock().unlock();
+				return null;
 			}
 
-			return get(page.getRightChildPage(), searchKey, asc);
-		}
+			Position position = findFirstKey(page, searchKey, asc);
+			if (position == null)
+				return null;
 
-		return null;
+			if (position != Position.RETRY)
+				return newCursor(position.page, position.slot, asc, searchKey);
+		}
 	}
 
-	private Cursor findFirstKey(Page page, RowKey searchKey, boolean asc) throws IOException {
-		int recordCount = page.getRecordCount();
+	private int findChild(Page page, RowKey key) {
+		for (int i = 0; i < page.getRecordCount(); i++) {
+			RowKey k = page.getKey(i);
+			if (key.compareTo(k) <= 0)
+				return ((IntegerValue) page.getValue(i)).getValue();
+		}
+
+		return page.getRightChildPage();
+	}
 
+	/**
+	 * Finds first key from read latched leaf page, and moves right while
+	 * coupling read latches. Found page remains read latched.
+	 *
+	 * @return found position, null if not found, or RETRY if right page is
+	 *         busy
+	 */
+	private Position findFirstKey(Page page, RowKey searchKey, boolean asc) throws IOException {
 		Page lastPage = null;
 		int lastSlot = -1;
 
 		while (true) {
+			int recordCount = page.getRecordCount();
 			for (int i = 0; i < recordCount; i++) {
 				RowKey key = page.getKey(i);
 				int ret = key.compareTo(searchKey);
 				if (ret == 0) {
-					if (asc) {
-						CursorContext context = new CursorContext(this, page, i, asc, searchKey);
-						context.addListener(this);
-						return new Cursor(context);
-					} else {
-						// do not return immediately, find all duplicates in
-						// descending mode
-						lastPage = page;
-						lastSlot = i;
-					}
+					if (asc)
+						return new Position(page, i);
+
+					// do not return immediately, find all duplicates in
+					// descending mode
+					if (lastPage != null && lastPage != page)
+						lastPage.getLatch().readLock().unlock();
+
+					lastPage = page;
+					lastSlot = i;
 				} else if (ret > 0) {
 					// if key is larger than search key, you should stop here
 					if (!asc && lastPage != null && lastSlot != -1) {
-						CursorContext context = new CursorContext(this, lastPage, lastSlot, asc, searchKey);
-						context.addListener(this);
-						return new Cursor(context);
-					} else
-						return null;
+						if (lastPage != page)
+							page.getLatch().readLock().unlock();
+
+						return new Position(lastPage, lastSlot);
+					}
+
+					unlatch(page, lastPage);
+					return null;
 				}
 			}
 
-			if (page.getRightPage() == 0)
+			if (page.getRightPage() == 0) {
+				unlatch(page, lastPage);
 				return null;
+			}
+
+			Page right = pageManager.get(page.getRightPage());
+			if (right == null || !right.getLatch().readLock().tryLock()) {
+				unlatch(page, lastPage);
+				if (right != null)
+					waitLatch(right);
+
+				return Position.RETRY;
+			}
+
+			if (page != lastPage)
+				page.getLatch().readLock().unlock();
+
+			page = right;
+		}
+	}
+
+	private Cursor newCursor(Page page, int slot, boolean asc, RowKey searchKey) {
+		CursorContext context = new CursorContext(this, page, slot, asc, searchKey);
+		context.addListener(this);
+		return new Cursor(context);
+	}
+
+	/**
+	 * Returns read latched root page. Root can be replaced while waiting for
+	 * the latch, so root pointer is checked again.
+	 */
+	private Page latchRoot() throws IOException {
+		while (true) {
+			int root = pageManager.getRootPage();
+			Page p = pageManager.get(root);
+			if (p == null)
+				continue;
+
+			p.getLatch().readLock().lock();
+			if (root == pageManager.getRootPage() && p.getFlag() != 0)
+				return p;
+
+			p.getLatch().readLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves read latch from parent to child. If child is write latched, parent
+	 * is released before waiting, and caller should restart from root since
+	 * child may be split or purged meanwhile.
+	 *
+	 * @return read latched child, or null if caller should restart
+	 */
+	private Page latchChild(Page parent, int childNumber) throws IOException {
+		Page child = pageManager.get(childNumber);
+		if (child != null && child.getLatch().readLock().tryLock()) {
+			parent.getLatch().readLock().unlock();
+			if (child.getFlag() != 0)
+				return child;
+
+			child.getLatch().readLock().unlock();
+			return null;
+		}
+
+		parent.getLatch().readLock().unlock();
+		if (child != null)
+			waitLatch(child);
 
-			page = pageManager.get(page.getRightPage());
+		return null;
+	}
+
+	private void waitLatch(Page page) {
+		page.getLatch().readLock().lock();
+		page.getLatch().readLock().unlock();
+	}
+
+	private void unlatch(Page page, Page lastPage) {
+		page.getLatch().readLock().unlock();
+		if (lastPage != null && lastPage != page)
+			lastPage.getLatch().readLock().unlock();
+	}
+
+	/**
+	 * Write latches page until current write operation ends. Caller should
+	 * hold write lock.
+	 */
+	private Page latch(Page page) {
+		if (page != null && !page.getLatch().isWriteLockedByCurrentThread()) {
+			page.getLatch().writeLock().lock();
+			latchedPages.add(page);
 		}
+		return page;
+	}
+
+	private void unlatchAll() {
+		for (Page page : latchedPages)
+			page.getLatch().writeLock().unlock();
+
+		latchedPages.clear();
 	}
 
 	@Override
 	public void sync() throws IOException {
-		pageManager.sync();
+		writeLock.lock();
+		try {
+			pageManager.sync();
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
-		sync();
-		pf.close();
+		writeLock.lock();
+		try {
+			sync();
+			pf.close();
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	//
@@ -401,6 +614,42 @@ public class BtreeImpl implements CursorCallback, Btree {
 		int slot = context.getSlot();
 		RowKey currentKey = page.getKey(slot);
 
+		// read latch cannot be upgraded, and writer may be waiting for it
+		page.getLatch().readLock().unlock();
+		writeLock.lock();
+		try {
+			latch(page);
+
+			// record may be moved by other writer meanwhile
+			if (page.getFlag() == 0 || !currentKey.equals(page.getKey(slot))) {
+				slot = page.getFlag() != 0 ? page.findSlot(currentKey) : -1;
+				if (slot < 0) {
+					Cursor cursor = search(currentKey, true);
+					if (cursor == null)
+						return;
+
+					CursorContext found = cursor.getContext();
+					context.setPosition(found.getPage(), found.getSlot());
+					cursor.close();
+
+					page = latch(context.getPage());
+					slot = context.getSlot();
+				} else {
+					context.setPosition(page, slot);
+				}
+			}
+
+			delete(page, slot, currentKey);
+		} finally {
+			// downgrade to read latch for cursor
+			context.getPage().getLatch().readLock().lock();
+			unlatchAll();
+			pageManager.release();
+			writeLock.unlock();
+		}
+	}
+
+	private void delete(Page page, int slot, RowKey currentKey) throws IOException {
 		// delete slot
 		page.delete(slot);
 
@@ -409,7 +658,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 		if (upper == 0)
 			return;
 
-		Page upperPage = pageManager.get(upper);
+		Page upperPage = latch(pageManager.get(upper));
 		Page currentPage = page;
 
 		// record count after deletion
@@ -435,7 +684,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 
 				currentKey = upperPage.getKey(0);
 				currentPage = upperPage;
-				upperPage = pageManager.get(upperPage.getUpperPage());
+				upperPage = latch(pageManager.get(upperPage.getUpperPage()));
 			}
 		}
 
@@ -466,7 +715,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 				break;
 			}
 
-			Page upperPage = pageManager.get(upPage);
+			Page upperPage = latch(pageManager.get(upPage));
 			int upperSlot = upperPage.findSlot(currentKey);
 
 			if (upperSlot < 0) {
@@ -479,7 +728,7 @@ public class BtreeImpl implements CursorCallback, Btree {
 				// duplicated keys)
 				Page right = null;
 				if (rightPage != 0) {
-					right = pageManager.get(rightPage);
+					right = latch(pageManager.get(rightPage));
 					RowKey smallest = right.getKey(0);
 
 					// if first key of upper keys is larger than smallest of
@@ -511,17 +760,29 @@ public class BtreeImpl implements CursorCallback, Btree {
 		// unlink between sibling pages
 		Page leftPage = null;
 		if (page.getLeftPage() != 0) {
-			leftPage = pageManager.get(page.getLeftPage());
+			leftPage = latch(pageManager.get(page.getLeftPage()));
 			leftPage.setRightPage(page.getRightPage());
 		}
 
 		Page rightPage = null;
 		if (page.getRightPage() != 0) {
-			rightPage = pageManager.get(page.getRightPage());
+			rightPage = latch(pageManager.get(page.getRightPage()));
 			rightPage.setLeftPage(page.getLeftPage());
 		}
 
 		// purge page (add to free page list)
 		pageManager.purge(page.getNumber());
 	}
+
+	private static class Position {
+		private static final Position RETRY = new Position(null, -1);
+
+		private Page page;
+		private int slot;
+
+		public Position(Page page, int slot) {
+			this.page = page;
+			this.slot = slot;
+		}
+	}
 }
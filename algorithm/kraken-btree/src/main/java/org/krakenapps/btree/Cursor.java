@@ -27,6 +27,10 @@ public class Cursor {
 		this.context = context;
 	}
 
+	CursorContext getContext() {
+		return context;
+	}
+
 	public RowKey getKey() {
 		Page page = context.getPage();
 		int slot = context.getSlot();
@@ -55,6 +59,6 @@ public class Cursor {
 	}
 
 	public void close() {
-		// do nothing yet.
+		context.close();
 	}
 }
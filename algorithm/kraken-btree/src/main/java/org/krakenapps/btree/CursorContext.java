@@ -11,15 +11,23 @@ public class CursorContext {
 	private int slot;
 	private boolean asc;
 	private RowKey searchKey;
+	private boolean closed;
 
 	private Set<CursorCallback> callbacks = new HashSet<CursorCallback>();
 
+	/**
+	 * Read latch of page should be held by caller, and it is released when
+	 * cursor is closed. Cursor should be used by the thread which opened it.
+	 */
 	public CursorContext(Btree btree, Page page, int slot, boolean asc, RowKey searchKey) {
 		this.btree = btree;
 		this.page = page;
 		this.slot = slot;
 		this.asc = asc;
 		this.searchKey = searchKey;
+
+		// current page should not be evicted while cursor is open
+		btree.getPageManager().pin(page);
 	}
 
 	public RowKey getSearchKey() {
@@ -38,6 +46,20 @@ public class CursorContext {
 		return slot;
 	}
 
+	/**
+	 * Moves cursor to the record which is relocated by concurrent write. Read
+	 * latch of new page should be held by caller.
+	 */
+	void setPosition(Page newPage, int newSlot) {
+		if (newPage != page) {
+			PageManager pageManager = btree.getPageManager();
+			pageManager.pin(newPage);
+			pageManager.unpin(page);
+			page = newPage;
+		}
+		slot = newSlot;
+	}
+
 	public boolean isAsc() {
 		return asc;
 	}
@@ -60,7 +82,9 @@ public class CursorContext {
 			if (page.getRightPage() == 0)
 				return false;
 
-			page = btree.getPageManager().get(page.getRightPage());
+			if (!moveTo(page.getRightPage(), true))
+				return false;
+
 			slot = 0;
 		} else {
 			slot++;
@@ -75,7 +99,9 @@ public class CursorContext {
 			if (page.getLeftPage() == 0)
 				return false;
 
-			page = btree.getPageManager().get(page.getLeftPage());
+			if (!moveTo(page.getLeftPage(), false))
+				return false;
+
 			slot = page.getRecordCount() - 1;
 		} else {
 			slot--;
@@ -84,4 +110,72 @@ public class CursorContext {
 		return true;
 	}
 
+	private boolean moveTo(int pageNumber, boolean right) throws IOException {
+		PageManager pageManager = btree.getPageManager();
+		Page prev = page;
+		try {
+			Page next = pageManager.get(pageNumber);
+			if (next == null)
+				return false;
+
+			boolean coupled = step(next);
+
+			// skip pages purged while latch was released
+			while (page.getFlag() == 0) {
+				int number = right ? page.getRightPage() : page.getLeftPage();
+				next = number != 0 ? pageManager.get(number) : null;
+				if (next == null)
+					return false;
+
+				step(next);
+			}
+
+			// left page could be split while latch was released, find the
+			// page just before previous page
+			if (!coupled && !right) {
+				while (prev.getFlag() != 0 && page.getRightPage() != prev.getNumber() && page.getRightPage() != 0) {
+					next = pageManager.get(page.getRightPage());
+					if (next == null)
+						return false;
+
+					step(next);
+				}
+			}
+
+			return true;
+		} finally {
+			pageManager.release();
+		}
+	}
+
+	/**
+	 * Moves read latch and pin to the page. Latch of current page is released
+	 * before waiting for busy page, because writer may be waiting for current
+	 * page while holding the busy page.
+	 *
+	 * @return true if latch was coupled without waiting
+	 */
+	private boolean step(Page next) {
+		PageManager pageManager = btree.getPageManager();
+		pageManager.pin(next);
+
+		boolean coupled = next.getLatch().readLock().tryLock();
+		page.getLatch().readLock().unlock();
+		if (!coupled)
+			next.getLatch().readLock().lock();
+
+		pageManager.unpin(page);
+		page = next;
+		return coupled;
+	}
+
+	public void close() {
+		if (closed)
+			return;
+
+		closed = true;
+		page.getLatch().readLock().unlock();
+		btree.getPageManager().unpin(page);
+	}
+
 }
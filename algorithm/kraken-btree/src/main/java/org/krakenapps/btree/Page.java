@@ -16,13 +16,16 @@
 
 /*
  * PAGE_HEADER: flag(2), count(2), left(4), right(4), right-child(4), upper(4), 
- * 	            first_freeblock (2), first_record_pos(2), number_of_fragmented_freebytes(2), 
- * +---------------+---------+---------------+-----------------+
- * |PAGE_HEADER(26)|Slots(8n)| unalloc space | Records         |
- * +---------------+---------+---------------+-----------------+
+ * 	            prefix_length (2), first_record_pos(2), number_of_fragmented_freebytes(2), 
+ * +---------------+---------+---------------+-----------------+------------+
+ * |PAGE_HEADER(26)|Slots(8n)| unalloc space | Records         | Key Prefix |
+ * +---------------+---------+---------------+-----------------+------------+
  * 
  * Slots and Records are managed in sorted order.
  * 
+ * If prefix compression is enabled, common prefix of all keys in the page is
+ * stored once at the end of page, and records store key without the prefix.
+ * 
  * Record:
  * +---------------------+----------------------------------+-----+-------+
  * | data length(varlen) | key length or key itself(varlen) | Key | Value |
@@ -56,10 +59,11 @@
 package org.krakenapps.btree;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Page {
 	// (flag, count), left, right, right-child, upper
-	// (first_freeblock, first_recore_pos), (number_of_fragmented_freebytes, )
+	// (prefix_length, first_recore_pos), (number_of_fragmented_freebytes, )
 	public static final int PAGE_HEADER_SIZE = 26;
 	public static final int SLOT_SIZE = 4;
 
@@ -76,6 +80,9 @@ public class Page {
 	private ByteBuffer bb;
 	private byte[] data;
 
+	// read latch for lookup and scan, write latch for modification
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
 	public Page(Schema schema) {
 		this(0, schema, null);
 	}
@@ -100,6 +107,14 @@ public class Page {
 		this.dirty = false;
 	}
 
+	public void markDirty() {
+		this.dirty = true;
+	}
+
+	public ReentrantReadWriteLock getLatch() {
+		return latch;
+	}
+
 	public int getNumber() {
 		return number;
 	}
@@ -113,19 +128,54 @@ public class Page {
 	}
 
 	public boolean insert(RowKey key, RowEntry value) {
+		byte[] keyBytes = key.getBytes();
 		byte[] valueBytes = value.getBytes();
-		int keyLength = key.getBytes().length;
+
+		// prefix is kept as common prefix of all keys, first key is prefix
+		// itself, and key without the prefix shortens prefix
+		int prefixLength = getPrefixLength();
+		if (schema.isPrefixCompression() && getRecordCount() == 0
+				&& keyBytes.length < schema.getPageSize() - PAGE_HEADER_SIZE) {
+			setPrefix(keyBytes, keyBytes.length);
+		} else if (prefixLength > 0 && commonPrefixLength(keyBytes, prefixLength) < prefixLength) {
+			if (!compact(commonPrefixLength(keyBytes, prefixLength)))
+				return false;
+		}
+
+		int slot = findSlotBefore(key) + 1;
+		if (insertRecord(slot, keyBytes, valueBytes))
+			return true;
+
+		if (getRecordCount() == 0)
+			setPrefixLength(0);
+
+		// page is full, try longer prefix
+		if (!schema.isPrefixCompression() || getRecordCount() == 0)
+			return false;
+
+		int longer = keyBytes.length;
+		for (int i = 0; i < getRecordCount() && longer > getPrefixLength(); i++)
+			longer = commonPrefixLength(getKeyBytes(i), longer, keyBytes);
+
+		if (longer <= getPrefixLength() || !compact(longer))
+			return false;
+
+		return insertRecord(slot, keyBytes, valueBytes);
+	}
+
+	private boolean insertRecord(int slot, byte[] keyBytes, byte[] valueBytes) {
+		int prefixLength = getPrefixLength();
+		int keyLength = keyBytes.length - prefixLength;
 		int valueLength = valueBytes.length;
 
 		int recordLength = getRecordHeaderSize(keyLength, valueLength) + keyLength + valueLength;
 		if (!checkFreeSpace(recordLength))
 			return false;
 
-		int before = findSlotBefore(key);
-		int slot = before + 1;
+		int before = slot - 1;
 
-		// calculate new offset
-		int offset = 0;
+		// calculate new offset, key prefix is stored at the end of page
+		int offset = prefixLength;
 		if (before >= 0) {
 			int pos = getSlotPosition(before);
 			int beforeOffset = bb.getShort(pos) & 0xFFFF;
@@ -154,7 +204,8 @@ public class Page {
 
 		recordPos += encodeVarNumber(bb, recordPos, valueLength);
 		recordPos += encodeVarNumber(bb, recordPos, keyLength);
-		recordPos += encodeBytes(bb, recordPos, key.getBytes());
+		System.arraycopy(keyBytes, prefixLength, data, recordPos, keyLength);
+		recordPos += keyLength;
 		recordPos += encodeBytes(bb, recordPos, valueBytes);
 
 		assert initialRecordPos - recordPos != recordLength : "buffer overflow";
@@ -180,9 +231,57 @@ public class Page {
 
 		setRecordCount(recordCount - 1);
 
+		if (recordCount == 1)
+			setPrefixLength(0);
+
 		return true;
 	}
 
+	/**
+	 * Rewrites all records with new key prefix length.
+	 * 
+	 * @return false if records cannot fit in the page
+	 */
+	private boolean compact(int newPrefixLength) {
+		int count = getRecordCount();
+		byte[][] keys = new byte[count][];
+		byte[][] values = new byte[count][];
+
+		int required = newPrefixLength;
+		for (int i = 0; i < count; i++) {
+			keys[i] = getKeyBytes(i);
+			values[i] = getValueBytes(i);
+			int keyLength = keys[i].length - newPrefixLength;
+			required += SLOT_SIZE + getRecordHeaderSize(keyLength, values[i].length) + keyLength + values[i].length;
+		}
+
+		if (required > schema.getPageSize() - PAGE_HEADER_SIZE)
+			return false;
+
+		setRecordCount(0);
+		setPrefix(keys[0], newPrefixLength);
+
+		for (int i = 0; i < count; i++)
+			insertRecord(i, keys[i], values[i]);
+
+		return true;
+	}
+
+	private int commonPrefixLength(byte[] key, int max) {
+		int prefixOffset = schema.getPageSize() - getPrefixLength();
+		int i = 0;
+		while (i < max && i < key.length && key[i] == data[prefixOffset + i])
+			i++;
+		return i;
+	}
+
+	private static int commonPrefixLength(byte[] a, int max, byte[] b) {
+		int i = 0;
+		while (i < max && i < a.length && i < b.length && a[i] == b[i])
+			i++;
+		return i;
+	}
+
 	private boolean checkFreeSpace(int recordLength) {
 		return getFreeSpace() >= (SLOT_SIZE + recordLength);
 	}
@@ -190,7 +289,7 @@ public class Page {
 	public int getFreeSpace() {
 		int count = getRecordCount();
 		if (count == 0)
-			return schema.getPageSize() - PAGE_HEADER_SIZE;
+			return schema.getPageSize() - PAGE_HEADER_SIZE - getPrefixLength();
 
 		int pos = getSlotPosition(count - 1);
 		int offset = bb.getShort(pos) & 0xFFFF;
@@ -259,6 +358,13 @@ public class Page {
 		if (slot >= recordCount || slot < 0)
 			return null;
 
+		return schema.getRowKeyFactory().newKey(getKeyBytes(slot));
+	}
+
+	/**
+	 * @return the key bytes including page key prefix
+	 */
+	private byte[] getKeyBytes(int slot) {
 		int pos = getSlotPosition(slot);
 		int offset = bb.getShort(pos) & 0xFFFF;
 		int length = bb.getShort(pos + 2) & 0xFFFF;
@@ -266,17 +372,23 @@ public class Page {
 		int phyOffset = getPhysicalOffset(offset, length);
 		int valueLength = getVarInt(bb, phyOffset);
 		int keyLength = getVarInt(bb, phyOffset + NumberEncoder.lengthOf(valueLength));
+		int prefixLength = getPrefixLength();
 
-		byte[] key = new byte[keyLength];
-		bb.position(phyOffset + NumberEncoder.lengthOf(keyLength) + NumberEncoder.lengthOf(valueLength));
-		bb.get(key);
-		return schema.getRowKeyFactory().newKey(key);
+		byte[] key = new byte[prefixLength + keyLength];
+		System.arraycopy(data, schema.getPageSize() - prefixLength, key, 0, prefixLength);
+		System.arraycopy(data, phyOffset + NumberEncoder.lengthOf(keyLength) + NumberEncoder.lengthOf(valueLength),
+				key, prefixLength, keyLength);
+		return key;
 	}
 
 	public RowEntry getValue(int slot) {
 		if (slot >= getRecordCount() || slot < 0)
 			return null;
 
+		return schema.getRowValueFactory().newValue(getValueBytes(slot));
+	}
+
+	private byte[] getValueBytes(int slot) {
 		int pos = getSlotPosition(slot);
 		int offset = bb.getShort(pos) & 0xFFFF;
 		int length = bb.getShort(pos + 2) & 0xFFFF;
@@ -291,9 +403,8 @@ public class Page {
 		byte[] b = new byte[valueLength];
 		int valuePosition = phyOffset + NumberEncoder.lengthOf(valueLength) + NumberEncoder.lengthOf(keyLength)
 				+ keyLength;
-		bb.position(valuePosition);
-		bb.get(b);
-		return schema.getRowValueFactory().newValue(b);
+		System.arraycopy(data, valuePosition, b, 0, valueLength);
+		return b;
 	}
 
 	private static int getVarInt(ByteBuffer bb, int phyOffset) {
@@ -344,14 +455,17 @@ public class Page {
 			bb.putShort(0, (short) (getFlag() | type));
 		else
 			bb.putShort(0, (short) (getFlag() & ~type));
+		dirty = true;
 	}
 
 	public void clearAllFlag() {
 		bb.putShort(0, (short) 0);
+		dirty = true;
 	}
 
 	public void setFlag(short flag) {
 		bb.putShort(0, flag);
+		dirty = true;
 	}
 
 	public int getRecordCount() {
@@ -363,6 +477,20 @@ public class Page {
 		dirty = true;
 	}
 
+	public int getPrefixLength() {
+		return bb.getShort(20) & 0xFFFF;
+	}
+
+	private void setPrefix(byte[] key, int length) {
+		System.arraycopy(key, 0, data, schema.getPageSize() - length, length);
+		setPrefixLength(length);
+	}
+
+	private void setPrefixLength(int length) {
+		bb.putShort(20, (short) length);
+		dirty = true;
+	}
+
 	public int getLeftPage() {
 		return bb.getInt(4);
 	}
@@ -30,7 +30,13 @@ public class PageFile {
 	/**
 	 * format marker + page size + root page
 	 */
-	private static final int FILE_HEADER_SIZE = 64;
+	static final int FILE_HEADER_SIZE = 64;
+
+	/**
+	 * last byte of file header
+	 */
+	private static final int FLAGS_OFFSET = FILE_HEADER_SIZE - 1;
+	private static final int FLAG_PREFIX_COMPRESSION = 1;
 	private RandomAccessFile raf;
 	private Schema schema;
 	private int rootPage;
@@ -54,6 +60,9 @@ public class PageFile {
 			for (int i = 0; i < keyCount; i++)
 				raf.write(encodeKeyType(schema.getKeyTypes()[i]));
 
+			raf.seek(FLAGS_OFFSET);
+			raf.write(schema.isPrefixCompression() ? FLAG_PREFIX_COMPRESSION : 0);
+
 			// create root page (force zero padding)
 			raf.seek(FILE_HEADER_SIZE);
 			raf.writeShort(PageType.LEAF);
@@ -142,7 +151,11 @@ public class PageFile {
 			keys[i] = decodeKeyType(raf.read());
 		}
 
+		raf.seek(FLAGS_OFFSET);
+		int flags = raf.read();
+
 		this.schema = new Schema(pageSize, keys);
+		this.schema.setPrefixCompression((flags & FLAG_PREFIX_COMPRESSION) != 0);
 		setupRowKeyFactory(keys);
 	}
 
@@ -16,70 +16,265 @@
 package org.krakenapps.btree;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Fixed size buffer pool of pages. Least recently used page is evicted when
+ * pool is full, and dirty page is written back before eviction.
+ *
+ * Pages returned by get() and allocate() are pinned until release() is called
+ * at the end of btree operation, so that page references held by btree
+ * operation are never evicted. Cursor pins its current page using pin() and
+ * unpin(). If all pages are pinned, pool grows over capacity temporarily.
+ *
+ * Buffer pool is thread-safe and operation pins are kept per thread. Page
+ * contents are guarded by page latches, not by buffer pool.
+ *
+ * @author xeraph
+ *
+ */
 public class PageManager {
+	public static final int DEFAULT_CAPACITY = 1024;
+
 	private Schema schema;
 	private PageFile pf;
 	private int nextId;
-	private Map<Integer, Page> pageMap;
+	private int capacity;
+
+	// access ordered, eldest entry is least recently used
+	private LinkedHashMap<Integer, Frame> frames;
+
+	// pinned by get() and allocate() of each thread, and unpinned by release()
+	private ThreadLocal<List<Frame>> operationPins;
+
+	// pages with positive pin count can be modified at any time
+	private Set<Frame> pinnedFrames;
+
+	// unpinned dirty pages, sync() writes these and pinned pages only
+	private Set<Frame> dirtyFrames;
+
+	private long hitCount;
+	private long missCount;
+	private long evictCount;
+	private long writeCount;
 
 	public PageManager(Schema schema, PageFile pf) throws IOException {
+		this(schema, pf, DEFAULT_CAPACITY);
+	}
+
+	public PageManager(Schema schema, PageFile pf, int capacity) throws IOException {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity should be positive: " + capacity);
+
 		this.schema = schema;
 		this.pf = pf;
 		this.nextId = pf.getPageCount() + 1;
-		this.pageMap = new HashMap<Integer, Page>();
+		this.capacity = capacity;
+		this.frames = new LinkedHashMap<Integer, Frame>(16, 0.75f, true);
+		this.operationPins = new ThreadLocal<List<Frame>>() {
+			@Override
+			protected List<Frame> initialValue() {
+				return new ArrayList<Frame>();
+			}
+		};
+		this.pinnedFrames = new LinkedHashSet<Frame>();
+		this.dirtyFrames = new LinkedHashSet<Frame>();
 	}
 
-	public void setRootPage(int pageNumber) throws IOException {
+	public synchronized void setRootPage(int pageNumber) throws IOException {
 		pf.setRootPage(pageNumber);
 	}
-	
-	public int getRootPage() {
+
+	public synchronized int getRootPage() {
 		return pf.getRootPage();
 	}
 
-	public Page get(int pageNumber) throws IOException {
-		if (pageMap.containsKey(pageNumber)) {
-			Page page = pageMap.get(pageNumber);
-			if (page.getFlag() != 0)
-				return page;
-			else
-				return null;
+	/**
+	 * Returns pinned page, or null if page is purged. Page is unpinned by
+	 * release().
+	 */
+	public synchronized Page get(int pageNumber) throws IOException {
+		Frame frame = frames.get(pageNumber);
+		if (frame != null) {
+			hitCount++;
+		} else {
+			missCount++;
+			evict();
+			frame = new Frame(pf.read(pageNumber));
+			frames.put(pageNumber, frame);
 		}
 
-		Page page = pf.read(pageNumber);
-		pageMap.put(pageNumber, page);
-		return page;
+		if (frame.page.getFlag() == 0)
+			return null;
+
+		pin(frame);
+		operationPins.get().add(frame);
+		return frame.page;
 	}
 
-	public Page allocate(int flag) {
+	/**
+	 * Returns new pinned page. Page is unpinned by release().
+	 */
+	public synchronized Page allocate(int flag) throws IOException {
 		int id = nextId++;
 
 		byte[] b = new byte[schema.getPageSize()];
 		b[1] = (byte) flag;
 
 		Page page = new Page(id, schema, b);
-		pageMap.put(id, page);
+		page.markDirty();
+
+		evict();
+		Frame frame = new Frame(page);
+		frames.put(id, frame);
+
+		pin(frame);
+		operationPins.get().add(frame);
 		return page;
 	}
 
-	public void sync() throws IOException {
-		for (Page p : pageMap.values()) {
-			if (p.isDirty()) {
-				pf.write(p);
-				p.clearDirty();
-			}
+	/**
+	 * Unpins all pages returned by get() and allocate() of current thread since
+	 * last release.
+	 */
+	public synchronized void release() {
+		List<Frame> pins = operationPins.get();
+		for (Frame frame : pins)
+			unpin(frame);
+
+		pins.clear();
+	}
+
+	public synchronized void pin(Page page) {
+		Frame frame = frames.get(page.getNumber());
+		if (frame == null || frame.page != page)
+			throw new IllegalStateException("page is not in buffer pool: " + page.getNumber());
+
+		pin(frame);
+	}
+
+	public synchronized void unpin(Page page) {
+		Frame frame = frames.get(page.getNumber());
+		if (frame == null || frame.page != page)
+			throw new IllegalStateException("page is not in buffer pool: " + page.getNumber());
+
+		unpin(frame);
+	}
+
+	private void pin(Frame frame) {
+		if (frame.pinCount++ == 0)
+			pinnedFrames.add(frame);
+	}
+
+	private void unpin(Frame frame) {
+		if (frame.pinCount <= 0)
+			throw new IllegalStateException("page is not pinned: " + frame.page.getNumber());
+
+		if (--frame.pinCount == 0) {
+			pinnedFrames.remove(frame);
+			if (frame.page.isDirty())
+				dirtyFrames.add(frame);
 		}
 	}
 
-	public void purge(int number) throws IOException {
+	private void evict() throws IOException {
+		if (frames.size() < capacity)
+			return;
+
+		Iterator<Frame> it = frames.values().iterator();
+		while (it.hasNext() && frames.size() >= capacity) {
+			Frame frame = it.next();
+			if (frame.pinCount > 0)
+				continue;
+
+			if (frame.page.isDirty())
+				write(frame.page);
+
+			dirtyFrames.remove(frame);
+			it.remove();
+			evictCount++;
+		}
+	}
+
+	public synchronized void sync() throws IOException {
+		for (Frame frame : dirtyFrames)
+			if (frame.page.isDirty())
+				write(frame.page);
+
+		for (Frame frame : pinnedFrames)
+			if (frame.page.isDirty())
+				write(frame.page);
+
+		dirtyFrames.clear();
+	}
+
+	private void write(Page page) throws IOException {
+		pf.write(page);
+		page.clearDirty();
+		writeCount++;
+	}
+
+	/**
+	 * Clears page flag. Left and right links are kept, so that concurrent
+	 * cursor which was waiting for purged page can move over it.
+	 */
+	public synchronized void purge(int number) throws IOException {
 		Page p = get(number);
 		p.clearAllFlag();
-		p.setLeftPage(0);
-		p.setRightPage(0);
 		p.setRightChildPage(0);
 		p.setUpperPage(0);
 	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int getCachedPageCount() {
+		return frames.size();
+	}
+
+	public synchronized int getPinnedPageCount() {
+		return pinnedFrames.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized double getHitRatio() {
+		long total = hitCount + missCount;
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	public synchronized long getEvictCount() {
+		return evictCount;
+	}
+
+	public synchronized long getWriteCount() {
+		return writeCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("pages=%d/%d, pinned=%d, dirty=%d, hit ratio=%.3f, evicts=%d, writes=%d", frames.size(),
+				capacity, pinnedFrames.size(), dirtyFrames.size(), getHitRatio(), evictCount, writeCount);
+	}
+
+	private static class Frame {
+		private Page page;
+		private int pinCount;
+
+		public Frame(Page page) {
+			this.page = page;
+		}
+	}
 }
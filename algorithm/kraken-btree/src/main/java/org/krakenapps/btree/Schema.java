@@ -20,6 +20,7 @@ public class Schema {
 	private Class<?>[] keyTypes;
 	private RowKeyFactory keyFactory;
 	private RowValueFactory valueFactory;
+	private boolean prefixCompression;
 
 	public Schema(int pageSize, Class<?>[] keyTypes) {
 		this.pageSize = pageSize;
@@ -50,4 +51,16 @@ public class Schema {
 		this.valueFactory = valueFactory;
 	}
 
+	/**
+	 * Prefix compressed pages cannot be read by old versions, so it is
+	 * disabled by default.
+	 */
+	public boolean isPrefixCompression() {
+		return prefixCompression;
+	}
+
+	public void setPrefixCompression(boolean prefixCompression) {
+		this.prefixCompression = prefixCompression;
+	}
+
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.btree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.krakenapps.btree.types.IntegerValue;
+import org.krakenapps.btree.types.IntegerValueFactory;
+import org.krakenapps.btree.types.StringKey;
+
+/**
+ * Compares one-at-a-time inserts with bulk load, and plain pages with prefix
+ * compressed pages using log timestamp like keys, and measures lookup scaling
+ * of concurrent readers with and without concurrent writer. Run main()
+ * manually, it is not a unit test.
+ *
+ * @author xeraph
+ *
+ */
+public class BtreeBenchmark {
+	private static final int PAGE_SIZE = 4096;
+	private static final int ROW_COUNT = 200000;
+	private static final int LOOKUP_COUNT = 100000;
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.valueOf(args[0]) : ROW_COUNT;
+		File file = new File("btree-bench.dat");
+
+		try {
+			Btree btree = create(file, false);
+			long begin = System.currentTimeMillis();
+			for (int i = 0; i < count; i++)
+				btree.insert(key(i), new IntegerValue(i));
+			btree.sync();
+			report("insert", btree, count, begin);
+			lookup(btree, count);
+			btree.close();
+
+			btree = bulkLoad(file, false, count);
+			lookup(btree, count);
+			for (int threads = 1; threads <= 8; threads *= 2)
+				concurrentLookup(btree, count, threads, false);
+			concurrentLookup(btree, count, 4, true);
+			btree.close();
+
+			btree = bulkLoad(file, true, count);
+			lookup(btree, count);
+			btree.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void concurrentLookup(final Btree btree, final int count, int threads, boolean withWriter)
+			throws IOException {
+		final AtomicBoolean writing = new AtomicBoolean(withWriter);
+		final int[] inserted = new int[1];
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = count; writing.get(); i++) {
+						btree.insert(key(i), new IntegerValue(i));
+						inserted[0]++;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			readers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random r = new Random(seed);
+						for (int i = 0; i < LOOKUP_COUNT; i++)
+							btree.get(key(r.nextInt(count)));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		long begin = System.currentTimeMillis();
+		if (withWriter)
+			writer.start();
+
+		for (Thread reader : readers)
+			reader.start();
+
+		try {
+			for (Thread reader : readers)
+				reader.join();
+
+			writing.set(false);
+			if (withWriter)
+				writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+		System.out.println(String.format("  %d readers%s: %d keys/sec%s", threads, withWriter ? " with writer" : "",
+				threads * LOOKUP_COUNT * 1000L / elapsed, withWriter ? ", " + inserted[0] + " inserts" : ""));
+	}
+
+	private static Btree create(File file, boolean prefixCompression) throws IOException {
+		file.delete();
+		Btree btree = BtreeImpl.create(file, schema(prefixCompression));
+		btree.setRowValueFactory(new IntegerValueFactory());
+		return btree;
+	}
+
+	private static Btree bulkLoad(File file, boolean prefixCompression, int count) throws IOException {
+		file.delete();
+		long begin = System.currentTimeMillis();
+		BtreeBuilder builder = new BtreeBuilder(file, schema(prefixCompression));
+		for (int i = 0; i < count; i++)
+			builder.add(key(i), new IntegerValue(i));
+
+		Btree btree = builder.build();
+		btree.setRowValueFactory(new IntegerValueFactory());
+		report(prefixCompression ? "bulk load (prefix compression)" : "bulk load", btree, count, begin);
+		return btree;
+	}
+
+	private static Schema schema(boolean prefixCompression) {
+		Schema schema = new Schema(PAGE_SIZE, new Class<?>[] { String.class });
+		schema.setRowValueFactory(new IntegerValueFactory());
+		schema.setPrefixCompression(prefixCompression);
+		return schema;
+	}
+
+	private static StringKey key(int i) {
+		int sec = i / 100;
+		return new StringKey(String.format("2011-05-01 %02d:%02d:%02d.%03d", sec / 3600 % 24, sec / 60 % 60, sec % 60,
+				i % 100));
+	}
+
+	private static void report(String name, Btree btree, int count, long begin) throws IOException {
+		long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+		System.out.println(String.format("%s: %d rows/sec, %d pages", name, count * 1000L / elapsed, btree
+				.getPageFile().getPageCount()));
+	}
+
+	private static void lookup(Btree btree, int count) throws IOException {
+		Random r = new Random(1);
+		int found = 0;
+		long begin = System.currentTimeMillis();
+		for (int i = 0; i < LOOKUP_COUNT; i++)
+			if (btree.get(key(r.nextInt(count))) != null)
+				found++;
+
+		long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+		System.out.println(String.format("  lookup: %d keys/sec, found %d/%d, %s", LOOKUP_COUNT * 1000L / elapsed,
+				found, LOOKUP_COUNT, btree.getPageManager()));
+	}
+}
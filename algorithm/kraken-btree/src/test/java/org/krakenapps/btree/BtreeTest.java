@@ -17,6 +17,10 @@ package org.krakenapps.btree;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Test;
@@ -366,6 +370,137 @@ public class BtreeTest {
 		c.close();
 	}
 
+	@Test
+	public void testSmallBufferPool() throws IOException {
+		setup(80);
+		btree.close();
+		btree = new BtreeImpl(file, 4);
+		btree.setRowValueFactory(new IntegerValueFactory());
+
+		for (int i = 1; i <= 300; i++)
+			btree.insert(new IntegerKey(i), new IntegerValue(i * 100));
+
+		PageManager pm = btree.getPageManager();
+		assertTrue(pm.getEvictCount() > 0);
+		assertEquals(0, pm.getPinnedPageCount());
+
+		for (int i = 1; i <= 300; i++)
+			assertEquals(new IntegerValue(i * 100), btree.get(new IntegerKey(i)));
+
+		// evicted pages should be written back
+		btree.close();
+		btree = new BtreeImpl(file, 4);
+		btree.setRowValueFactory(new IntegerValueFactory());
+
+		int index = 1;
+		Cursor c = btree.openCursor(Cursor.ASC);
+		do {
+			assertEquals(new IntegerKey(index), c.getKey());
+			index++;
+		} while (c.next());
+		c.close();
+
+		assertEquals(301, index);
+		assertEquals(0, btree.getPageManager().getPinnedPageCount());
+	}
+
+	@Test
+	public void testBulkLoad() throws IOException {
+		setup(80);
+		btree.close();
+
+		BtreeBuilder builder = new BtreeBuilder(file, schema, 0.7);
+		for (int i = 1; i <= 1000; i++)
+			builder.add(new IntegerKey(i), new IntegerValue(i * 100));
+
+		btree = builder.build();
+		btree.setRowValueFactory(new IntegerValueFactory());
+
+		for (int i = 1; i <= 1000; i++)
+			assertEquals(new IntegerValue(i * 100), btree.get(new IntegerKey(i)));
+
+		Cursor c = btree.openCursor(Cursor.DESC);
+		assertEquals(new IntegerKey(1000), c.getKey());
+		c.close();
+
+		// tree should be updatable after bulk load
+		for (int i = 1001; i <= 1100; i++)
+			btree.insert(new IntegerKey(i), new IntegerValue(i * 100));
+
+		btree.delete(new IntegerKey(500));
+
+		int index = 1;
+		c = btree.openCursor(Cursor.ASC);
+		do {
+			if (index == 500)
+				index++;
+
+			assertEquals(new IntegerKey(index), c.getKey());
+			index++;
+		} while (c.next());
+		c.close();
+
+		assertEquals(1101, index);
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		setup(80);
+
+		final int count = 500;
+		final AtomicInteger inserted = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (inserted.get() < count && failure.get() == null) {
+							// every inserted key should be found
+							int last = inserted.get();
+							for (int i = 1; i <= last; i += 7)
+								assertEquals(new IntegerValue(i * 100), btree.get(new IntegerKey(i)));
+
+							// scan should be ordered while writer splits pages
+							Cursor c = btree.openCursor(Cursor.ASC);
+							int prev = 0;
+							if (c.getKey() != null) {
+								do {
+									int key = ((IntegerKey) c.getKey()).getValue();
+									assertTrue(prev + " < " + key, prev < key);
+									prev = key;
+								} while (c.next());
+							}
+							c.close();
+
+							assertTrue(prev >= last);
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			readers.add(reader);
+			reader.start();
+		}
+
+		for (int i = 1; i <= count; i++) {
+			btree.insert(new IntegerKey(i), new IntegerValue(i * 100));
+			inserted.set(i);
+		}
+
+		for (Thread reader : readers)
+			reader.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		for (int i = 1; i <= count; i++)
+			assertEquals(new IntegerValue(i * 100), btree.get(new IntegerKey(i)));
+	}
+
 	private void trace() throws IOException {
 		PageFile pf = btree.getPageFile();
 		System.out.println("ROOT=" + pf.getRootPage());
@@ -20,6 +20,8 @@ import org.krakenapps.btree.types.IntegerKey;
 import org.krakenapps.btree.types.IntegerKeyFactory;
 import org.krakenapps.btree.types.IntegerValue;
 import org.krakenapps.btree.types.IntegerValueFactory;
+import org.krakenapps.btree.types.StringKey;
+import org.krakenapps.btree.types.StringKeyFactory;
 
 import static org.junit.Assert.*;
 
@@ -165,6 +167,44 @@ public class PageTest {
 		assertNull(p.getValue(2));
 	}
 
+	@Test
+	public void testPrefixCompression() {
+		Schema plain = new Schema(256, new Class<?>[] { String.class });
+		plain.setRowKeyFactory(new StringKeyFactory());
+		plain.setRowValueFactory(new IntegerValueFactory());
+
+		Schema compressed = new Schema(256, new Class<?>[] { String.class });
+		compressed.setRowKeyFactory(new StringKeyFactory());
+		compressed.setRowValueFactory(new IntegerValueFactory());
+		compressed.setPrefixCompression(true);
+
+		Page p1 = new Page(plain);
+		Page p2 = new Page(compressed);
+		int count1 = 0;
+		while (p1.insert(new StringKey("2011-05-01 12:00:" + (100 + count1)), new IntegerValue(count1)))
+			count1++;
+
+		int count2 = 0;
+		while (p2.insert(new StringKey("2011-05-01 12:00:" + (100 + count2)), new IntegerValue(count2)))
+			count2++;
+
+		assertTrue(count2 > count1);
+		assertTrue(p2.getPrefixLength() > 0);
+		for (int i = 0; i < count2; i++) {
+			assertEquals(new StringKey("2011-05-01 12:00:" + (100 + i)), p2.getKey(i));
+			assertEquals(new IntegerValue(i), p2.getValue(i));
+		}
+
+		// key without common prefix shortens prefix
+		while (p2.getRecordCount() > 4)
+			p2.delete(p2.getRecordCount() - 1);
+
+		assertTrue(p2.insert(new StringKey("2011-04-30"), new IntegerValue(-1)));
+		assertEquals(new StringKey("2011-04-30"), p2.getKey(0));
+		assertEquals(new StringKey("2011-05-01 12:00:100"), p2.getKey(1));
+		assertEquals(6, p2.getPrefixLength());
+	}
+
 	private Schema createSchema() {
 		return createSchema(1024);
 	}
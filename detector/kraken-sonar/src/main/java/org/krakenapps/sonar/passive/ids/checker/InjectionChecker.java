@@ -24,7 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
-import org.krakenapps.ahocorasick.AhoCorasickSearch;
+import org.krakenapps.ahocorasick.AhoCorasickDfa;
 import org.krakenapps.ahocorasick.Pair;
 import org.krakenapps.ahocorasick.SearchContext;
 import org.krakenapps.sonar.passive.ids.rule.Rule;
@@ -36,7 +36,7 @@ public class InjectionChecker {
 
 	private String homedir;
 	private int ruleCount;
-	private AhoCorasickSearch acsInjection;
+	private AhoCorasickDfa acsInjection;
 
 	public InjectionChecker() {
 		homedir = "";
@@ -49,7 +49,7 @@ public class InjectionChecker {
 
 	public void load() {
 		System.out.println("KrakenSonar: HttpAttackDetector: Load Injection data...");
-		acsInjection = new AhoCorasickSearch();
+		acsInjection = new AhoCorasickDfa();
 
 		// Find Injection rule files
 		File[] ruleFiles = (new File(homedir)).listFiles(new FilenameFilter() {
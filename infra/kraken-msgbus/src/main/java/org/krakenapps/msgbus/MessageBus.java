@@ -57,4 +57,18 @@ public interface MessageBus {
 	void setSessionTimeout(int minutes);
 
 	int getSessionTimeout();
+
+	MsgbusConfig getConfig();
+
+	/**
+	 * Saves config and rebuilds worker lanes. Pending requests of old lanes
+	 * are completed.
+	 */
+	void setConfig(MsgbusConfig config);
+
+	Collection<MsgbusLaneStatus> getLaneStatuses();
+
+	Collection<MsgbusMethodStats> getMethodStats();
+
+	void resetMethodStats();
 }
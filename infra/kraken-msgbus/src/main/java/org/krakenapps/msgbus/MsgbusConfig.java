@@ -15,6 +15,11 @@
  */
 package org.krakenapps.msgbus;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.krakenapps.api.FieldOption;
 import org.krakenapps.confdb.CollectionName;
 
@@ -25,6 +30,26 @@ public class MsgbusConfig {
 	@FieldOption(name = "timeout", nullable = true)
 	private Integer timeout;
 
+	// worker thread count of default lane
+	@FieldOption(name = "pool_size", nullable = true)
+	private Integer poolSize;
+
+	// worker thread count of priority lane
+	@FieldOption(name = "priority_pool_size", nullable = true)
+	private Integer priorityPoolSize;
+
+	// max pending requests per lane, excess requests are rejected
+	@FieldOption(name = "queue_size", nullable = true)
+	private Integer queueSize;
+
+	// method names routed to priority lane, trailing * matches prefix
+	@FieldOption(name = "priority_methods", nullable = true)
+	private List<String> priorityMethods = new ArrayList<String>();
+
+	// plugin class name to worker thread count of dedicated lane
+	@FieldOption(name = "plugin_pools", nullable = true)
+	private Map<String, Object> pluginPools = new HashMap<String, Object>();
+
 	public Integer getTimeout() {
 		return timeout;
 	}
@@ -33,9 +58,50 @@ public class MsgbusConfig {
 		this.timeout = timeout;
 	}
 
+	public Integer getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(Integer poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public Integer getPriorityPoolSize() {
+		return priorityPoolSize;
+	}
+
+	public void setPriorityPoolSize(Integer priorityPoolSize) {
+		this.priorityPoolSize = priorityPoolSize;
+	}
+
+	public Integer getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(Integer queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public List<String> getPriorityMethods() {
+		return priorityMethods;
+	}
+
+	public void setPriorityMethods(List<String> priorityMethods) {
+		this.priorityMethods = priorityMethods;
+	}
+
+	public Map<String, Object> getPluginPools() {
+		return pluginPools;
+	}
+
+	public void setPluginPools(Map<String, Object> pluginPools) {
+		this.pluginPools = pluginPools;
+	}
+
 	@Override
 	public String toString() {
-		return "timeout=" + timeout;
+		return "timeout=" + timeout + ", pool_size=" + poolSize + ", priority_pool_size=" + priorityPoolSize
+				+ ", queue_size=" + queueSize + ", priority_methods=" + priorityMethods + ", plugin_pools=" + pluginPools;
 	}
 
 }
\ No newline at end of file
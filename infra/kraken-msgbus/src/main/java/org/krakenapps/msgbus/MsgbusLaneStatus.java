@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Future Systems, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.msgbus;
+
+/**
+ * Snapshot of msgbus worker lane
+ *
+ * @author xeraph
+ *
+ */
+public class MsgbusLaneStatus {
+	private String name;
+	private int poolSize;
+	private int activeCount;
+	private int queueSize;
+	private int queueCapacity;
+	private long completedCount;
+	private long rejectCount;
+
+	public MsgbusLaneStatus(String name, int poolSize, int activeCount, int queueSize, int queueCapacity,
+			long completedCount, long rejectCount) {
+		this.name = name;
+		this.poolSize = poolSize;
+		this.activeCount = activeCount;
+		this.queueSize = queueSize;
+		this.queueCapacity = queueCapacity;
+		this.completedCount = completedCount;
+		this.rejectCount = rejectCount;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	public long getRejectCount() {
+		return rejectCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("lane=%s, threads=%d, active=%d, queued=%d/%d, completed=%d, rejected=%d", name, poolSize,
+				activeCount, queueSize, queueCapacity, completedCount, rejectCount);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Future Systems, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.msgbus;
+
+import java.util.Arrays;
+
+/**
+ * Call count and latency histogram of msgbus method
+ *
+ * @author xeraph
+ *
+ */
+public class MsgbusMethodStats {
+	// upper bounds of histogram buckets in milliseconds, last bucket is
+	// unbounded
+	private static final long[] BOUNDS = new long[] { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+	private final String method;
+	private long count;
+	private long rejectCount;
+	private long totalElapsed;
+	private long maxElapsed;
+	private long[] histogram = new long[BOUNDS.length + 1];
+
+	public MsgbusMethodStats(String method) {
+		this.method = method;
+	}
+
+	/**
+	 * @return the upper bounds of histogram buckets in milliseconds
+	 */
+	public static long[] getBucketBounds() {
+		return Arrays.copyOf(BOUNDS, BOUNDS.length);
+	}
+
+	public synchronized void record(long elapsed) {
+		count++;
+		totalElapsed += elapsed;
+		if (elapsed > maxElapsed)
+			maxElapsed = elapsed;
+
+		int i = 0;
+		while (i < BOUNDS.length && elapsed >= BOUNDS[i])
+			i++;
+
+		histogram[i]++;
+	}
+
+	public synchronized void reject() {
+		rejectCount++;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getRejectCount() {
+		return rejectCount;
+	}
+
+	public synchronized long getMaxElapsed() {
+		return maxElapsed;
+	}
+
+	public synchronized long getAverageElapsed() {
+		return count == 0 ? 0 : totalElapsed / count;
+	}
+
+	/**
+	 * @return the call counts per latency bucket
+	 */
+	public synchronized long[] getHistogram() {
+		return Arrays.copyOf(histogram, histogram.length);
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] == 0)
+				continue;
+
+			if (sb.length() > 0)
+				sb.append(", ");
+
+			sb.append(i < BOUNDS.length ? "<" + BOUNDS[i] : ">=" + BOUNDS[BOUNDS.length - 1]);
+			sb.append("ms:");
+			sb.append(histogram[i]);
+		}
+
+		return String.format("method=%s, count=%d, rejected=%d, avg=%dms, max=%dms, histogram=[%s]", method, count,
+				rejectCount, getAverageElapsed(), maxElapsed, sb.toString());
+	}
+}
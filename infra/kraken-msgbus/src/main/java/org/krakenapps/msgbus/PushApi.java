@@ -39,6 +39,32 @@ public interface PushApi {
 
 	void push(Session session, String callback, Map<String, Object> m);
 
+	/**
+	 * If enabled, pending push of same callback and process is replaced by
+	 * newer one when session is slow.
+	 */
+	void setCoalescing(String callback, boolean enabled);
+
+	boolean isCoalescing(String callback);
+
+	/**
+	 * @return the max pending push count per session
+	 */
+	int getQueueCapacity();
+
+	void setQueueCapacity(int capacity);
+
+	/**
+	 * @return the pending push count per session guid
+	 */
+	Map<String, Integer> getPendingCounts();
+
+	long getPushCount();
+
+	long getDropCount();
+
+	long getCoalesceCount();
+
 	@Deprecated
 	void sessionClosed(String orgDoamin, int sessionId);
 
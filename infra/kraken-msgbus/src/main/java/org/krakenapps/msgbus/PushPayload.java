@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 Future Systems, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.msgbus;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only push parameters shared by all subscribers of one push. Parameters
+ * are already converted to wire-friendly types (e.g. date to string), and
+ * session encoder can cache serialized form using getEncoded() and
+ * setEncoded(), so that the payload is serialized only once per push.
+ *
+ * @author xeraph
+ *
+ */
+public class PushPayload extends AbstractMap<String, Object> {
+	private final Map<String, Object> params;
+	private volatile Object encoded;
+
+	public PushPayload(Map<String, Object> converted) {
+		this.params = Collections.unmodifiableMap(converted);
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return params.entrySet();
+	}
+
+	@Override
+	public Object get(Object key) {
+		return params.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return params.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return params.size();
+	}
+
+	/**
+	 * @return the cached serialized form, or null if not encoded yet
+	 */
+	public Object getEncoded() {
+		return encoded;
+	}
+
+	/**
+	 * Caches serialized form. Racing encoders may overwrite each other, but
+	 * they produce same result anyway.
+	 */
+	public void setEncoded(Object encoded) {
+		this.encoded = encoded;
+	}
+}
@@ -16,23 +16,19 @@
 package org.krakenapps.msgbus.impl;
 
 import java.lang.reflect.InvocationTargetException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Invalidate;
@@ -48,8 +44,11 @@ import org.krakenapps.msgbus.MessageBus;
 import org.krakenapps.msgbus.MessageHandler;
 import org.krakenapps.msgbus.MsgbusConfig;
 import org.krakenapps.msgbus.MsgbusException;
+import org.krakenapps.msgbus.MsgbusLaneStatus;
+import org.krakenapps.msgbus.MsgbusMethodStats;
 import org.krakenapps.msgbus.MessageListener;
 import org.krakenapps.msgbus.PermissionChecker;
+import org.krakenapps.msgbus.PushPayload;
 import org.krakenapps.msgbus.Request;
 import org.krakenapps.msgbus.ResourceApi;
 import org.krakenapps.msgbus.ResourceHandler;
@@ -76,7 +75,8 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 	private ConcurrentMap<String, Set<MessageHandler>> messageHandlerMap;
 	private Set<PermissionChecker> permissionCheckers = Collections
 			.newSetFromMap(new ConcurrentHashMap<PermissionChecker, Boolean>());
-	private final ExecutorService threadPool;
+	private volatile MsgbusExecutor executor;
+	private ConcurrentMap<String, MsgbusMethodStats> methodStats;
 	private CopyOnWriteArraySet<MessageListener> listeners;
 
 	@Requires
@@ -93,7 +93,8 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 		sessionEventListeners = Collections.newSetFromMap(new ConcurrentHashMap<SessionEventHandler, Boolean>());
 		messageHandlerMap = new ConcurrentHashMap<String, Set<MessageHandler>>();
 		listeners = new CopyOnWriteArraySet<MessageListener>();
-		threadPool = Executors.newCachedThreadPool();
+		methodStats = new ConcurrentHashMap<String, MsgbusMethodStats>();
+		executor = new MsgbusExecutor(new MsgbusConfig());
 	}
 
 	@Validate
@@ -102,12 +103,21 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 		Config c = db.findOne(MsgbusConfig.class, null);
 		MsgbusConfig msgbusConfig = ensureMsgbusConfig(db, c);
 		timeout = msgbusConfig.getTimeout() == null ? defaultSessionTimeout : msgbusConfig.getTimeout();
+		replaceExecutor(new MsgbusExecutor(msgbusConfig));
 		super.open();
 	}
 
 	@Invalidate
 	public void stop() {
 		super.close();
+		replaceExecutor(new MsgbusExecutor(new MsgbusConfig()));
+	}
+
+	private void replaceExecutor(MsgbusExecutor newExecutor) {
+		MsgbusExecutor old = executor;
+		executor = newExecutor;
+		if (old != null)
+			old.shutdown();
 	}
 
 	@Override
@@ -222,6 +232,18 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 		return runner.respondMessage;
 	}
 
+	private MsgbusMethodStats getMethodStats(String method) {
+		MsgbusMethodStats stats = methodStats.get(method);
+		if (stats == null) {
+			stats = new MsgbusMethodStats(method);
+			MsgbusMethodStats old = methodStats.putIfAbsent(method, stats);
+			if (old != null)
+				stats = old;
+		}
+
+		return stats;
+	}
+
 	private void triggerListener(Session session, Message message) {
 		for (MessageListener listener : listeners) {
 			try {
@@ -244,13 +266,19 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 		}
 
 		for (MessageHandler handler : handlers) {
-			threadPool.execute(new TaskRunner(session, message, handler));
+			try {
+				executor.execute(message.getMethod(), new TaskRunner(session, message, handler));
+			} catch (RejectedExecutionException e) {
+				// fail fast rather than queueing unbounded requests
+				getMethodStats(message.getMethod()).reject();
+				session.send(Message.createError(session, message, "msgbus-busy", "too many pending requests"));
+				logger.warn("kraken msgbus: worker lane is full, rejected [{}]", message.getMethod());
+			}
 		}
 
 		triggerListener(session, message);
 	}
 
-	@SuppressWarnings("unchecked")
 	public void send(Message message) {
 		Session session = sessionMap.get(message.getSession());
 		if (session == null) {
@@ -260,42 +288,16 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 
 		logger.debug("kraken msgbus: sending message [{}] to session [{}]", message.getMethod(), message.getSession());
 		Map<String, Object> m = message.getParameters();
-		message.setParameters((Map<String, Object>) convert(m));
-		session.send(message);
-		message.setParameters(m);
-	}
 
-	private Object convert(Object value) {
-		if (value == null)
-			return null;
-
-		if (value instanceof Date) {
-			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
-			return sdf.format((Date) value);
-		} else if (value instanceof Map) {
-			Map<?, ?> m = (Map<?, ?>) value;
-			Map<Object, Object> mm = new HashMap<Object, Object>();
-			for (Object key : m.keySet())
-				mm.put(convert(key), convert(m.get(key)));
-			return mm;
-		} else if (value instanceof Collection) {
-			return convertList((Collection<?>) value);
-		} else if (value.getClass().isArray()) {
-			try {
-				return convertList(Arrays.asList((Object[]) value));
-			} catch (ClassCastException e) {
-				return value;
-			}
+		// shared push payload is converted only once by push api
+		if (m instanceof PushPayload) {
+			session.send(message);
+			return;
 		}
 
-		return value;
-	}
-
-	private Object convertList(Collection<?> value) {
-		List<Object> list = new ArrayList<Object>();
-		for (Object obj : value)
-			list.add(convert(obj));
-		return list;
+		message.setParameters(MessageConverter.convertMap(m));
+		session.send(message);
+		message.setParameters(m);
 	}
 
 	public void openSession(Session session) {
@@ -387,10 +389,15 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 
 		@Override
 		public void run() {
-			invokeMessageHandler(session, message, handler);
+			long begin = System.nanoTime();
+			try {
+				invokeMessageHandler(session, message, handler);
+			} finally {
+				long elapsed = (System.nanoTime() - begin) / 1000000;
+				getMethodStats(message.getMethod()).record(elapsed);
+			}
 		}
 
-		@SuppressWarnings("unchecked")
 		private void invokeMessageHandler(Session session, Message message, MessageHandler handler) {
 			try {
 				respondMessage = Message.createResponse(session, message);
@@ -445,7 +452,7 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 				logger.error("kraken msgbus: message handler failed", e);
 			} finally {
 				Map<String, Object> m = respondMessage.getParameters();
-				respondMessage.setParameters((Map<String, Object>) convert(m));
+				respondMessage.setParameters(MessageConverter.convertMap(m));
 				session.send(respondMessage);
 				respondMessage.setParameters(m);
 			}
@@ -467,6 +474,50 @@ public class MessageBusImpl extends ServiceTracker implements MessageBus, Runnab
 		return timeout;
 	}
 
+	@Override
+	public MsgbusConfig getConfig() {
+		ConfigDatabase db = conf.ensureDatabase("kraken-msgbus");
+		Config c = db.findOne(MsgbusConfig.class, null);
+		return ensureMsgbusConfig(db, c);
+	}
+
+	@Override
+	public void setConfig(MsgbusConfig config) {
+		if (config == null)
+			throw new IllegalArgumentException("config should be not null");
+
+		// validate before saving
+		MsgbusExecutor newExecutor = new MsgbusExecutor(config);
+
+		ConfigDatabase db = conf.ensureDatabase("kraken-msgbus");
+		Config c = db.findOne(MsgbusConfig.class, null);
+		if (c == null)
+			db.add(config);
+		else
+			db.update(c, config);
+
+		if (config.getTimeout() != null)
+			this.timeout = config.getTimeout();
+
+		replaceExecutor(newExecutor);
+		logger.info("kraken msgbus: config updated, {}", config);
+	}
+
+	@Override
+	public Collection<MsgbusLaneStatus> getLaneStatuses() {
+		return executor.getStatuses();
+	}
+
+	@Override
+	public Collection<MsgbusMethodStats> getMethodStats() {
+		return new ArrayList<MsgbusMethodStats>(methodStats.values());
+	}
+
+	@Override
+	public void resetMethodStats() {
+		methodStats.clear();
+	}
+
 	private MsgbusConfig ensureMsgbusConfig(ConfigDatabase db, Config c) {
 		MsgbusConfig msgbusConfig;
 		if (c == null) {
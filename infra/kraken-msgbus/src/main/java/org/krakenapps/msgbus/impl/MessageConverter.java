@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 Future Systems, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.msgbus.impl;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts message parameters to wire-friendly types. Date format is cached
+ * per thread, since SimpleDateFormat is expensive to create and not
+ * thread-safe.
+ */
+class MessageConverter {
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
+		}
+	};
+
+	private MessageConverter() {
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> convertMap(Map<String, Object> m) {
+		return (Map<String, Object>) convert(m);
+	}
+
+	public static Object convert(Object value) {
+		if (value == null)
+			return null;
+
+		if (value instanceof Date) {
+			return dateFormat.get().format((Date) value);
+		} else if (value instanceof Map) {
+			Map<?, ?> m = (Map<?, ?>) value;
+			Map<Object, Object> mm = new HashMap<Object, Object>();
+			for (Map.Entry<?, ?> e : m.entrySet())
+				mm.put(convert(e.getKey()), convert(e.getValue()));
+			return mm;
+		} else if (value instanceof Collection) {
+			return convertList((Collection<?>) value);
+		} else if (value.getClass().isArray()) {
+			try {
+				return convertList(Arrays.asList((Object[]) value));
+			} catch (ClassCastException e) {
+				return value;
+			}
+		}
+
+		return value;
+	}
+
+	private static Object convertList(Collection<?> value) {
+		List<Object> list = new ArrayList<Object>(value.size());
+		for (Object obj : value)
+			list.add(convert(obj));
+		return list;
+	}
+}
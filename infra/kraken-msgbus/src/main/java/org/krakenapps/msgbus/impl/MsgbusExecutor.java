@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 Future Systems, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.msgbus.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.krakenapps.msgbus.MsgbusConfig;
+import org.krakenapps.msgbus.MsgbusLaneStatus;
+
+/**
+ * Routes msgbus requests to bounded worker lanes. Priority methods (e.g.
+ * session heartbeat) run on dedicated lane, and heavy plugins can be isolated
+ * to their own lanes, so that burst of heavy calls cannot starve light calls.
+ * Each lane has bounded queue, and request is rejected immediately if the
+ * queue is full.
+ *
+ * @author xeraph
+ *
+ */
+class MsgbusExecutor {
+	public static final String DEFAULT_LANE = "default";
+	public static final String PRIORITY_LANE = "priority";
+
+	private static final int DEFAULT_PRIORITY_POOL_SIZE = 2;
+	private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	private final Map<String, Lane> lanes = new LinkedHashMap<String, Lane>();
+	private final List<String> priorityMethods;
+
+	public MsgbusExecutor(MsgbusConfig c) {
+		int cpuCount = Runtime.getRuntime().availableProcessors();
+		int poolSize = c.getPoolSize() != null ? c.getPoolSize() : cpuCount * 4;
+		int priorityPoolSize = c.getPriorityPoolSize() != null ? c.getPriorityPoolSize() : DEFAULT_PRIORITY_POOL_SIZE;
+		int queueSize = c.getQueueSize() != null ? c.getQueueSize() : DEFAULT_QUEUE_SIZE;
+
+		this.priorityMethods = new ArrayList<String>();
+		if (c.getPriorityMethods() != null)
+			priorityMethods.addAll(c.getPriorityMethods());
+
+		lanes.put(DEFAULT_LANE, new Lane(DEFAULT_LANE, poolSize, queueSize));
+		lanes.put(PRIORITY_LANE, new Lane(PRIORITY_LANE, priorityPoolSize, queueSize));
+
+		if (c.getPluginPools() != null) {
+			for (String plugin : c.getPluginPools().keySet()) {
+				int size = Integer.valueOf(c.getPluginPools().get(plugin).toString());
+				lanes.put(plugin, new Lane(plugin, size, queueSize));
+			}
+		}
+	}
+
+	/**
+	 * @throws RejectedExecutionException
+	 *             if the lane queue is full
+	 */
+	public void execute(String method, Runnable task) {
+		route(method).execute(task);
+	}
+
+	private Lane route(String method) {
+		for (String pattern : priorityMethods) {
+			if (pattern.endsWith("*")) {
+				if (method.startsWith(pattern.substring(0, pattern.length() - 1)))
+					return lanes.get(PRIORITY_LANE);
+			} else if (method.equals(pattern)) {
+				return lanes.get(PRIORITY_LANE);
+			}
+		}
+
+		// method name is plugin class name + "." + method
+		int p = method.lastIndexOf('.');
+		if (p > 0) {
+			Lane lane = lanes.get(method.substring(0, p));
+			if (lane != null)
+				return lane;
+		}
+
+		return lanes.get(DEFAULT_LANE);
+	}
+
+	public Collection<MsgbusLaneStatus> getStatuses() {
+		List<MsgbusLaneStatus> l = new ArrayList<MsgbusLaneStatus>();
+		for (Lane lane : lanes.values())
+			l.add(lane.getStatus());
+		return l;
+	}
+
+	/**
+	 * Stops accepting requests, but pending requests are completed.
+	 */
+	public void shutdown() {
+		for (Lane lane : lanes.values())
+			lane.pool.shutdown();
+	}
+
+	private static class Lane {
+		private final String name;
+		private final int queueSize;
+		private final ThreadPoolExecutor pool;
+		private final AtomicLong rejectCount = new AtomicLong();
+
+		public Lane(final String name, int poolSize, int queueSize) {
+			this.name = name;
+			this.queueSize = queueSize;
+
+			ThreadFactory factory = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return new Thread(r, "Msgbus Worker [" + name + "]");
+				}
+			};
+
+			this.pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(queueSize), factory, new ThreadPoolExecutor.AbortPolicy());
+			this.pool.allowCoreThreadTimeOut(true);
+		}
+
+		public void execute(Runnable task) {
+			try {
+				pool.execute(task);
+			} catch (RejectedExecutionException e) {
+				rejectCount.incrementAndGet();
+				throw e;
+			}
+		}
+
+		public MsgbusLaneStatus getStatus() {
+			return new MsgbusLaneStatus(name, pool.getMaximumPoolSize(), pool.getActiveCount(), pool.getQueue().size(),
+					queueSize, pool.getCompletedTaskCount(), rejectCount.get());
+		}
+	}
+}
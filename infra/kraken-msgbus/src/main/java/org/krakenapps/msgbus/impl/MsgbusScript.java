@@ -28,6 +28,10 @@ import org.krakenapps.msgbus.AbstractSession;
 import org.krakenapps.msgbus.Message;
 import org.krakenapps.msgbus.Message.Type;
 import org.krakenapps.msgbus.MessageBus;
+import org.krakenapps.msgbus.MsgbusConfig;
+import org.krakenapps.msgbus.MsgbusLaneStatus;
+import org.krakenapps.msgbus.MsgbusMethodStats;
+import org.krakenapps.msgbus.PushApi;
 import org.krakenapps.msgbus.ResourceApi;
 import org.krakenapps.msgbus.ResourceHandler;
 import org.krakenapps.msgbus.Session;
@@ -35,11 +39,13 @@ import org.krakenapps.msgbus.Session;
 public class MsgbusScript implements Script {
 	private MessageBus msgbus;
 	private ResourceApi resourceApi;
+	private PushApi pushApi;
 	private ScriptContext context;
 
-	public MsgbusScript(MessageBus msgbus, ResourceApi resourceApi) {
+	public MsgbusScript(MessageBus msgbus, ResourceApi resourceApi, PushApi pushApi) {
 		this.msgbus = msgbus;
 		this.resourceApi = resourceApi;
+		this.pushApi = pushApi;
 	}
 
 	@Override
@@ -208,4 +214,123 @@ public class MsgbusScript implements Script {
 	public void getTimeout(String[] args) {		
 		context.println("timeout=" + msgbus.getSessionTimeout());
 	}
+
+	public void pushStats(String[] args) {
+		context.println("Push Statistics");
+		context.println("-------------------");
+		context.println("queue capacity=" + pushApi.getQueueCapacity() + ", pushed=" + pushApi.getPushCount() + ", dropped="
+				+ pushApi.getDropCount() + ", coalesced=" + pushApi.getCoalesceCount());
+
+		Map<String, Integer> pendings = pushApi.getPendingCounts();
+		for (String guid : pendings.keySet())
+			context.println("session [" + guid + "] pending=" + pendings.get(guid));
+	}
+
+	@ScriptUsage(description = "set max pending push count per session", arguments = { @ScriptArgument(name = "capacity", type = "int", description = "queue capacity") })
+	public void setPushQueueCapacity(String[] args) {
+		pushApi.setQueueCapacity(Integer.parseInt(args[0]));
+		context.println("set");
+	}
+
+	@ScriptUsage(description = "replace stale pending push of the callback", arguments = {
+			@ScriptArgument(name = "callback", type = "string", description = "push callback name"),
+			@ScriptArgument(name = "enabled", type = "string", description = "true or false") })
+	public void setPushCoalescing(String[] args) {
+		pushApi.setCoalescing(args[0], Boolean.parseBoolean(args[1]));
+		context.println("set");
+	}
+
+	public void lanes(String[] args) {
+		context.println("Msgbus Worker Lanes");
+		context.println("-------------------");
+		for (MsgbusLaneStatus status : msgbus.getLaneStatuses())
+			context.println(status.toString());
+	}
+
+	@ScriptUsage(description = "print msgbus method latency statistics", arguments = { @ScriptArgument(name = "filter", type = "string", description = "method name filter", optional = true) })
+	public void methodStats(String[] args) {
+		String filter = null;
+		if (args.length > 0)
+			filter = args[0];
+
+		context.println("Msgbus Method Statistics");
+		context.println("-------------------");
+		for (MsgbusMethodStats stats : msgbus.getMethodStats()) {
+			if (filter != null && !stats.getMethod().contains(filter))
+				continue;
+
+			context.println(stats.toString());
+		}
+	}
+
+	public void resetMethodStats(String[] args) {
+		msgbus.resetMethodStats();
+		context.println("reset");
+	}
+
+	public void config(String[] args) {
+		context.println(msgbus.getConfig().toString());
+	}
+
+	@ScriptUsage(description = "set worker thread count of the lane", arguments = {
+			@ScriptArgument(name = "lane", type = "string", description = "default, priority, or plugin class name"),
+			@ScriptArgument(name = "size", type = "int", description = "thread count") })
+	public void setPoolSize(String[] args) {
+		int size = Integer.parseInt(args[1]);
+		MsgbusConfig c = msgbus.getConfig();
+		if (args[0].equals("default"))
+			c.setPoolSize(size);
+		else if (args[0].equals("priority"))
+			c.setPriorityPoolSize(size);
+		else
+			c.getPluginPools().put(args[0], size);
+
+		msgbus.setConfig(c);
+		context.println("set");
+	}
+
+	@ScriptUsage(description = "remove dedicated lane of the plugin", arguments = { @ScriptArgument(name = "plugin", type = "string", description = "plugin class name") })
+	public void removePluginPool(String[] args) {
+		MsgbusConfig c = msgbus.getConfig();
+		if (c.getPluginPools().remove(args[0]) == null) {
+			context.println("plugin pool not found");
+			return;
+		}
+
+		msgbus.setConfig(c);
+		context.println("removed");
+	}
+
+	@ScriptUsage(description = "set max pending requests per lane", arguments = { @ScriptArgument(name = "size", type = "int", description = "queue size") })
+	public void setQueueSize(String[] args) {
+		MsgbusConfig c = msgbus.getConfig();
+		c.setQueueSize(Integer.parseInt(args[0]));
+		msgbus.setConfig(c);
+		context.println("set");
+	}
+
+	@ScriptUsage(description = "route method to priority lane", arguments = { @ScriptArgument(name = "method", type = "string", description = "method name, trailing * matches prefix") })
+	public void addPriorityMethod(String[] args) {
+		MsgbusConfig c = msgbus.getConfig();
+		if (c.getPriorityMethods().contains(args[0])) {
+			context.println("already exists");
+			return;
+		}
+
+		c.getPriorityMethods().add(args[0]);
+		msgbus.setConfig(c);
+		context.println("added");
+	}
+
+	@ScriptUsage(description = "remove method from priority lane", arguments = { @ScriptArgument(name = "method", type = "string", description = "method name") })
+	public void removePriorityMethod(String[] args) {
+		MsgbusConfig c = msgbus.getConfig();
+		if (!c.getPriorityMethods().remove(args[0])) {
+			context.println("priority method not found");
+			return;
+		}
+
+		msgbus.setConfig(c);
+		context.println("removed");
+	}
 }
@@ -22,6 +22,7 @@ import org.apache.felix.ipojo.annotations.ServiceProperty;
 import org.krakenapps.api.Script;
 import org.krakenapps.api.ScriptFactory;
 import org.krakenapps.msgbus.MessageBus;
+import org.krakenapps.msgbus.PushApi;
 import org.krakenapps.msgbus.ResourceApi;
 
 @Component(name = "msgbus-script-factory")
@@ -37,9 +38,12 @@ public class MsgbusScriptFactory implements ScriptFactory {
 	@Requires
 	private ResourceApi resourceApi;
 
+	@Requires
+	private PushApi pushApi;
+
 	@Override
 	public Script createScript() {
-		return new MsgbusScript(msgbus, resourceApi);
+		return new MsgbusScript(msgbus, resourceApi, pushApi);
 	}
 
 }
@@ -24,13 +24,16 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
 import org.krakenapps.msgbus.Message;
 import org.krakenapps.msgbus.MessageBus;
 import org.krakenapps.msgbus.PushApi;
 import org.krakenapps.msgbus.PushCondition;
 import org.krakenapps.msgbus.PushInterceptor;
+import org.krakenapps.msgbus.PushPayload;
 import org.krakenapps.msgbus.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +42,7 @@ import org.slf4j.LoggerFactory;
 @Provides
 public class PushApiImpl implements PushApi {
 	private final Logger logger = LoggerFactory.getLogger(PushApiImpl.class.getName());
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
 
 	@Requires
 	private MessageBus msgbus;
@@ -52,6 +56,25 @@ public class PushApiImpl implements PushApi {
 	private ConcurrentMap<String, PushInterceptor> pushInterceptorsMap = new ConcurrentHashMap<String, PushInterceptor>();
 	private ConcurrentMap<PushCondition.Key, PushCondition> pushConditions = new ConcurrentHashMap<PushCondition.Key, PushCondition>();
 
+	// callbacks which allow replacing stale pending push
+	private Set<String> coalescingCallbacks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private volatile PushFanout fanout;
+
+	@Validate
+	public void start() {
+		fanout = new PushFanout(msgbus, DEFAULT_QUEUE_CAPACITY);
+		fanout.start(Runtime.getRuntime().availableProcessors());
+	}
+
+	@Invalidate
+	public void stop() {
+		if (fanout != null) {
+			fanout.stop();
+			fanout = null;
+		}
+	}
+
 	@Override
 	public void subscribe(String orgDomain, int sessionId, int processId, String callback) {
 		Map<String, Object> m = new HashMap<String, Object>();
@@ -134,12 +157,20 @@ public class PushApiImpl implements PushApi {
 		if (bindings == null)
 			return;
 
+		// converted once and shared by all subscribers
+		PushPayload shared = null;
+		PushInterceptor interceptor = pushInterceptorsMap.get(callback);
+		boolean coalesce = coalescingCallbacks.contains(callback);
+
 		for (Binding binding : bindings) {
 			if (sessions.contains(binding.sessionId)) {
-				Message msg = createMessage(orgDomain, binding, callback, m);
+				if (interceptor == null && shared == null)
+					shared = new PushPayload(MessageConverter.convertMap(m));
+
+				Message msg = createMessage(orgDomain, binding, callback, m, interceptor, shared);
 				if (logger.isTraceEnabled())
 					tracePush(orgDomain, callback, m, binding.sessionId, binding);
-				msgbus.send(msg);
+				deliver(msg, coalesce);
 			}
 		}
 	}
@@ -149,42 +180,103 @@ public class PushApiImpl implements PushApi {
 		Set<Binding> bindings = pushBindingsMap.get(callback);
 		if (bindings == null)
 			return;
+
+		PushPayload shared = null;
+		PushInterceptor interceptor = pushInterceptorsMap.get(callback);
+		boolean coalesce = coalescingCallbacks.contains(callback);
+
 		for (Binding binding : bindings) {
 			if (binding.sessionId.equals(session.getGuid())) {
 				String orgDomain = session.getOrgDomain();
+				if (interceptor == null && shared == null)
+					shared = new PushPayload(MessageConverter.convertMap(m));
 
-				Message msg = createMessage(orgDomain, binding, callback, m);
+				Message msg = createMessage(orgDomain, binding, callback, m, interceptor, shared);
 				if (logger.isTraceEnabled())
 					tracePush(orgDomain, callback, m, binding.sessionId, binding);
-				msgbus.send(msg);
+				deliver(msg, coalesce);
 			}
 		}
 	}
 
-	private Message createMessage(String orgDomain, Binding binding, String callback, Map<String, Object> m) {
+	private void deliver(Message msg, boolean coalesce) {
+		PushFanout fanout = this.fanout;
+		if (fanout != null)
+			fanout.offer(msg, coalesce);
+		else
+			msgbus.send(msg);
+	}
+
+	private Message createMessage(String orgDomain, Binding binding, String callback, Map<String, Object> m,
+			PushInterceptor interceptor, PushPayload shared) {
 		Message msg = new Message();
 		msg.setSession(binding.sessionId);
 		msg.setType(Message.Type.Trap);
 		msg.setMethod(callback);
 		msg.setTarget(Integer.toString(binding.processId));
 
-		Map<String, Object> params = null;
-		PushInterceptor interceptor = pushInterceptorsMap.get(callback);
 		if (interceptor != null) {
+			// interceptor may customize params per subscriber
 			PushCondition.Key key = new PushCondition.Key(orgDomain, binding.sessionId, binding.processId, callback);
 			PushCondition condition = pushConditions.get(key);
-			params = interceptor.onPush(condition, m);
+			Map<String, Object> params = interceptor.onPush(condition, m);
+			msg.setParameters(new PushPayload(MessageConverter.convertMap(params)));
 		} else {
-			params = m;
-		}
-
-		for (String key : params.keySet()) {
-			msg.getParameters().put(key, params.get(key));
+			msg.setParameters(shared);
 		}
 
 		return msg;
 	}
 
+	@Override
+	public void setCoalescing(String callback, boolean enabled) {
+		if (enabled)
+			coalescingCallbacks.add(callback);
+		else
+			coalescingCallbacks.remove(callback);
+	}
+
+	@Override
+	public boolean isCoalescing(String callback) {
+		return coalescingCallbacks.contains(callback);
+	}
+
+	@Override
+	public int getQueueCapacity() {
+		return fanout != null ? fanout.getCapacity() : DEFAULT_QUEUE_CAPACITY;
+	}
+
+	@Override
+	public void setQueueCapacity(int capacity) {
+		if (fanout == null)
+			throw new IllegalStateException("push api is not started");
+
+		fanout.setCapacity(capacity);
+	}
+
+	@Override
+	public Map<String, Integer> getPendingCounts() {
+		if (fanout == null)
+			return new HashMap<String, Integer>();
+
+		return fanout.getPendingCounts();
+	}
+
+	@Override
+	public long getPushCount() {
+		return fanout != null ? fanout.getPushCount() : 0;
+	}
+
+	@Override
+	public long getDropCount() {
+		return fanout != null ? fanout.getDropCount() : 0;
+	}
+
+	@Override
+	public long getCoalesceCount() {
+		return fanout != null ? fanout.getCoalesceCount() : 0;
+	}
+
 	private void tracePush(String orgDomain, String method, Map<String, Object> m, String sessionId, Binding binding) {
 		StringBuilder sb = new StringBuilder();
 		int i = 0;
@@ -233,6 +325,11 @@ public class PushApiImpl implements PushApi {
 		if (sessions != null)
 			sessions.remove(sessionId);
 
+		// discard pending pushes
+		PushFanout fanout = this.fanout;
+		if (fanout != null)
+			fanout.sessionClosed(sessionId);
+
 		// clear all related conditions
 		for (PushCondition.Key key : pushConditions.keySet())
 			if (key.getOrgDomain() == orgDomain && key.getSessionId() == sessionId)
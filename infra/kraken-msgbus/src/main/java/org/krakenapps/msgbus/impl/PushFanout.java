@@ -0,0 +1,306 @@
+/*
+ * Copyright 2011 Future Systems, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.msgbus.impl;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.krakenapps.msgbus.Message;
+import org.krakenapps.msgbus.MessageBus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers push messages through per-session bounded outbound queues, so that
+ * slow session never blocks pusher or other sessions. If outbound queue is
+ * full, the oldest push is dropped. Coalescing push replaces pending push of
+ * same callback and process, since only the latest state matters for live
+ * dashboards.
+ *
+ * Queue exists only while it has pending pushes. Drained or closed queue is
+ * marked as closed under its lock and removed from map, and offer retries with
+ * new queue if it races with removal. Push to already closed session creates
+ * short-lived queue which is removed after it is drained.
+ *
+ * @author xeraph
+ *
+ */
+class PushFanout {
+	private final Logger logger = LoggerFactory.getLogger(PushFanout.class.getName());
+
+	// drain limit per schedule, for fairness between sessions
+	private static final int DRAIN_LIMIT = 100;
+
+	private final MessageBus msgbus;
+	private final ConcurrentMap<String, OutboundQueue> queues;
+	private volatile int capacity;
+	private volatile ExecutorService executor;
+
+	private final AtomicLong pushCount = new AtomicLong();
+	private final AtomicLong dropCount = new AtomicLong();
+	private final AtomicLong coalesceCount = new AtomicLong();
+
+	public PushFanout(MessageBus msgbus, int capacity) {
+		this.msgbus = msgbus;
+		this.capacity = capacity;
+		this.queues = new ConcurrentHashMap<String, OutboundQueue>();
+	}
+
+	public void start(int threads) {
+		if (executor != null)
+			return;
+
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "Msgbus Push");
+			}
+		});
+	}
+
+	public void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+
+		queues.clear();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("push queue capacity should be positive: " + capacity);
+
+		this.capacity = capacity;
+	}
+
+	public void offer(Message msg, boolean coalesce) {
+		ExecutorService executor = this.executor;
+		if (executor == null) {
+			// not started yet, deliver in caller thread
+			msgbus.send(msg);
+			return;
+		}
+
+		String sessionId = msg.getSession();
+		pushCount.incrementAndGet();
+
+		boolean schedule = false;
+		OutboundQueue q = null;
+		while (true) {
+			q = queues.get(sessionId);
+			if (q == null) {
+				q = new OutboundQueue(sessionId);
+				OutboundQueue old = queues.putIfAbsent(sessionId, q);
+				if (old != null)
+					q = old;
+			}
+
+			synchronized (q) {
+				// removed concurrently, retry with new queue
+				if (!q.closed) {
+					schedule = enqueue(q, msg, coalesce);
+					break;
+				}
+			}
+		}
+
+		if (schedule) {
+			try {
+				executor.execute(q);
+			} catch (RejectedExecutionException e) {
+				synchronized (q) {
+					q.scheduled = false;
+				}
+				logger.trace("kraken msgbus: push fanout stopped, drop push [{}]", msg.getMethod());
+			}
+		}
+	}
+
+	/**
+	 * Called with queue lock held.
+	 * 
+	 * @return true if queue should be scheduled
+	 */
+	private boolean enqueue(OutboundQueue q, Message msg, boolean coalesce) {
+		Object key = coalesce ? new CoalesceKey(msg.getMethod(), msg.getTarget()) : Long.valueOf(q.seq++);
+		if (coalesce && q.pending.containsKey(key)) {
+			// stale push is replaced at its original position
+			q.pending.put(key, msg);
+			coalesceCount.incrementAndGet();
+		} else {
+			if (q.pending.size() >= capacity) {
+				Iterator<Object> it = q.pending.keySet().iterator();
+				it.next();
+				it.remove();
+				q.dropCount++;
+				dropCount.incrementAndGet();
+			}
+
+			q.pending.put(key, msg);
+		}
+
+		if (q.scheduled)
+			return false;
+
+		q.scheduled = true;
+		return true;
+	}
+
+	public void sessionClosed(String sessionId) {
+		OutboundQueue q = queues.remove(sessionId);
+		if (q == null)
+			return;
+
+		synchronized (q) {
+			q.closed = true;
+			q.pending.clear();
+		}
+	}
+
+	public long getPushCount() {
+		return pushCount.get();
+	}
+
+	public long getDropCount() {
+		return dropCount.get();
+	}
+
+	public long getCoalesceCount() {
+		return coalesceCount.get();
+	}
+
+	/**
+	 * @return the pending push count per session
+	 */
+	public Map<String, Integer> getPendingCounts() {
+		Map<String, Integer> m = new HashMap<String, Integer>();
+		for (OutboundQueue q : queues.values()) {
+			synchronized (q) {
+				m.put(q.sessionId, q.pending.size());
+			}
+		}
+		return m;
+	}
+
+	private class OutboundQueue implements Runnable {
+		private final String sessionId;
+		private final LinkedHashMap<Object, Message> pending = new LinkedHashMap<Object, Message>();
+		private long seq;
+		private long dropCount;
+		private boolean scheduled;
+		private boolean closed;
+
+		public OutboundQueue(String sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < DRAIN_LIMIT; i++) {
+				Message msg = null;
+				synchronized (this) {
+					Iterator<Message> it = pending.values().iterator();
+					if (!it.hasNext()) {
+						scheduled = false;
+						closed = true;
+						queues.remove(sessionId, this);
+						return;
+					}
+
+					msg = it.next();
+					it.remove();
+				}
+
+				try {
+					msgbus.send(msg);
+				} catch (Throwable t) {
+					logger.warn("kraken msgbus: cannot push to session [" + sessionId + "]", t);
+				}
+			}
+
+			// yield to other sessions, and continue later
+			try {
+				ExecutorService executor = PushFanout.this.executor;
+				if (executor == null)
+					throw new RejectedExecutionException();
+
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				synchronized (this) {
+					scheduled = false;
+				}
+			}
+
+			if (dropCount > 0 && logger.isDebugEnabled())
+				logger.debug("kraken msgbus: session [{}] is slow, dropped [{}] pushes", sessionId, dropCount);
+		}
+	}
+
+	private static class CoalesceKey {
+		private final String method;
+		private final String target;
+
+		public CoalesceKey(String method, String target) {
+			this.method = method;
+			this.target = target;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((method == null) ? 0 : method.hashCode());
+			result = prime * result + ((target == null) ? 0 : target.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			CoalesceKey other = (CoalesceKey) obj;
+			if (method == null) {
+				if (other.method != null)
+					return false;
+			} else if (!method.equals(other.method))
+				return false;
+			if (target == null) {
+				if (other.target != null)
+					return false;
+			} else if (!target.equals(other.target))
+				return false;
+			return true;
+		}
+	}
+}
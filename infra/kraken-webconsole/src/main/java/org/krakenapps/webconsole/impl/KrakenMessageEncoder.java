@@ -35,6 +35,7 @@ import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.base64.Base64;
 import org.json.JSONWriter;
 import org.krakenapps.msgbus.Message;
+import org.krakenapps.msgbus.PushPayload;
 import org.krakenapps.msgbus.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -104,30 +105,43 @@ public class KrakenMessageEncoder {
 	}
 
 	private static String jsonize(Map<String, Object> headers, Map<String, Object> properties) {
-		StringWriter writer = new StringWriter(1024);
-		JSONWriter jsonWriter = new JSONWriter(writer);
-
-		try {
-			jsonWriter.array();
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append('[');
+		sb.append(jsonizeObject(headers));
+		sb.append(',');
+
+		// shared push payload is serialized only once for all subscribers
+		if (properties instanceof PushPayload) {
+			PushPayload payload = (PushPayload) properties;
+			Object encoded = payload.getEncoded();
+			if (!(encoded instanceof String)) {
+				encoded = jsonizeObject(properties);
+				payload.setEncoded(encoded);
+			}
 
-			jsonWriter.object();
+			sb.append((String) encoded);
+		} else {
+			sb.append(jsonizeObject(convertDate(properties)));
+		}
 
-			for (String key : headers.keySet()) {
-				jsonWriter.key(key).value(headers.get(key));
-			}
+		sb.append(']');
+		return sb.toString();
+	}
 
-			jsonWriter.endObject();
+	private static String jsonizeObject(Map<String, Object> m) {
+		StringWriter writer = new StringWriter(512);
+		JSONWriter jsonWriter = new JSONWriter(writer);
 
+		try {
 			jsonWriter.object();
 
-			properties = convertDate(properties);
-			for (String key : properties.keySet()) {
-				jsonWriter.key(key).value(properties.get(key));
+			if (m != null) {
+				for (String key : m.keySet()) {
+					jsonWriter.key(key).value(m.get(key));
+				}
 			}
 
 			jsonWriter.endObject();
-
-			jsonWriter.endArray();
 		} catch (Exception e) {
 			logger.error("kraken webconsole: json encode error", e);
 		}
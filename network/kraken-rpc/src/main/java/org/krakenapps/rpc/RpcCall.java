@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.rpc;
+
+/**
+ * One entry of batched rpc call
+ *
+ * @author xeraph
+ *
+ */
+public class RpcCall {
+	private String method;
+	private Object[] params;
+	private RpcAsyncCallback callback;
+
+	public RpcCall(String method, Object... params) {
+		this(method, params, null);
+	}
+
+	public RpcCall(String method, Object[] params, RpcAsyncCallback callback) {
+		this.method = method;
+		this.params = params;
+		this.callback = callback;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public Object[] getParams() {
+		return params;
+	}
+
+	public RpcAsyncCallback getCallback() {
+		return callback;
+	}
+
+	@Override
+	public String toString() {
+		return "method=" + method;
+	}
+}
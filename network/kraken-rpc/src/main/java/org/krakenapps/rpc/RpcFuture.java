@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.rpc;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pending result of pipelined rpc call. Caller can block using get(), or
+ * register completion callbacks and return immediately. Callbacks are invoked
+ * exactly once, by rpc i/o thread if call is completed after registration, or
+ * by caller thread if call is already completed.
+ *
+ * @author xeraph
+ *
+ */
+public class RpcFuture extends RpcAsyncResult implements Future<Object> {
+	private final Logger logger = LoggerFactory.getLogger(RpcFuture.class.getName());
+	private final int id;
+	private final String method;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final CopyOnWriteArrayList<RpcAsyncCallback> listeners = new CopyOnWriteArrayList<RpcAsyncCallback>();
+	private volatile boolean cancelled;
+
+	public RpcFuture(int id, String method, RpcAsyncCallback callback) {
+		super(null);
+		this.id = id;
+		this.method = method;
+
+		if (callback != null)
+			listeners.add(callback);
+	}
+
+	/**
+	 * @return the rpc call message id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public void addListener(RpcAsyncCallback callback) {
+		listeners.add(callback);
+
+		// late registration
+		if (isDone() && listeners.remove(callback))
+			invoke(callback);
+	}
+
+	public void removeListener(RpcAsyncCallback callback) {
+		listeners.remove(callback);
+	}
+
+	@Override
+	public void setReturn(Object result) {
+		synchronized (this) {
+			if (isDone())
+				return;
+
+			super.setReturn(result);
+			done.countDown();
+		}
+
+		fireListeners();
+	}
+
+	@Override
+	public void setException(RpcException exception) {
+		synchronized (this) {
+			if (isDone())
+				return;
+
+			super.setException(exception);
+			done.countDown();
+		}
+
+		fireListeners();
+	}
+
+	private void fireListeners() {
+		// each listener is invoked only once, even if racing with addListener
+		for (RpcAsyncCallback callback : listeners)
+			if (listeners.remove(callback))
+				invoke(callback);
+	}
+
+	private void invoke(RpcAsyncCallback callback) {
+		try {
+			callback.onComplete(this);
+		} catch (Throwable t) {
+			logger.warn("kraken-rpc: future listener should not throw exception, id " + id, t);
+		}
+	}
+
+	/**
+	 * Cancels waiting only. Peer may execute the call anyway, but the response
+	 * will be ignored.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone())
+				return false;
+
+			cancelled = true;
+			super.setException(new RpcException("call cancelled: message " + id));
+			done.countDown();
+		}
+
+		fireListeners();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public Object get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getOrThrow();
+	}
+
+	@Override
+	public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException("rpc timeout: message " + id);
+
+		return getOrThrow();
+	}
+
+	private Object getOrThrow() throws ExecutionException {
+		if (isError())
+			throw new ExecutionException(getException());
+
+		return getReturn();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("id=%d, method=%s, done=%s", id, method, isDone());
+	}
+}
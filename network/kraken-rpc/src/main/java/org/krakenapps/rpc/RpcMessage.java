@@ -15,7 +15,9 @@
  */
 package org.krakenapps.rpc;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class RpcMessage {
@@ -49,6 +51,21 @@ public class RpcMessage {
 		return post;
 	}
 
+	/**
+	 * Packs several call messages of same session into one frame. Receiver
+	 * unpacks and handles each call in order, and responds individually.
+	 */
+	public static RpcMessage newBatch(int id, int session, List<RpcMessage> calls) {
+		Object[] frames = new Object[calls.size()];
+		int i = 0;
+		for (RpcMessage call : calls)
+			frames[i++] = call.marshal();
+
+		RpcMessage batch = new RpcMessage(id, session, "rpc-batch");
+		batch.put("calls", frames);
+		return batch;
+	}
+
 	public static RpcMessage newResponse(int id, int session, int reqId, String method, Object value) {
 		RpcMessage resp = new RpcMessage(id, session, "rpc-ret");
 		resp.putHeader("ret-for", reqId);
@@ -70,6 +87,21 @@ public class RpcMessage {
 		body = (Map<String, Object>) data[1];
 	}
 
+	/**
+	 * Unpacks call messages of batch frame.
+	 */
+	public List<RpcMessage> getBatchCalls() {
+		List<RpcMessage> calls = new ArrayList<RpcMessage>();
+		Object[] frames = (Object[]) body.get("calls");
+		if (frames == null)
+			return calls;
+
+		for (Object frame : frames)
+			calls.add(new RpcMessage((Object[]) frame));
+
+		return calls;
+	}
+
 	public RpcSession getSession() {
 		return session;
 	}
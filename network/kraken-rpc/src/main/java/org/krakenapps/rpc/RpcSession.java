@@ -15,6 +15,7 @@
  */
 package org.krakenapps.rpc;
 
+import java.util.List;
 
 public interface RpcSession {
 	RpcSessionState getState();
@@ -31,6 +32,30 @@ public interface RpcSession {
 
 	RpcAsyncResult call(String method, Object[] params, RpcAsyncCallback callback);
 
+	/**
+	 * Sends call without waiting response. Caller blocks only if in-flight
+	 * window of this session is full.
+	 */
+	RpcFuture callAsync(String method, Object... params) throws InterruptedException;
+
+	RpcFuture callAsync(String method, Object[] params, RpcAsyncCallback callback) throws InterruptedException;
+
+	/**
+	 * Packs calls into batch frames and returns futures in same order.
+	 * Batch is split into several frames if in-flight window is smaller than
+	 * the number of calls.
+	 */
+	List<RpcFuture> callBatch(List<RpcCall> calls) throws InterruptedException;
+
+	/**
+	 * @return the max number of outstanding async calls, 0 for unbounded
+	 */
+	int getMaxInFlight();
+
+	void setMaxInFlight(int max);
+
+	int getInFlightCount();
+
 	Object call(String method, Object... params) throws RpcException, InterruptedException;
 
 	Object call(String method, Object[] params, long timeout) throws RpcException, InterruptedException;
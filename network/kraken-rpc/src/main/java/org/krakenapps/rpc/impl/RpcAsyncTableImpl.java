@@ -21,9 +21,11 @@ import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.krakenapps.rpc.RpcAsyncCallback;
 import org.krakenapps.rpc.RpcAsyncResult;
 import org.krakenapps.rpc.RpcAsyncTable;
 import org.krakenapps.rpc.RpcException;
+import org.krakenapps.rpc.RpcFuture;
 import org.krakenapps.rpc.RpcMessage;
 import org.krakenapps.rpc.RpcWaitingCall;
 import org.slf4j.Logger;
@@ -49,7 +51,16 @@ public class RpcAsyncTableImpl implements RpcAsyncTable {
 
 	@Override
 	public void cancel(int id) {
-		callMap.remove(id);
+		RpcWaitingCallImpl item = (RpcWaitingCallImpl) callMap.remove(id);
+		if (item == null)
+			return;
+
+		if (logger.isDebugEnabled())
+			logger.debug("kraken-rpc: cancel async call {}", id);
+
+		// wake up future waiters, plain async result has no one to notify
+		if (item.result instanceof RpcFuture)
+			((RpcFuture) item.result).cancel(false);
 	}
 
 	@Override
@@ -57,7 +68,7 @@ public class RpcAsyncTableImpl implements RpcAsyncTable {
 		if (logger.isDebugEnabled())
 			logger.debug("kraken-rpc: signal call response {}", id);
 
-		RpcWaitingCallImpl item = (RpcWaitingCallImpl) callMap.get(id);
+		RpcWaitingCallImpl item = (RpcWaitingCallImpl) callMap.remove(id);
 		if (item == null) {
 			if (logger.isDebugEnabled())
 				logger.debug("kraken-rpc: no waiting item {}, maybe canceled", id);
@@ -85,7 +96,9 @@ public class RpcAsyncTableImpl implements RpcAsyncTable {
 			asyncResult.setReturn(response.get("ret"));
 		}
 
-		item.result.getCallback().onComplete(asyncResult);
+		RpcAsyncCallback callback = asyncResult.getCallback();
+		if (callback != null)
+			callback.onComplete(asyncResult);
 	}
 
 	@Override
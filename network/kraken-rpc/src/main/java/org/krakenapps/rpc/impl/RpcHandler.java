@@ -568,6 +568,21 @@ public class RpcHandler extends SimpleChannelHandler implements Runnable, RpcCon
 			return;
 		}
 
+		// unpack pipelined calls, and schedule each call in order
+		if (type.equals("rpc-batch")) {
+			List<RpcMessage> calls = msg.getBatchCalls();
+			if (logger.isDebugEnabled())
+				logger.debug("kraken rpc: unpack batch - connection: {}, calls: {}", channel.getId(), calls.size());
+
+			for (RpcMessage call : calls)
+				schedule(channel, call);
+			return;
+		}
+
+		schedule(channel, msg);
+	}
+
+	private void schedule(Channel channel, RpcMessage msg) {
 		// schedule call or post handling (long running)
 		if (queue.size() > HIGH_WATERMARK) {
 			if (logger.isTraceEnabled())
@@ -31,6 +31,7 @@ import org.krakenapps.api.ScriptArgument;
 import org.krakenapps.api.ScriptContext;
 import org.krakenapps.api.ScriptUsage;
 import org.krakenapps.rpc.RpcBindingProperties;
+import org.krakenapps.rpc.RpcAsyncTable;
 import org.krakenapps.rpc.RpcBlockingTable;
 import org.krakenapps.rpc.RpcConnection;
 import org.krakenapps.rpc.RpcAgent;
@@ -403,8 +404,12 @@ public class RpcScript implements Script {
 
 		RpcConnection conn = agent.findConnection(connId);
 		RpcBlockingTable blockingTable = conn.getBlockingTable();
+		RpcAsyncTable asyncTable = conn.getAsyncTable();
 
-		blockingTable.cancel(callId);
+		if (asyncTable.contains(callId))
+			asyncTable.cancel(callId);
+		else
+			blockingTable.cancel(callId);
 		context.println("call cancelled");
 	}
 
@@ -419,6 +424,10 @@ public class RpcScript implements Script {
 		for (RpcWaitingCall waiting : blockingTable.getWaitingCalls()) {
 			context.println(waiting.toString());
 		}
+
+		for (RpcWaitingCall waiting : conn.getAsyncTable().getWaitingCalls()) {
+			context.println(waiting.toString() + " (async)");
+		}
 	}
 
 	@ScriptUsage(description = "set connection property", arguments = {
@@ -15,8 +15,10 @@
  */
 package org.krakenapps.rpc.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -25,8 +27,10 @@ import org.krakenapps.rpc.RpcAsyncCallback;
 import org.krakenapps.rpc.RpcAsyncResult;
 import org.krakenapps.rpc.RpcAsyncTable;
 import org.krakenapps.rpc.RpcBlockingTable;
+import org.krakenapps.rpc.RpcCall;
 import org.krakenapps.rpc.RpcConnection;
 import org.krakenapps.rpc.RpcException;
+import org.krakenapps.rpc.RpcFuture;
 import org.krakenapps.rpc.RpcMessage;
 import org.krakenapps.rpc.RpcSession;
 import org.krakenapps.rpc.RpcSessionEventCallback;
@@ -49,6 +53,19 @@ public class RpcSessionImpl implements RpcSession {
 	 */
 	private Set<Integer> blockingCalls;
 
+	/**
+	 * To cancel all pipelined calls at close()
+	 */
+	private Map<Integer, RpcFuture> asyncCalls;
+
+	/**
+	 * In-flight window of pipelined calls, 0 for unbounded
+	 */
+	private final Object window = new Object();
+	private volatile int maxInFlight;
+	private int inFlight;
+	private final RpcAsyncCallback windowReleaser = new WindowReleaser();
+
 	/**
 	 * event callbacks
 	 */
@@ -60,6 +77,7 @@ public class RpcSessionImpl implements RpcSession {
 		this.connection = connection;
 		this.props = new HashMap<String, Object>();
 		this.blockingCalls = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		this.asyncCalls = new ConcurrentHashMap<Integer, RpcFuture>();
 		this.callbacks = Collections.newSetFromMap(new ConcurrentHashMap<RpcSessionEventCallback, Boolean>());
 	}
 
@@ -112,6 +130,183 @@ public class RpcSessionImpl implements RpcSession {
 		return result;
 	}
 
+	@Override
+	public RpcFuture callAsync(String method, Object... params) throws InterruptedException {
+		return callAsync(method, params, null);
+	}
+
+	@Override
+	public RpcFuture callAsync(String method, Object[] params, RpcAsyncCallback callback) throws InterruptedException {
+		verify();
+
+		RpcConnection conn = getConnection();
+		conn.waitPeering();
+
+		acquireWindow();
+
+		RpcFuture future = null;
+		boolean sent = false;
+		try {
+			int msgId = conn.nextMessageId();
+			RpcMessage msg = RpcMessage.newCall(msgId, getId(), method, params);
+			if (logger.isTraceEnabled())
+				logger.trace("kraken-rpc: pipelined call [id={}, session={}, method={}]", new Object[] { msgId, getId(), method });
+
+			future = submit(conn, msgId, method, callback);
+			conn.send(msg);
+			sent = true;
+			return future;
+		} finally {
+			if (!sent) {
+				if (future != null)
+					cancel(conn, Collections.singletonList(future));
+				else
+					releaseWindow();
+			}
+		}
+	}
+
+	@Override
+	public List<RpcFuture> callBatch(List<RpcCall> calls) throws InterruptedException {
+		verify();
+
+		RpcConnection conn = getConnection();
+		conn.waitPeering();
+
+		List<RpcFuture> futures = new ArrayList<RpcFuture>(calls.size());
+		List<RpcMessage> pending = new ArrayList<RpcMessage>();
+		List<RpcFuture> unsent = new ArrayList<RpcFuture>();
+
+		boolean sent = false;
+		try {
+			for (RpcCall call : calls) {
+				// flush before blocking, otherwise pending calls never complete
+				if (!tryAcquireWindow()) {
+					flush(conn, pending, unsent);
+					acquireWindow();
+				}
+
+				RpcFuture future = null;
+				try {
+					int msgId = conn.nextMessageId();
+					RpcMessage msg = RpcMessage.newCall(msgId, getId(), call.getMethod(), call.getParams());
+					future = submit(conn, msgId, call.getMethod(), call.getCallback());
+					pending.add(msg);
+				} finally {
+					if (future == null)
+						releaseWindow();
+				}
+
+				futures.add(future);
+				unsent.add(future);
+			}
+
+			flush(conn, pending, unsent);
+			sent = true;
+			return futures;
+		} finally {
+			// interrupted, session closed or send failure
+			if (!sent)
+				cancel(conn, unsent);
+		}
+	}
+
+	private RpcFuture submit(RpcConnection conn, int msgId, String method, RpcAsyncCallback callback) {
+		RpcFuture future = new RpcFuture(msgId, method, callback);
+		future.addListener(windowReleaser);
+		asyncCalls.put(msgId, future);
+		conn.getAsyncTable().submit(msgId, future);
+		return future;
+	}
+
+	/**
+	 * Fails futures of calls which are not sent, and releases their window
+	 * slots by completion listener.
+	 */
+	private void cancel(RpcConnection conn, List<RpcFuture> futures) {
+		RpcAsyncTable asyncTable = conn.getAsyncTable();
+		for (RpcFuture future : futures) {
+			asyncTable.cancel(future.getId());
+			future.cancel(false);
+		}
+	}
+
+	private void flush(RpcConnection conn, List<RpcMessage> pending, List<RpcFuture> unsent) {
+		if (pending.isEmpty())
+			return;
+
+		if (pending.size() == 1) {
+			conn.send(pending.get(0));
+		} else {
+			if (logger.isTraceEnabled())
+				logger.trace("kraken-rpc: batch call [session={}, calls={}]", getId(), pending.size());
+
+			conn.send(RpcMessage.newBatch(conn.nextMessageId(), getId(), pending));
+		}
+
+		pending.clear();
+		unsent.clear();
+	}
+
+	@Override
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	@Override
+	public void setMaxInFlight(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException("max in-flight should be zero or positive: " + max);
+
+		synchronized (window) {
+			maxInFlight = max;
+			window.notifyAll();
+		}
+	}
+
+	@Override
+	public int getInFlightCount() {
+		synchronized (window) {
+			return inFlight;
+		}
+	}
+
+	private void acquireWindow() throws InterruptedException {
+		synchronized (window) {
+			while (maxInFlight > 0 && inFlight >= maxInFlight) {
+				window.wait();
+				verify();
+			}
+
+			inFlight++;
+		}
+	}
+
+	private boolean tryAcquireWindow() {
+		synchronized (window) {
+			if (maxInFlight > 0 && inFlight >= maxInFlight)
+				return false;
+
+			inFlight++;
+			return true;
+		}
+	}
+
+	private void releaseWindow() {
+		synchronized (window) {
+			inFlight--;
+			window.notifyAll();
+		}
+	}
+
+	private class WindowReleaser implements RpcAsyncCallback {
+		@Override
+		public void onComplete(RpcAsyncResult r) {
+			asyncCalls.remove(((RpcFuture) r).getId());
+			releaseWindow();
+		}
+	}
+
 	@Override
 	public Object call(String method, Object... params) throws RpcException, InterruptedException {
 		return call(method, params, 0);
@@ -197,6 +392,15 @@ public class RpcSessionImpl implements RpcSession {
 
 		blockingCalls.clear();
 
+		// fail all pipelined calls, and wake up callers waiting window
+		RpcAsyncTable asyncTable = conn.getAsyncTable();
+		for (Integer msgId : new ArrayList<Integer>(asyncCalls.keySet()))
+			asyncTable.cancel(msgId);
+
+		synchronized (window) {
+			window.notifyAll();
+		}
+
 		// invoke all session callbacks
 		for (RpcSessionEventCallback callback : callbacks) {
 			try {
@@ -224,6 +428,7 @@ public class RpcSessionImpl implements RpcSession {
 
 	@Override
 	public String toString() {
-		return String.format("id=%d, service=%s, peer=%s", id, serviceName, connection.getRemoteAddress());
+		return String.format("id=%d, service=%s, peer=%s, in-flight=%d/%d", id, serviceName, connection.getRemoteAddress(),
+				getInFlightCount(), maxInFlight);
 	}
 }
@@ -16,10 +16,19 @@
 package org.krakenapps.syslog;
 
 import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 
+/**
+ * Received syslog. Syslog parsed by {@link SyslogParser} keeps raw bytes and
+ * header field ranges, and decodes strings lazily on first access. Syslog
+ * server may reuse instances after listener returns if event pooling is
+ * enabled, so listeners should copy the syslog (or the fields) if they keep it.
+ */
 public class Syslog {
+	private long receiveTime;
 	private Date date;
 	private InetSocketAddress localAddress;
 	private InetSocketAddress remoteAddress;
@@ -27,7 +36,48 @@ public class Syslog {
 	private int severity;
 	private String message;
 
+	// raw bytes and charset, set by parser
+	byte[] raw;
+	int rawLength;
+	Charset charset;
+
+	// 0 for RFC 3164 (BSD), 1 for RFC 5424
+	int version;
+
+	// header timestamp in milliseconds, -1 if not parsed
+	long timestamp = -1;
+
+	// field ranges of raw bytes. -1 offset for absent (or nil) field
+	int bodyOffset;
+	int hostOffset = -1;
+	int hostLength;
+	int tagOffset = -1;
+	int tagLength;
+	int procIdOffset = -1;
+	int procIdLength;
+	int msgIdOffset = -1;
+	int msgIdLength;
+	int structuredDataOffset = -1;
+	int structuredDataLength;
+	int contentOffset;
+
+	// lazily decoded fields
+	private Date timestampDate;
+	private String host;
+	private String tag;
+	private String procId;
+	private String msgId;
+	private String structuredData;
+	private String content;
+
+	/**
+	 * Creates empty syslog for parser
+	 */
+	public Syslog() {
+	}
+
 	public Syslog(Date date, InetSocketAddress remote, int facility, int severity, String message) {
+		this.receiveTime = date != null ? date.getTime() : 0;
 		this.date = date;
 		this.remoteAddress = remote;
 		this.facility = facility;
@@ -35,12 +85,110 @@ public class Syslog {
 		this.message = message;
 	}
 
+	/**
+	 * Copies syslog, and detaches the copy from raw buffer of the source
+	 */
+	public Syslog(Syslog other) {
+		this.receiveTime = other.receiveTime;
+		this.localAddress = other.localAddress;
+		this.remoteAddress = other.remoteAddress;
+		this.facility = other.facility;
+		this.severity = other.severity;
+		this.message = other.message;
+		this.charset = other.charset;
+		this.version = other.version;
+		this.timestamp = other.timestamp;
+		this.bodyOffset = other.bodyOffset;
+		this.hostOffset = other.hostOffset;
+		this.hostLength = other.hostLength;
+		this.tagOffset = other.tagOffset;
+		this.tagLength = other.tagLength;
+		this.procIdOffset = other.procIdOffset;
+		this.procIdLength = other.procIdLength;
+		this.msgIdOffset = other.msgIdOffset;
+		this.msgIdLength = other.msgIdLength;
+		this.structuredDataOffset = other.structuredDataOffset;
+		this.structuredDataLength = other.structuredDataLength;
+		this.contentOffset = other.contentOffset;
+		this.host = other.host;
+		this.tag = other.tag;
+		this.procId = other.procId;
+		this.msgId = other.msgId;
+		this.structuredData = other.structuredData;
+		this.content = other.content;
+
+		if (other.raw != null) {
+			this.raw = Arrays.copyOf(other.raw, other.rawLength);
+			this.rawLength = other.rawLength;
+		}
+	}
+
+	/**
+	 * Clears all fields and copies raw bytes into internal buffer. Buffer is
+	 * reused if it is large enough.
+	 */
+	void reset(byte[] b, int offset, int length, Charset charset) {
+		if (raw == null || raw.length < length)
+			raw = new byte[Math.max(length, 256)];
+
+		System.arraycopy(b, offset, raw, 0, length);
+		rawLength = length;
+		this.charset = charset;
+
+		receiveTime = 0;
+		date = null;
+		localAddress = null;
+		remoteAddress = null;
+		facility = -1;
+		severity = -1;
+		message = null;
+		version = 0;
+		timestamp = -1;
+		bodyOffset = 0;
+		hostOffset = -1;
+		hostLength = 0;
+		tagOffset = -1;
+		tagLength = 0;
+		procIdOffset = -1;
+		procIdLength = 0;
+		msgIdOffset = -1;
+		msgIdLength = 0;
+		structuredDataOffset = -1;
+		structuredDataLength = 0;
+		contentOffset = 0;
+		timestampDate = null;
+		host = null;
+		tag = null;
+		procId = null;
+		msgId = null;
+		structuredData = null;
+		content = null;
+	}
+
+	/**
+	 * @return the receive time
+	 */
 	public Date getDate() {
+		if (date == null && receiveTime > 0)
+			date = new Date(receiveTime);
 		return date;
 	}
 
 	public void setDate(Date date) {
 		this.date = date;
+		this.receiveTime = date != null ? date.getTime() : 0;
+	}
+
+	/**
+	 * @return the receive time in milliseconds
+	 */
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+
+	public void setReceiveTime(long receiveTime) {
+		this.receiveTime = receiveTime;
+		this.date = null;
 	}
 
 	public InetSocketAddress getLocalAddress() {
@@ -75,7 +223,12 @@ public class Syslog {
 		this.severity = severity;
 	}
 
+	/**
+	 * @return the text after PRI part, including header
+	 */
 	public String getMessage() {
+		if (message == null && raw != null)
+			message = decode(bodyOffset, rawLength - bodyOffset);
 		return message;
 	}
 
@@ -83,11 +236,84 @@ public class Syslog {
 		this.message = message;
 	}
 
+	/**
+	 * @return 1 for RFC 5424 syslog, 0 for RFC 3164 (BSD) or unparsed syslog
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the header timestamp, or null if header has no valid timestamp
+	 */
+	public Date getTimestamp() {
+		if (timestampDate == null && timestamp >= 0)
+			timestampDate = new Date(timestamp);
+		return timestampDate;
+	}
+
+	public String getHost() {
+		if (host == null && hostOffset >= 0)
+			host = decode(hostOffset, hostLength);
+		return host;
+	}
+
+	/**
+	 * @return the tag of RFC 3164, or app-name of RFC 5424
+	 */
+	public String getTag() {
+		if (tag == null && tagOffset >= 0)
+			tag = decode(tagOffset, tagLength);
+		return tag;
+	}
+
+	public String getProcessId() {
+		if (procId == null && procIdOffset >= 0)
+			procId = decode(procIdOffset, procIdLength);
+		return procId;
+	}
+
+	/**
+	 * @return the msgid of RFC 5424
+	 */
+	public String getMessageId() {
+		if (msgId == null && msgIdOffset >= 0)
+			msgId = decode(msgIdOffset, msgIdLength);
+		return msgId;
+	}
+
+	/**
+	 * @return the structured data of RFC 5424, including brackets
+	 */
+	public String getStructuredData() {
+		if (structuredData == null && structuredDataOffset >= 0)
+			structuredData = decode(structuredDataOffset, structuredDataLength);
+		return structuredData;
+	}
+
+	/**
+	 * @return the message text after header, or whole message if header is not
+	 *         parsed
+	 */
+	public String getContent() {
+		if (content == null) {
+			if (raw != null)
+				content = decode(contentOffset, rawLength - contentOffset);
+			else
+				content = message;
+		}
+		return content;
+	}
+
+	private String decode(int offset, int length) {
+		return new String(raw, offset, length, charset);
+	}
+
 	@Override
 	public String toString() {
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		return String.format("date=%s, remote=%s, facility=%d, severity=%d, msg=%s", dateFormat.format(date), remoteAddress,
-				facility, severity, message);
+		return String.format("date=%s, remote=%s, facility=%d, severity=%d, msg=%s", dateFormat.format(getDate()),
+				remoteAddress, facility, severity, getMessage());
 	}
 
 }
@@ -15,6 +15,11 @@
  */
 package org.krakenapps.syslog;
 
+/**
+ * Receives syslog. If event pooling is enabled in syslog profile, syslog
+ * instance is reused after onReceive() returns, so copy it using
+ * {@link Syslog#Syslog(Syslog)} if you need to keep it.
+ */
 public interface SyslogListener {
 	void onReceive(Syslog syslog);
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.syslog;
+
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Parses PRI and header (RFC 3164 and RFC 5424) directly from bytes into
+ * reusable {@link Syslog}. Only field ranges are recorded while parsing, and
+ * strings are decoded when requested. Parser is not thread-safe, so use one
+ * parser per receiver thread.
+ *
+ * @author xeraph
+ *
+ */
+public class SyslogParser {
+	private static final byte[][] MONTHS = new byte[][] { bytes("Jan"), bytes("Feb"), bytes("Mar"), bytes("Apr"),
+			bytes("May"), bytes("Jun"), bytes("Jul"), bytes("Aug"), bytes("Sep"), bytes("Oct"), bytes("Nov"),
+			bytes("Dec") };
+
+	// RFC 3164 tag is alphanumeric, and should not exceed 32 chars
+	private static final int MAX_TAG_LENGTH = 48;
+
+	private final Charset charset;
+
+	// RFC 3164 timestamp is local time without year
+	private final Calendar localCalendar = Calendar.getInstance();
+	private final Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+	private int currentYear;
+	private long nextYearBegin;
+
+	// current parse state
+	private byte[] b;
+	private int end;
+	private int pos;
+
+	public SyslogParser(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Copies bytes into syslog, and parses PRI and header.
+	 *
+	 * @param syslog
+	 *            the syslog to reset and fill
+	 * @param receiveTime
+	 *            the receive time in milliseconds, also used to infer year of
+	 *            RFC 3164 timestamp
+	 */
+	public Syslog parse(Syslog syslog, byte[] buf, int offset, int length, long receiveTime) {
+		syslog.reset(buf, offset, length, charset);
+		syslog.setReceiveTime(receiveTime);
+
+		b = syslog.raw;
+		end = length;
+		pos = 0;
+
+		try {
+			parsePri(syslog);
+			syslog.bodyOffset = pos;
+			syslog.contentOffset = pos;
+
+			if (pos + 1 < end && b[pos] == '1' && b[pos + 1] == ' ')
+				parseRfc5424(syslog);
+			else
+				parseRfc3164(syslog, receiveTime);
+		} finally {
+			b = null;
+		}
+
+		return syslog;
+	}
+
+	private void parsePri(Syslog syslog) {
+		if (end == 0 || b[0] != '<')
+			return;
+
+		int pri = 0;
+		int i = 1;
+		while (i < end && i <= 4 && isDigit(b[i]))
+			pri = pri * 10 + (b[i++] - '0');
+
+		// facility 23 and severity 7 at most
+		if (i == 1 || i >= end || b[i] != '>' || pri > 191)
+			return;
+
+		syslog.setFacility(pri / 8);
+		syslog.setSeverity(pri % 8);
+		pos = i + 1;
+	}
+
+	private void parseRfc5424(Syslog syslog) {
+		int p = pos + 2;
+
+		// timestamp, or plain message which starts with digit
+		int tsEnd = indexOfSpace(p);
+		if (tsEnd < 0)
+			return;
+
+		if (!isNil(p, tsEnd)) {
+			long ts = parseRfc3339(p, tsEnd);
+			if (ts < 0)
+				return;
+			syslog.timestamp = ts;
+		}
+
+		syslog.version = 1;
+		p = tsEnd + 1;
+
+		// hostname, app-name, procid, msgid
+		for (int field = 0; field < 4; field++) {
+			int e = indexOfSpace(p);
+			if (e < 0)
+				return;
+
+			if (!isNil(p, e)) {
+				switch (field) {
+				case 0:
+					syslog.hostOffset = p;
+					syslog.hostLength = e - p;
+					break;
+				case 1:
+					syslog.tagOffset = p;
+					syslog.tagLength = e - p;
+					break;
+				case 2:
+					syslog.procIdOffset = p;
+					syslog.procIdLength = e - p;
+					break;
+				case 3:
+					syslog.msgIdOffset = p;
+					syslog.msgIdLength = e - p;
+					break;
+				}
+			}
+			p = e + 1;
+		}
+
+		// structured data
+		if (p < end && b[p] == '-') {
+			p++;
+		} else if (p < end && b[p] == '[') {
+			int sdBegin = p;
+			while (p < end && b[p] == '[') {
+				p = skipElement(p);
+				if (p < 0) {
+					// broken structured data, leave content after header
+					syslog.contentOffset = sdBegin;
+					return;
+				}
+			}
+			syslog.structuredDataOffset = sdBegin;
+			syslog.structuredDataLength = p - sdBegin;
+		}
+
+		if (p < end && b[p] == ' ')
+			p++;
+
+		// skip utf-8 BOM
+		if (p + 2 < end && b[p] == (byte) 0xEF && b[p + 1] == (byte) 0xBB && b[p + 2] == (byte) 0xBF)
+			p += 3;
+
+		syslog.contentOffset = Math.min(p, end);
+	}
+
+	/**
+	 * @return the offset after closing bracket, or -1 if unterminated
+	 */
+	private int skipElement(int p) {
+		boolean quoted = false;
+		for (int i = p + 1; i < end; i++) {
+			byte c = b[i];
+			if (c == '\\') {
+				i++;
+			} else if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ']' && !quoted) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private void parseRfc3164(Syslog syslog, long receiveTime) {
+		int p = pos;
+		if (p + 15 < end && b[p + 15] == ' ' && b[p + 3] == ' ') {
+			long ts = parseBsdTimestamp(p, receiveTime);
+			if (ts < 0)
+				return;
+
+			syslog.timestamp = ts;
+			p += 16;
+		} else if (p + 10 < end && isDigit(b[p]) && b[p + 4] == '-' && b[p + 10] == 'T') {
+			// rfc 3339 timestamp without version
+			int tsEnd = indexOfSpace(p);
+			if (tsEnd < 0)
+				return;
+
+			long ts = parseRfc3339(p, tsEnd);
+			if (ts < 0)
+				return;
+
+			syslog.timestamp = ts;
+			p = tsEnd + 1;
+		} else {
+			return;
+		}
+
+		// hostname
+		int hostEnd = indexOfSpace(p);
+		if (hostEnd <= p)
+			return;
+
+		syslog.hostOffset = p;
+		syslog.hostLength = hostEnd - p;
+		p = hostEnd + 1;
+		syslog.contentOffset = p;
+
+		// tag, optionally with [pid], terminated by colon
+		int i = p;
+		int limit = Math.min(end, p + MAX_TAG_LENGTH);
+		while (i < limit && b[i] != ':' && b[i] != '[' && b[i] != ' ')
+			i++;
+
+		if (i == p || i >= limit)
+			return;
+
+		int tagEnd = i;
+		if (b[i] == '[') {
+			int pidBegin = i + 1;
+			while (i < end && b[i] != ']' && b[i] != ' ')
+				i++;
+
+			if (i >= end || b[i] != ']')
+				return;
+
+			syslog.procIdOffset = pidBegin;
+			syslog.procIdLength = i - pidBegin;
+			i++;
+		}
+
+		if (i >= end || b[i] != ':') {
+			syslog.procIdOffset = -1;
+			syslog.procIdLength = 0;
+			return;
+		}
+
+		syslog.tagOffset = p;
+		syslog.tagLength = tagEnd - p;
+
+		i++;
+		if (i < end && b[i] == ' ')
+			i++;
+
+		syslog.contentOffset = i;
+	}
+
+	/**
+	 * Parses "Mmm dd hh:mm:ss" in local time. Year is inferred from receive
+	 * time, and timestamp far in the future is moved to last year (e.g.
+	 * december log received on january 1st)
+	 */
+	private long parseBsdTimestamp(int p, long receiveTime) {
+		int month = -1;
+		for (int m = 0; m < 12; m++) {
+			byte[] name = MONTHS[m];
+			if (b[p] == name[0] && b[p + 1] == name[1] && b[p + 2] == name[2]) {
+				month = m;
+				break;
+			}
+		}
+
+		if (month < 0)
+			return -1;
+
+		int day = digit(p + 4) < 0 && b[p + 4] == ' ' ? digit(p + 5) : number(p + 4, 2);
+		int hour = number(p + 7, 2);
+		int min = number(p + 10, 2);
+		int sec = number(p + 13, 2);
+		if (day < 1 || hour < 0 || min < 0 || sec < 0 || b[p + 6] != ' ' || b[p + 9] != ':' || b[p + 12] != ':')
+			return -1;
+
+		int year = yearOf(receiveTime);
+		long t = toMillis(localCalendar, year, month, day, hour, min, sec, 0);
+		if (t - receiveTime > 86400000L)
+			t = toMillis(localCalendar, year - 1, month, day, hour, min, sec, 0);
+
+		return t;
+	}
+
+	/**
+	 * Parses "YYYY-MM-DDThh:mm:ss[.frac](Z|+hh:mm|-hh:mm)"
+	 */
+	private long parseRfc3339(int p, int e) {
+		if (e - p < 20)
+			return -1;
+
+		int year = number(p, 4);
+		int month = number(p + 5, 2);
+		int day = number(p + 8, 2);
+		int hour = number(p + 11, 2);
+		int min = number(p + 14, 2);
+		int sec = number(p + 17, 2);
+		if (year < 0 || month < 1 || day < 1 || hour < 0 || min < 0 || sec < 0)
+			return -1;
+
+		int i = p + 19;
+		int millis = 0;
+		if (b[i] == '.') {
+			i++;
+			int digits = 0;
+			while (i < e && isDigit(b[i])) {
+				if (digits++ < 3)
+					millis = millis * 10 + (b[i] - '0');
+				i++;
+			}
+
+			for (; digits < 3; digits++)
+				millis *= 10;
+		}
+
+		if (i >= e)
+			return -1;
+
+		long offset = 0;
+		if (b[i] == 'Z' || b[i] == 'z') {
+			if (i + 1 != e)
+				return -1;
+		} else if ((b[i] == '+' || b[i] == '-') && i + 6 == e && b[i + 3] == ':') {
+			int oh = number(i + 1, 2);
+			int om = number(i + 4, 2);
+			if (oh < 0 || om < 0)
+				return -1;
+
+			offset = (oh * 60L + om) * 60000L;
+			if (b[i] == '-')
+				offset = -offset;
+		} else {
+			return -1;
+		}
+
+		return toMillis(utcCalendar, year, month - 1, day, hour, min, sec, millis) - offset;
+	}
+
+	private int yearOf(long time) {
+		if (time >= nextYearBegin || currentYear == 0) {
+			localCalendar.setTimeInMillis(time);
+			currentYear = localCalendar.get(Calendar.YEAR);
+			nextYearBegin = toMillis(localCalendar, currentYear + 1, 0, 1, 0, 0, 0, 0);
+		}
+
+		return currentYear;
+	}
+
+	private static long toMillis(Calendar c, int year, int month, int day, int hour, int min, int sec, int millis) {
+		c.clear();
+		c.set(year, month, day, hour, min, sec);
+		c.set(Calendar.MILLISECOND, millis);
+		return c.getTimeInMillis();
+	}
+
+	private int indexOfSpace(int from) {
+		for (int i = from; i < end; i++)
+			if (b[i] == ' ')
+				return i;
+		return -1;
+	}
+
+	private boolean isNil(int p, int e) {
+		return e - p == 1 && b[p] == '-';
+	}
+
+	private int number(int p, int digits) {
+		if (p + digits > end)
+			return -1;
+
+		int n = 0;
+		for (int i = p; i < p + digits; i++) {
+			if (!isDigit(b[i]))
+				return -1;
+			n = n * 10 + (b[i] - '0');
+		}
+		return n;
+	}
+
+	private int digit(int p) {
+		return p < end && isDigit(b[p]) ? b[p] - '0' : -1;
+	}
+
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static byte[] bytes(String s) {
+		return new byte[] { (byte) s.charAt(0), (byte) s.charAt(1), (byte) s.charAt(2) };
+	}
+}
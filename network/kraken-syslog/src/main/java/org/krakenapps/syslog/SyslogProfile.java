@@ -27,6 +27,25 @@ public class SyslogProfile {
 	private String charset = "utf-8";
 	private int queueSize = 20000;
 
+	// udp or tcp
+	private String protocol = "udp";
+
+	// receiver thread count sharing the udp socket
+	private int receiverCount = 1;
+
+	// socket receive buffer size in bytes, 0 for os default
+	private int receiveBufferSize = 0;
+
+	// longer message is truncated
+	private int maxMessageSize = 65535;
+
+	// max syslog count per hand-off to listeners
+	private int batchSize = 100;
+
+	// reuse syslog instances after dispatch. listeners should not keep
+	// received syslog if enabled
+	private boolean pooling = false;
+
 	public SyslogProfile() {
 	}
 
@@ -74,9 +93,59 @@ public class SyslogProfile {
 		this.queueSize = queueSize;
 	}
 
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public void setProtocol(String protocol) {
+		this.protocol = protocol;
+	}
+
+	public int getReceiverCount() {
+		return receiverCount;
+	}
+
+	public void setReceiverCount(int receiverCount) {
+		this.receiverCount = receiverCount;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public boolean isPooling() {
+		return pooling;
+	}
+
+	public void setPooling(boolean pooling) {
+		this.pooling = pooling;
+	}
+
 	@Override
 	public String toString() {
-		return "[" + name + "] " + address + ":" + port + ", charset=" + charset + ", capacity=" + queueSize;
+		return "[" + name + "] " + protocol + " " + address + ":" + port + ", charset=" + charset + ", capacity="
+				+ queueSize + ", receivers=" + receiverCount + ", rcvbuf=" + receiveBufferSize + ", max msg="
+				+ maxMessageSize + ", batch=" + batchSize + ", pooling=" + pooling;
 	}
 
 }
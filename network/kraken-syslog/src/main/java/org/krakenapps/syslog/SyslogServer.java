@@ -31,4 +31,17 @@ public interface SyslogServer {
 	void open() throws SocketException;
 
 	void close();
+
+	long getReceiveCount();
+
+	/**
+	 * @return the syslog count dropped because listeners are slower than
+	 *         receivers
+	 */
+	long getDropCount();
+
+	/**
+	 * @return the syslog count truncated by max message size
+	 */
+	long getTruncateCount();
 }
@@ -45,4 +45,9 @@ public interface SyslogServerRegistry {
 	void addEventListener(SyslogServerRegistryEventListener callback);
 
 	void removeEventListener(SyslogServerRegistryEventListener callback);
+
+	/**
+	 * @return the total dropped syslog count of all servers
+	 */
+	long getDropCount();
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.syslog.impl;
+
+/**
+ * Splits tcp syslog stream into frames (RFC 6587). Octet-counting frame
+ * ("LEN SP MSG") is detected by leading digit, otherwise non-transparent
+ * framing with LF (or NUL) trailer is assumed. Frames longer than max message
+ * size are truncated, and the rest is discarded.
+ *
+ * @author xeraph
+ *
+ */
+class SyslogFrameDecoder {
+	public interface FrameHandler {
+		void onFrame(byte[] b, int offset, int length, boolean truncated);
+	}
+
+	// digits of octet count and trailing space
+	private static final int MAX_COUNT_DIGITS = 10;
+
+	private final int maxMessageSize;
+	private final byte[] buf;
+	private int len;
+
+	// remaining octets of truncated octet-counting frame
+	private int skip;
+
+	// discard until next LF, for truncated non-transparent frame
+	private boolean discardLine;
+
+	public SyslogFrameDecoder(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+		this.buf = new byte[maxMessageSize + MAX_COUNT_DIGITS + 1];
+	}
+
+	/**
+	 * @return the buffer to fill, starting at getWriteOffset()
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public int getWriteOffset() {
+		return len;
+	}
+
+	public int getWritable() {
+		return buf.length - len;
+	}
+
+	/**
+	 * Decodes all complete frames, and keeps partial frame for next read.
+	 *
+	 * @param n
+	 *            the byte count written to buffer
+	 */
+	public void written(int n, FrameHandler handler) {
+		len += n;
+
+		int pos = 0;
+		while (pos < len) {
+			if (skip > 0) {
+				int d = Math.min(skip, len - pos);
+				pos += d;
+				skip -= d;
+				continue;
+			}
+
+			if (discardLine) {
+				int lf = indexOfTrailer(pos);
+				if (lf < 0) {
+					pos = len;
+					break;
+				}
+
+				pos = lf + 1;
+				discardLine = false;
+				continue;
+			}
+
+			byte c = buf[pos];
+			if (c == '\n' || c == '\r' || c == 0 || c == ' ') {
+				pos++;
+				continue;
+			}
+
+			if (c >= '0' && c <= '9') {
+				int i = pos;
+				long count = 0;
+				while (i < len && i - pos < MAX_COUNT_DIGITS && buf[i] >= '0' && buf[i] <= '9')
+					count = count * 10 + (buf[i++] - '0');
+
+				// need more bytes for octet count
+				if (i == len)
+					break;
+
+				if (buf[i] == ' ') {
+					int start = i + 1;
+					if (count > maxMessageSize) {
+						if (len - start < maxMessageSize)
+							break;
+
+						handler.onFrame(buf, start, maxMessageSize, true);
+						skip = (int) (count - maxMessageSize);
+						pos = start + maxMessageSize;
+						continue;
+					}
+
+					if (len - start < count)
+						break;
+
+					handler.onFrame(buf, start, (int) count, false);
+					pos = start + (int) count;
+					continue;
+				}
+			}
+
+			int trailer = indexOfTrailer(pos);
+			if (trailer < 0) {
+				// no trailer in full buffer
+				if (pos == 0 && len == buf.length) {
+					handler.onFrame(buf, 0, Math.min(len, maxMessageSize), true);
+					pos = len;
+					discardLine = true;
+				}
+				break;
+			}
+
+			int end = trailer;
+			if (end > pos && buf[end - 1] == '\r')
+				end--;
+
+			handler.onFrame(buf, pos, end - pos, false);
+			pos = trailer + 1;
+		}
+
+		// compact partial frame
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, len - pos);
+			len -= pos;
+		}
+	}
+
+	private int indexOfTrailer(int from) {
+		for (int i = from; i < len; i++)
+			if (buf[i] == '\n' || buf[i] == 0)
+				return i;
+		return -1;
+	}
+}
@@ -15,55 +15,94 @@
  */
 package org.krakenapps.syslog.impl;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.krakenapps.syslog.Syslog;
+import org.krakenapps.syslog.SyslogBatchListener;
 import org.krakenapps.syslog.SyslogListener;
+import org.krakenapps.syslog.SyslogParser;
 import org.krakenapps.syslog.SyslogProfile;
 import org.krakenapps.syslog.SyslogServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SyslogReceiver implements SyslogServer, Runnable {
+/**
+ * Receives syslog via udp or tcp (RFC 6587 framing). Receiver threads hand off
+ * syslog batches to bounded queue without blocking, and single push runner
+ * dispatches batches to listeners. If listeners are slower than receivers,
+ * batches are dropped and counted, instead of blocking receivers and losing
+ * packets silently in kernel. If event pooling is enabled, dispatched full
+ * batches are returned to receivers and their syslog instances are reused.
+ */
+public class SyslogReceiver implements SyslogServer {
 	final Logger logger = LoggerFactory.getLogger(SyslogReceiver.class.getName());
 
+	// max delay of partial batch in milliseconds
+	private static final int FLUSH_INTERVAL = 100;
+
 	private SyslogProfile profile;
-	private DatagramSocket socket;
-	private byte[] buffer;
+	private InetSocketAddress listenAddress;
 	private Charset charset;
+	private int maxMessageSize;
+	private int batchSize;
+	private boolean pooling;
+
+	private DatagramSocket socket;
+	private ServerSocket serverSocket;
+	private Set<Socket> clients;
 
 	private PushRunner internalRunner = new PushRunner();
-	private Thread thread;
+	private List<Thread> receiverThreads;
 	private Thread pushRunnerThread;
-	private LinkedBlockingQueue<Syslog> packetQueue;
+	private ArrayBlockingQueue<Syslog[]> batchQueue;
+
+	// dispatched full batches for reuse, if pooling is enabled
+	private ArrayBlockingQueue<Syslog[]> freeBatches;
 
 	private Set<SyslogListener> callbacks;
 	private Date bootTime = new Date();
 	private AtomicLong counter = new AtomicLong();
+	private AtomicLong receiveCounter = new AtomicLong();
+	private AtomicLong dropCounter = new AtomicLong();
+	private AtomicLong truncateCounter = new AtomicLong();
 
 	private volatile boolean doStop = false;
 	private volatile boolean doStopPush = false;
 
 	public SyslogReceiver(SyslogProfile profile) {
 		this.profile = profile;
+		this.listenAddress = new InetSocketAddress(profile.getAddress(), profile.getPort());
 		this.charset = Charset.forName(profile.getCharset());
-		this.packetQueue = new LinkedBlockingQueue<Syslog>(profile.getQueueSize());
+		this.maxMessageSize = profile.getMaxMessageSize() > 0 ? profile.getMaxMessageSize() : 65535;
+		this.batchSize = profile.getBatchSize() > 0 ? profile.getBatchSize() : 1;
+
+		int capacity = Math.max(1, (profile.getQueueSize() + batchSize - 1) / batchSize);
+		this.batchQueue = new ArrayBlockingQueue<Syslog[]>(capacity);
+		this.pooling = profile.isPooling();
+		this.freeBatches = new ArrayBlockingQueue<Syslog[]>(capacity);
 		this.callbacks = Collections.newSetFromMap(new ConcurrentHashMap<SyslogListener, Boolean>());
-		this.thread = new Thread(this, "Syslog " + profile.getListenAddress());
-		this.pushRunnerThread = new Thread(internalRunner, "Syslog Push " + profile.getListenAddress());
+		this.clients = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+		this.receiverThreads = new ArrayList<Thread>();
+		this.pushRunnerThread = new Thread(internalRunner, "Syslog Push " + listenAddress);
 	}
 
 	@Override
@@ -76,57 +115,118 @@ public class SyslogReceiver implements SyslogServer, Runnable {
 		return Charset.forName(profile.getCharset());
 	}
 
+	private boolean isTcp() {
+		return "tcp".equalsIgnoreCase(profile.getProtocol());
+	}
+
 	public void open() throws SocketException {
-		if (socket != null)
+		if (socket != null || serverSocket != null)
 			throw new IllegalStateException("already opened");
 
 		logger.info("kraken syslog: opening syslog server [{}]", profile);
 
-		socket = new DatagramSocket(getListenAddress());
-		socket.setSoTimeout(500);
+		if (isTcp()) {
+			try {
+				serverSocket = new ServerSocket();
+				serverSocket.setReuseAddress(true);
+				if (profile.getReceiveBufferSize() > 0)
+					serverSocket.setReceiveBufferSize(profile.getReceiveBufferSize());
+				serverSocket.setSoTimeout(500);
+				serverSocket.bind(listenAddress);
+			} catch (IOException e) {
+				closeServerSocket();
+				SocketException se = new SocketException("cannot open tcp syslog server: " + e.getMessage());
+				se.initCause(e);
+				throw se;
+			}
+
+			receiverThreads.add(new Thread(new TcpAcceptor(), "Syslog TCP " + listenAddress));
+		} else {
+			socket = new DatagramSocket(listenAddress);
+			socket.setSoTimeout(FLUSH_INTERVAL);
+			if (profile.getReceiveBufferSize() > 0)
+				socket.setReceiveBufferSize(profile.getReceiveBufferSize());
+
+			// receivers share one socket, each with its own buffer
+			int count = Math.max(1, profile.getReceiverCount());
+			for (int i = 0; i < count; i++)
+				receiverThreads.add(new Thread(new UdpReceiver(), "Syslog " + listenAddress + " #" + i));
+		}
+
 		bootTime = new Date();
-		buffer = new byte[1024];
 
 		doStop = false;
 		doStopPush = false;
 		pushRunnerThread.start();
-		thread.start();
+		for (Thread t : receiverThreads)
+			t.start();
 	}
 
 	public void close() {
-		if (socket == null)
+		if (socket == null && serverSocket == null)
 			return;
 
 		doStop = true;
 		doStopPush = true;
-		socket.close();
+
+		if (socket != null)
+			socket.close();
+
+		closeServerSocket();
+		for (Socket client : clients) {
+			try {
+				client.close();
+			} catch (IOException e) {
+			}
+		}
 
 		try {
 			pushRunnerThread.interrupt();
 			pushRunnerThread.join(2500);
-			thread.join(2500);
+			for (Thread t : receiverThreads)
+				t.join(2500);
 		} catch (InterruptedException e) {
 			logger.warn("kraken syslog: internal runner didn't respond for stop request");
 		}
 		logger.info("kraken syslog: closed server [{}]", profile);
 	}
 
+	private void closeServerSocket() {
+		if (serverSocket == null)
+			return;
+
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			logger.warn("kraken syslog: cannot close tcp server socket", e);
+		}
+	}
+
 	private class PushRunner implements Runnable {
 		public void run() {
 			try {
 				while (!doStopPush) {
 					try {
-						Syslog syslog = packetQueue.take();
-						counter.incrementAndGet();
+						Syslog[] batch = batchQueue.take();
+						counter.addAndGet(batch.length);
 
 						// dispatch syslog
 						for (SyslogListener callback : callbacks) {
 							try {
-								callback.onReceive(syslog);
+								if (callback instanceof SyslogBatchListener) {
+									((SyslogBatchListener) callback).onReceiveBatch(batch);
+								} else {
+									for (Syslog syslog : batch)
+										callback.onReceive(syslog);
+								}
 							} catch (Exception e) {
 								logger.warn("kraken syslog: syslog callback should not throw any exception", e);
 							}
 						}
+
+						// partial batch is copy of batcher array, and not reused
+						if (pooling && batch.length == batchSize)
+							freeBatches.offer(batch);
 					} catch (InterruptedException e) {
 						if (doStop) {
 							logger.info("kraken syslog: internal runner interrupted.");
@@ -146,44 +246,193 @@ public class SyslogReceiver implements SyslogServer, Runnable {
 		}
 	}
 
-	@Override
-	public void run() {
-		try {
-			while (!doStop) {
+	/**
+	 * Collects syslogs of one receiver thread, and hands off full batch or
+	 * stale partial batch. Syslog slots of batch are filled in place by
+	 * parser.
+	 */
+	private class Batcher {
+		private SyslogParser parser = new SyslogParser(charset);
+		private Syslog[] batch = newBatch();
+		private int count;
+		private long since;
+
+		public void add(byte[] b, int offset, int length, InetSocketAddress remote) {
+			long now = System.currentTimeMillis();
+			if (count == 0)
+				since = now;
+
+			Syslog syslog = batch[count];
+			if (syslog == null)
+				syslog = batch[count] = new Syslog();
+
+			parser.parse(syslog, b, offset, length, now);
+			syslog.setRemoteAddress(remote);
+			syslog.setLocalAddress(listenAddress);
+			receiveCounter.incrementAndGet();
+
+			if (++count == batch.length)
+				flush();
+		}
+
+		public void flushIfStale() {
+			if (count > 0 && System.currentTimeMillis() - since >= FLUSH_INTERVAL)
+				flush();
+		}
+
+		public void flush() {
+			if (count == 0)
+				return;
+
+			Syslog[] out = count == batch.length ? batch : Arrays.copyOf(batch, count);
+			if (!batchQueue.offer(out)) {
+				long dropped = dropCounter.addAndGet(count);
+				if (logger.isDebugEnabled())
+					logger.debug("kraken syslog: server [{}] queue full, total dropped [{}]", profile.getName(), dropped);
+
+				// nobody saw dropped syslogs, overwrite them
+				count = 0;
+				return;
+			}
+
+			batch = newBatch();
+			count = 0;
+		}
+
+		private Syslog[] newBatch() {
+			Syslog[] b = pooling ? freeBatches.poll() : null;
+			return b != null ? b : new Syslog[batchSize];
+		}
+	}
+
+	private class UdpReceiver implements Runnable {
+		// one extra byte tells datagram of max size from truncated one
+		private byte[] buffer = new byte[maxMessageSize + 1];
+		private Batcher batcher = new Batcher();
+
+		@Override
+		public void run() {
+			try {
 				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-				try {
-					socket.receive(packet);
-					String text = new String(packet.getData(), 0, packet.getLength(), charset);
-					int facility = -1;
-					int severity = -1;
-
-					int brace = text.indexOf('>');
-
-					if (text.charAt(0) == '<' && brace > 0 && brace <= 5) {
-						int pri = Integer.valueOf(text.substring(1, brace));
-						facility = pri / 8;
-						severity = pri % 8;
-						text = text.substring(brace + 1);
+				while (!doStop) {
+					try {
+						packet.setLength(buffer.length);
+						socket.receive(packet);
+
+						// datagram longer than max message size is truncated
+						int length = packet.getLength();
+						if (length > maxMessageSize) {
+							truncateCounter.incrementAndGet();
+							length = maxMessageSize;
+						}
+
+						InetSocketAddress remote = (InetSocketAddress) packet.getSocketAddress();
+						batcher.add(buffer, 0, length, remote);
+						batcher.flushIfStale();
+					} catch (SocketTimeoutException e) {
+						batcher.flush();
+					} catch (Throwable t) {
+						if (!doStop)
+							logger.warn("kraken syslog: receive error", t);
 					}
+				}
+			} finally {
+				batcher.flush();
+			}
+		}
+	}
+
+	private class TcpAcceptor implements Runnable {
+		@Override
+		public void run() {
+			while (!doStop) {
+				try {
+					Socket client = serverSocket.accept();
+					client.setSoTimeout(FLUSH_INTERVAL);
+					clients.add(client);
 
-					InetSocketAddress remote = new InetSocketAddress(packet.getAddress(), packet.getPort());
-					Syslog syslog = new Syslog(new Date(), remote, facility, severity, text);
-					syslog.setLocalAddress((InetSocketAddress) packet.getSocketAddress());
-					packetQueue.put(syslog);
+					String name = "Syslog TCP " + listenAddress + " <- " + client.getRemoteSocketAddress();
+					new Thread(new TcpReceiver(client), name).start();
 				} catch (SocketTimeoutException e) {
-				} catch (UnsupportedEncodingException e) {
-					logger.warn("kraken syslog: unsupported encoding detected", e);
 				} catch (Throwable t) {
-					logger.warn("kraken syslog: receive error", t);
+					if (!doStop)
+						logger.warn("kraken syslog: tcp accept error", t);
 				}
 			}
-		} finally {
-			doStop = false;
+		}
+	}
+
+	private class TcpReceiver implements Runnable, SyslogFrameDecoder.FrameHandler {
+		private Socket client;
+		private InetSocketAddress remote;
+		private SyslogFrameDecoder decoder = new SyslogFrameDecoder(maxMessageSize);
+		private Batcher batcher = new Batcher();
+
+		public TcpReceiver(Socket client) {
+			this.client = client;
+			this.remote = (InetSocketAddress) client.getRemoteSocketAddress();
+		}
+
+		@Override
+		public void run() {
+			logger.debug("kraken syslog: tcp client [{}] connected", remote);
+			try {
+				InputStream is = client.getInputStream();
+				while (!doStop) {
+					try {
+						int n = is.read(decoder.getBuffer(), decoder.getWriteOffset(), decoder.getWritable());
+						if (n < 0)
+							break;
+
+						decoder.written(n, this);
+						batcher.flushIfStale();
+					} catch (SocketTimeoutException e) {
+						batcher.flush();
+					}
+				}
+			} catch (IOException e) {
+				if (!doStop)
+					logger.debug("kraken syslog: tcp client [{}] error, {}", remote, e.getMessage());
+			} finally {
+				batcher.flush();
+				clients.remove(client);
+				try {
+					client.close();
+				} catch (IOException e) {
+				}
+				logger.debug("kraken syslog: tcp client [{}] disconnected", remote);
+			}
+		}
+
+		@Override
+		public void onFrame(byte[] b, int offset, int length, boolean truncated) {
+			if (truncated)
+				truncateCounter.incrementAndGet();
+
+			batcher.add(b, offset, length, remote);
 		}
 	}
 
 	public int getQueueSize() {
-		return packetQueue.size();
+		int size = 0;
+		for (Syslog[] batch : batchQueue)
+			size += batch.length;
+		return size;
+	}
+
+	@Override
+	public long getReceiveCount() {
+		return receiveCounter.get();
+	}
+
+	@Override
+	public long getDropCount() {
+		return dropCounter.get();
+	}
+
+	@Override
+	public long getTruncateCount() {
+		return truncateCounter.get();
 	}
 
 	@Override
@@ -206,9 +455,11 @@ public class SyslogReceiver implements SyslogServer, Runnable {
 	public String toString() {
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 		String since = dateFormat.format(bootTime);
-		int pending = packetQueue.size();
+		int pending = getQueueSize();
 
-		return profile.toString() + ", since=" + since + ", received=" + counter.get() + ", pending=" + pending;
+		return profile.toString() + ", since=" + since + ", received=" + receiveCounter.get() + ", dispatched="
+				+ counter.get() + ", pending=" + pending + ", dropped=" + dropCounter.get() + ", truncated="
+				+ truncateCounter.get();
 	}
 
 }
@@ -54,6 +54,8 @@ public class SyslogScript implements Script {
 			SyslogServer server = syslogRegistry.getServer(name);
 			context.println(server);
 		}
+
+		context.println("total dropped=" + syslogRegistry.getDropCount());
 	}
 
 	@ScriptUsage(description = "open persistent syslog server", arguments = {
@@ -61,7 +63,11 @@ public class SyslogScript implements Script {
 			@ScriptArgument(name = "port", type = "int", description = "syslog port number", optional = true),
 			@ScriptArgument(name = "address", type = "string", description = "syslog bind address. 0.0.0.0 by default", optional = true),
 			@ScriptArgument(name = "charset", type = "string", description = "character set name. utf-8 by default", optional = true),
-			@ScriptArgument(name = "queue size", type = "int", description = "buffering queue size. 20000 by default", optional = true) })
+			@ScriptArgument(name = "queue size", type = "int", description = "buffering queue size. 20000 by default", optional = true),
+			@ScriptArgument(name = "protocol", type = "string", description = "udp or tcp. udp by default", optional = true),
+			@ScriptArgument(name = "receivers", type = "int", description = "udp receiver thread count. 1 by default", optional = true),
+			@ScriptArgument(name = "receive buffer", type = "int", description = "socket receive buffer size in bytes. os default by default", optional = true),
+			@ScriptArgument(name = "pooling", type = "string", description = "reuse syslog instances, true or false. false by default", optional = true) })
 	public void open(String[] args) {
 		SyslogProfile profile = new SyslogProfile();
 		try {
@@ -87,6 +93,27 @@ public class SyslogScript implements Script {
 			if (args.length > 4)
 				queueSize = Integer.valueOf(args[4]);
 
+			String protocol = "udp";
+			if (args.length > 5)
+				protocol = args[5].toLowerCase();
+
+			if (!protocol.equals("udp") && !protocol.equals("tcp")) {
+				context.println("protocol should be udp or tcp.");
+				return;
+			}
+
+			int receivers = 1;
+			if (args.length > 6)
+				receivers = Integer.valueOf(args[6]);
+
+			int receiveBufferSize = 0;
+			if (args.length > 7)
+				receiveBufferSize = Integer.valueOf(args[7]);
+
+			boolean pooling = false;
+			if (args.length > 8)
+				pooling = Boolean.parseBoolean(args[8]);
+
 			InetAddress.getByName(host);
 
 			if (port < 1 || port > 65535) {
@@ -102,6 +129,10 @@ public class SyslogScript implements Script {
 			profile.setPort(port);
 			profile.setCharset(charsetName);
 			profile.setQueueSize(queueSize);
+			profile.setProtocol(protocol);
+			profile.setReceiverCount(receivers);
+			profile.setReceiveBufferSize(receiveBufferSize);
+			profile.setPooling(pooling);
 
 			syslogRegistry.open(profile);
 			context.println("opened " + profile.getListenAddress());
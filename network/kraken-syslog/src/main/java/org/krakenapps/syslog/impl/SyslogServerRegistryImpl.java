@@ -34,6 +34,7 @@ import org.krakenapps.confdb.ConfigDatabase;
 import org.krakenapps.confdb.ConfigService;
 import org.krakenapps.confdb.Predicates;
 import org.krakenapps.syslog.Syslog;
+import org.krakenapps.syslog.SyslogBatchListener;
 import org.krakenapps.syslog.SyslogListener;
 import org.krakenapps.syslog.SyslogProfile;
 import org.krakenapps.syslog.SyslogServer;
@@ -44,7 +45,7 @@ import org.slf4j.LoggerFactory;
 
 @Component(name = "syslog-server-registry")
 @Provides(specifications = { SyslogServerRegistry.class })
-public class SyslogServerRegistryImpl implements SyslogServerRegistry, SyslogListener {
+public class SyslogServerRegistryImpl implements SyslogServerRegistry, SyslogBatchListener {
 	private final Logger logger = LoggerFactory.getLogger(SyslogServerRegistryImpl.class.getName());
 	private ConcurrentMap<String, SyslogServer> serverMap;
 	private Set<SyslogListener> syslogCallbacks;
@@ -205,6 +206,30 @@ public class SyslogServerRegistryImpl implements SyslogServerRegistry, SyslogLis
 		}
 	}
 
+	@Override
+	public void onReceiveBatch(Syslog[] syslogs) {
+		for (SyslogListener callback : syslogCallbacks) {
+			try {
+				if (callback instanceof SyslogBatchListener) {
+					((SyslogBatchListener) callback).onReceiveBatch(syslogs);
+				} else {
+					for (Syslog syslog : syslogs)
+						callback.onReceive(syslog);
+				}
+			} catch (Exception e) {
+				logger.warn("kraken syslog: syslog callback should not throw any exception", e);
+			}
+		}
+	}
+
+	@Override
+	public long getDropCount() {
+		long total = 0;
+		for (SyslogServer server : serverMap.values())
+			total += server.getDropCount();
+		return total;
+	}
+
 	@Override
 	public Collection<SyslogProfile> getSyslogProfiles() {
 		ConfigDatabase db = conf.ensureDatabase("kraken-syslog");
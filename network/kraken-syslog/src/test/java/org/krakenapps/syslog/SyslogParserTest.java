@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.syslog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class SyslogParserTest {
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	private SyslogParser parser = new SyslogParser(UTF8);
+
+	@Test
+	public void testRfc3164() {
+		long receiveTime = local(2012, Calendar.OCTOBER, 12, 9, 0, 0);
+		Syslog s = parse("<34>Oct 11 22:14:15 mymachine su[123]: 'su root' failed for lonvick", receiveTime);
+
+		assertEquals(4, s.getFacility());
+		assertEquals(2, s.getSeverity());
+		assertEquals(0, s.getVersion());
+		assertEquals(local(2012, Calendar.OCTOBER, 11, 22, 14, 15), s.getTimestamp().getTime());
+		assertEquals("mymachine", s.getHost());
+		assertEquals("su", s.getTag());
+		assertEquals("123", s.getProcessId());
+		assertEquals("'su root' failed for lonvick", s.getContent());
+		assertEquals("Oct 11 22:14:15 mymachine su[123]: 'su root' failed for lonvick", s.getMessage());
+		assertEquals(receiveTime, s.getReceiveTime());
+	}
+
+	@Test
+	public void testRfc3164SingleDigitDay() {
+		Syslog s = parse("<13>Feb  5 17:32:18 10.0.0.99 myproc: hello", local(2012, Calendar.MARCH, 1, 0, 0, 0));
+		assertEquals(local(2012, Calendar.FEBRUARY, 5, 17, 32, 18), s.getTimestamp().getTime());
+		assertEquals("10.0.0.99", s.getHost());
+		assertEquals("myproc", s.getTag());
+		assertNull(s.getProcessId());
+		assertEquals("hello", s.getContent());
+	}
+
+	@Test
+	public void testRfc3164YearRollover() {
+		// december log received just after new year belongs to last year
+		Syslog s = parse("<13>Dec 31 23:59:59 host app: bye", local(2013, Calendar.JANUARY, 1, 0, 0, 10));
+		assertEquals(local(2012, Calendar.DECEMBER, 31, 23, 59, 59), s.getTimestamp().getTime());
+	}
+
+	@Test
+	public void testRfc3164WithoutTag() {
+		Syslog s = parse("<13>Oct 11 22:14:15 host no tag here", local(2012, Calendar.OCTOBER, 12, 0, 0, 0));
+		assertEquals("host", s.getHost());
+		assertNull(s.getTag());
+		assertEquals("no tag here", s.getContent());
+	}
+
+	@Test
+	public void testRfc5424() {
+		String header = "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 ";
+		String sd = "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"]";
+		byte[] bom = new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+		byte[] b = concat(bytes(header + sd + " "), bom, bytes("An application event log entry"));
+		Syslog s = parser.parse(new Syslog(), b, 0, b.length, 0);
+
+		assertEquals(20, s.getFacility());
+		assertEquals(5, s.getSeverity());
+		assertEquals(1, s.getVersion());
+		assertEquals(utc(2003, Calendar.OCTOBER, 11, 22, 14, 15) + 3, s.getTimestamp().getTime());
+		assertEquals("mymachine.example.com", s.getHost());
+		assertEquals("evntslog", s.getTag());
+		assertNull(s.getProcessId());
+		assertEquals("ID47", s.getMessageId());
+		assertEquals(sd, s.getStructuredData());
+		assertEquals("An application event log entry", s.getContent());
+	}
+
+	@Test
+	public void testRfc5424NilAndOffset() {
+		Syslog s = parse("<34>1 2003-10-11T22:14:15.123456-07:00 - su 77 - - 'su root' failed", 0);
+		assertEquals(utc(2003, Calendar.OCTOBER, 12, 5, 14, 15) + 123, s.getTimestamp().getTime());
+		assertNull(s.getHost());
+		assertEquals("su", s.getTag());
+		assertEquals("77", s.getProcessId());
+		assertNull(s.getMessageId());
+		assertNull(s.getStructuredData());
+		assertEquals("'su root' failed", s.getContent());
+	}
+
+	@Test
+	public void testBrokenStructuredData() {
+		Syslog s = parse("<34>1 - host app - - [id a=\"]\" unterminated", 0);
+		assertNull(s.getTimestamp());
+		assertEquals("host", s.getHost());
+		assertNull(s.getStructuredData());
+		assertEquals("[id a=\"]\" unterminated", s.getContent());
+	}
+
+	@Test
+	public void testUnparsed() {
+		Syslog s = parse("plain message without pri", 0);
+		assertEquals(-1, s.getFacility());
+		assertEquals(-1, s.getSeverity());
+		assertNull(s.getTimestamp());
+		assertNull(s.getHost());
+		assertEquals("plain message without pri", s.getContent());
+
+		s = parse("<999>too large pri", 0);
+		assertEquals(-1, s.getFacility());
+		assertEquals("<999>too large pri", s.getMessage());
+	}
+
+	@Test
+	public void testReuse() {
+		// offset of source buffer is honored, and reused syslog is cleared
+		byte[] b = bytes("xxx<13>Oct 11 22:14:15 host app[1]: first");
+		Syslog s = parser.parse(new Syslog(), b, 3, b.length - 3, local(2012, Calendar.OCTOBER, 12, 0, 0, 0));
+		assertEquals("1", s.getProcessId());
+		assertEquals("first", s.getContent());
+
+		b = bytes("<14>second");
+		parser.parse(s, b, 0, b.length, 0);
+		assertEquals(6, s.getSeverity());
+		assertNull(s.getHost());
+		assertNull(s.getProcessId());
+		assertEquals("second", s.getContent());
+
+		// copy is detached from reused raw buffer
+		Syslog copy = new Syslog(s);
+		b = bytes("<15>third");
+		parser.parse(s, b, 0, b.length, 0);
+		assertEquals("second", copy.getContent());
+	}
+
+	private Syslog parse(String line, long receiveTime) {
+		byte[] b = bytes(line);
+		return parser.parse(new Syslog(), b, 0, b.length, receiveTime);
+	}
+
+	private static long local(int year, int month, int day, int hour, int min, int sec) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(year, month, day, hour, min, sec);
+		return c.getTimeInMillis();
+	}
+
+	private static long utc(int year, int month, int day, int hour, int min, int sec) {
+		Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		c.clear();
+		c.set(year, month, day, hour, min, sec);
+		return c.getTimeInMillis();
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF8);
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		int length = 0;
+		for (byte[] a : arrays)
+			length += a.length;
+
+		byte[] b = new byte[length];
+		int p = 0;
+		for (byte[] a : arrays) {
+			System.arraycopy(a, 0, b, p, a.length);
+			p += a.length;
+		}
+		return b;
+	}
+}
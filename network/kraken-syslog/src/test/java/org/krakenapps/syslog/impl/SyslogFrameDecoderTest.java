@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.syslog.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SyslogFrameDecoderTest {
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	@Test
+	public void testNonTransparentFraming() {
+		List<String> frames = decode(64, 1000, "<13>first\n<13>second\r\n\n<13>third\0<13>partial");
+		assertEquals(3, frames.size());
+		assertEquals("<13>first", frames.get(0));
+		assertEquals("<13>second", frames.get(1));
+		assertEquals("<13>third", frames.get(2));
+	}
+
+	@Test
+	public void testOctetCounting() {
+		// frame may contain LF, and frames need no trailer
+		List<String> frames = decode(64, 1000, "11 <13>a\nb c d8 <13>next");
+		assertEquals(2, frames.size());
+		assertEquals("<13>a\nb c d", frames.get(0));
+		assertEquals("<13>next", frames.get(1));
+	}
+
+	@Test
+	public void testSplitReads() {
+		String stream = "9 <13>first<13>second\n15 <13>third frame<13>last\n";
+		for (int chunk = 1; chunk <= stream.length(); chunk++) {
+			List<String> frames = decode(64, chunk, stream);
+			assertEquals("chunk " + chunk, 4, frames.size());
+			assertEquals("<13>first", frames.get(0));
+			assertEquals("<13>second", frames.get(1));
+			assertEquals("<13>third frame", frames.get(2));
+			assertEquals("<13>last", frames.get(3));
+		}
+	}
+
+	@Test
+	public void testTruncatedOctetCounting() {
+		// 20 octets frame with max size 8, rest of frame is discarded
+		for (int chunk = 1; chunk <= 30; chunk++) {
+			List<String> frames = decode(8, chunk, "20 <13>0123456789abcdef<13>ok\n");
+			assertEquals("chunk " + chunk, 2, frames.size());
+			assertEquals("T<13>0123", frames.get(0));
+			assertEquals("<13>ok", frames.get(1));
+		}
+	}
+
+	@Test
+	public void testTruncatedLine() {
+		// line without trailer is cut at max size, and discarded until LF
+		List<String> frames = decode(8, 1000, "<13>0123456789abcdefghijklmnopqrstuvwxyz\n<13>ok\n");
+		assertEquals(2, frames.size());
+		assertEquals("T<13>0123", frames.get(0));
+		assertEquals("<13>ok", frames.get(1));
+	}
+
+	@Test
+	public void testMaxSizeFrame() {
+		// frame of exactly max size is not truncated
+		List<String> frames = decode(8, 1000, "8 <13>1234<13>5678\n");
+		assertEquals(2, frames.size());
+		assertEquals("<13>1234", frames.get(0));
+		assertEquals("<13>5678", frames.get(1));
+	}
+
+	/**
+	 * Writes stream into decoder by given read size, and returns frames.
+	 * Truncated frame is prefixed with "T".
+	 */
+	private List<String> decode(int maxMessageSize, int readSize, String stream) {
+		final List<String> frames = new ArrayList<String>();
+		SyslogFrameDecoder decoder = new SyslogFrameDecoder(maxMessageSize);
+		SyslogFrameDecoder.FrameHandler handler = new SyslogFrameDecoder.FrameHandler() {
+			@Override
+			public void onFrame(byte[] b, int offset, int length, boolean truncated) {
+				frames.add((truncated ? "T" : "") + new String(b, offset, length, UTF8));
+			}
+		};
+
+		byte[] b = stream.getBytes(UTF8);
+		int p = 0;
+		while (p < b.length) {
+			int n = Math.min(Math.min(readSize, b.length - p), decoder.getWritable());
+			System.arraycopy(b, p, decoder.getBuffer(), decoder.getWriteOffset(), n);
+			decoder.written(n, handler);
+			p += n;
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.decoder.http;
+
+import org.krakenapps.pcap.util.Buffer;
+
+/**
+ * Receives decoded response body incrementally. Transfer coding (chunked)
+ * and content coding (gzip, deflate) are already removed from data, so body
+ * of any size can be inspected without buffering whole body.
+ * 
+ * @author xeraph
+ */
+public interface HttpBodyProcessor {
+	/**
+	 * Called for each decoded body piece in arrival order. Data is not shared
+	 * with decoder and can be retained.
+	 */
+	void onResponseBody(HttpRequest req, HttpResponse resp, Buffer data);
+
+	/**
+	 * Called after last body piece, before HttpProcessor.onResponse().
+	 */
+	void onResponseBodyEnd(HttpRequest req, HttpResponse resp);
+}
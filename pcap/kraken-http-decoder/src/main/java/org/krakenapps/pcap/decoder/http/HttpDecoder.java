@@ -26,7 +26,6 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,14 +33,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.zip.DataFormatException;
-import java.util.zip.GZIPInputStream;
 
-import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 
 import org.krakenapps.pcap.decoder.http.impl.FlagEnum;
+import org.krakenapps.pcap.decoder.http.impl.HttpBodyDecoder;
 import org.krakenapps.pcap.decoder.http.impl.HttpRequestImpl;
 import org.krakenapps.pcap.decoder.http.impl.HttpRequestState;
 import org.krakenapps.pcap.decoder.http.impl.HttpResponseImpl;
@@ -63,16 +60,21 @@ enum HttpDirection {
  * @author mindori
  */
 public class HttpDecoder implements TcpProcessor {
+	public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
 	private static final int DECODE_NOT_READY = -1;
 	private Logger logger = LoggerFactory.getLogger(HttpDecoder.class.getName());
 
 	private Set<HttpProcessor> callbacks;
+	private Set<HttpBodyProcessor> bodyProcessors;
+	private int maxBodySize = DEFAULT_MAX_BODY_SIZE;
 	private Map<TcpSessionKey, HttpSession> sessionMap;
 
 	private PartialContentManager mpManager;
 
 	public HttpDecoder() {
 		callbacks = new HashSet<HttpProcessor>();
+		bodyProcessors = new HashSet<HttpBodyProcessor>();
 		sessionMap = new HashMap<TcpSessionKey, HttpSession>();
 		mpManager = new PartialContentManager();
 	}
@@ -85,6 +87,30 @@ public class HttpDecoder implements TcpProcessor {
 		callbacks.remove(processor);
 	}
 
+	public void registerBodyProcessor(HttpBodyProcessor processor) {
+		bodyProcessors.add(processor);
+	}
+
+	public void unregisterBodyProcessor(HttpBodyProcessor processor) {
+		bodyProcessors.remove(processor);
+	}
+
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * Sets max decoded body size kept for HttpResponse.getContent() and raw
+	 * response kept for mime parsing. Body processors receive whole body
+	 * regardless of this limit.
+	 */
+	public void setMaxBodySize(int maxBodySize) {
+		if (maxBodySize < 0)
+			throw new IllegalArgumentException("max body size should not be negative: " + maxBodySize);
+
+		this.maxBodySize = maxBodySize;
+	}
+
 	@Override
 	public void handleTx(TcpSessionKey sessionKey, Buffer data) {
 		HttpSession session = sessionMap.get(sessionKey);
@@ -133,15 +159,25 @@ public class HttpDecoder implements TcpProcessor {
 
 	private void handleNoContentLengthCase(HttpSession httpSession) {
 		if (httpSession != null && httpSession.getResponseState() == HttpResponseState.GOT_HEADER) {
-			decodeContent(httpSession.getResponse());
+			HttpResponseImpl response = httpSession.getResponse();
+			HttpBodyDecoder body = response.getBodyDecoder();
+			if (body != null) {
+				body.close();
+				setBody(response);
+			} else {
+				decodeContent(response);
+			}
 			dispatchResponse(httpSession);
 		}
 	}
 
 	private void handleRequest(HttpSession session, Buffer data) {
-		Buffer txBuffer = session.getTxBuffer();
+		ChainBuffer txBuffer = session.getTxBuffer();
 		txBuffer.addLast(data);
 		parseRequest(session, txBuffer);
+
+		if (session.getRequestState() == HttpRequestState.END)
+			session.setTxBuffer(compact(txBuffer));
 	}
 
 	private void handleResponse(HttpSession session, Buffer data) {
@@ -300,8 +336,11 @@ public class HttpDecoder implements TcpProcessor {
 
 		HttpResponseImpl response = session.getResponse();
 
-		response.putBinary(data);
-		response.addPutLength(data.readableBytes());
+		/* raw message for mime parsing, bounded by body size cap */
+		if (response.getPutLength() < maxBodySize) {
+			response.putBinary(data);
+			response.addPutLength(data.readableBytes());
+		}
 
 		/* multiple responses in a session. */
 		if (session.getResponseState() == HttpResponseState.END)
@@ -358,6 +397,14 @@ public class HttpDecoder implements TcpProcessor {
 
 			case GOT_REASON_PHRASE:
 				try {
+					/* end of header can arrive in later segment than last header line */
+					rxBuffer.mark();
+					if (rxBuffer.get() == 0x0d && rxBuffer.get() == 0x0a) {
+						session.setResponseState(HttpResponseState.GOT_HEADER);
+						break;
+					}
+					rxBuffer.reset();
+
 					int len = rxBuffer.bytesBefore(new byte[] { 0x0d, 0x0a });
 					if (len == 0) {
 						return;
@@ -393,80 +440,26 @@ public class HttpDecoder implements TcpProcessor {
 					setResponseType(response);
 				}
 
-				if (flag.contains(FlagEnum.NORMAL)) {
-					if (handleNormal(response, rxBuffer) == DECODE_NOT_READY) {
-						rxBuffer.reset();
+				if (flag.contains(FlagEnum.MULTIPART)) {
+					handleMultipart(response, rxBuffer);
+				} else if (flag.contains(FlagEnum.BYTERANGE)) {
+					String url = session.getRequest().getURL().toString();
+					if (handleByteRange(response, url, rxBuffer, data, capacity) == DECODE_NOT_READY)
 						return;
-					} else {
-						decodeContent(response);
-					}
-				}
-
-				else {
-					/* step 1. handle MULTIPART or BYTERANGE */
-					if (flag.contains(FlagEnum.MULTIPART)) {
-						handleMultipart(response, rxBuffer);
-					} else if (flag.contains(FlagEnum.BYTERANGE)) {
-						String url = session.getRequest().getURL().toString();
-						if (handleByteRange(response, url, rxBuffer, data, capacity) == DECODE_NOT_READY)
-							return;
+				} else {
+					/* decode chunked, gzip, deflate and plain body incrementally */
+					HttpBodyDecoder body = response.getBodyDecoder();
+					if (body == null) {
+						body = new HttpBodyDecoder(session.getRequest(), response, bodyProcessors, maxBodySize);
+						response.setBodyDecoder(body);
 					}
 
-					/* step 2 */
-					if (flag.contains(FlagEnum.CHUNKED)) {
-						int retVal = handleChunked(response, rxBuffer);
-
-						if (retVal == DECODE_NOT_READY) {
-							rxBuffer.reset();
-							return;
-						} else if (retVal == 0) {
-							return;
-						} else {
-							setChunked(response);
-							/* added code */
-							/*
-							 * TODO: set MimeMessage object(temporarily), I'll fixed soon.
-							 */
-							Buffer binary = response.getBinary();
-							int length = response.getPutLength();
-							byte[] b = new byte[length];
-							binary.gets(b, 0, length);
-
-							Session session2 = Session.getDefaultInstance(new Properties());
-							InputStream is = new ByteArrayInputStream(b, 0, b.length);
-							MimeMessage msg;
-							try {
-								msg = new MimeMessage(session2, is);
-								response.setMessage(msg);
-							} catch (MessagingException e) {
-								e.printStackTrace();
-							}
-							/* added code end */
-						}
-					}
-
-					/* step 3 */
-					if (flag.contains(FlagEnum.DEFLATE)) {
-						handleDeflate(response, rxBuffer);
-					} else if (flag.contains(FlagEnum.GZIP)) {
-						int retVal;
-						if (flag.contains(FlagEnum.CHUNKED)) {
-							retVal = handleGzip(response, response.getChunked());
-						} else {
-							retVal = handleGzip(response, rxBuffer);
-						}
+					boolean completed = body.decode(rxBuffer);
+					rxBuffer = compactRxBuffer(session);
+					if (!completed)
+						return;
 
-						if (retVal == DECODE_NOT_READY || retVal == 1) {
-							return;
-						} else if (retVal == 0) {
-							try {
-								byte[] decompressed = decompressGzip(response.getGzip());
-								response.setDecompressedGzip(decompressed);
-							} catch (DataFormatException e) {
-								response.setDecompressedGzip(null);
-							}
-						}
-					}
+					setBody(response);
 				}
 
 				dispatchResponse(session);
@@ -503,7 +496,6 @@ public class HttpDecoder implements TcpProcessor {
 		if (type2 != null) {
 			if (type2.matches("^chunked")) {
 				flags.add(FlagEnum.CHUNKED);
-				response.createChunked();
 			}
 		}
 
@@ -511,11 +503,6 @@ public class HttpDecoder implements TcpProcessor {
 		if (type3 != null) {
 			if (type3.matches("^gzip")) {
 				flags.add(FlagEnum.GZIP);
-				response.createGzip();
-
-				String lengthStr = response.getHeader(HttpHeaders.CONTENT_LENGTH);
-				if (lengthStr != null)
-					response.setGzipLength(Integer.parseInt(lengthStr.trim()));
 				return;
 			} else if (type3.matches("^deflate")) {
 				flags.add(FlagEnum.DEFLATE);
@@ -709,96 +696,44 @@ public class HttpDecoder implements TcpProcessor {
 
 	}
 
-	private int handleGzip(HttpResponseImpl response, Buffer rxBuffer) {
-		String s = response.getHeader(HttpHeaders.CONTENT_LENGTH);
-
-		if (s == null)
-			return response.getStatusCode() == 200 ? DECODE_NOT_READY : 0;
+	/**
+	 * Sets decoded body to response for HttpResponse.getContent().
+	 */
+	private void setBody(HttpResponseImpl response) {
+		HttpBodyDecoder body = response.getBodyDecoder();
+		EnumSet<FlagEnum> flag = response.getFlag();
 
-		int length = response.getGzipLength();
-		int offset = response.getGzipOffset();
-		if (length > DECODE_NOT_READY) {
-			try {
-				while (offset < length) {
-					response.putGzip(rxBuffer.get());
-					offset++;
-				}
-			} catch (BufferUnderflowException e) {
-				response.setGzipOffset(offset);
-				return DECODE_NOT_READY;
-			}
-			return 0;
+		if (flag.contains(FlagEnum.GZIP) || flag.contains(FlagEnum.DEFLATE)) {
+			response.setDecompressedGzip(body.isCorrupted() ? null : body.getContent());
+		} else if (flag.contains(FlagEnum.CHUNKED)) {
+			response.setChunked(body.getContent());
+			decodeContent(response);
+		} else {
+			response.getContentBuffer().addLast(body.getContent());
+			decodeContent(response);
 		}
-		/* can't handle gzip */
-		else
-			return 1;
-	}
-
-	private int handleGzip(HttpResponseImpl response, List<Byte> chunked) {
-		response.putGzip(chunked);
-		return 0;
 	}
 
-	private void handleDeflate(HttpResponseImpl response, Buffer rxBuffer) {
+	private ChainBuffer compactRxBuffer(HttpSession session) {
+		ChainBuffer compacted = compact(session.getRxBuffer());
+		session.setRxBuffer(compacted);
+		return compacted;
 	}
 
-	private int handleChunked(HttpResponseImpl response, Buffer rxBuffer) {
-		/*
-		 * return -1: can't get chunked length return 0: size of chunked > chunked size of rxBuffer return 1: flush chunked
-		 */
+	/**
+	 * Releases consumed segments, since chain buffer keeps every added segment
+	 * for whole session otherwise.
+	 */
+	private ChainBuffer compact(ChainBuffer buffer) {
+		ChainBuffer compacted = new ChainBuffer();
 
-		int retVal;
-
-		while (true) {
-			if (response.getChunkedLength() == DECODE_NOT_READY) {
-				if (rxBuffer.isEOB())
-					return 0;
-				rxBuffer.mark();
-				rxBuffer.discardReadBytes();
-
-				retVal = getChunkedLength(rxBuffer, response);
-				/* failed get chunked length */
-				if (retVal == DECODE_NOT_READY)
-					return DECODE_NOT_READY;
-				/* arrived EOF */
-				else if (response.getChunkedLength() == 0)
-					break;
-				/* succeed get chunked length */
-				else {
-					retVal = putChunked(rxBuffer, response, response.getChunkedOffset(), response.getChunkedLength());
-					if (retVal == DECODE_NOT_READY)
-						return 0;
-				}
-			} else {
-				/* already response have chunked length */
-				retVal = putChunked(rxBuffer, response, response.getChunkedOffset(), response.getChunkedLength());
-				if (retVal == DECODE_NOT_READY)
-					return 0;
-			}
+		// discardReadBytes() does not move base at end of buffer
+		if (buffer.readableBytes() > 0) {
+			buffer.discardReadBytes();
+			compacted.addLast(buffer);
 		}
-		return 1;
-	}
-
-	private int handleNormal(HttpResponseImpl response, Buffer rxBuffer) {
-		/* save response contents until offset is equal to contentLength */
-		String s = response.getHeader(HttpHeaders.CONTENT_LENGTH);
-
-		// if status is OK, receive all bytes until session is finished
-		// TODO: other error codes(ex. 304) may have contents body
-		if (s == null)
-			return response.getStatusCode() == 200 ? DECODE_NOT_READY : 0;
-
-		int contentLength = Integer.valueOf(s.replaceAll("\\n", ""));
-
-		/* calculate offset */
-		int available = rxBuffer.readableBytes();
-		if (available < contentLength)
-			return DECODE_NOT_READY;
 
-		byte[] content = new byte[contentLength];
-		rxBuffer.gets(content);
-		response.getContentBuffer().addLast(content);
-		return 0;
+		return compacted;
 	}
 
 	private void decodeContent(HttpResponseImpl response) {
@@ -814,8 +749,8 @@ public class HttpDecoder implements TcpProcessor {
 			response.setMessage(msg);
 
 			/* set string contents */
-			if (msg.getContent() instanceof String) {
-				Buffer contentBuffer = response.getContentBuffer();
+			Buffer contentBuffer = response.getContentBuffer();
+			if (contentBuffer != null && msg.getContent() instanceof String) {
 				int readable = contentBuffer.readableBytes();
 				if (readable <= 0)
 					return;
@@ -830,95 +765,6 @@ public class HttpDecoder implements TcpProcessor {
 		}
 	}
 
-	private byte[] decompressGzip(List<Byte> gzipContent) throws DataFormatException {
-		byte[] gzip = new byte[gzipContent.size()];
-		for (int i = 0; i < gzip.length; i++) {
-			gzip[i] = gzipContent.get(i);
-		}
-
-		try {
-			GZIPInputStream gzis = new GZIPInputStream(new ByteArrayInputStream(gzip));
-			Buffer gzBuffer = new ChainBuffer();
-
-			/* read fixed length(1000 bytes) from gzip contents */
-			byte[] newGzip = new byte[1000];
-			int readLen = gzis.read(newGzip);
-			int sumOfReadLen = 0;
-
-			if (readLen == DECODE_NOT_READY)
-				throw new DataFormatException();
-
-			while (readLen != DECODE_NOT_READY) {
-				byte[] payload = Arrays.copyOf(newGzip, readLen);
-				gzBuffer.addLast(payload);
-				newGzip = null;
-				newGzip = new byte[1000];
-				sumOfReadLen += readLen;
-				readLen = gzis.read(newGzip);
-			}
-
-			byte[] decompressedGzip = new byte[sumOfReadLen];
-			gzBuffer.gets(decompressedGzip);
-			return decompressedGzip;
-		} catch (BufferUnderflowException e) {
-			System.err.println("http decoder: gets error");
-		} catch (IOException e) {
-			/* case: NOT in GZIP Format */
-			return null;
-		}
-		return null;
-	}
-
-	private int getChunkedLength(Buffer rxBuffer, HttpResponseImpl response) {
-		try {
-			int length = rxBuffer.bytesBefore(new byte[] { 0x0d, 0x0a });
-			if (length == 0) {
-				response.setChunkedLength(DECODE_NOT_READY);
-				return DECODE_NOT_READY;
-			}
-			String chunkLength = rxBuffer.getString(length).trim();
-			int len = Integer.parseInt(chunkLength, 16);
-			response.setChunkedLength(len);
-
-			/* skip \r\n */
-			rxBuffer.get();
-			rxBuffer.get();
-		} catch (BufferUnderflowException e) {
-			response.setChunkedLength(DECODE_NOT_READY);
-			return DECODE_NOT_READY;
-		}
-		return 0;
-	}
-
-	private int putChunked(Buffer rxBuffer, HttpResponseImpl response, int offset, int length) {
-		List<Byte> chunked = response.getChunked();
-		try {
-			while (offset < length) {
-				chunked.add(rxBuffer.get());
-				offset++;
-			}
-			rxBuffer.get();
-			rxBuffer.get();
-			/* when read chunked complete, initialize chunked variables */
-			response.setChunkedOffset(0);
-			response.setChunkedLength(DECODE_NOT_READY);
-		} catch (BufferUnderflowException e) {
-			response.setChunkedOffset(offset);
-			return DECODE_NOT_READY;
-		}
-		return 0;
-	}
-
-	private void setChunked(HttpResponseImpl response) {
-		List<Byte> chunked = response.getChunked();
-
-		byte[] data = new byte[chunked.size()];
-		for (int i = 0; i < data.length; i++) {
-			data[i] = chunked.get(i);
-		}
-		response.setChunked(data);
-	}
-
 	private void dispatchRequest(HttpRequestImpl request) {
 		for (HttpProcessor processor : callbacks) {
 			processor.onRequest(request);
@@ -934,7 +780,7 @@ public class HttpDecoder implements TcpProcessor {
 	}
 
 	public void dispatchMultipartData(byte[] data, int offset, int length) {
-		Buffer bb = new ChainBuffer(Arrays.copyOfRange(data, offset, length));
+		Buffer bb = new ChainBuffer(data, offset, length);
 
 		for (HttpProcessor processor : callbacks) {
 			processor.onMultipartData(bb);
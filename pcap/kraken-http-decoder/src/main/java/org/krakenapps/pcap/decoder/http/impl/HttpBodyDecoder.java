@@ -0,0 +1,464 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.decoder.http.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.krakenapps.pcap.decoder.http.HttpBodyProcessor;
+import org.krakenapps.pcap.decoder.http.HttpHeaders;
+import org.krakenapps.pcap.decoder.http.HttpRequest;
+import org.krakenapps.pcap.decoder.http.HttpResponse;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.ChainBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental response body decoder. Removes chunked transfer coding and
+ * gzip or deflate content coding as packets arrive, passes decoded pieces to
+ * body processors, and keeps at most max body size bytes for
+ * HttpResponse.getContent().
+ * 
+ * Memory usage per response is bounded by inflater window, one output buffer
+ * and retained content. If retained content is full and there is no body
+ * processor, inflation is skipped and body is only framed.
+ * 
+ * @author xeraph
+ */
+public class HttpBodyDecoder {
+	private static final byte[] CRLF = new byte[] { 0x0d, 0x0a };
+	private static final int MAX_LINE_LENGTH = 4096;
+	private static final int MAX_GZIP_HEADER_LENGTH = 65536;
+	private static final int INFLATE_BUFFER_SIZE = 8192;
+
+	private enum State {
+		IDENTITY, UNTIL_CLOSE, CHUNK_SIZE, CHUNK_DATA, CHUNK_CRLF, CHUNK_TRAILER, SKIP, DONE
+	};
+
+	private enum Coding {
+		NONE, GZIP, DEFLATE
+	};
+
+	private final Logger logger = LoggerFactory.getLogger(HttpBodyDecoder.class.getName());
+	private HttpRequest request;
+	private HttpResponse response;
+	private Collection<HttpBodyProcessor> processors;
+	private int maxBodySize;
+
+	private State state;
+	private long remaining;
+
+	private Coding coding;
+	private Inflater inflater;
+	private byte[] pending;
+	private byte[] inflateBuffer;
+	private boolean corrupted;
+	private boolean finished;
+
+	private byte[] content;
+	private int contentLength;
+	private long bodyLength;
+	private boolean truncated;
+
+	public HttpBodyDecoder(HttpRequest request, HttpResponse response, Collection<HttpBodyProcessor> processors,
+			int maxBodySize) {
+		this.request = request;
+		this.response = response;
+		this.processors = processors;
+		this.maxBodySize = maxBodySize;
+		this.content = new byte[0];
+
+		String transferEncoding = response.getHeader(HttpHeaders.TRANSFER_ENCODING);
+		String length = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+		if (transferEncoding != null && transferEncoding.trim().toLowerCase().startsWith("chunked")) {
+			state = State.CHUNK_SIZE;
+		} else if (length != null) {
+			try {
+				remaining = Long.parseLong(length.trim());
+				state = State.IDENTITY;
+			} catch (NumberFormatException e) {
+				state = State.UNTIL_CLOSE;
+			}
+		} else {
+			// no body for status other than 200, same as previous decoder
+			state = response.getStatusCode() == 200 ? State.UNTIL_CLOSE : State.DONE;
+		}
+
+		String contentEncoding = response.getHeader(HttpHeaders.CONTENT_ENCODING);
+		coding = Coding.NONE;
+		if (contentEncoding != null) {
+			String s = contentEncoding.trim().toLowerCase();
+			if (s.startsWith("gzip") || s.startsWith("x-gzip"))
+				coding = Coding.GZIP;
+			else if (s.startsWith("deflate"))
+				coding = Coding.DEFLATE;
+		}
+	}
+
+	/**
+	 * Consumes body bytes from buffer.
+	 * 
+	 * @return true if body is complete, remaining bytes belong to next
+	 *         response
+	 */
+	public boolean decode(Buffer in) {
+		while (true) {
+			switch (state) {
+			case IDENTITY: {
+				if (remaining == 0) {
+					finish();
+					return true;
+				}
+
+				int n = (int) Math.min(remaining, in.readableBytes());
+				if (n == 0)
+					return false;
+
+				read(in, n);
+				remaining -= n;
+				break;
+			}
+
+			case UNTIL_CLOSE:
+			case SKIP: {
+				int n = in.readableBytes();
+				if (n == 0)
+					return false;
+
+				if (state == State.SKIP)
+					in.skip(n);
+				else
+					read(in, n);
+				break;
+			}
+
+			case CHUNK_SIZE: {
+				String line = readLine(in);
+				if (line == null) {
+					if (state == State.SKIP)
+						break;
+					return false;
+				}
+
+				int p = line.indexOf(';');
+				if (p >= 0)
+					line = line.substring(0, p);
+
+				try {
+					remaining = Long.parseLong(line.trim(), 16);
+				} catch (NumberFormatException e) {
+					abort("invalid chunk size [" + line + "]");
+					break;
+				}
+
+				state = remaining == 0 ? State.CHUNK_TRAILER : State.CHUNK_DATA;
+				break;
+			}
+
+			case CHUNK_DATA: {
+				int n = (int) Math.min(remaining, in.readableBytes());
+				if (n == 0)
+					return false;
+
+				read(in, n);
+				remaining -= n;
+				if (remaining == 0)
+					state = State.CHUNK_CRLF;
+				break;
+			}
+
+			case CHUNK_CRLF:
+				if (in.readableBytes() < 2)
+					return false;
+
+				in.skip(2);
+				state = State.CHUNK_SIZE;
+				break;
+
+			case CHUNK_TRAILER: {
+				String line = readLine(in);
+				if (line == null) {
+					if (state == State.SKIP)
+						break;
+					return false;
+				}
+
+				// trailer headers are ignored
+				if (line.length() == 0) {
+					finish();
+					return true;
+				}
+				break;
+			}
+
+			case DONE:
+				finish();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Ends body at connection close. Body without length is complete only at
+	 * this point.
+	 */
+	public void close() {
+		finish();
+	}
+
+	public boolean isCompleted() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * Returns true if compressed body cannot be inflated.
+	 */
+	public boolean isCorrupted() {
+		return corrupted;
+	}
+
+	public boolean isCompressed() {
+		return coding != Coding.NONE;
+	}
+
+	/**
+	 * Returns decoded body length including bytes over max body size.
+	 */
+	public long getBodyLength() {
+		return bodyLength;
+	}
+
+	/**
+	 * Returns true if decoded body is longer than max body size.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Returns decoded body up to max body size.
+	 */
+	public byte[] getContent() {
+		if (content.length == contentLength)
+			return content;
+		return Arrays.copyOf(content, contentLength);
+	}
+
+	private void read(Buffer in, int n) {
+		if (coding == Coding.NONE && truncated && processors.isEmpty()) {
+			in.skip(n);
+			bodyLength += n;
+			return;
+		}
+
+		byte[] b = new byte[n];
+		in.gets(b);
+
+		if (coding == Coding.NONE)
+			emit(b, 0, n);
+		else if (!corrupted && (!processors.isEmpty() || !truncated))
+			inflate(b, 0, n);
+	}
+
+	private void inflate(byte[] b, int offset, int length) {
+		if (inflater == null) {
+			// wait for complete gzip header or zlib header
+			if (pending != null) {
+				b = concat(pending, b, offset, length);
+				offset = 0;
+				length = b.length;
+				pending = null;
+			}
+
+			int skip = coding == Coding.GZIP ? parseGzipHeader(b, offset, length) : startDeflate(b, offset, length);
+			if (skip < 0) {
+				if (length > MAX_GZIP_HEADER_LENGTH)
+					corrupt("too long gzip header", null);
+				else
+					pending = Arrays.copyOfRange(b, offset, offset + length);
+				return;
+			}
+
+			if (corrupted)
+				return;
+
+			if (coding == Coding.GZIP)
+				inflater = new Inflater(true);
+
+			offset += skip;
+			length -= skip;
+			inflateBuffer = new byte[INFLATE_BUFFER_SIZE];
+		}
+
+		if (inflater.finished() || length == 0)
+			return;
+
+		try {
+			inflater.setInput(b, offset, length);
+			while (!inflater.finished()) {
+				int n = inflater.inflate(inflateBuffer);
+				if (n > 0)
+					emit(Arrays.copyOf(inflateBuffer, n), 0, n);
+				else if (inflater.needsInput() || inflater.needsDictionary())
+					break;
+			}
+		} catch (DataFormatException e) {
+			corrupt("cannot inflate body", e);
+		}
+	}
+
+	/**
+	 * Returns gzip header length, or -1 if more bytes are required.
+	 */
+	private int parseGzipHeader(byte[] b, int offset, int length) {
+		if (length < 10)
+			return -1;
+
+		if ((b[offset] & 0xff) != 0x1f || (b[offset + 1] & 0xff) != 0x8b || b[offset + 2] != 8) {
+			corrupt("not in gzip format", null);
+			return 0;
+		}
+
+		int flags = b[offset + 3];
+		int p = 10;
+
+		// FEXTRA
+		if ((flags & 4) != 0) {
+			if (length < p + 2)
+				return -1;
+			p += 2 + ((b[offset + p] & 0xff) | (b[offset + p + 1] & 0xff) << 8);
+		}
+
+		// FNAME, FCOMMENT
+		for (int flag = 8; flag <= 16; flag <<= 1) {
+			if ((flags & flag) == 0)
+				continue;
+
+			while (p < length && b[offset + p] != 0)
+				p++;
+			p++;
+		}
+
+		// FHCRC
+		if ((flags & 2) != 0)
+			p += 2;
+
+		return p <= length ? p : -1;
+	}
+
+	/**
+	 * Detects zlib wrapper, since some servers send raw deflate stream.
+	 */
+	private int startDeflate(byte[] b, int offset, int length) {
+		if (length < 2)
+			return -1;
+
+		int cmf = b[offset] & 0xff;
+		int flg = b[offset + 1] & 0xff;
+		boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		inflater = new Inflater(!zlib);
+		return 0;
+	}
+
+	private void emit(byte[] b, int offset, int length) {
+		bodyLength += length;
+
+		int n = Math.min(length, maxBodySize - contentLength);
+		if (n > 0) {
+			if (content.length < contentLength + n)
+				content = Arrays.copyOf(content, Math.min(maxBodySize, Math.max(contentLength + n, content.length * 2)));
+
+			System.arraycopy(b, offset, content, contentLength, n);
+			contentLength += n;
+		}
+
+		if (n < length)
+			truncated = true;
+
+		for (HttpBodyProcessor processor : processors) {
+			try {
+				processor.onResponseBody(request, response, new ChainBuffer(b, offset, length));
+			} catch (Exception e) {
+				logger.warn("kraken http decoder: body processor should not throw any exception", e);
+			}
+		}
+	}
+
+	private void finish() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+
+		pending = null;
+		inflateBuffer = null;
+
+		state = State.DONE;
+		if (finished)
+			return;
+
+		finished = true;
+		for (HttpBodyProcessor processor : processors) {
+			try {
+				processor.onResponseBodyEnd(request, response);
+			} catch (Exception e) {
+				logger.warn("kraken http decoder: body processor should not throw any exception", e);
+			}
+		}
+	}
+
+	private String readLine(Buffer in) {
+		if (in.readableBytes() < 2)
+			return null;
+
+		in.mark();
+		if (in.get() == 0x0d && in.get() == 0x0a)
+			return "";
+		in.reset();
+
+		int len = in.bytesBefore(CRLF);
+		if (len == 0) {
+			if (in.readableBytes() > MAX_LINE_LENGTH)
+				abort("too long chunk line");
+			return null;
+		}
+
+		String line = in.getString(len);
+		in.skip(2);
+		return line;
+	}
+
+	private void abort(String reason) {
+		if (logger.isDebugEnabled())
+			logger.debug("kraken http decoder: {}, skip remaining body", reason);
+		state = State.SKIP;
+	}
+
+	private void corrupt(String reason, Exception e) {
+		if (logger.isDebugEnabled())
+			logger.debug("kraken http decoder: " + reason, e);
+		corrupted = true;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b, int offset, int length) {
+		byte[] c = Arrays.copyOf(a, a.length + length);
+		System.arraycopy(b, offset, c, a.length, length);
+		return c;
+	}
+}
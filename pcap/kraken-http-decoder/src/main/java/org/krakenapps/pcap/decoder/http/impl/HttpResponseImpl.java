@@ -63,19 +63,10 @@ public class HttpResponseImpl implements HttpResponse {
 	private String boundary;
 	private int partLength = -1;
 
-	/* GZIP variable */
-	private int gzipOffset = 0;
-	private int gzipLength = -1;
-
-	/* CHUNKED variable */
-	private int chunkedOffset = 0;
-	private int chunkedLength = -1;
+	/* CHUNKED, GZIP, DEFLATE and NORMAL body */
+	private HttpBodyDecoder bodyDecoder;
 
 	private Buffer contentBuffer;
-	private Buffer gzipBuf;
-	private List<Byte> gzipContent;
-	private List<Byte> chunked;
-	private Buffer chunkedBuf;
 
 	// private String contentStr;
 	private byte[] content;
@@ -185,36 +176,12 @@ public class HttpResponseImpl implements HttpResponse {
 		this.partLength = partLength;
 	}
 
-	public int getGzipOffset() {
-		return gzipOffset;
-	}
-
-	public void setGzipOffset(int gzipOffset) {
-		this.gzipOffset = gzipOffset;
-	}
-
-	public int getGzipLength() {
-		return gzipLength;
-	}
-
-	public void setGzipLength(int gzipLength) {
-		this.gzipLength = gzipLength;
-	}
-
-	public int getChunkedOffset() {
-		return chunkedOffset;
+	public HttpBodyDecoder getBodyDecoder() {
+		return bodyDecoder;
 	}
 
-	public void setChunkedOffset(int chunkedOffset) {
-		this.chunkedOffset = chunkedOffset;
-	}
-
-	public int getChunkedLength() {
-		return chunkedLength;
-	}
-
-	public void setChunkedLength(int chunkedLength) {
-		this.chunkedLength = chunkedLength;
+	public void setBodyDecoder(HttpBodyDecoder bodyDecoder) {
+		this.bodyDecoder = bodyDecoder;
 	}
 
 	public void createContent() {
@@ -225,50 +192,6 @@ public class HttpResponseImpl implements HttpResponse {
 		return contentBuffer;
 	}
 
-	public void createGzip() {
-		gzipContent = new ArrayList<Byte>();
-	}
-
-	public List<Byte> getGzip() {
-		return gzipContent;
-	}
-
-	public void putGzip(byte b) {
-		gzipContent.add(b);
-	}
-
-	public void putGzip(List<Byte> b) {
-		gzipContent.addAll(b);
-	}
-
-	public Buffer getGzipBuf() {
-		return gzipBuf;
-	}
-
-	public void putGzipBuf(byte[] b) {
-		gzipBuf.addLast(b);
-	}
-
-	public void createChunked() {
-		chunked = new ArrayList<Byte>();
-	}
-
-	public List<Byte> getChunked() {
-		return chunked;
-	}
-
-	public void putChunked(List<Byte> bList) {
-		chunked.addAll(chunkedOffset, bList);
-	}
-
-	public Buffer getChunkedBuf() {
-		return chunkedBuf;
-	}
-
-	public void putChunkedBuf(byte[] b) {
-		chunkedBuf.addLast(b);
-	}
-
 	public void setContent(byte[] content) {
 		this.content = content;
 	}
@@ -318,7 +241,7 @@ public class HttpResponseImpl implements HttpResponse {
 
 	private void mappingContents(String type, String charset) {
 		if (compareContentType(type)) {
-			if (flags.contains(FlagEnum.GZIP)) {
+			if (flags.contains(FlagEnum.GZIP) || flags.contains(FlagEnum.DEFLATE)) {
 				try {
 					if (decompressedGzip == null) {
 						/* decompress failed */
@@ -344,7 +267,7 @@ public class HttpResponseImpl implements HttpResponse {
 			} else if (flags.contains(FlagEnum.CHUNKED)) {
 				try {
 					/* added code */
-					if (message.getContent() instanceof SharedByteArrayInputStream) {
+					if (message != null && message.getContent() instanceof SharedByteArrayInputStream) {
 						inputStream = new ByteArrayInputStream(chunkedBytes);
 					}
 					/* added code end */
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.decoder.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.krakenapps.pcap.decoder.http.impl.HttpBodyDecoder;
+import org.krakenapps.pcap.decoder.http.impl.HttpResponseImpl;
+import org.krakenapps.pcap.decoder.tcp.TcpSessionKey;
+import org.krakenapps.pcap.decoder.tcp.TcpSessionKeyImpl;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.ChainBuffer;
+
+public class HttpBodyDecoderTest {
+	private static final int[] SEGMENT_SIZES = { 1, 2, 3, 7, 1460 };
+
+	private byte[] text = text(20000);
+
+	@Test
+	public void testChunkBoundary() throws IOException {
+		byte[] body = chunk(text, 1, 10, 1000, 4096);
+		for (int size : SEGMENT_SIZES) {
+			Collector c = new Collector();
+			HttpBodyDecoder d = decoder(c, "Transfer-Encoding: chunked");
+			assertEquals(0, decode(d, body, size).readableBytes());
+			assertTrue(d.isCompleted());
+			assertArrayEquals(text, d.getContent());
+			assertArrayEquals(text, c.body.toByteArray());
+			assertEquals(1, c.ends);
+		}
+	}
+
+	@Test
+	public void testChunkExtensionAndTrailer() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		os.write("A;name=value\r\n0123456789\r\n".getBytes());
+		os.write("1a; foo=\"bar\"; baz\r\nabcdefghijklmnopqrstuvwxyz\r\n".getBytes());
+		os.write("0;last\r\nX-Checksum: 1\r\nX-Other: 2\r\n\r\n".getBytes());
+
+		// next response on same connection should be left untouched
+		byte[] next = "HTTP/1.1 200 OK\r\n".getBytes();
+		os.write(next);
+
+		for (int size : SEGMENT_SIZES) {
+			Collector c = new Collector();
+			HttpBodyDecoder d = decoder(c, "Transfer-Encoding: chunked");
+			Buffer remaining = decode(d, os.toByteArray(), size);
+			assertTrue(d.isCompleted());
+			assertEquals("0123456789abcdefghijklmnopqrstuvwxyz", new String(d.getContent()));
+			assertEquals(1, c.ends);
+
+			byte[] b = new byte[remaining.readableBytes()];
+			remaining.gets(b);
+			assertArrayEquals(next, b);
+		}
+	}
+
+	@Test
+	public void testGzipSplit() throws IOException {
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		GZIPOutputStream gos = new GZIPOutputStream(gz);
+		gos.write(text);
+		gos.close();
+
+		byte[] named = gzipWithName(text);
+		for (int size : SEGMENT_SIZES) {
+			verify(gz.toByteArray(), size, "Content-Encoding: gzip", "Content-Length: " + gz.size());
+			verify(chunk(gz.toByteArray(), 5, 100, 3000), size, "Content-Encoding: gzip",
+					"Transfer-Encoding: chunked");
+
+			// file name field should be skipped even if header is split
+			verify(named, size, "Content-Encoding: gzip", "Content-Length: " + named.length);
+		}
+	}
+
+	@Test
+	public void testDeflateSplit() throws IOException {
+		ByteArrayOutputStream df = new ByteArrayOutputStream();
+		DeflaterOutputStream dos = new DeflaterOutputStream(df);
+		dos.write(text);
+		dos.close();
+
+		for (int size : SEGMENT_SIZES) {
+			verify(df.toByteArray(), size, "Content-Encoding: deflate", "Content-Length: " + df.size());
+			verify(chunk(df.toByteArray(), 1, 2, 3000), size, "Content-Encoding: deflate",
+					"Transfer-Encoding: chunked");
+		}
+	}
+
+	@Test
+	public void testRawDeflate() throws IOException {
+		// some servers omit zlib header for deflate coding
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream df = new ByteArrayOutputStream();
+		DeflaterOutputStream dos = new DeflaterOutputStream(df, deflater);
+		dos.write(text);
+		dos.close();
+		deflater.end();
+
+		for (int size : SEGMENT_SIZES)
+			verify(df.toByteArray(), size, "Content-Encoding: deflate", "Content-Length: " + df.size());
+	}
+
+	@Test
+	public void testTruncatedFinalChunk() throws IOException {
+		// connection is closed in the middle of last chunk
+		byte[] body = chunk(text, 1000);
+		byte[] truncated = Arrays.copyOf(body, body.length - 600);
+
+		for (int size : SEGMENT_SIZES) {
+			Collector c = new Collector();
+			HttpBodyDecoder d = decoder(c, "Transfer-Encoding: chunked");
+			decode(d, truncated, size);
+			assertFalse(d.isCompleted());
+			assertEquals(0, c.ends);
+
+			d.close();
+			assertTrue(d.isCompleted());
+			assertEquals(1, c.ends);
+			assertFalse(d.isCorrupted());
+
+			byte[] content = d.getContent();
+			assertTrue(content.length < text.length);
+			assertArrayEquals(Arrays.copyOf(text, content.length), content);
+			assertArrayEquals(content, c.body.toByteArray());
+
+			// close is idempotent
+			d.close();
+			assertEquals(1, c.ends);
+		}
+	}
+
+	@Test
+	public void testDecoderSplitSegments() throws IOException {
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		GZIPOutputStream gos = new GZIPOutputStream(gz);
+		gos.write(text);
+		gos.close();
+
+		// two pipelined responses, delivered one tcp segment per byte
+		String header = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Encoding: gzip\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n";
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		for (int i = 0; i < 2; i++) {
+			os.write(header.getBytes());
+			os.write(chunk(gz.toByteArray(), 7, 500));
+		}
+		byte[] response = os.toByteArray();
+
+		Collector c = new Collector();
+		HttpDecoder decoder = new HttpDecoder();
+		decoder.registerBodyProcessor(c);
+
+		TcpSessionKey key = new TcpSessionKeyImpl(InetAddress.getByName("10.0.0.1"),
+				InetAddress.getByName("10.0.0.2"), 40000, 80);
+		decoder.onEstablish(key);
+		for (int i = 0; i < 2; i++) {
+			decoder.handleTx(key, new ChainBuffer("GET / HTTP/1.1\r\nHost: a\r\n\r\n".getBytes()));
+			int end = i == 0 ? response.length / 2 : response.length;
+			for (int p = i == 0 ? 0 : response.length / 2; p < end; p++)
+				decoder.handleRx(key, new ChainBuffer(new byte[] { response[p] }));
+		}
+		decoder.onFinish(key);
+
+		assertEquals(2, c.ends);
+		byte[] expected = Arrays.copyOf(text, text.length * 2);
+		System.arraycopy(text, 0, expected, text.length, text.length);
+		assertArrayEquals(expected, c.body.toByteArray());
+	}
+
+	private void verify(byte[] body, int segmentSize, String... headers) {
+		Collector c = new Collector();
+		HttpBodyDecoder d = decoder(c, headers);
+		assertEquals(0, decode(d, body, segmentSize).readableBytes());
+		assertTrue(d.isCompleted());
+		assertFalse(d.isCorrupted());
+		assertArrayEquals(text, d.getContent());
+		assertArrayEquals(text, c.body.toByteArray());
+		assertEquals(1, c.ends);
+	}
+
+	private HttpBodyDecoder decoder(Collector c, String... headers) {
+		HttpResponseImpl response = new HttpResponseImpl();
+		response.setStatusCode(200);
+		for (String header : headers)
+			response.addHeader(header);
+
+		return new HttpBodyDecoder(null, response, Collections.<HttpBodyProcessor> singletonList(c), 1 << 20);
+	}
+
+	/**
+	 * Feeds body by segment size like tcp reassembly does, and returns bytes
+	 * after body.
+	 */
+	private Buffer decode(HttpBodyDecoder d, byte[] body, int segmentSize) {
+		ChainBuffer buffer = new ChainBuffer();
+		boolean completed = false;
+		for (int i = 0; i < body.length; i += segmentSize) {
+			buffer.addLast(Arrays.copyOfRange(body, i, Math.min(body.length, i + segmentSize)));
+			if (!completed)
+				completed = d.decode(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Splits body into chunks of given sizes, and the last size is repeated.
+	 */
+	private static byte[] chunk(byte[] b, int... sizes) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		int i = 0;
+		for (int offset = 0; offset < b.length; i++) {
+			int n = Math.min(sizes[Math.min(i, sizes.length - 1)], b.length - offset);
+			os.write((Integer.toHexString(n) + "\r\n").getBytes());
+			os.write(b, offset, n);
+			os.write("\r\n".getBytes());
+			offset += n;
+		}
+		os.write("0\r\n\r\n".getBytes());
+		return os.toByteArray();
+	}
+
+	/**
+	 * Writes gzip member with FNAME field, which GZIPOutputStream does not
+	 * write.
+	 */
+	private static byte[] gzipWithName(byte[] b) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		os.write(new byte[] { 0x1f, (byte) 0x8b, 8, 8, 0, 0, 0, 0, 0, (byte) 0xff });
+		os.write("body.txt\0".getBytes());
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater);
+		dos.write(b);
+		dos.finish();
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(b);
+		writeIntLe(os, (int) crc.getValue());
+		writeIntLe(os, b.length);
+		return os.toByteArray();
+	}
+
+	private static void writeIntLe(ByteArrayOutputStream os, int i) {
+		os.write(i);
+		os.write(i >> 8);
+		os.write(i >> 16);
+		os.write(i >> 24);
+	}
+
+	private static byte[] text(int length) {
+		// not too compressible, so that compressed body spans many segments
+		Random random = new Random(1);
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++)
+			b[i] = (byte) ('a' + random.nextInt(16));
+		return b;
+	}
+
+	private static class Collector implements HttpBodyProcessor {
+		private ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private int ends;
+
+		@Override
+		public void onResponseBody(HttpRequest req, HttpResponse resp, Buffer data) {
+			byte[] b = new byte[data.readableBytes()];
+			data.gets(b);
+			body.write(b, 0, b.length);
+		}
+
+		@Override
+		public void onResponseBodyEnd(HttpRequest req, HttpResponse resp) {
+			ends++;
+		}
+	}
+}
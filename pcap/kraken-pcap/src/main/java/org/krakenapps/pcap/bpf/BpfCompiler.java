@@ -0,0 +1,833 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.bpf;
+
+import static org.krakenapps.pcap.bpf.BpfProgram.ABS;
+import static org.krakenapps.pcap.bpf.BpfProgram.ALU;
+import static org.krakenapps.pcap.bpf.BpfProgram.AND;
+import static org.krakenapps.pcap.bpf.BpfProgram.B;
+import static org.krakenapps.pcap.bpf.BpfProgram.H;
+import static org.krakenapps.pcap.bpf.BpfProgram.IND;
+import static org.krakenapps.pcap.bpf.BpfProgram.JA;
+import static org.krakenapps.pcap.bpf.BpfProgram.JEQ;
+import static org.krakenapps.pcap.bpf.BpfProgram.JGE;
+import static org.krakenapps.pcap.bpf.BpfProgram.JGT;
+import static org.krakenapps.pcap.bpf.BpfProgram.JMP;
+import static org.krakenapps.pcap.bpf.BpfProgram.JSET;
+import static org.krakenapps.pcap.bpf.BpfProgram.K;
+import static org.krakenapps.pcap.bpf.BpfProgram.LD;
+import static org.krakenapps.pcap.bpf.BpfProgram.LDX;
+import static org.krakenapps.pcap.bpf.BpfProgram.LEN;
+import static org.krakenapps.pcap.bpf.BpfProgram.MSH;
+import static org.krakenapps.pcap.bpf.BpfProgram.RET;
+import static org.krakenapps.pcap.bpf.BpfProgram.W;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles tcpdump filter expression to classic BPF program for ethernet
+ * frames. Supported primitives are:
+ * 
+ * <pre>
+ * [ether|ip|ip6|arp|tcp|udp|icmp|icmp6]
+ * [proto] [src|dst] host|net|port|portrange id
+ * ip proto n, ip6 proto n, ether proto n
+ * less n, greater n
+ * </pre>
+ * 
+ * and primitives are combined with and, or, not, &amp;&amp;, ||, ! and
+ * parentheses. Like tcpdump, and and or have same precedence, and bare id
+ * after and or reuses qualifiers of previous primitive, e.g. "host 10.0.0.1
+ * or 10.0.0.2". Host names are not resolved, and vlan tags and packet data
+ * accessors such as tcp[13] are not supported.
+ * 
+ * Expression is parsed into tree, and tree is translated to jumps with true
+ * and false labels which are resolved after code generation.
+ * 
+ * @author xeraph
+ */
+public class BpfCompiler {
+	public static final int SNAPLEN = 262144;
+
+	private static final int ETHERTYPE_IP = 0x0800;
+	private static final int ETHERTYPE_IPV6 = 0x86dd;
+	private static final int ETHERTYPE_ARP = 0x0806;
+
+	private static final int ICMP = 1;
+	private static final int TCP = 6;
+	private static final int UDP = 17;
+	private static final int ICMPV6 = 58;
+
+	private static final Set<String> PROTOCOLS = new HashSet<String>(Arrays.asList("ether", "ip", "ip6", "arp",
+			"tcp", "udp", "icmp", "icmp6"));
+	private static final Set<String> DIRECTIONS = new HashSet<String>(Arrays.asList("src", "dst"));
+	private static final Set<String> TYPES = new HashSet<String>(Arrays.asList("host", "net", "port", "portrange",
+			"proto"));
+	private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("and", "or", "not", "&&", "||",
+			"!", "(", ")", "less", "greater"));
+
+	private List<String> tokens;
+	private int pos;
+	private Qualifier last;
+
+	// code, k, true label, false label
+	private List<int[]> insns;
+	private List<Integer> labels;
+
+	public BpfProgram compile(String expression) {
+		tokens = tokenize(expression);
+		pos = 0;
+		last = null;
+
+		Node root = null;
+		if (!tokens.isEmpty()) {
+			root = parseExpression();
+			if (pos < tokens.size())
+				throw error("unexpected token");
+		}
+
+		insns = new ArrayList<int[]>();
+		labels = new ArrayList<Integer>();
+
+		int accept = newLabel();
+		int reject = newLabel();
+		if (root != null)
+			root.gen(accept, reject);
+
+		place(accept);
+		emit(RET | K, SNAPLEN);
+		place(reject);
+		emit(RET | K, 0);
+		return link();
+	}
+
+	private static List<String> tokenize(String s) {
+		List<String> l = new ArrayList<String>();
+		if (s == null)
+			return l;
+
+		int i = 0;
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(' || c == ')' || c == '!') {
+				l.add(String.valueOf(c));
+				i++;
+			} else if (s.startsWith("&&", i) || s.startsWith("||", i)) {
+				l.add(s.substring(i, i + 2));
+				i += 2;
+			} else {
+				int begin = i;
+				while (i < s.length() && !isDelimiter(s, i))
+					i++;
+				l.add(s.substring(begin, i));
+			}
+		}
+		return l;
+	}
+
+	private static boolean isDelimiter(String s, int i) {
+		char c = s.charAt(i);
+		return Character.isWhitespace(c) || c == '(' || c == ')' || c == '!' || s.startsWith("&&", i)
+				|| s.startsWith("||", i);
+	}
+
+	//
+	// parser
+	//
+
+	private Node parseExpression() {
+		Node node = parseUnary();
+		while (true) {
+			if (accept("and") || accept("&&"))
+				node = new And(node, parseUnary());
+			else if (accept("or") || accept("||"))
+				node = new Or(node, parseUnary());
+			else
+				return node;
+		}
+	}
+
+	private Node parseUnary() {
+		if (accept("not") || accept("!"))
+			return new Not(parseUnary());
+
+		if (accept("(")) {
+			Node node = parseExpression();
+			if (!accept(")"))
+				throw error("')' expected");
+			return node;
+		}
+
+		return parsePrimitive();
+	}
+
+	private Node parsePrimitive() {
+		String t = peek();
+		if (t == null)
+			throw error("primitive expected");
+
+		if (accept("less"))
+			return new Length(true, parseNumber(next()));
+		if (accept("greater"))
+			return new Length(false, parseNumber(next()));
+
+		Qualifier q = new Qualifier();
+		if (PROTOCOLS.contains(peek()))
+			q.proto = next();
+		if (DIRECTIONS.contains(peek()))
+			q.dir = next();
+		if (TYPES.contains(peek()))
+			q.type = next();
+
+		if (q.proto == null && q.dir == null && q.type == null) {
+			if (RESERVED.contains(t))
+				throw error("primitive expected");
+
+			// bare id reuses previous qualifiers
+			if (last != null)
+				q = last;
+			else
+				q.type = "host";
+		} else if (q.dir == null && q.type == null) {
+			return protocol(q.proto);
+		}
+
+		if (q.type == null)
+			q.type = "host";
+
+		String id = next();
+		if (id == null || RESERVED.contains(id))
+			throw error("id expected after " + q.type);
+
+		last = q;
+		return primitive(q, id);
+	}
+
+	private Node primitive(Qualifier q, String id) {
+		if (q.type.equals("proto")) {
+			if (q.dir != null)
+				throw error("direction is not allowed for proto");
+			return proto(q.proto, id);
+		}
+
+		if (q.type.equals("port") || q.type.equals("portrange"))
+			return port(q, id);
+
+		if (q.proto != null && q.proto.equals("ether")) {
+			if (!q.type.equals("host"))
+				throw error("ether " + q.type + " is not supported");
+			return new EtherHost(q.dir, parseMac(id));
+		}
+
+		// host or net
+		byte[] address;
+		int prefix;
+		if (q.type.equals("net")) {
+			int slash = id.indexOf('/');
+			String addr = slash < 0 ? id : id.substring(0, slash);
+
+			// partial ipv4 network such as 192.168
+			int octets = addr.contains(":") ? 0 : addr.split("\\.").length;
+			for (int i = octets; i > 0 && i < 4; i++)
+				addr += ".0";
+
+			address = parseAddress(addr);
+			prefix = slash >= 0 ? parseNumber(id.substring(slash + 1)) : octets > 0 ? octets * 8
+					: address.length * 8;
+			if (prefix < 0 || prefix > address.length * 8)
+				throw error("invalid prefix length");
+		} else {
+			address = parseAddress(id);
+			prefix = address.length * 8;
+		}
+
+		Node host = null;
+		if (address.length == 4) {
+			Node ip = new Address(ETHERTYPE_IP, 26, 30, q.dir, address, prefix);
+			Node arp = new Address(ETHERTYPE_ARP, 28, 38, q.dir, address, prefix);
+			if (q.proto == null)
+				return new Or(ip, arp);
+			if (q.proto.equals("arp"))
+				return arp;
+			if (q.proto.equals("ip6") || q.proto.equals("icmp6"))
+				throw error("ipv4 address for " + q.proto);
+			host = ip;
+		} else {
+			host = new Address(ETHERTYPE_IPV6, 22, 38, q.dir, address, prefix);
+			if (q.proto == null)
+				return host;
+			if (q.proto.equals("ip") || q.proto.equals("arp") || q.proto.equals("icmp"))
+				throw error("ipv6 address for " + q.proto);
+		}
+
+		if (q.proto.equals("ip") || q.proto.equals("ip6"))
+			return host;
+
+		return new And(protocol(q.proto), host);
+	}
+
+	private Node protocol(String proto) {
+		if (proto.equals("ip"))
+			return new Protocol(4, -1);
+		if (proto.equals("ip6"))
+			return new Protocol(6, -1);
+		if (proto.equals("arp"))
+			return new EtherType(ETHERTYPE_ARP);
+		if (proto.equals("tcp"))
+			return new Protocol(0, TCP);
+		if (proto.equals("udp"))
+			return new Protocol(0, UDP);
+		if (proto.equals("icmp"))
+			return new Protocol(4, ICMP);
+		if (proto.equals("icmp6"))
+			return new Protocol(6, ICMPV6);
+
+		throw error(proto + " requires qualifier");
+	}
+
+	private Node proto(String qualifier, String id) {
+		if (qualifier != null && qualifier.equals("ether")) {
+			if (id.equals("ip"))
+				return new EtherType(ETHERTYPE_IP);
+			if (id.equals("ip6"))
+				return new EtherType(ETHERTYPE_IPV6);
+			if (id.equals("arp"))
+				return new EtherType(ETHERTYPE_ARP);
+			return new EtherType(parseNumber(id));
+		}
+
+		int proto;
+		if (id.equals("tcp"))
+			proto = TCP;
+		else if (id.equals("udp"))
+			proto = UDP;
+		else if (id.equals("icmp"))
+			proto = ICMP;
+		else if (id.equals("icmp6"))
+			proto = ICMPV6;
+		else
+			proto = parseNumber(id);
+
+		if (qualifier == null)
+			return new Protocol(0, proto);
+		if (qualifier.equals("ip"))
+			return new Protocol(4, proto);
+		if (qualifier.equals("ip6"))
+			return new Protocol(6, proto);
+
+		throw error(qualifier + " proto is not supported");
+	}
+
+	private Node port(Qualifier q, String id) {
+		int family = 0;
+		int proto = -1;
+		if (q.proto != null) {
+			if (q.proto.equals("tcp"))
+				proto = TCP;
+			else if (q.proto.equals("udp"))
+				proto = UDP;
+			else if (q.proto.equals("ip"))
+				family = 4;
+			else if (q.proto.equals("ip6"))
+				family = 6;
+			else
+				throw error(q.proto + " " + q.type + " is not supported");
+		}
+
+		int low;
+		int high;
+		if (q.type.equals("portrange")) {
+			int dash = id.indexOf('-');
+			if (dash < 0)
+				throw error("port range expected");
+			low = parseNumber(id.substring(0, dash));
+			high = parseNumber(id.substring(dash + 1));
+		} else {
+			low = high = parseNumber(id);
+		}
+
+		if (low < 0 || high > 65535 || low > high)
+			throw error("invalid port");
+
+		return new Port(family, proto, q.dir, low, high);
+	}
+
+	private int parseNumber(String s) {
+		try {
+			return Integer.decode(s);
+		} catch (Exception e) {
+			throw error("number expected");
+		}
+	}
+
+	private byte[] parseAddress(String s) {
+		// only numeric address, host names are not resolved
+		if (!s.contains(":") && !s.matches("\\d+\\.\\d+\\.\\d+\\.\\d+"))
+			throw error("invalid address");
+
+		try {
+			return InetAddress.getByName(s).getAddress();
+		} catch (UnknownHostException e) {
+			throw error("invalid address");
+		}
+	}
+
+	private byte[] parseMac(String s) {
+		String[] tokens = s.split("[:\\-]");
+		if (tokens.length != 6)
+			throw error("invalid mac address");
+
+		byte[] mac = new byte[6];
+		try {
+			for (int i = 0; i < 6; i++)
+				mac[i] = (byte) Integer.parseInt(tokens[i], 16);
+		} catch (NumberFormatException e) {
+			throw error("invalid mac address");
+		}
+		return mac;
+	}
+
+	private String peek() {
+		return pos < tokens.size() ? tokens.get(pos) : null;
+	}
+
+	private String next() {
+		return pos < tokens.size() ? tokens.get(pos++) : null;
+	}
+
+	private boolean accept(String token) {
+		if (token.equals(peek())) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private IllegalArgumentException error(String message) {
+		String near = pos > 0 ? tokens.get(Math.min(pos, tokens.size()) - 1) : "";
+		return new IllegalArgumentException("invalid filter expression: " + message + " near '" + near + "'");
+	}
+
+	//
+	// code generation
+	//
+
+	private int newLabel() {
+		labels.add(-1);
+		return labels.size() - 1;
+	}
+
+	private void place(int label) {
+		labels.set(label, insns.size());
+	}
+
+	private void emit(int code, int k) {
+		insns.add(new int[] { code, k, -1, -1 });
+	}
+
+	private void jump(int op, int k, int t, int f) {
+		insns.add(new int[] { JMP | op | K, k, t, f });
+	}
+
+	private void jumpAlways(int target) {
+		insns.add(new int[] { JMP | JA, 0, target, -1 });
+	}
+
+	private void etherType(int type, int t, int f) {
+		emit(LD | H | ABS, 12);
+		jump(JEQ, type, t, f);
+	}
+
+	private BpfProgram link() {
+		int n = insns.size();
+		int[] code = new int[n];
+		int[] jt = new int[n];
+		int[] jf = new int[n];
+		int[] k = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			int[] insn = insns.get(i);
+			code[i] = insn[0];
+			k[i] = insn[1];
+			if (insn[0] == (JMP | JA))
+				k[i] = labels.get(insn[2]) - (i + 1);
+			else if ((insn[0] & 0x07) == JMP) {
+				jt[i] = labels.get(insn[2]) - (i + 1);
+				jf[i] = labels.get(insn[3]) - (i + 1);
+			}
+		}
+
+		return new BpfProgram(code, jt, jf, k);
+	}
+
+	private static class Qualifier {
+		private String proto;
+		private String dir;
+		private String type;
+	}
+
+	private abstract class Node {
+		/**
+		 * Generates code which jumps to label t if matched, otherwise f
+		 */
+		abstract void gen(int t, int f);
+	}
+
+	private class And extends Node {
+		private Node left;
+		private Node right;
+
+		public And(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			int next = newLabel();
+			left.gen(next, f);
+			place(next);
+			right.gen(t, f);
+		}
+	}
+
+	private class Or extends Node {
+		private Node left;
+		private Node right;
+
+		public Or(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			int next = newLabel();
+			left.gen(t, next);
+			place(next);
+			right.gen(t, f);
+		}
+	}
+
+	private class Not extends Node {
+		private Node node;
+
+		public Not(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			node.gen(f, t);
+		}
+	}
+
+	private class Length extends Node {
+		private boolean less;
+		private int length;
+
+		public Length(boolean less, int length) {
+			this.less = less;
+			this.length = length;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			emit(LD | W | LEN, 0);
+			if (less)
+				jump(JGT, length, f, t);
+			else
+				jump(JGE, length, t, f);
+		}
+	}
+
+	private class EtherType extends Node {
+		private int type;
+
+		public EtherType(int type) {
+			this.type = type;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			etherType(type, t, f);
+		}
+	}
+
+	/**
+	 * IPv4 and/or IPv6 packet, and optionally its protocol. Extension headers
+	 * of IPv6 are not followed.
+	 */
+	private class Protocol extends Node {
+		private int family;
+		private int proto;
+
+		public Protocol(int family, int proto) {
+			this.family = family;
+			this.proto = proto;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			if (family == 4) {
+				gen(ETHERTYPE_IP, 23, t, f);
+			} else if (family == 6) {
+				gen(ETHERTYPE_IPV6, 20, t, f);
+			} else {
+				int next = newLabel();
+				gen(ETHERTYPE_IP, 23, t, next);
+				place(next);
+				gen(ETHERTYPE_IPV6, 20, t, f);
+			}
+		}
+
+		private void gen(int type, int offset, int t, int f) {
+			if (proto < 0) {
+				etherType(type, t, f);
+				return;
+			}
+
+			int next = newLabel();
+			etherType(type, next, f);
+			place(next);
+			emit(LD | B | ABS, offset);
+			jump(JEQ, proto, t, f);
+		}
+	}
+
+	/**
+	 * Source and/or destination address with prefix length
+	 */
+	private class Address extends Node {
+		private int type;
+		private int srcOffset;
+		private int dstOffset;
+		private String dir;
+		private int[] words;
+		private int[] masks;
+
+		public Address(int type, int srcOffset, int dstOffset, String dir, byte[] address, int prefix) {
+			this.type = type;
+			this.srcOffset = srcOffset;
+			this.dstOffset = dstOffset;
+			this.dir = dir;
+			this.words = new int[address.length / 4];
+			this.masks = new int[address.length / 4];
+
+			for (int i = 0; i < words.length; i++) {
+				int bits = Math.max(0, Math.min(32, prefix - i * 32));
+				masks[i] = bits == 0 ? 0 : -1 << (32 - bits);
+				for (int j = 0; j < 4; j++)
+					words[i] = words[i] << 8 | (address[i * 4 + j] & 0xff);
+				words[i] &= masks[i];
+			}
+		}
+
+		@Override
+		void gen(int t, int f) {
+			int next = newLabel();
+			etherType(type, next, f);
+			place(next);
+
+			if ("src".equals(dir)) {
+				compare(srcOffset, t, f);
+			} else if ("dst".equals(dir)) {
+				compare(dstOffset, t, f);
+			} else {
+				int dst = newLabel();
+				compare(srcOffset, t, dst);
+				place(dst);
+				compare(dstOffset, t, f);
+			}
+		}
+
+		private void compare(int offset, int t, int f) {
+			int lastWord = -1;
+			for (int i = 0; i < words.length; i++)
+				if (masks[i] != 0)
+					lastWord = i;
+
+			// zero prefix length matches any address
+			if (lastWord < 0) {
+				jumpAlways(t);
+				return;
+			}
+
+			for (int i = 0; i <= lastWord; i++) {
+				if (masks[i] == 0)
+					continue;
+
+				emit(LD | W | ABS, offset + i * 4);
+				if (masks[i] != -1)
+					emit(ALU | AND | K, masks[i]);
+
+				if (i == lastWord) {
+					jump(JEQ, words[i], t, f);
+				} else {
+					int next = newLabel();
+					jump(JEQ, words[i], next, f);
+					place(next);
+				}
+			}
+		}
+	}
+
+	private class EtherHost extends Node {
+		private String dir;
+		private int high;
+		private int low;
+
+		public EtherHost(String dir, byte[] mac) {
+			this.dir = dir;
+			this.high = (mac[0] & 0xff) << 8 | (mac[1] & 0xff);
+			this.low = (mac[2] & 0xff) << 24 | (mac[3] & 0xff) << 16 | (mac[4] & 0xff) << 8 | (mac[5] & 0xff);
+		}
+
+		@Override
+		void gen(int t, int f) {
+			if ("src".equals(dir)) {
+				compare(6, t, f);
+			} else if ("dst".equals(dir)) {
+				compare(0, t, f);
+			} else {
+				int next = newLabel();
+				compare(6, t, next);
+				place(next);
+				compare(0, t, f);
+			}
+		}
+
+		private void compare(int offset, int t, int f) {
+			int next = newLabel();
+			emit(LD | W | ABS, offset + 2);
+			jump(JEQ, low, next, f);
+			place(next);
+			emit(LD | H | ABS, offset);
+			jump(JEQ, high, t, f);
+		}
+	}
+
+	/**
+	 * TCP or UDP port range. Non-first IPv4 fragments do not match, since
+	 * they have no transport header.
+	 */
+	private class Port extends Node {
+		private int family;
+		private int proto;
+		private String dir;
+		private int low;
+		private int high;
+
+		public Port(int family, int proto, String dir, int low, int high) {
+			this.family = family;
+			this.proto = proto;
+			this.dir = dir;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		void gen(int t, int f) {
+			if (family == 4) {
+				genIpv4(t, f);
+			} else if (family == 6) {
+				genIpv6(t, f);
+			} else {
+				int next = newLabel();
+				genIpv4(t, next);
+				place(next);
+				genIpv6(t, f);
+			}
+		}
+
+		private void genIpv4(int t, int f) {
+			int ip = newLabel();
+			etherType(ETHERTYPE_IP, ip, f);
+			place(ip);
+
+			int transport = newLabel();
+			emit(LD | B | ABS, 23);
+			protocol(transport, f);
+			place(transport);
+
+			// fragment offset should be zero
+			int first = newLabel();
+			emit(LD | H | ABS, 20);
+			jump(JSET, 0x1fff, f, first);
+			place(first);
+
+			emit(LDX | B | MSH, 14);
+			ports(IND, 14, t, f);
+		}
+
+		private void genIpv6(int t, int f) {
+			int ip = newLabel();
+			etherType(ETHERTYPE_IPV6, ip, f);
+			place(ip);
+
+			int transport = newLabel();
+			emit(LD | B | ABS, 20);
+			protocol(transport, f);
+			place(transport);
+
+			ports(ABS, 54, t, f);
+		}
+
+		private void protocol(int t, int f) {
+			if (proto >= 0) {
+				jump(JEQ, proto, t, f);
+			} else {
+				int udp = newLabel();
+				jump(JEQ, TCP, t, udp);
+				place(udp);
+				jump(JEQ, UDP, t, f);
+			}
+		}
+
+		private void ports(int mode, int offset, int t, int f) {
+			if ("src".equals(dir)) {
+				compare(mode, offset, t, f);
+			} else if ("dst".equals(dir)) {
+				compare(mode, offset + 2, t, f);
+			} else {
+				int next = newLabel();
+				compare(mode, offset, t, next);
+				place(next);
+				compare(mode, offset + 2, t, f);
+			}
+		}
+
+		private void compare(int mode, int offset, int t, int f) {
+			emit(LD | H | mode, offset);
+			if (low == high) {
+				jump(JEQ, low, t, f);
+			} else {
+				int next = newLabel();
+				jump(JGE, low, next, f);
+				place(next);
+				jump(JGT, high, f, t);
+			}
+		}
+	}
+}
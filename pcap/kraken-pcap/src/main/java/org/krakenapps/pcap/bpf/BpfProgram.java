@@ -0,0 +1,447 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.bpf;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.ChainBuffer;
+
+/**
+ * Classic BPF program and interpreter. Instructions are kept in flat arrays
+ * and interpreted on raw packet bytes, so that packet can be filtered before
+ * it is copied or decoded. Loads out of captured bytes reject packet, and
+ * every program ends with return instruction after validation.
+ * 
+ * @see BpfCompiler
+ * @author xeraph
+ */
+public class BpfProgram {
+	// instruction classes
+	public static final int LD = 0x00;
+	public static final int LDX = 0x01;
+	public static final int ST = 0x02;
+	public static final int STX = 0x03;
+	public static final int ALU = 0x04;
+	public static final int JMP = 0x05;
+	public static final int RET = 0x06;
+	public static final int MISC = 0x07;
+
+	// load size
+	public static final int W = 0x00;
+	public static final int H = 0x08;
+	public static final int B = 0x10;
+
+	// load mode
+	public static final int IMM = 0x00;
+	public static final int ABS = 0x20;
+	public static final int IND = 0x40;
+	public static final int MEM = 0x60;
+	public static final int LEN = 0x80;
+	public static final int MSH = 0xa0;
+
+	// alu operations
+	public static final int ADD = 0x00;
+	public static final int SUB = 0x10;
+	public static final int MUL = 0x20;
+	public static final int DIV = 0x30;
+	public static final int OR = 0x40;
+	public static final int AND = 0x50;
+	public static final int LSH = 0x60;
+	public static final int RSH = 0x70;
+	public static final int NEG = 0x80;
+	public static final int MOD = 0x90;
+	public static final int XOR = 0xa0;
+
+	// jump operations
+	public static final int JA = 0x00;
+	public static final int JEQ = 0x10;
+	public static final int JGT = 0x20;
+	public static final int JGE = 0x30;
+	public static final int JSET = 0x40;
+
+	// operand source
+	public static final int K = 0x00;
+	public static final int X = 0x08;
+	public static final int A = 0x10;
+
+	// misc operations
+	public static final int TAX = 0x00;
+	public static final int TXA = 0x80;
+
+	public static final int MEMWORDS = 16;
+
+	private int[] code;
+	private int[] jt;
+	private int[] jf;
+	private int[] k;
+
+	public BpfProgram(int[] code, int[] jt, int[] jf, int[] k) {
+		if (code.length == 0 || code.length != jt.length || code.length != jf.length || code.length != k.length)
+			throw new IllegalArgumentException("invalid bpf instruction arrays");
+
+		this.code = code;
+		this.jt = jt;
+		this.jf = jf;
+		this.k = k;
+		validate();
+	}
+
+	public static BpfProgram compile(String expression) {
+		return new BpfCompiler().compile(expression);
+	}
+
+	public int size() {
+		return code.length;
+	}
+
+	public boolean matches(PcapPacket packet) {
+		Buffer data = packet.getPacketData();
+		int wirelen = packet.getPacketHeader().getOrigLen();
+
+		// packet from file reader has one segment
+		if (data instanceof ChainBuffer && data.position() == 0) {
+			List<ByteBuffer> buffers = ((ChainBuffer) data).getByteBuffers();
+			if (buffers.size() == 1 && data.readableBytes() == buffers.get(0).remaining()) {
+				ByteBuffer bb = buffers.get(0);
+				return matches(bb, bb.position(), bb.remaining(), wirelen);
+			}
+		}
+
+		int position = data.position();
+		byte[] b = new byte[data.readableBytes()];
+		data.gets(b);
+		data.position(position);
+		return matches(b, 0, b.length, wirelen);
+	}
+
+	public boolean matches(byte[] b, int offset, int caplen, int wirelen) {
+		return run(ByteBuffer.wrap(b), offset, caplen, wirelen) != 0;
+	}
+
+	public boolean matches(ByteBuffer bb, int offset, int caplen, int wirelen) {
+		return run(bb, offset, caplen, wirelen) != 0;
+	}
+
+	/**
+	 * Runs program on captured bytes [offset, offset + caplen) of buffer.
+	 * Buffer byte order is ignored, and loads are always big endian.
+	 * 
+	 * @return the number of bytes to accept, 0 if packet is rejected
+	 */
+	public int run(ByteBuffer bb, int offset, int caplen, int wirelen) {
+		int a = 0;
+		int x = 0;
+		int[] mem = null;
+		int pc = 0;
+
+		while (true) {
+			int c = code[pc];
+			int kk = k[pc];
+			int p;
+
+			switch (c) {
+			case LD | W | ABS:
+			case LD | W | IND:
+				p = (c & IND) != 0 ? x + kk : kk;
+				if (p < 0 || p > caplen - 4)
+					return 0;
+				a = (bb.get(offset + p) & 0xff) << 24 | (bb.get(offset + p + 1) & 0xff) << 16
+						| (bb.get(offset + p + 2) & 0xff) << 8 | (bb.get(offset + p + 3) & 0xff);
+				break;
+			case LD | H | ABS:
+			case LD | H | IND:
+				p = (c & IND) != 0 ? x + kk : kk;
+				if (p < 0 || p > caplen - 2)
+					return 0;
+				a = (bb.get(offset + p) & 0xff) << 8 | (bb.get(offset + p + 1) & 0xff);
+				break;
+			case LD | B | ABS:
+			case LD | B | IND:
+				p = (c & IND) != 0 ? x + kk : kk;
+				if (p < 0 || p >= caplen)
+					return 0;
+				a = bb.get(offset + p) & 0xff;
+				break;
+			case LD | W | LEN:
+				a = wirelen;
+				break;
+			case LDX | W | LEN:
+				x = wirelen;
+				break;
+			case LD | IMM:
+				a = kk;
+				break;
+			case LDX | IMM:
+				x = kk;
+				break;
+			case LD | MEM:
+				a = mem != null ? mem[kk] : 0;
+				break;
+			case LDX | MEM:
+				x = mem != null ? mem[kk] : 0;
+				break;
+			case LDX | B | MSH:
+				if (kk < 0 || kk >= caplen)
+					return 0;
+				x = (bb.get(offset + kk) & 0x0f) << 2;
+				break;
+			case ST:
+				if (mem == null)
+					mem = new int[MEMWORDS];
+				mem[kk] = a;
+				break;
+			case STX:
+				if (mem == null)
+					mem = new int[MEMWORDS];
+				mem[kk] = x;
+				break;
+			case JMP | JA:
+				pc += kk;
+				break;
+			case JMP | JEQ | K:
+				pc += a == kk ? jt[pc] : jf[pc];
+				break;
+			case JMP | JEQ | X:
+				pc += a == x ? jt[pc] : jf[pc];
+				break;
+			case JMP | JGT | K:
+				pc += unsigned(a) > unsigned(kk) ? jt[pc] : jf[pc];
+				break;
+			case JMP | JGT | X:
+				pc += unsigned(a) > unsigned(x) ? jt[pc] : jf[pc];
+				break;
+			case JMP | JGE | K:
+				pc += unsigned(a) >= unsigned(kk) ? jt[pc] : jf[pc];
+				break;
+			case JMP | JGE | X:
+				pc += unsigned(a) >= unsigned(x) ? jt[pc] : jf[pc];
+				break;
+			case JMP | JSET | K:
+				pc += (a & kk) != 0 ? jt[pc] : jf[pc];
+				break;
+			case JMP | JSET | X:
+				pc += (a & x) != 0 ? jt[pc] : jf[pc];
+				break;
+			case RET | K:
+				return kk;
+			case RET | A:
+				return a;
+			case MISC | TAX:
+				x = a;
+				break;
+			case MISC | TXA:
+				a = x;
+				break;
+			case ALU | NEG:
+				a = -a;
+				break;
+			default:
+				if ((c & 0x07) != ALU)
+					throw new IllegalStateException("invalid bpf opcode " + c + " at " + pc);
+
+				// division by zero rejects packet
+				int operand = (c & X) != 0 ? x : kk;
+				if (((c & 0xf0) == DIV || (c & 0xf0) == MOD) && operand == 0)
+					return 0;
+
+				a = alu(c & 0xf0, a, operand);
+			}
+
+			pc++;
+		}
+	}
+
+	private static int alu(int op, int a, int operand) {
+		switch (op) {
+		case ADD:
+			return a + operand;
+		case SUB:
+			return a - operand;
+		case MUL:
+			return a * operand;
+		case DIV:
+			return (int) (unsigned(a) / unsigned(operand));
+		case MOD:
+			return (int) (unsigned(a) % unsigned(operand));
+		case OR:
+			return a | operand;
+		case AND:
+			return a & operand;
+		case XOR:
+			return a ^ operand;
+		case LSH:
+			return a << operand;
+		case RSH:
+			return a >>> operand;
+		default:
+			throw new IllegalStateException("invalid bpf alu operation " + op);
+		}
+	}
+
+	private static long unsigned(int i) {
+		return i & 0xffffffffL;
+	}
+
+	private void validate() {
+		for (int pc = 0; pc < code.length; pc++) {
+			int c = code[pc];
+			int cls = c & 0x07;
+			if (!isSupported(c))
+				throw new IllegalArgumentException("invalid bpf opcode 0x" + Integer.toHexString(c) + " at " + pc);
+
+			if (cls == JMP) {
+				long target = (c & 0xf0) == JA ? pc + 1 + unsigned(k[pc]) : pc + 1 + Math.max(jt[pc], jf[pc]);
+				if ((c & 0xf0) != JA && (jt[pc] < 0 || jf[pc] < 0))
+					throw new IllegalArgumentException("backward jump at " + pc);
+				if (target >= code.length)
+					throw new IllegalArgumentException("jump out of program at " + pc);
+			} else if (cls == ST || cls == STX || c == (LD | MEM) || c == (LDX | MEM)) {
+				if (k[pc] < 0 || k[pc] >= MEMWORDS)
+					throw new IllegalArgumentException("invalid memory index at " + pc);
+			} else if (cls == ALU && ((c & 0xf0) == DIV || (c & 0xf0) == MOD) && (c & X) == 0 && k[pc] == 0) {
+				throw new IllegalArgumentException("division by zero at " + pc);
+			}
+		}
+
+		if ((code[code.length - 1] & 0x07) != RET)
+			throw new IllegalArgumentException("program should end with return");
+	}
+
+	/**
+	 * Returns true if opcode is one of the instructions interpreted by run(),
+	 * like linux classic bpf checker. Unused bits should be zero.
+	 */
+	private static boolean isSupported(int c) {
+		switch (c) {
+		case LD | W | ABS:
+		case LD | H | ABS:
+		case LD | B | ABS:
+		case LD | W | IND:
+		case LD | H | IND:
+		case LD | B | IND:
+		case LD | W | LEN:
+		case LD | IMM:
+		case LD | MEM:
+		case LDX | W | LEN:
+		case LDX | IMM:
+		case LDX | MEM:
+		case LDX | B | MSH:
+		case ST:
+		case STX:
+		case ALU | ADD | K:
+		case ALU | ADD | X:
+		case ALU | SUB | K:
+		case ALU | SUB | X:
+		case ALU | MUL | K:
+		case ALU | MUL | X:
+		case ALU | DIV | K:
+		case ALU | DIV | X:
+		case ALU | MOD | K:
+		case ALU | MOD | X:
+		case ALU | AND | K:
+		case ALU | AND | X:
+		case ALU | OR | K:
+		case ALU | OR | X:
+		case ALU | XOR | K:
+		case ALU | XOR | X:
+		case ALU | LSH | K:
+		case ALU | LSH | X:
+		case ALU | RSH | K:
+		case ALU | RSH | X:
+		case ALU | NEG:
+		case JMP | JA:
+		case JMP | JEQ | K:
+		case JMP | JEQ | X:
+		case JMP | JGT | K:
+		case JMP | JGT | X:
+		case JMP | JGE | K:
+		case JMP | JGE | X:
+		case JMP | JSET | K:
+		case JMP | JSET | X:
+		case RET | K:
+		case RET | A:
+		case MISC | TAX:
+		case MISC | TXA:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Dumps instructions like tcpdump -d
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int pc = 0; pc < code.length; pc++)
+			sb.append(String.format("(%03d) %s\n", pc, format(pc)));
+		return sb.toString();
+	}
+
+	private String format(int pc) {
+		int c = code[pc];
+		int kk = k[pc];
+		String size = (c & 0x18) == H ? "h" : (c & 0x18) == B ? "b" : "";
+
+		switch (c & 0x07) {
+		case LD:
+		case LDX:
+			String op = ((c & 0x07) == LD ? "ld" : "ldx") + size;
+			switch (c & 0xe0) {
+			case IMM:
+				return String.format("%-8s #0x%x", op, kk);
+			case ABS:
+				return String.format("%-8s [%d]", op, kk);
+			case IND:
+				return String.format("%-8s [x + %d]", op, kk);
+			case MEM:
+				return String.format("%-8s M[%d]", op, kk);
+			case LEN:
+				return String.format("%-8s #pktlen", op);
+			case MSH:
+				return String.format("%-8s 4*([%d]&0xf)", op, kk);
+			}
+			break;
+		case ST:
+			return String.format("%-8s M[%d]", "st", kk);
+		case STX:
+			return String.format("%-8s M[%d]", "stx", kk);
+		case ALU:
+			String[] ops = { "add", "sub", "mul", "div", "or", "and", "lsh", "rsh", "neg", "mod", "xor" };
+			String name = ops[(c & 0xf0) >> 4];
+			if ((c & 0xf0) == NEG)
+				return name;
+			return (c & X) != 0 ? String.format("%-8s x", name) : String.format("%-8s #0x%x", name, kk);
+		case JMP:
+			if ((c & 0xf0) == JA)
+				return String.format("%-8s %d", "ja", pc + 1 + kk);
+			String[] jmps = { "ja", "jeq", "jgt", "jge", "jset" };
+			String operand = (c & X) != 0 ? "x" : String.format("#0x%x", kk);
+			return String.format("%-8s %-14s jt %d\tjf %d", jmps[(c & 0xf0) >> 4], operand, pc + 1 + jt[pc], pc + 1
+					+ jf[pc]);
+		case RET:
+			return (c & 0x18) == A ? String.format("%-8s a", "ret") : String.format("%-8s #%d", "ret", kk);
+		case MISC:
+			return (c & 0xf8) == TXA ? "txa" : "tax";
+		}
+
+		return String.format("unknown 0x%x", c);
+	}
+}
@@ -23,7 +23,10 @@ import org.krakenapps.pcap.util.Buffer;
 
 /**
  * @author mindori
+ * @deprecated not used by {@link IpReassembler} anymore, which keeps
+ *             fragments as sorted ranges
  */
+@Deprecated
 public class HoleManager {
 	private int first = 0;
 	private int goal = -1;
@@ -22,6 +22,7 @@ import java.util.Set;
 
 import org.krakenapps.pcap.decoder.ethernet.EthernetFrame;
 import org.krakenapps.pcap.decoder.ethernet.EthernetProcessor;
+import org.krakenapps.pcap.util.CaptureTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,6 +57,10 @@ public class IpDecoder implements EthernetProcessor {
 		processors.remove(processor);
 	}
 
+	public IpReassembler getReassembler() {
+		return reassembler;
+	}
+
 	public void process(EthernetFrame frame) {
 		Ipv4Packet packet = Ipv4Packet.parse(frame.getData());
 		packet.setL2Frame(frame);
@@ -63,6 +68,11 @@ public class IpDecoder implements EthernetProcessor {
 		if (logger.isDebugEnabled())
 			logger.debug(packet.toString());
 
+		// fragment timer is driven by packet timestamp
+		long time = CaptureTime.getTime(packet);
+		if (time >= 0)
+			reassembler.advance(time);
+
 		// (DF = 1) OR (It's Last fragment and FragmentOffset == 0)
 		if ((packet.getFlags() & 0x02) == 2 || ((packet.getFlags() & 0x07) == 0 && packet.getFragmentOffset() == 0)) {
 			// After, packet -> TCP
@@ -70,10 +80,10 @@ public class IpDecoder implements EthernetProcessor {
 		} else {
 			Ipv4Packet reassembled = reassembler.tryReassemble(packet);
 			if (reassembled != null) {
+				reassembled.setL2Frame(frame);
 				dispatch(reassembled);
 			}
 		}
-		reassembler.drop();
 	}
 
 	private void dispatch(Ipv4Packet packet) {
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.decoder.ip;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory limit of buffered ip fragments shared by reassemblers of decode
+ * workers. Reassembler reserves fragment size before buffering and releases it
+ * when datagram is reassembled, expired or evicted. Reservation is lock-free,
+ * so that workers never block each other.
+ * 
+ * @author xeraph
+ */
+public class IpFragmentBudget {
+	public static final long DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
+
+	private final AtomicLong usage = new AtomicLong();
+	private volatile long maxMemory;
+
+	public IpFragmentBudget() {
+		this(DEFAULT_MAX_MEMORY);
+	}
+
+	public IpFragmentBudget(long maxMemory) {
+		setMaxMemory(maxMemory);
+	}
+
+	public long getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Sets memory limit in bytes. Buffered fragments are not released when
+	 * limit is lowered, but new fragments are not buffered until usage goes
+	 * below limit.
+	 */
+	public void setMaxMemory(long maxMemory) {
+		if (maxMemory <= 0)
+			throw new IllegalArgumentException("max memory should be positive: " + maxMemory);
+
+		this.maxMemory = maxMemory;
+	}
+
+	public long getMemoryUsage() {
+		return usage.get();
+	}
+
+	/**
+	 * @return false if reservation exceeds limit
+	 */
+	public boolean reserve(long bytes) {
+		while (true) {
+			long current = usage.get();
+			if (current + bytes > maxMemory)
+				return false;
+
+			if (usage.compareAndSet(current, current + bytes))
+				return true;
+		}
+	}
+
+	public void release(long bytes) {
+		usage.addAndGet(-bytes);
+	}
+}
@@ -15,129 +15,459 @@
  */
 package org.krakenapps.pcap.decoder.ip;
 
-import java.nio.ByteBuffer;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
-
-import org.krakenapps.pcap.decoder.ethernet.EthernetFrame;
-import org.krakenapps.pcap.packet.PcapPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 import org.krakenapps.pcap.util.Buffer;
 import org.krakenapps.pcap.util.ChainBuffer;
+import org.krakenapps.pcap.util.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Reassembles ipv4 fragments of datagrams keyed by source, destination,
+ * protocol and identification. Datagram is dropped if it is not completed
+ * within drop timeout from its first fragment, using hashed timer wheel of one
+ * second ticks driven by packet timestamp. Buffered fragments are accounted to
+ * {@link IpFragmentBudget}, and oldest datagrams are evicted when budget is
+ * exhausted. Overlapping part of fragment is discarded in favor of data
+ * received first.
+ * 
+ * Reassembler is not thread-safe and is owned by decode thread. Flow hash of
+ * decode workers dispatches fragments and other packets of a flow to same
+ * worker, so that reassembled datagram reaches the session of its flow and
+ * only budget is shared between workers. Counters can be read from any thread.
+ * 
  * @author mindori
  */
 public class IpReassembler {
-	private Map<Integer, HoleManagerWrapper> lmap;
-	private PriorityQueue<HoleManagerWrapper> wrapper;
+	public static final int DEFAULT_DROP_TIMEOUT = 30000;
+
+	// rough size of datagram and fragment objects
+	private static final int DATAGRAM_OVERHEAD = 128;
+	private static final int FRAGMENT_OVERHEAD = 48;
+	private static final int MAX_DATAGRAM_SIZE = 65535;
+	private static final int WHEEL_SIZE = 64;
+	private static final long TICK = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(IpReassembler.class.getName());
+
+	// insertion ordered, eldest entry is oldest datagram
+	private LinkedHashMap<FragmentKey, Datagram> map;
+
+	private TimerWheel<Datagram> wheel;
+	private long now;
+
+	private IpFragmentBudget budget;
 	private int dropTimeout;
 
+	// updated by decode thread only
+	private volatile int size;
+	private volatile long memoryUsage;
+	private volatile long fragmentCount;
+	private volatile long reassembleCount;
+	private volatile long overlapCount;
+	private volatile long timeoutCount;
+	private volatile long evictCount;
+	private volatile long dropCount;
+
 	public IpReassembler() {
-		this.lmap = new HashMap<Integer, HoleManagerWrapper>();
-		this.wrapper = new PriorityQueue<IpReassembler.HoleManagerWrapper>(11, new HoleManagerWrapperComparator());
-		this.dropTimeout = 30000;
+		this(new IpFragmentBudget());
 	}
 
+	public IpReassembler(IpFragmentBudget budget) {
+		this.map = new LinkedHashMap<FragmentKey, Datagram>();
+		this.budget = budget;
+		this.dropTimeout = DEFAULT_DROP_TIMEOUT;
+
+		wheel = new TimerWheel<Datagram>(WHEEL_SIZE, TICK);
+	}
+
+	/**
+	 * Returns drop timeout in milliseconds
+	 */
 	public int getDropTimeout() {
 		return dropTimeout;
 	}
 
+	/**
+	 * Sets drop timeout in milliseconds. New timeout is applied from next
+	 * datagram.
+	 */
 	public void setDropTimeout(int dropTimeout) {
+		if (dropTimeout <= 0)
+			throw new IllegalArgumentException("drop timeout should be positive: " + dropTimeout);
+
 		this.dropTimeout = dropTimeout;
 	}
 
+	public IpFragmentBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Replaces memory budget. Buffered datagrams are dropped, so it should be
+	 * called before decoding.
+	 */
+	public void setBudget(IpFragmentBudget budget) {
+		if (budget == null)
+			throw new IllegalArgumentException("budget should be not null");
+
+		for (Datagram d : map.values())
+			forget(d);
+
+		map.clear();
+		size = 0;
+		this.budget = budget;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns bytes of buffered fragments of this reassembler
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public long getFragmentCount() {
+		return fragmentCount;
+	}
+
+	public long getReassembleCount() {
+		return reassembleCount;
+	}
+
+	public long getOverlapCount() {
+		return overlapCount;
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	public long getEvictCount() {
+		return evictCount;
+	}
+
+	/**
+	 * Returns count of invalid fragments and fragments dropped by memory limit
+	 */
+	public long getDropCount() {
+		return dropCount;
+	}
+
+	/**
+	 * @return the reassembled packet, or null if datagram is not completed yet
+	 */
 	public Ipv4Packet tryReassemble(Ipv4Packet fragment) {
-		/* check HoleDescriptor */
-		int id = fragment.getId();
-		if (!lmap.containsKey(id)) {
-			HoleManagerWrapper t = new HoleManagerWrapper(id, new HoleManager());
-			lmap.put(id, t);
-			wrapper.add(t);
-		}
+		fragmentCount++;
 
-		HoleManagerWrapper t = lmap.get(id);
-		t.setTime(((EthernetFrame) fragment.getL2Frame()).getPcapPacket());
-		HoleManager h = t.getManager();
 		int offset = fragment.getFragmentOffset() * 8;
-		int length = fragment.getTotalLength() - fragment.getIhl();
 		Buffer data = fragment.getData();
+		int length = Math.min(fragment.getTotalLength() - fragment.getIhl(), data.readableBytes());
+		if (length <= 0 || fragment.getIhl() + offset + length > MAX_DATAGRAM_SIZE) {
+			dropCount++;
+			return null;
+		}
 
-		/* check MF == 0 */
-		if (fragment.getFlags() == 0) {
-			int goal = offset + length;
-			h.setGoal(goal);
+		FragmentKey key = new FragmentKey(fragment);
+		Datagram d = map.get(key);
+		if (d == null) {
+			if (!reserve(DATAGRAM_OVERHEAD, null)) {
+				dropCount++;
+				return null;
+			}
+
+			d = new Datagram(key, now + dropTimeout);
+			d.memoryUsage = DATAGRAM_OVERHEAD;
+			map.put(key, d);
+			size = map.size();
+			wheel.schedule(d);
 		}
 
-		/* put data */
-		h.put(data, offset, length);
+		byte[] b = new byte[length];
+		data.gets(b, 0, length);
 
-		/* check flush */
-		if (h.isFlush(offset, length)) {
-			h.flush(data);
-		} else
+		if (!put(d, offset, b)) {
+			remove(d);
+			dropCount++;
 			return null;
+		}
+
+		// first fragment has options to copy
+		if (offset == 0)
+			d.header = Ipv4Packet.makeReassembled(fragment, null, 0);
 
-		if (h.isReassemble()) {
-			ByteBuffer b = h.getReassembled();
-			b.position(0);
-			return reassemble(fragment, b, h.getGoal());
-		} else
+		// MF == 0
+		if ((fragment.getFlags() & 0x01) == 0) {
+			int goal = offset + length;
+			// conflicting last fragments are counted as overlap
+			if (d.goal >= 0 && d.goal != goal)
+				overlapCount++;
+			else
+				d.goal = goal;
+		}
+
+		if (!d.isCompleted())
 			return null;
+
+		Ipv4Packet p = reassemble(d, fragment);
+		remove(d);
+		reassembleCount++;
+		return p;
 	}
 
+	/**
+	 * Drops datagrams which are not completed within drop timeout.
+	 * 
+	 * @param now
+	 *            packet timestamp in milliseconds
+	 */
+	public void advance(long now) {
+		this.now = now;
+
+		List<Datagram> expired = wheel.advance(now);
+		for (Datagram d : expired) {
+			remove(d);
+			timeoutCount++;
+		}
+
+		if (!expired.isEmpty() && logger.isDebugEnabled())
+			logger.debug("kraken-pcap: dropped {} incomplete ip datagrams", expired.size());
+	}
+
+	/**
+	 * Drops datagrams which are not completed within drop timeout from
+	 * current time.
+	 * 
+	 * @deprecated expiry is driven by packet timestamp, use
+	 *             {@link #advance(long)} instead
+	 */
+	@Deprecated
 	public void drop() {
-		long now = System.currentTimeMillis();
-		while (!wrapper.isEmpty() && now - wrapper.peek().getTime() > dropTimeout)
-			lmap.remove(wrapper.poll().getId());
+		advance(System.currentTimeMillis());
 	}
 
-	private Ipv4Packet reassemble(Ipv4Packet fragment, ByteBuffer reassembled, int goal) {
-		byte[] b = new byte[goal];
-		reassembled.get(b, 0, goal);
+	private boolean put(Datagram d, int offset, byte[] b) {
+		List<Fragment> fragments = d.fragments;
+		int end = offset + b.length;
+		int pos = offset;
+		int added = 0;
+		int pieces = 0;
+
+		// fill holes only, data received first wins
+		int i = 0;
+		List<Fragment> holes = new ArrayList<Fragment>(1);
+		List<Integer> indexes = new ArrayList<Integer>(1);
+		for (; i < fragments.size() && pos < end; i++) {
+			Fragment f = fragments.get(i);
+			if (f.end() <= pos)
+				continue;
+
+			if (f.offset >= end)
+				break;
+
+			if (f.offset > pos) {
+				holes.add(new Fragment(pos, slice(b, pos - offset, f.offset - offset)));
+				indexes.add(i);
+			}
+
+			pos = Math.max(pos, f.end());
+		}
+
+		if (pos < end) {
+			holes.add(new Fragment(pos, slice(b, pos - offset, end - offset)));
+			indexes.add(i);
+		}
+
+		for (Fragment f : holes) {
+			added += f.data.length;
+			pieces++;
+		}
+
+		if (added < b.length)
+			overlapCount++;
+
+		if (pieces == 0)
+			return true;
+
+		if (!reserve(added + pieces * FRAGMENT_OVERHEAD, d))
+			return false;
+
+		d.memoryUsage += added + pieces * FRAGMENT_OVERHEAD;
+		d.received += added;
+
+		// insert from back, so that indexes are not shifted
+		for (int j = holes.size() - 1; j >= 0; j--)
+			fragments.add(indexes.get(j), holes.get(j));
+
+		return true;
+	}
+
+	private byte[] slice(byte[] b, int from, int to) {
+		if (from == 0 && to == b.length)
+			return b;
+		return Arrays.copyOfRange(b, from, to);
+	}
+
+	private Ipv4Packet reassemble(Datagram d, Ipv4Packet last) {
+		byte[] b = new byte[d.goal];
+		for (Fragment f : d.fragments)
+			System.arraycopy(f.data, 0, b, f.offset, f.data.length);
 
 		Buffer data = new ChainBuffer();
 		data.addLast(b);
 
-		int tl = fragment.getIhl() + goal;
-		Ipv4Packet p = Ipv4Packet.makeReassembled(fragment, data, tl);
+		Ipv4Packet header = d.header != null ? d.header : last;
+		return Ipv4Packet.makeReassembled(header, data, header.getIhl() + d.goal);
+	}
 
-		return p;
+	/**
+	 * Reserves memory from budget, evicting oldest datagrams except current
+	 * one until reservation succeeds.
+	 */
+	private boolean reserve(long bytes, Datagram current) {
+		// never fits, do not evict in vain
+		if (bytes > budget.getMaxMemory())
+			return false;
+
+		int evicted = 0;
+		try {
+			while (!budget.reserve(bytes)) {
+				Iterator<Datagram> it = map.values().iterator();
+				if (!it.hasNext())
+					return false;
+
+				Datagram eldest = it.next();
+				if (eldest == current)
+					return false;
+
+				it.remove();
+				size = map.size();
+				forget(eldest);
+				evictCount++;
+				evicted++;
+			}
+
+			memoryUsage += bytes;
+			return true;
+		} finally {
+			if (evicted > 0 && logger.isDebugEnabled())
+				logger.debug("kraken-pcap: evicted {} ip datagrams, budget usage {}", evicted, budget.getMemoryUsage());
+		}
+	}
+
+	private void remove(Datagram d) {
+		map.remove(d.key);
+		size = map.size();
+		forget(d);
+	}
+
+	private void forget(Datagram d) {
+		// stale wheel entry is skipped when slot is visited
+		d.removed = true;
+		d.fragments = null;
+		budget.release(d.memoryUsage);
+		memoryUsage -= d.memoryUsage;
 	}
 
-	private class HoleManagerWrapper {
+	private static class FragmentKey {
+		private int source;
+		private int destination;
+		private int protocol;
 		private int id;
-		private HoleManager manager;
-		private long time;
 
-		public HoleManagerWrapper(int id, HoleManager manager) {
-			this.id = id;
-			this.manager = manager;
+		public FragmentKey(Ipv4Packet p) {
+			this.source = p.getSource();
+			this.destination = p.getDestination();
+			this.protocol = p.getProtocol();
+			this.id = p.getId();
 		}
 
-		public int getId() {
-			return id;
+		@Override
+		public int hashCode() {
+			int h = source;
+			h = h * 31 + destination;
+			h = h * 31 + (protocol << 16 | id);
+			return h;
 		}
 
-		public long getTime() {
-			return time;
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FragmentKey))
+				return false;
+
+			FragmentKey o = (FragmentKey) obj;
+			return source == o.source && destination == o.destination && protocol == o.protocol && id == o.id;
 		}
+	}
 
-		public void setTime(PcapPacket packet) {
-			this.time = ((long) (packet.getPacketHeader().getTsSec())) * 1000;
-			this.time += packet.getPacketHeader().getTsUsec() / 1000;
+	private static class Datagram implements TimerWheel.Entry {
+		private FragmentKey key;
+		private long expireTime;
+		private long wheelTick = -1;
+		private boolean removed;
+
+		// fragments are sorted by offset and never overlap
+		private List<Fragment> fragments = new ArrayList<Fragment>(2);
+		private Ipv4Packet header;
+		private int goal = -1;
+		private int received;
+		private long memoryUsage;
+
+		public Datagram(FragmentKey key, long expireTime) {
+			this.key = key;
+			this.expireTime = expireTime;
 		}
 
-		public HoleManager getManager() {
-			return manager;
+		@Override
+		public long getExpireTime() {
+			return expireTime;
+		}
+
+		@Override
+		public long getWheelTick() {
+			return wheelTick;
+		}
+
+		@Override
+		public void setWheelTick(long tick) {
+			this.wheelTick = tick;
 		}
-	}
 
-	private class HoleManagerWrapperComparator implements Comparator<HoleManagerWrapper> {
 		@Override
-		public int compare(HoleManagerWrapper o1, HoleManagerWrapper o2) {
-			return (int) (o1.getTime() - o2.getTime());
+		public boolean isRemoved() {
+			return removed;
+		}
+
+		public boolean isCompleted() {
+			if (goal < 0 || received != goal)
+				return false;
+
+			// received bytes are counted once, so no hole if nothing is beyond goal
+			return fragments.get(fragments.size() - 1).end() == goal;
+		}
+	}
+
+	private static class Fragment {
+		private int offset;
+		private byte[] data;
+
+		public Fragment(int offset, byte[] data) {
+			this.offset = offset;
+			this.data = data;
+		}
+
+		public int end() {
+			return offset + data.length;
 		}
 	}
 }
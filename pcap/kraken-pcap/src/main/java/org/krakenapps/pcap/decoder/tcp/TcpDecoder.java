@@ -21,22 +21,28 @@ import org.krakenapps.pcap.decoder.ip.IpProcessor;
 import org.krakenapps.pcap.decoder.ip.Ipv4Packet;
 import org.krakenapps.pcap.decoder.ipv6.Ipv6Packet;
 import org.krakenapps.pcap.decoder.ipv6.Ipv6Processor;
+import org.krakenapps.pcap.util.CaptureTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class TcpDecoder implements IpProcessor, Ipv6Processor {
 	private TcpSegmentCallbacks segmentCallbacks;
+	private TcpSegmentCallbacks packetCallbacks;
 	private TcpProtocolMapper mapper;
 	private TcpSessionTable sessionTable;
 	private TcpFlagHandler flagHandler;
 
 	private TcpPacketHandler packetHandler;
 	private TcpSackHandler sackHandler;
+
+	// capture time of last timestamped packet
+	private volatile long lastTime;
 	private final Logger logger = LoggerFactory.getLogger(TcpDecoder.class.getName());
 
 	public TcpDecoder(TcpProtocolMapper mapper) {
 		this.mapper = mapper;
 		segmentCallbacks = new TcpSegmentCallbacks();
+		packetCallbacks = new TcpSegmentCallbacks();
 		sessionTable = new TcpSessionTable(mapper);
 		flagHandler = new TcpFlagHandler(mapper);
 
@@ -52,6 +58,10 @@ public class TcpDecoder implements IpProcessor, Ipv6Processor {
 		return sessionTable.getCurrentSessions();
 	}
 
+	public TcpSessionTable getSessionTable() {
+		return sessionTable;
+	}
+
 	public void registerSegmentCallback(TcpSegmentCallback callback) {
 		segmentCallbacks.register(callback);
 	}
@@ -60,6 +70,19 @@ public class TcpDecoder implements IpProcessor, Ipv6Processor {
 		segmentCallbacks.unregister(callback);
 	}
 
+	/**
+	 * Registers callback for every parsed tcp packet including packets out of
+	 * tracked session, e.g. port scan or mid-stream packets. Session is null
+	 * for untracked packet, and reassembly is not applied.
+	 */
+	public void registerPacketCallback(TcpSegmentCallback callback) {
+		packetCallbacks.register(callback);
+	}
+
+	public void unregisterPacketCallback(TcpSegmentCallback callback) {
+		packetCallbacks.unregister(callback);
+	}
+
 	public void process(Ipv4Packet packet) {
 		TcpPacket newTcp = TcpPacket.parse(packet);
 
@@ -91,10 +114,19 @@ public class TcpDecoder implements IpProcessor, Ipv6Processor {
 	}
 
 	private void handle(TcpPacket pkt) {
+		/* expire idle sessions, wheel is not advanced without capture time */
+		long now = CaptureTime.getTime(pkt.getIpPacket());
+		if (now >= 0) {
+			lastTime = now;
+			sessionTable.advance(now);
+		} else
+			now = lastTime;
+
 		/* get session */
 		TcpSessionImpl session = sessionTable.getSession(pkt.getSessionKey());
 		flagHandler.handle(sessionTable, session, pkt);
 		session = sessionTable.getSession(pkt.getSessionKey());
+		packetCallbacks.fireReceiveCallbacks(session, pkt);
 
 		if (pkt.isGarbage() || session == null) {
 			if (logger.isDebugEnabled())
@@ -129,6 +161,7 @@ public class TcpDecoder implements IpProcessor, Ipv6Processor {
 			packetHandler.handle(sessionTable, session, pkt);
 
 		segmentCallbacks.fireReceiveCallbacks(session, pkt);
+		sessionTable.touch(session, now);
 	}
 
 	private boolean isSack(TcpPacket packet) {
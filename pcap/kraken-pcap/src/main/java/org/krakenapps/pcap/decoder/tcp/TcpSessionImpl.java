@@ -20,8 +20,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.krakenapps.pcap.Protocol;
 import org.krakenapps.pcap.util.Buffer;
 import org.krakenapps.pcap.util.ChainBuffer;
+import org.krakenapps.pcap.util.TimerWheel;
 
-public class TcpSessionImpl implements TcpSession {
+public class TcpSessionImpl implements TcpSession, TimerWheel.Entry {
 	private static AtomicInteger LAST_ID = new AtomicInteger(1);
 	private int id;
 
@@ -57,6 +58,12 @@ public class TcpSessionImpl implements TcpSession {
 	private int firstFinSeq = -1;
 	private int firstFinAck = -1;
 
+	// managed by session table
+	private boolean removed;
+	private long wheelTick = -1;
+	private long expireTime;
+	private long memoryUsage;
+
 	public TcpSessionImpl(TcpProtocolMapper mapper) {
 		id = LAST_ID.getAndIncrement();
 		key = null;
@@ -247,6 +254,45 @@ public class TcpSessionImpl implements TcpSession {
 		this.firstFinAck = firstFinAck;
 	}
 
+	/**
+	 * Returns bytes of segments waiting for reassembly
+	 */
+	public long getBufferedBytes() {
+		return clientQueue.getDataSize() + serverQueue.getDataSize();
+	}
+
+	public boolean isRemoved() {
+		return removed;
+	}
+
+	public void setRemoved(boolean removed) {
+		this.removed = removed;
+	}
+
+	public long getWheelTick() {
+		return wheelTick;
+	}
+
+	public void setWheelTick(long wheelTick) {
+		this.wheelTick = wheelTick;
+	}
+
+	public long getExpireTime() {
+		return expireTime;
+	}
+
+	public void setExpireTime(long expireTime) {
+		this.expireTime = expireTime;
+	}
+
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public void setMemoryUsage(long memoryUsage) {
+		this.memoryUsage = memoryUsage;
+	}
+
 	public void doEstablish(TcpSessionTable sessionTable, TcpSessionImpl session, TcpPacket packet, TcpStateUpdater stateUpdater) {
 		sessionTable.doEstablish(session, packet, stateUpdater);
 	}
@@ -17,27 +17,76 @@ package org.krakenapps.pcap.decoder.tcp;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.krakenapps.pcap.Protocol;
+import org.krakenapps.pcap.util.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Tracks tcp sessions. Sessions are expired by idle timeout of their state,
+ * using hashed timer wheel of one second ticks driven by packet timestamp.
+ * Session is not moved between slots on every packet, it is rescheduled when
+ * its slot is visited before its deadline. If estimated memory usage exceeds
+ * limit, least recently used sessions are evicted. Processors are notified of
+ * expiry and eviction by onReset(), so that they can free session state too.
+ */
 public class TcpSessionTable {
+	public static final long DEFAULT_MAX_MEMORY = 64 * 1024 * 1024;
+
+	// rough size of session, host and queue objects
+	private static final int SESSION_OVERHEAD = 1024;
+	private static final int WHEEL_SIZE = 512;
+	private static final long TICK = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(TcpSessionTable.class.getName());
 	private final TcpProtocolMapper mapper;
-	private Map<TcpSessionKey, TcpSessionImpl> map;
+
+	// access ordered, eldest entry is least recently used
+	private LinkedHashMap<TcpSessionKey, TcpSessionImpl> map;
+
+	// idle timeout in seconds
+	private Map<TcpState, Integer> timeouts;
+
+	private TimerWheel<TcpSessionImpl> wheel;
+
+	private long maxMemory = DEFAULT_MAX_MEMORY;
+	private long memoryUsage;
+	private long expireCount;
+	private long evictCount;
 
 	public TcpSessionTable(TcpProtocolMapper mapper) {
 		this.mapper = mapper;
-		map = new ConcurrentHashMap<TcpSessionKey, TcpSessionImpl>();
+		map = new LinkedHashMap<TcpSessionKey, TcpSessionImpl>(16, 0.75f, true);
+
+		timeouts = new EnumMap<TcpState, Integer>(TcpState.class);
+		timeouts.put(TcpState.LISTEN, 30);
+		timeouts.put(TcpState.SYN_SENT, 30);
+		timeouts.put(TcpState.SYN_RCVD, 30);
+		timeouts.put(TcpState.ESTABLISHED, 3600);
+		timeouts.put(TcpState.FIN_WAIT_1, 120);
+		timeouts.put(TcpState.FIN_WAIT_2, 120);
+		timeouts.put(TcpState.CLOSING, 120);
+		timeouts.put(TcpState.CLOSE_WAIT, 120);
+		timeouts.put(TcpState.LAST_ACK, 120);
+		timeouts.put(TcpState.CLOSED, 10);
+
+		wheel = new TimerWheel<TcpSessionImpl>(WHEEL_SIZE, TICK);
 	}
 
-	public void openSession(TcpProtocolMapper mapper, TcpSessionKey key, TcpPacket packet) {
+	public synchronized void openSession(TcpProtocolMapper mapper, TcpSessionKey key, TcpPacket packet) {
 		TcpSessionImpl session = new TcpSessionImpl(mapper);
 		session.setKey(key);
 		session.createClient(packet);
 		
-		map.put(key, session);
+		TcpSessionImpl old = map.put(key, session);
+		if (old != null)
+			forget(old);
 	}
 
 	public void doEstablish(TcpSessionImpl session, TcpPacket packet, TcpStateUpdater stateUpdater) { 
@@ -61,12 +110,11 @@ public class TcpSessionTable {
 			return;
 				
 		TcpSessionKey key = packet.getSessionKey();
-		Protocol protocol = map.get(key).getProtocol();
-		
-		if (map.containsKey(key)) 
-			map.remove(key);
+		TcpSessionImpl session = remove(key);
+		if (session == null)
+			return;
 
-		Collection<TcpProcessor> processors = mapper.getTcpProcessors(protocol);
+		Collection<TcpProcessor> processors = mapper.getTcpProcessors(session.getProtocol());
 		if (processors == null)
 			return;
 
@@ -75,22 +123,170 @@ public class TcpSessionTable {
 	}
 	
 	public void abnormalClose(TcpSessionKey key) {
-		if (map.containsKey(key)) 
-			map.remove(key);
+		remove(key);
 	}
 
-	public TcpSessionImpl getSession(TcpSessionKey key) {
+	public synchronized TcpSessionImpl getSession(TcpSessionKey key) {
 		return map.get(key);
 	}
 
-	public List<TcpSession> getCurrentSessions() { 
+	public synchronized List<TcpSession> getCurrentSessions() { 
 		List<TcpSession> sessions = new ArrayList<TcpSession>(map.values());
 		return sessions;
 	}
 	
-	public boolean isExist(TcpSessionKey key) {
+	public synchronized boolean isExist(TcpSessionKey key) {
 		return map.containsKey(key);
 	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns idle timeout of state in seconds
+	 */
+	public synchronized int getTimeout(TcpState state) {
+		return timeouts.get(state);
+	}
+
+	/**
+	 * Sets idle timeout of state in seconds. Session uses smallest timeout of
+	 * client and server states, and new timeout is applied from next packet of
+	 * session.
+	 */
+	public synchronized void setTimeout(TcpState state, int seconds) {
+		if (seconds <= 0)
+			throw new IllegalArgumentException("timeout should be positive: " + seconds);
+
+		timeouts.put(state, seconds);
+	}
+
+	public synchronized long getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Sets memory limit in bytes for sessions and buffered segments.
+	 */
+	public synchronized void setMaxMemory(long maxMemory) {
+		if (maxMemory <= 0)
+			throw new IllegalArgumentException("max memory should be positive: " + maxMemory);
+
+		this.maxMemory = maxMemory;
+	}
+
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public synchronized long getExpireCount() {
+		return expireCount;
+	}
+
+	public synchronized long getEvictCount() {
+		return evictCount;
+	}
+
+	/**
+	 * Updates idle deadline and memory usage of session after packet is
+	 * handled. Least recently used sessions are evicted if memory usage
+	 * exceeds limit.
+	 * 
+	 * @param now
+	 *            packet timestamp in milliseconds
+	 */
+	public void touch(TcpSessionImpl session, long now) {
+		List<TcpSessionImpl> evicted = null;
+		synchronized (this) {
+			if (session.isRemoved())
+				return;
+
+			session.setExpireTime(now + getTimeout(session) * 1000L);
+			wheel.schedule(session);
+
+			long usage = SESSION_OVERHEAD + session.getBufferedBytes();
+			memoryUsage += usage - session.getMemoryUsage();
+			session.setMemoryUsage(usage);
+
+			Iterator<TcpSessionImpl> it = map.values().iterator();
+			while (memoryUsage > maxMemory && it.hasNext()) {
+				TcpSessionImpl eldest = it.next();
+				if (eldest == session)
+					break;
+
+				it.remove();
+				forget(eldest);
+				evictCount++;
+
+				if (evicted == null)
+					evicted = new ArrayList<TcpSessionImpl>();
+				evicted.add(eldest);
+			}
+		}
+
+		if (evicted != null) {
+			if (logger.isDebugEnabled())
+				logger.debug("kraken pcap: evicted {} tcp sessions, memory usage {}", evicted.size(), memoryUsage);
+
+			for (TcpSessionImpl s : evicted)
+				fireReset(s);
+		}
+	}
+
+	/**
+	 * Expires idle sessions. Slots between last tick and current tick are
+	 * visited, and sessions which are not idle yet are rescheduled after
+	 * current tick.
+	 * 
+	 * @param now
+	 *            packet timestamp in milliseconds
+	 */
+	public void advance(long now) {
+		List<TcpSessionImpl> expired = null;
+		synchronized (this) {
+			expired = wheel.advance(now);
+			for (TcpSessionImpl s : expired) {
+				map.remove(s.getKey());
+				forget(s);
+				expireCount++;
+			}
+		}
+
+		if (!expired.isEmpty()) {
+			if (logger.isDebugEnabled())
+				logger.debug("kraken pcap: expired {} idle tcp sessions", expired.size());
+
+			for (TcpSessionImpl s : expired)
+				fireReset(s);
+		}
+	}
+
+	private int getTimeout(TcpSessionImpl session) {
+		return Math.min(timeouts.get(session.getClientState()), timeouts.get(session.getServerState()));
+	}
+
+	private synchronized TcpSessionImpl remove(TcpSessionKey key) {
+		TcpSessionImpl session = map.remove(key);
+		if (session != null)
+			forget(session);
+		return session;
+	}
+
+	private void forget(TcpSessionImpl session) {
+		// stale wheel entry is skipped when slot is visited
+		session.setRemoved(true);
+		memoryUsage -= session.getMemoryUsage();
+	}
+
+	private void fireReset(TcpSessionImpl session) {
+		Collection<TcpProcessor> processors = mapper.getTcpProcessors(session.getProtocol());
+		if (processors == null)
+			return;
+
+		for (TcpProcessor p : processors)
+			p.onReset(session.getKey());
+	}
 	
 	private boolean isCorrectConnection(TcpSessionImpl session, TcpPacket packet) {
 		TcpState clientState = session.getClientState();
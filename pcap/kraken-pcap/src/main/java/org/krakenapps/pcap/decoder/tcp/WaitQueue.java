@@ -23,6 +23,7 @@ import java.util.List;
  */
 public class WaitQueue {
 	private final List<TcpPacket> queue;
+	private long dataSize;
 
 	public WaitQueue() {
 		queue = new ArrayList<TcpPacket>();
@@ -34,6 +35,7 @@ public class WaitQueue {
 
 	public void enqueue(TcpPacket element) {
 		queue.add(element);
+		dataSize += element.getDataLength();
 	}
 
 	public TcpPacket dequeue(int index) {
@@ -41,10 +43,18 @@ public class WaitQueue {
 	}
 
 	public void remove(int index) {
-		queue.remove(index);
+		TcpPacket p = queue.remove(index);
+		dataSize -= p.getDataLength();
 	}
 
 	public int size() {
 		return queue.size();
 	}
+
+	/**
+	 * Returns total data length of queued segments
+	 */
+	public long getDataSize() {
+		return dataSize;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.krakenapps.pcap.util.Buffer;
+
+/**
+ * Buffered writer of capture file. Blocks are encoded into heap buffer and
+ * written by positional channel write. If file is preallocated, file length
+ * is set when file is created and truncated to written size on close.
+ * 
+ * @author xeraph
+ */
+class CaptureFileChannel {
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long position;
+	private boolean preallocated;
+
+	public CaptureFileChannel(File file, long preallocate, ByteOrder order) throws IOException {
+		if (file.exists())
+			throw new IOException("file exists: " + file.getName());
+
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(order);
+
+		if (preallocate > 0) {
+			raf.setLength(preallocate);
+			preallocated = true;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns write buffer which has at least len bytes remaining.
+	 */
+	public ByteBuffer reserve(int len) throws IOException {
+		if (buffer.remaining() < len) {
+			flush();
+			if (buffer.capacity() < len)
+				buffer = ByteBuffer.allocate(len).order(buffer.order());
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Returns written size including buffered bytes.
+	 */
+	public long size() {
+		return position + buffer.position();
+	}
+
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+
+		buffer.clear();
+	}
+
+	public void close() throws IOException {
+		try {
+			flush();
+			if (preallocated)
+				raf.setLength(position);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Copies len bytes from current position of data. Position of data is
+	 * not changed.
+	 */
+	public static void put(ByteBuffer bb, Buffer data, int len) {
+		data.mark();
+		data.gets(bb.array(), bb.arrayOffset() + bb.position(), len);
+		data.reset();
+		bb.position(bb.position() + len);
+	}
+}
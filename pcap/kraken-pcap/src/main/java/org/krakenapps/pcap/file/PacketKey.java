@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import org.krakenapps.pcap.util.Buffer;
+
+/**
+ * Addresses and ports parsed from ethernet frame for pcap index. Instance is
+ * reused for every packet to avoid allocation. Ports are available for TCP
+ * and UDP packets except non-first IPv4 fragments, which are marked as
+ * fragment instead.
+ * 
+ * @author xeraph
+ */
+class PacketKey {
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int ETHERTYPE_IPV6 = 0x86dd;
+	private static final int ETHERTYPE_VLAN = 0x8100;
+	private static final int ETHERTYPE_QINQ = 0x88a8;
+
+	private static final int TCP = 6;
+	private static final int UDP = 17;
+
+	// 4 or 16, 0 if not ip packet
+	int addressLength;
+	byte[] source = new byte[16];
+	byte[] destination = new byte[16];
+
+	// -1 if not available
+	int sourcePort;
+	int destinationPort;
+
+	// true if tcp or udp ports are not available because of fragmentation
+	boolean fragment;
+
+	/**
+	 * Parses frame. Buffer position is not changed.
+	 * 
+	 * @return true if frame is ip packet
+	 */
+	public boolean parse(Buffer buffer) {
+		addressLength = 0;
+		sourcePort = -1;
+		destinationPort = -1;
+		fragment = false;
+
+		int position = buffer.position();
+		try {
+			return parseFrame(buffer);
+		} finally {
+			buffer.position(position);
+		}
+	}
+
+	private boolean parseFrame(Buffer buffer) {
+		if (buffer.readableBytes() < 14)
+			return false;
+
+		// skip destination and source mac
+		buffer.skip(12);
+		int type = buffer.getUnsignedShort();
+
+		// skip 802.1q tags
+		while (type == ETHERTYPE_VLAN || type == ETHERTYPE_QINQ) {
+			if (buffer.readableBytes() < 4)
+				return false;
+
+			buffer.skip(2);
+			type = buffer.getUnsignedShort();
+		}
+
+		if (type == ETHERTYPE_IPV4)
+			return parseIpv4(buffer);
+		else if (type == ETHERTYPE_IPV6)
+			return parseIpv6(buffer);
+
+		return false;
+	}
+
+	private boolean parseIpv4(Buffer buffer) {
+		if (buffer.readableBytes() < 20)
+			return false;
+
+		int headerLength = (buffer.get() & 0x0f) * 4;
+
+		// skip tos, total length and identification
+		buffer.skip(5);
+		int fragmentOffset = buffer.getUnsignedShort() & 0x1fff;
+
+		// skip ttl
+		buffer.skip(1);
+		int protocol = buffer.get() & 0xff;
+
+		// skip checksum
+		buffer.skip(2);
+		buffer.gets(source, 0, 4);
+		buffer.gets(destination, 0, 4);
+		addressLength = 4;
+
+		if (fragmentOffset == 0 && (protocol == TCP || protocol == UDP) && headerLength >= 20
+				&& buffer.readableBytes() >= headerLength - 20 + 4) {
+			buffer.skip(headerLength - 20);
+			sourcePort = buffer.getUnsignedShort();
+			destinationPort = buffer.getUnsignedShort();
+		}
+
+		fragment = fragmentOffset != 0 && (protocol == TCP || protocol == UDP);
+		return true;
+	}
+
+	private boolean parseIpv6(Buffer buffer) {
+		if (buffer.readableBytes() < 40)
+			return false;
+
+		// skip version, traffic class, flow label and payload length
+		buffer.skip(6);
+		int nextHeader = buffer.get() & 0xff;
+
+		// skip hop limit
+		buffer.skip(1);
+		buffer.gets(source, 0, 16);
+		buffer.gets(destination, 0, 16);
+		addressLength = 16;
+
+		// extension headers are not followed
+		if ((nextHeader == TCP || nextHeader == UDP) && buffer.readableBytes() >= 4) {
+			sourcePort = buffer.getUnsignedShort();
+			destinationPort = buffer.getUnsignedShort();
+		}
+
+		return true;
+	}
+
+	public boolean hasAddress(byte[] address) {
+		return address.length == addressLength
+				&& (equals(source, address, addressLength) || equals(destination, address, addressLength));
+	}
+
+	public boolean hasPort(int port) {
+		return sourcePort == port || destinationPort == port;
+	}
+
+	/**
+	 * Returns true if packet is a non-first fragment of tcp or udp datagram,
+	 * so that only addresses can be checked.
+	 */
+	public boolean isFragment() {
+		return fragment;
+	}
+
+	private static boolean equals(byte[] b1, byte[] b2, int length) {
+		for (int i = 0; i < length; i++)
+			if (b1[i] != b2[i])
+				return false;
+		return true;
+	}
+}
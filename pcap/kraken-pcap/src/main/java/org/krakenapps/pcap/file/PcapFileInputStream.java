@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import org.krakenapps.pcap.PcapInputStream;
+import org.krakenapps.pcap.bpf.BpfProgram;
 import org.krakenapps.pcap.packet.PacketHeader;
 import org.krakenapps.pcap.packet.PcapPacket;
 import org.krakenapps.pcap.util.Buffer;
@@ -41,6 +42,7 @@ import org.krakenapps.pcap.util.ChainBuffer;
 public class PcapFileInputStream implements PcapInputStream {
 	private DataInputStream is;
 	private GlobalHeader globalHeader;
+	private BpfProgram filter;
 
 	/**
 	 * Opens pcap file input stream.
@@ -92,6 +94,18 @@ public class PcapFileInputStream implements PcapInputStream {
 		return globalHeader;
 	}
 
+	public BpfProgram getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Sets BPF filter for following reads, or null to read all packets.
+	 * Rejected packets are skipped before packet buffer is built.
+	 */
+	public void setFilter(BpfProgram filter) {
+		this.filter = filter;
+	}
+
 	private void readGlobalHeader() throws IOException {
 		int magic = is.readInt();
 		short major = is.readShort();
@@ -108,9 +122,18 @@ public class PcapFileInputStream implements PcapInputStream {
 	}
 
 	private PcapPacket readPacket(int magicNumber) throws IOException, EOFException {
-		PacketHeader packetHeader = readPacketHeader(magicNumber);
-		Buffer packetData = readPacketData(packetHeader.getInclLen());
-		return new PcapPacket(packetHeader, packetData);
+		while (true) {
+			PacketHeader packetHeader = readPacketHeader(magicNumber);
+			byte[] data = new byte[packetHeader.getInclLen()];
+			is.readFully(data);
+
+			if (filter != null && !filter.matches(data, 0, data.length, packetHeader.getOrigLen()))
+				continue;
+
+			Buffer packetData = new ChainBuffer();
+			packetData.addLast(data);
+			return new PcapPacket(packetHeader, packetData);
+		}
 	}
 
 	private PacketHeader readPacketHeader(int magicNumber) throws IOException, EOFException {
@@ -129,16 +152,6 @@ public class PcapFileInputStream implements PcapInputStream {
 		return new PacketHeader(tsSec, tsUsec, inclLen, origLen);
 	}
 
-	private Buffer readPacketData(int packetLength) throws IOException {
-		byte[] packets = new byte[packetLength];
-		is.read(packets);
-
-		Buffer payload = new ChainBuffer();
-		payload.addLast(packets);
-		return payload;
-		// return new PacketPayload(packets);
-	}
-
 	/**
 	 * Closes pcap file handle.
 	 */
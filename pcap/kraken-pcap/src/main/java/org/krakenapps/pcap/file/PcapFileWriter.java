@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+
+/**
+ * Writes classic little endian pcap file through capture file channel.
+ * 
+ * @author xeraph
+ */
+class PcapFileWriter implements CaptureFileWriter {
+	private CaptureFileChannel channel;
+
+	public PcapFileWriter(File file, int linkType, int snaplen, long preallocate) throws IOException {
+		channel = new CaptureFileChannel(file, preallocate, ByteOrder.LITTLE_ENDIAN);
+
+		ByteBuffer bb = channel.reserve(24);
+		bb.putInt(0xa1b2c3d4);
+		bb.putShort((short) 2);
+		bb.putShort((short) 4);
+		bb.putInt(0);
+		bb.putInt(0);
+		bb.putInt(snaplen);
+		bb.putInt(linkType);
+	}
+
+	@Override
+	public File getFile() {
+		return channel.getFile();
+	}
+
+	@Override
+	public long getSize() {
+		return channel.size();
+	}
+
+	@Override
+	public void write(PcapPacket packet) throws IOException {
+		PacketHeader header = packet.getPacketHeader();
+		Buffer data = packet.getPacketData();
+		int caplen = data.readableBytes();
+
+		ByteBuffer bb = channel.reserve(16 + caplen);
+		bb.putInt(header.getTsSec());
+		bb.putInt(header.getTsUsec());
+		bb.putInt(caplen);
+		bb.putInt(Math.max(caplen, header.getOrigLen()));
+		CaptureFileChannel.put(bb, data, caplen);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		channel.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
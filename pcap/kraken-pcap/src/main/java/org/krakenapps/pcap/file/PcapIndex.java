@@ -0,0 +1,132 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sidecar index of pcap file. Index file has header and fixed size block
+ * records, and contains complete blocks only, so that growing pcap file is
+ * indexed by appending new blocks. Packets after last block should be scanned
+ * without index.
+ * 
+ * @see PcapIndexBuilder
+ * @author xeraph
+ */
+public class PcapIndex {
+	public static final int MAGIC = 0x4b504958;
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 16;
+
+	// first packet record is next to global header
+	private static final int FIRST_PACKET_OFFSET = 24;
+
+	private int blockSize;
+	private int bloomBits;
+	private List<PcapIndexBlock> blocks;
+
+	public PcapIndex(int blockSize, int bloomBits) {
+		this.blockSize = blockSize;
+		this.bloomBits = bloomBits;
+		this.blocks = new ArrayList<PcapIndexBlock>();
+	}
+
+	public static File getIndexFile(File pcapFile) {
+		return new File(pcapFile.getAbsolutePath() + ".idx");
+	}
+
+	public static PcapIndex read(File indexFile) throws IOException {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			if (is.readInt() != MAGIC)
+				throw new IOException("invalid pcap index file: " + indexFile.getAbsolutePath());
+
+			int version = is.readInt();
+			if (version != VERSION)
+				throw new IOException("unsupported pcap index version: " + version);
+
+			PcapIndex index = new PcapIndex(is.readInt(), is.readInt());
+
+			// ignore partially written record
+			long count = (indexFile.length() - HEADER_SIZE) / PcapIndexBlock.getRecordSize(index.bloomBits);
+			for (long i = 0; i < count; i++)
+				index.blocks.add(PcapIndexBlock.read(is, index.bloomBits));
+
+			return index;
+		} finally {
+			is.close();
+		}
+	}
+
+	public void writeHeader(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(blockSize);
+		out.writeInt(bloomBits);
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getBloomBits() {
+		return bloomBits;
+	}
+
+	public List<PcapIndexBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	void add(PcapIndexBlock block) {
+		blocks.add(block);
+	}
+
+	/**
+	 * Returns file offset next to last indexed packet record.
+	 */
+	public long getIndexedOffset() {
+		if (blocks.isEmpty())
+			return FIRST_PACKET_OFFSET;
+
+		return blocks.get(blocks.size() - 1).getEndOffset();
+	}
+
+	/**
+	 * Returns blocks which may contain packets matching filter, in file order.
+	 */
+	public List<PcapIndexBlock> find(PcapIndexFilter filter) {
+		List<PcapIndexBlock> l = new ArrayList<PcapIndexBlock>();
+		for (PcapIndexBlock block : blocks)
+			if (filter.matches(block))
+				l.add(block);
+
+		return l;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("block size=%d, bloom bits=%d, blocks=%d, indexed offset=%d", blockSize, bloomBits,
+				blocks.size(), getIndexedOffset());
+	}
+}
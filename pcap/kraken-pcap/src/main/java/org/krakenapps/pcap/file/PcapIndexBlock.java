@@ -0,0 +1,213 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Index entry for consecutive packet records in pcap file. Block has file
+ * offset range, time range and bloom filter of ip addresses and ports of
+ * packets in the block. Non-first fragments of tcp or udp datagrams have no
+ * ports, and are recorded as fragment mark instead. Timestamps are microseconds since epoch, and time
+ * range is min and max because pcap file is not always sorted by time.
+ * 
+ * @author xeraph
+ */
+public class PcapIndexBlock {
+	private static final int HASH_COUNT = 4;
+	private static final long ADDRESS_SEED = 0xcbf29ce484222325L;
+	private static final long PORT_SEED = 0x84222325cbf29ce4L;
+
+	// out of port range
+	private static final int FRAGMENT_MARK = -1;
+
+	private long offset;
+	private long endOffset;
+	private int packetCount;
+	private long minTime = Long.MAX_VALUE;
+	private long maxTime = Long.MIN_VALUE;
+	private long[] bloom;
+
+	public PcapIndexBlock(long offset, int bloomBits) {
+		if (bloomBits < 64 || Integer.bitCount(bloomBits) != 1)
+			throw new IllegalArgumentException("bloom bits should be power of 2 and at least 64: " + bloomBits);
+
+		this.offset = offset;
+		this.endOffset = offset;
+		this.bloom = new long[bloomBits / 64];
+	}
+
+	/**
+	 * Returns record size in index file
+	 */
+	public static int getRecordSize(int bloomBits) {
+		return 36 + bloomBits / 8;
+	}
+
+	public static PcapIndexBlock read(DataInput in, int bloomBits) throws IOException {
+		PcapIndexBlock block = new PcapIndexBlock(in.readLong(), bloomBits);
+		block.endOffset = in.readLong();
+		block.packetCount = in.readInt();
+		block.minTime = in.readLong();
+		block.maxTime = in.readLong();
+		for (int i = 0; i < block.bloom.length; i++)
+			block.bloom[i] = in.readLong();
+		return block;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(offset);
+		out.writeLong(endOffset);
+		out.writeInt(packetCount);
+		out.writeLong(minTime);
+		out.writeLong(maxTime);
+		for (long l : bloom)
+			out.writeLong(l);
+	}
+
+	/**
+	 * Returns file offset of first packet record
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns file offset next to last packet record
+	 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	public int getPacketCount() {
+		return packetCount;
+	}
+
+	public long getMinTime() {
+		return minTime;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	void setEndOffset(long endOffset) {
+		this.endOffset = endOffset;
+	}
+
+	void add(long time, PacketKey key) {
+		packetCount++;
+		minTime = Math.min(minTime, time);
+		maxTime = Math.max(maxTime, time);
+
+		if (key.addressLength == 0)
+			return;
+
+		set(hash(ADDRESS_SEED, key.source, key.addressLength));
+		set(hash(ADDRESS_SEED, key.destination, key.addressLength));
+
+		if (key.sourcePort >= 0) {
+			set(hash(PORT_SEED, key.sourcePort));
+			set(hash(PORT_SEED, key.destinationPort));
+		}
+
+		if (key.fragment)
+			set(hash(PORT_SEED, FRAGMENT_MARK));
+	}
+
+	/**
+	 * Returns true if time range of block overlaps [from, to]
+	 */
+	public boolean overlaps(long from, long to) {
+		return packetCount > 0 && minTime <= to && from <= maxTime;
+	}
+
+	/**
+	 * Returns false if no packet in block has address. 4 or 16 bytes address.
+	 */
+	public boolean mightContainAddress(byte[] address) {
+		return test(hash(ADDRESS_SEED, address, address.length));
+	}
+
+	/**
+	 * Returns false if no tcp or udp packet in block has port.
+	 */
+	public boolean mightContainPort(int port) {
+		return test(hash(PORT_SEED, port));
+	}
+
+	/**
+	 * Returns false if no packet in block is non-first fragment of tcp or udp
+	 * datagram.
+	 */
+	public boolean mightContainFragment() {
+		return test(hash(PORT_SEED, FRAGMENT_MARK));
+	}
+
+	private void set(long h) {
+		int mask = bloom.length * 64 - 1;
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = (h1 + i * h2) & mask;
+			bloom[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	private boolean test(long h) {
+		int mask = bloom.length * 64 - 1;
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bloom[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static long hash(long seed, byte[] b, int length) {
+		// fnv-1a
+		long h = seed;
+		for (int i = 0; i < length; i++) {
+			h ^= b[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return fmix(h);
+	}
+
+	private static long hash(long seed, int port) {
+		return fmix(seed ^ (port * 0x9e3779b97f4a7c15L));
+	}
+
+	private static long fmix(long h) {
+		// murmur3 64bit finalizer
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("offset=%d, end=%d, packets=%d, time=%d-%d", offset, endOffset, packetCount, minTime,
+				maxTime);
+	}
+}
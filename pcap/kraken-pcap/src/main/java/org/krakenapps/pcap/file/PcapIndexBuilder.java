@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds or updates sidecar index of pcap file. Existing index is reused and
+ * only packets after last indexed block are read, so that update() can be
+ * called repeatedly for pcap file which is still growing. Index is rebuilt if
+ * parameters are changed or index does not match pcap file.
+ * 
+ * @author xeraph
+ */
+public class PcapIndexBuilder {
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+	public static final int DEFAULT_BLOOM_BITS = 4096;
+
+	private final Logger logger = LoggerFactory.getLogger(PcapIndexBuilder.class.getName());
+	private File pcapFile;
+	private File indexFile;
+	private int blockSize;
+	private int bloomBits;
+
+	public PcapIndexBuilder(File pcapFile) {
+		this(pcapFile, DEFAULT_BLOCK_SIZE, DEFAULT_BLOOM_BITS);
+	}
+
+	public PcapIndexBuilder(File pcapFile, int blockSize, int bloomBits) {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("block size should be positive: " + blockSize);
+
+		// validate bloom bits
+		new PcapIndexBlock(0, bloomBits);
+
+		this.pcapFile = pcapFile;
+		this.indexFile = PcapIndex.getIndexFile(pcapFile);
+		this.blockSize = blockSize;
+		this.bloomBits = bloomBits;
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * Appends blocks for packets after last indexed block, and returns
+	 * updated index. Trailing packets which do not fill a block are not
+	 * indexed.
+	 */
+	public PcapIndex update() throws IOException {
+		PcapIndex index = load();
+		boolean created = index == null;
+		if (created)
+			index = new PcapIndex(blockSize, bloomBits);
+
+		int added = 0;
+		PcapMappedFileInputStream is = new PcapMappedFileInputStream(pcapFile);
+		DataOutputStream os = null;
+		try {
+			is.seek(index.getIndexedOffset());
+
+			PacketKey key = new PacketKey();
+			PcapIndexBlock block = new PcapIndexBlock(is.getPosition(), bloomBits);
+			while (true) {
+				List<PcapPacket> packets = is.getPackets(blockSize - block.getPacketCount());
+				if (packets.isEmpty())
+					break;
+
+				for (PcapPacket packet : packets) {
+					PacketHeader h = packet.getPacketHeader();
+					key.parse(packet.getPacketData());
+					block.add(h.getTsSec() * 1000000L + h.getTsUsec(), key);
+				}
+				block.setEndOffset(is.getPosition());
+
+				if (block.getPacketCount() == blockSize) {
+					if (os == null)
+						os = openOutput(index, created);
+
+					block.write(os);
+					index.add(block);
+					added++;
+					block = new PcapIndexBlock(is.getPosition(), bloomBits);
+				}
+			}
+		} finally {
+			is.close();
+			if (os != null)
+				os.close();
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("kraken-pcap: updated pcap index [{}], {} blocks added", indexFile.getAbsolutePath(), added);
+
+		return index;
+	}
+
+	private PcapIndex load() {
+		if (!indexFile.exists())
+			return null;
+
+		try {
+			PcapIndex index = PcapIndex.read(indexFile);
+			if (index.getBlockSize() == blockSize && index.getBloomBits() == bloomBits
+					&& index.getIndexedOffset() <= pcapFile.length())
+				return index;
+
+			logger.info("kraken-pcap: pcap index [{}] does not match, rebuilding", indexFile.getAbsolutePath());
+		} catch (IOException e) {
+			logger.warn("kraken-pcap: cannot read pcap index [" + indexFile.getAbsolutePath() + "], rebuilding", e);
+		}
+
+		return null;
+	}
+
+	private DataOutputStream openOutput(PcapIndex index, boolean created) throws IOException {
+		if (created) {
+			DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+			index.writeHeader(os);
+			return os;
+		}
+
+		// discard partially written record
+		long length = PcapIndex.HEADER_SIZE + (long) index.getBlocks().size()
+				* PcapIndexBlock.getRecordSize(bloomBits);
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.net.InetAddress;
+import java.util.Date;
+
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+
+/**
+ * Time range, host and port condition for pcap file scan. Blocks are checked
+ * using pcap index, and packets in matched blocks are checked again because
+ * bloom filter has false positives. Non-first fragments of tcp or udp
+ * datagrams carry no ports, so they are matched by time range and host only
+ * when port is set. Not thread-safe.
+ * 
+ * @author xeraph
+ */
+public class PcapIndexFilter {
+	private long from = Long.MIN_VALUE;
+	private long to = Long.MAX_VALUE;
+	private byte[] address;
+	private int port = -1;
+	private PacketKey key = new PacketKey();
+
+	/**
+	 * Sets inclusive time range. null means unbounded.
+	 */
+	public void setTimeRange(Date from, Date to) {
+		this.from = from != null ? from.getTime() * 1000 : Long.MIN_VALUE;
+		this.to = to != null ? to.getTime() * 1000 + 999 : Long.MAX_VALUE;
+	}
+
+	public void setHost(InetAddress host) {
+		this.address = host != null ? host.getAddress() : null;
+	}
+
+	/**
+	 * Sets tcp or udp port. -1 means any port.
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public boolean isEmpty() {
+		return from == Long.MIN_VALUE && to == Long.MAX_VALUE && address == null && port < 0;
+	}
+
+	public boolean matches(PcapIndexBlock block) {
+		if (!block.overlaps(from, to))
+			return false;
+
+		if (address != null && !block.mightContainAddress(address))
+			return false;
+
+		if (port >= 0 && !block.mightContainPort(port) && !block.mightContainFragment())
+			return false;
+
+		return true;
+	}
+
+	public boolean matches(PcapPacket packet) {
+		PacketHeader h = packet.getPacketHeader();
+		long time = h.getTsSec() * 1000000L + h.getTsUsec();
+		if (time < from || time > to)
+			return false;
+
+		if (address == null && port < 0)
+			return true;
+
+		if (!key.parse(packet.getPacketData()))
+			return false;
+
+		if (address != null && !key.hasAddress(address))
+			return false;
+
+		// ports of non-first fragment are unknown
+		if (port >= 0 && !key.hasPort(port) && !key.isFragment())
+			return false;
+
+		return true;
+	}
+}
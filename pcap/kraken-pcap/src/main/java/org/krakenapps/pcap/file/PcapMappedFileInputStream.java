@@ -0,0 +1,293 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.krakenapps.pcap.PcapInputStream;
+import org.krakenapps.pcap.bpf.BpfProgram;
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.ChainBuffer;
+
+/**
+ * PcapMappedFileInputStream reads pcap dump file using memory mapped window
+ * instead of stream. Record headers are parsed in place in the mapped region
+ * and packet data is moved into packet buffer by one bulk copy, so that there
+ * is no read system call per field. Each packet is copied into its own
+ * array, so that packet data retained by reassembly or session state does
+ * not pin memory of other packets. Both byte orders and nanosecond
+ * resolution format (magic 0xA1B23C4D) are supported.
+ * 
+ * File is mapped by window, and window is moved when next record is not
+ * contained in current window. Mapped region is released by garbage
+ * collector after window is moved or stream is closed.
+ * 
+ * If BPF filter is set, filter runs on record data in mapped region and
+ * rejected records are skipped without copy.
+ * 
+ * @author xeraph
+ * @see http://wiki.wireshark.org/Development/LibpcapFileFormat
+ */
+public class PcapMappedFileInputStream implements PcapInputStream {
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final int GLOBAL_HEADER_SIZE = 24;
+	private static final int PACKET_HEADER_SIZE = 16;
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long length;
+	private int windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long position;
+
+	private ByteOrder order;
+	private boolean nanosecond;
+	private GlobalHeader globalHeader;
+	private BpfProgram filter;
+
+	public PcapMappedFileInputStream(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	public PcapMappedFileInputStream(File file, int windowSize) throws IOException {
+		if (windowSize < GLOBAL_HEADER_SIZE)
+			throw new IllegalArgumentException("window size should be at least " + GLOBAL_HEADER_SIZE + ": " + windowSize);
+
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+		this.length = channel.size();
+		this.windowSize = windowSize;
+
+		try {
+			readGlobalHeader();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public GlobalHeader getGlobalHeader() {
+		return globalHeader;
+	}
+
+	public boolean isNanosecondResolution() {
+		return nanosecond;
+	}
+
+	public BpfProgram getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Sets BPF filter for following reads, or null to read all packets.
+	 */
+	public void setFilter(BpfProgram filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns file offset of next packet record.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Moves to packet record at specified file offset. Offset should be
+	 * obtained from getPosition() or pcap index.
+	 */
+	public void seek(long offset) throws IOException {
+		if (offset < GLOBAL_HEADER_SIZE || offset > length)
+			throw new IOException("invalid packet offset " + offset + ", file length " + length);
+
+		position = offset;
+	}
+
+	/**
+	 * Reads a packet from pcap file.
+	 * 
+	 * @exception EOFException
+	 *                if there is no more complete packet in file
+	 */
+	@Override
+	public PcapPacket getPacket() throws IOException {
+		PcapPacket packet = readPacket(length);
+		if (packet == null)
+			throw new EOFException();
+
+		return packet;
+	}
+
+	/**
+	 * Reads up to max packets from pcap file.
+	 * 
+	 * @return the packets, or empty list if there is no more complete packet in
+	 *         file
+	 */
+	public List<PcapPacket> getPackets(int max) throws IOException {
+		return getPackets(max, length);
+	}
+
+	/**
+	 * Reads up to max packets from records which start before limit offset.
+	 * 
+	 * @return the packets, or empty list if there is no more complete packet
+	 *         before limit
+	 */
+	public List<PcapPacket> getPackets(int max, long limit) throws IOException {
+		List<PcapPacket> packets = new ArrayList<PcapPacket>(max);
+		for (int i = 0; i < max; i++) {
+			PcapPacket packet = readPacket(limit);
+			if (packet == null)
+				break;
+
+			packets.add(packet);
+		}
+
+		return packets;
+	}
+
+	private void readGlobalHeader() throws IOException {
+		if (length < GLOBAL_HEADER_SIZE)
+			throw new EOFException();
+
+		map(0, GLOBAL_HEADER_SIZE);
+
+		// magic number is always read as big endian
+		int magic = window.getInt(0);
+		if (magic == 0xA1B2C3D4 || magic == 0xA1B23C4D)
+			order = ByteOrder.BIG_ENDIAN;
+		else if (magic == 0xD4C3B2A1 || magic == 0x4D3CB2A1)
+			order = ByteOrder.LITTLE_ENDIAN;
+		else
+			throw new IOException("invalid pcap magic number: " + Integer.toHexString(magic));
+
+		nanosecond = magic == 0xA1B23C4D || magic == 0x4D3CB2A1;
+		window.order(order);
+
+		short major = window.getShort(4);
+		short minor = window.getShort(6);
+		int tz = window.getInt(8);
+		int sigfigs = window.getInt(12);
+		int snaplen = window.getInt(16);
+		int network = window.getInt(20);
+
+		globalHeader = new GlobalHeader(magic, major, minor, tz, sigfigs, snaplen, network);
+		position = GLOBAL_HEADER_SIZE;
+	}
+
+	private PcapPacket readPacket(long limit) throws IOException {
+		if (channel == null)
+			throw new IOException("stream closed");
+
+		int offset;
+		int tsSec;
+		int tsFrac;
+		int inclLen;
+		int origLen;
+
+		while (true) {
+			if (position >= limit)
+				return null;
+
+			// truncated record at the end of file is ignored
+			if (position + PACKET_HEADER_SIZE > length)
+				return null;
+
+			ensureMapped(PACKET_HEADER_SIZE);
+			offset = (int) (position - windowStart);
+			tsSec = window.getInt(offset);
+			tsFrac = window.getInt(offset + 4);
+			inclLen = window.getInt(offset + 8);
+			origLen = window.getInt(offset + 12);
+
+			if (inclLen < 0)
+				throw new IOException("invalid packet length " + inclLen + " at offset " + position);
+
+			if (position + PACKET_HEADER_SIZE + inclLen > length)
+				return null;
+
+			ensureMapped(PACKET_HEADER_SIZE + inclLen);
+			offset = (int) (position - windowStart) + PACKET_HEADER_SIZE;
+
+			if (filter == null || filter.matches(window, offset, inclLen, origLen))
+				break;
+
+			position += PACKET_HEADER_SIZE + inclLen;
+		}
+
+		ChainBuffer data = copy(offset, inclLen);
+		position += PACKET_HEADER_SIZE + inclLen;
+
+		PacketHeader header = null;
+		if (nanosecond)
+			header = new PacketHeader(tsSec, tsFrac / 1000, inclLen, origLen, tsFrac);
+		else
+			header = new PacketHeader(tsSec, tsFrac, inclLen, origLen);
+
+		return new PcapPacket(header, data);
+	}
+
+	private ChainBuffer copy(int offset, int len) {
+		byte[] b = new byte[len];
+		window.position(offset);
+		window.get(b);
+		return new ChainBuffer(b);
+	}
+
+	private void ensureMapped(int len) throws IOException {
+		if (window != null && position >= windowStart && position + len <= windowStart + window.capacity())
+			return;
+
+		map(position, len);
+	}
+
+	private void map(long start, int len) throws IOException {
+		long size = Math.min(Math.max(windowSize, len), length - start);
+		window = channel.map(MapMode.READ_ONLY, start, size);
+		if (order != null)
+			window.order(order);
+
+		windowStart = start;
+	}
+
+	/**
+	 * Closes pcap file handle.
+	 */
+	@Override
+	public void close() throws IOException {
+		window = null;
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+
+		raf.close();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+
+/**
+ * PcapngFileOutputStream writes pcap next generation file which has one
+ * section and one interface. Packets are written as enhanced packet blocks
+ * with nanosecond timestamp, and section and packet can have comment.
+ * 
+ * @see http://www.winpcap.org/ntar/draft/PCAP-DumpFileFormat.html
+ * @author xeraph
+ */
+public class PcapngFileOutputStream implements CaptureFileWriter {
+	public static final int LINKTYPE_ETHERNET = 1;
+
+	private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+	private static final int INTERFACE_DESCRIPTION_BLOCK = 1;
+	private static final int ENHANCED_PACKET_BLOCK = 6;
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+	private static final int OPT_ENDOFOPT = 0;
+	private static final int OPT_COMMENT = 1;
+	private static final int SHB_USERAPPL = 4;
+	private static final int IF_NAME = 2;
+	private static final int IF_TSRESOL = 9;
+
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	private CaptureFileChannel channel;
+
+	public PcapngFileOutputStream(File file) throws IOException {
+		this(file, LINKTYPE_ETHERNET, 65535, null, null);
+	}
+
+	/**
+	 * @param interfaceName
+	 *            the capture interface name, or null
+	 * @param comment
+	 *            the section comment, or null
+	 */
+	public PcapngFileOutputStream(File file, int linkType, int snaplen, String interfaceName, String comment)
+			throws IOException {
+		this(file, linkType, snaplen, interfaceName, comment, 0);
+	}
+
+	PcapngFileOutputStream(File file, int linkType, int snaplen, String interfaceName, String comment,
+			long preallocate) throws IOException {
+		channel = new CaptureFileChannel(file, preallocate, ByteOrder.LITTLE_ENDIAN);
+		writeSectionHeader(encode(comment));
+		writeInterfaceDescription(linkType, snaplen, encode(interfaceName));
+	}
+
+	@Override
+	public File getFile() {
+		return channel.getFile();
+	}
+
+	@Override
+	public long getSize() {
+		return channel.size();
+	}
+
+	@Override
+	public void write(PcapPacket packet) throws IOException {
+		write(packet, null);
+	}
+
+	/**
+	 * Writes packet with packet comment.
+	 * 
+	 * @param comment
+	 *            the packet comment, or null
+	 */
+	public void write(PcapPacket packet, String comment) throws IOException {
+		PacketHeader header = packet.getPacketHeader();
+		Buffer data = packet.getPacketData();
+		int caplen = data.readableBytes();
+		byte[] c = encode(comment);
+
+		int len = 28 + pad(caplen) + optionsLength(c) + 4;
+		ByteBuffer bb = channel.reserve(len);
+		bb.putInt(ENHANCED_PACKET_BLOCK);
+		bb.putInt(len);
+		bb.putInt(0);
+
+		long ts = (header.getTsSec() & 0xffffffffL) * 1000000000L + header.getTsNsec();
+		bb.putInt((int) (ts >>> 32));
+		bb.putInt((int) ts);
+		bb.putInt(caplen);
+		bb.putInt(Math.max(caplen, header.getOrigLen()));
+		CaptureFileChannel.put(bb, data, caplen);
+		putPadding(bb, caplen);
+
+		if (c != null) {
+			putOption(bb, OPT_COMMENT, c);
+			putOption(bb, OPT_ENDOFOPT, null);
+		}
+
+		bb.putInt(len);
+	}
+
+	private void writeSectionHeader(byte[] comment) throws IOException {
+		byte[] appl = "kraken-pcap".getBytes(UTF8);
+		int len = 24 + optionsLength(comment, appl) + 4;
+
+		ByteBuffer bb = channel.reserve(len);
+		bb.putInt(SECTION_HEADER_BLOCK);
+		bb.putInt(len);
+		bb.putInt(BYTE_ORDER_MAGIC);
+		bb.putShort((short) 1);
+		bb.putShort((short) 0);
+
+		// unknown section length
+		bb.putLong(-1);
+
+		if (comment != null)
+			putOption(bb, OPT_COMMENT, comment);
+		putOption(bb, SHB_USERAPPL, appl);
+		putOption(bb, OPT_ENDOFOPT, null);
+		bb.putInt(len);
+	}
+
+	private void writeInterfaceDescription(int linkType, int snaplen, byte[] name) throws IOException {
+		// timestamp unit is 10^-9 second
+		byte[] tsresol = new byte[] { 9 };
+		int len = 16 + optionsLength(name, tsresol) + 4;
+
+		ByteBuffer bb = channel.reserve(len);
+		bb.putInt(INTERFACE_DESCRIPTION_BLOCK);
+		bb.putInt(len);
+		bb.putShort((short) linkType);
+		bb.putShort((short) 0);
+		bb.putInt(snaplen);
+
+		if (name != null)
+			putOption(bb, IF_NAME, name);
+		putOption(bb, IF_TSRESOL, tsresol);
+		putOption(bb, OPT_ENDOFOPT, null);
+		bb.putInt(len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		channel.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static byte[] encode(String s) {
+		return s != null ? s.getBytes(UTF8) : null;
+	}
+
+	/**
+	 * Returns length of options and end of option, or 0 if there is no
+	 * option.
+	 */
+	private static int optionsLength(byte[]... values) {
+		int len = 0;
+		for (byte[] v : values)
+			if (v != null)
+				len += 4 + pad(v.length);
+
+		return len > 0 ? len + 4 : 0;
+	}
+
+	private static void putOption(ByteBuffer bb, int code, byte[] value) {
+		int len = value != null ? value.length : 0;
+		bb.putShort((short) code);
+		bb.putShort((short) len);
+		if (value != null) {
+			bb.put(value);
+			putPadding(bb, len);
+		}
+	}
+
+	private static int pad(int len) {
+		return (len + 3) & ~3;
+	}
+
+	private static void putPadding(ByteBuffer bb, int len) {
+		for (int i = len; i < pad(len); i++)
+			bb.put((byte) 0);
+	}
+}
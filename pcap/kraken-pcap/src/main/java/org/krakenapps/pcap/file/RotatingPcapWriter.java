@@ -0,0 +1,410 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.krakenapps.pcap.PcapOutputStream;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.SpscRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Continuous capture writer which rotates files by size and time, and keeps
+ * last N files like ring buffer. Files are named prefix-000001.pcap (or
+ * .pcapng) in capture directory.
+ * 
+ * Capture thread calls write() which enqueues packet to bounded lock-free
+ * queue, so that capture never blocks on disk. Writer thread drains the queue
+ * to file, and packet is dropped if queue is full. write() should be called
+ * by one capture thread only, and setters should be called before start().
+ * 
+ * Next file is created while current file is written, so that file switch
+ * does not wait for file creation. If preallocation is enabled, file length
+ * is set to max file size on creation and truncated to written size on
+ * rotation. Preallocated tail remains if process dies without close().
+ * 
+ * @author xeraph
+ */
+public class RotatingPcapWriter implements PcapOutputStream, Runnable {
+	public static final int DEFAULT_QUEUE_SIZE = 65536;
+	public static final long DEFAULT_MAX_FILE_SIZE = 100 * 1024 * 1024;
+
+	// spin count before parking idle writer
+	private static final int IDLE_SPINS = 100;
+	private static final long IDLE_PARK_NANOS = 1000000;
+
+	private final Logger logger = LoggerFactory.getLogger(RotatingPcapWriter.class.getName());
+	private final File dir;
+	private final String prefix;
+	private final SpscRingBuffer<PcapPacket> queue;
+
+	private boolean pcapng;
+	private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+	private long rotateInterval;
+	private int maxFileCount;
+	private boolean preallocate;
+	private int linkType = PcapngFileOutputStream.LINKTYPE_ETHERNET;
+	private int snaplen = 65535;
+	private String interfaceName;
+	private String comment;
+
+	private volatile boolean stop;
+	private volatile boolean closed;
+	private volatile boolean flushRequested;
+	private Thread thread;
+
+	// accessed by writer thread only
+	private CaptureFileWriter current;
+	private CaptureFileWriter next;
+	private long currentOpenTime;
+	private boolean dirty;
+	private int sequence;
+	private LinkedList<File> files = new LinkedList<File>();
+
+	// updated by capture thread
+	private volatile long receiveCount;
+	private volatile long dropCount;
+
+	// updated by writer thread
+	private volatile File currentFile;
+	private volatile long writeCount;
+	private volatile long errorCount;
+	private volatile long rotateCount;
+
+	public RotatingPcapWriter(File dir, String prefix) {
+		this(dir, prefix, DEFAULT_QUEUE_SIZE);
+	}
+
+	public RotatingPcapWriter(File dir, String prefix, int queueSize) {
+		this.dir = dir;
+		this.prefix = prefix;
+		this.queue = new SpscRingBuffer<PcapPacket>(queueSize);
+	}
+
+	public boolean isPcapng() {
+		return pcapng;
+	}
+
+	public void setPcapng(boolean pcapng) {
+		this.pcapng = pcapng;
+	}
+
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * Sets file size to rotate, or 0 for no size limit. File can exceed max
+	 * size by one packet.
+	 */
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public long getRotateInterval() {
+		return rotateInterval;
+	}
+
+	/**
+	 * Sets file rotation interval in milliseconds, or 0 for no time based
+	 * rotation.
+	 */
+	public void setRotateInterval(long rotateInterval) {
+		this.rotateInterval = rotateInterval;
+	}
+
+	public int getMaxFileCount() {
+		return maxFileCount;
+	}
+
+	/**
+	 * Sets max file count, or 0 for unlimited. Oldest file written by this
+	 * writer is deleted when new file is opened over limit.
+	 */
+	public void setMaxFileCount(int maxFileCount) {
+		this.maxFileCount = maxFileCount;
+	}
+
+	public boolean isPreallocate() {
+		return preallocate;
+	}
+
+	public void setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+
+	public void setLinkType(int linkType) {
+		this.linkType = linkType;
+	}
+
+	public void setSnaplen(int snaplen) {
+		this.snaplen = snaplen;
+	}
+
+	/**
+	 * Sets interface name of pcapng interface description block.
+	 */
+	public void setInterfaceName(String interfaceName) {
+		this.interfaceName = interfaceName;
+	}
+
+	/**
+	 * Sets comment of pcapng section header block.
+	 */
+	public void setComment(String comment) {
+		this.comment = comment;
+	}
+
+	public void start() {
+		stop = false;
+		thread = new Thread(this, "Pcap Writer " + prefix);
+		thread.start();
+	}
+
+	/**
+	 * Enqueues packet. Packet buffer is duplicated, so that decoders can
+	 * consume packet concurrently.
+	 */
+	@Override
+	public void write(PcapPacket packet) {
+		if (closed)
+			return;
+
+		receiveCount++;
+		PcapPacket p = new PcapPacket(packet.getPacketHeader(), packet.getPacketData().duplicate());
+		if (!queue.offer(p))
+			dropCount++;
+	}
+
+	/**
+	 * Requests writer thread to flush buffered data to file.
+	 */
+	@Override
+	public void flush() {
+		flushRequested = true;
+	}
+
+	/**
+	 * Stops writer thread after writing queued packets, and closes file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		stop = true;
+
+		if (thread == null) {
+			run();
+			return;
+		}
+
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		int idle = 0;
+		try {
+			while (true) {
+				PcapPacket packet = queue.poll();
+				if (packet != null) {
+					idle = 0;
+					writePacket(packet);
+					continue;
+				}
+
+				if (stop)
+					break;
+
+				if (idle++ == 0 || flushRequested)
+					idle();
+
+				if (idle < IDLE_SPINS)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		} finally {
+			closeFiles();
+		}
+
+		logger.trace("kraken-pcap: pcap writer [{}] stopped", prefix);
+	}
+
+	private void writePacket(PcapPacket packet) {
+		try {
+			if (current != null && isExpired())
+				rotate();
+
+			if (current == null)
+				open();
+
+			current.write(packet);
+			writeCount++;
+			dirty = true;
+
+			if (maxFileSize > 0 && current.getSize() >= maxFileSize)
+				rotate();
+		} catch (IOException e) {
+			errorCount++;
+			logger.warn("kraken-pcap: cannot write capture file " + currentFile, e);
+			closeQuietly(current);
+			current = null;
+		}
+	}
+
+	private void idle() {
+		flushRequested = false;
+		try {
+			if (current != null && isExpired())
+				rotate();
+
+			if (current != null && dirty) {
+				current.flush();
+				dirty = false;
+			}
+		} catch (IOException e) {
+			errorCount++;
+			logger.warn("kraken-pcap: cannot flush capture file " + currentFile, e);
+		}
+	}
+
+	private boolean isExpired() {
+		return rotateInterval > 0 && System.currentTimeMillis() - currentOpenTime >= rotateInterval;
+	}
+
+	private void rotate() throws IOException {
+		CaptureFileWriter old = current;
+		current = null;
+		dirty = false;
+		rotateCount++;
+		old.close();
+	}
+
+	private void open() throws IOException {
+		if (next != null) {
+			current = next;
+			next = null;
+		} else {
+			current = create();
+		}
+
+		currentFile = current.getFile();
+		currentOpenTime = System.currentTimeMillis();
+		files.add(currentFile);
+
+		while (maxFileCount > 0 && files.size() > maxFileCount) {
+			File f = files.removeFirst();
+			if (!f.delete())
+				logger.warn("kraken-pcap: cannot delete old capture file {}", f.getAbsolutePath());
+		}
+
+		// prepare next file in advance
+		try {
+			next = create();
+		} catch (IOException e) {
+			logger.warn("kraken-pcap: cannot create next capture file", e);
+		}
+	}
+
+	private CaptureFileWriter create() throws IOException {
+		if (!dir.exists())
+			dir.mkdirs();
+
+		File f = null;
+		do {
+			String name = String.format("%s-%06d.%s", prefix, ++sequence, pcapng ? "pcapng" : "pcap");
+			f = new File(dir, name);
+		} while (f.exists());
+
+		long size = preallocate ? maxFileSize : 0;
+		if (pcapng)
+			return new PcapngFileOutputStream(f, linkType, snaplen, interfaceName, comment, size);
+		return new PcapFileWriter(f, linkType, snaplen, size);
+	}
+
+	private void closeFiles() {
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException e) {
+				errorCount++;
+				logger.warn("kraken-pcap: cannot close capture file " + currentFile, e);
+			}
+			current = null;
+		}
+
+		// next file is empty
+		if (next != null) {
+			closeQuietly(next);
+			next.getFile().delete();
+			next = null;
+		}
+	}
+
+	private void closeQuietly(CaptureFileWriter writer) {
+		if (writer == null)
+			return;
+
+		try {
+			writer.close();
+		} catch (IOException e) {
+		}
+	}
+
+	public File getCurrentFile() {
+		return currentFile;
+	}
+
+	public long getReceiveCount() {
+		return receiveCount;
+	}
+
+	public long getDropCount() {
+		return dropCount;
+	}
+
+	public long getWriteCount() {
+		return writeCount;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	public long getRotateCount() {
+		return rotateCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("file=%s, received=%d, dropped=%d, written=%d, errors=%d, rotated=%d, queue=%d/%d",
+				currentFile, receiveCount, dropCount, writeCount, errorCount, rotateCount, queue.size(),
+				queue.capacity());
+	}
+}
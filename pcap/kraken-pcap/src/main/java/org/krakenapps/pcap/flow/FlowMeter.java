@@ -0,0 +1,400 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.flow;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.krakenapps.pcap.decoder.ip.InternetProtocol;
+import org.krakenapps.pcap.decoder.ip.IpPacket;
+import org.krakenapps.pcap.decoder.ip.Ipv4Packet;
+import org.krakenapps.pcap.decoder.ipv6.Ipv6Packet;
+import org.krakenapps.pcap.decoder.tcp.TcpFlag;
+import org.krakenapps.pcap.decoder.tcp.TcpSegment;
+import org.krakenapps.pcap.decoder.tcp.TcpSegmentCallback;
+import org.krakenapps.pcap.decoder.tcp.TcpSession;
+import org.krakenapps.pcap.decoder.udp.UdpPacket;
+import org.krakenapps.pcap.decoder.udp.UdpProcessor;
+import org.krakenapps.pcap.util.CaptureTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates tcp and udp packets into bidirectional flow records, like
+ * netflow or ipfix meter. Register meter to TcpDecoder using
+ * registerPacketCallback() and to UdpDecoder using registerUdpProcessor().
+ * 
+ * Flow is expired and passed to callbacks when no packet is seen for inactive
+ * timeout, when it lasts longer than active timeout, when finished tcp flow
+ * is reused by new syn, or when flow table is full. Timeouts are checked
+ * against packet capture time, so call advance() periodically if traffic can
+ * stop, and flush() at the end of capture.
+ * 
+ * Flows are kept in access ordered map, so that least recently updated flow
+ * is always at head and expiry check costs nothing if there is no expired
+ * flow. Expired flows are passed to callbacks after meter lock is released,
+ * in the thread which expired them, so slow callback should hand records off
+ * to other thread. Meter is thread-safe, but use one meter per decode worker
+ * to avoid lock contention, since flow is always dispatched to same worker.
+ * 
+ * @author xeraph
+ */
+public class FlowMeter implements TcpSegmentCallback, UdpProcessor {
+	public static final long DEFAULT_ACTIVE_TIMEOUT = 30 * 60 * 1000L;
+	public static final long DEFAULT_INACTIVE_TIMEOUT = 15 * 1000L;
+	public static final int DEFAULT_MAX_FLOWS = 100000;
+
+	private final Logger logger = LoggerFactory.getLogger(FlowMeter.class.getName());
+	private CopyOnWriteArraySet<FlowCallback> callbacks = new CopyOnWriteArraySet<FlowCallback>();
+	private LinkedHashMap<FlowKey, FlowRecord> flows = new LinkedHashMap<FlowKey, FlowRecord>(1024, 0.75f, true);
+
+	private long activeTimeout;
+	private long inactiveTimeout;
+	private int maxFlows = DEFAULT_MAX_FLOWS;
+
+	// expired flows which are not passed to callbacks yet
+	private List<FlowRecord> expired = new ArrayList<FlowRecord>();
+
+	// capture time of last timestamped packet
+	private long lastTime;
+
+	private long createCount;
+	private long expireCount;
+	private long evictCount;
+
+	public FlowMeter() {
+		this(DEFAULT_ACTIVE_TIMEOUT, DEFAULT_INACTIVE_TIMEOUT);
+	}
+
+	/**
+	 * @param activeTimeout
+	 *            the maximum flow duration in milliseconds
+	 * @param inactiveTimeout
+	 *            the maximum idle time of flow in milliseconds
+	 */
+	public FlowMeter(long activeTimeout, long inactiveTimeout) {
+		if (activeTimeout <= 0 || inactiveTimeout <= 0)
+			throw new IllegalArgumentException("timeout should be positive");
+
+		this.activeTimeout = activeTimeout;
+		this.inactiveTimeout = inactiveTimeout;
+	}
+
+	public void register(FlowCallback callback) {
+		callbacks.add(callback);
+	}
+
+	public void unregister(FlowCallback callback) {
+		callbacks.remove(callback);
+	}
+
+	public long getActiveTimeout() {
+		return activeTimeout;
+	}
+
+	public void setActiveTimeout(long activeTimeout) {
+		this.activeTimeout = activeTimeout;
+	}
+
+	public long getInactiveTimeout() {
+		return inactiveTimeout;
+	}
+
+	public void setInactiveTimeout(long inactiveTimeout) {
+		this.inactiveTimeout = inactiveTimeout;
+	}
+
+	public int getMaxFlows() {
+		return maxFlows;
+	}
+
+	/**
+	 * Sets flow table size. Least recently updated flow is evicted and passed
+	 * to callbacks when table is full.
+	 */
+	public void setMaxFlows(int maxFlows) {
+		if (maxFlows <= 0)
+			throw new IllegalArgumentException("max flows should be positive: " + maxFlows);
+
+		this.maxFlows = maxFlows;
+	}
+
+	public synchronized int getFlowCount() {
+		return flows.size();
+	}
+
+	public long getCreateCount() {
+		return createCount;
+	}
+
+	public long getExpireCount() {
+		return expireCount;
+	}
+
+	public long getEvictCount() {
+		return evictCount;
+	}
+
+	@Override
+	public void onReceive(TcpSession session, TcpSegment segment) {
+		int flags = 0;
+		if (segment.isFin())
+			flags |= TcpFlag.FIN;
+		if (segment.isSyn())
+			flags |= TcpFlag.SYN;
+		if (segment.isRst())
+			flags |= TcpFlag.RST;
+		if (segment.isPsh())
+			flags |= TcpFlag.PSH;
+		if (segment.isAck())
+			flags |= TcpFlag.ACK;
+		if (segment.isUrg())
+			flags |= TcpFlag.URG;
+
+		IpPacket ip = segment.getIpPacket();
+		update(InternetProtocol.TCP, segment.getSourceAddress(), segment.getSourcePort(),
+				segment.getDestinationAddress(), segment.getDestinationPort(), getLength(ip), flags,
+				CaptureTime.getTime(ip));
+	}
+
+	@Override
+	public void process(UdpPacket p) {
+		IpPacket ip = p.getIpPacket();
+		update(InternetProtocol.UDP, p.getSource().getAddress(), p.getSourcePort(), p.getDestination().getAddress(),
+				p.getDestinationPort(), getLength(ip), 0, CaptureTime.getTime(ip));
+	}
+
+	/**
+	 * @param time
+	 *            capture time in milliseconds, or -1 if packet has no
+	 *            capture time
+	 */
+	private void update(int protocol, InetAddress src, int srcPort, InetAddress dst, int dstPort, int bytes,
+			int flags, long time) {
+		List<FlowRecord> l = null;
+		synchronized (this) {
+			// timeouts are not checked without capture time
+			if (time >= 0) {
+				lastTime = time;
+				expireIdle(time);
+			} else
+				time = lastTime;
+
+			updateFlow(protocol, src, srcPort, dst, dstPort, bytes, flags, time);
+			l = takeExpired();
+		}
+
+		fire(l);
+	}
+
+	private void updateFlow(int protocol, InetAddress src, int srcPort, InetAddress dst, int dstPort, int bytes,
+			int flags, long time) {
+		FlowKey key = new FlowKey(protocol, src, srcPort, dst, dstPort);
+		FlowRecord r = flows.get(key);
+
+		int synAck = flags & (TcpFlag.SYN | TcpFlag.ACK);
+		if (r != null && time - r.getFirstSeen() >= activeTimeout) {
+			flows.remove(key);
+			expire(r, FlowEndReason.ActiveTimeout);
+			r = null;
+		} else if (r != null && r.isFinished() && synAck == TcpFlag.SYN) {
+			flows.remove(key);
+			expire(r, FlowEndReason.EndOfFlow);
+			r = null;
+		}
+
+		if (r == null) {
+			// syn-ack is sent by server
+			if (synAck == (TcpFlag.SYN | TcpFlag.ACK))
+				r = new FlowRecord(protocol, dst, dstPort, src, srcPort, time);
+			else
+				r = new FlowRecord(protocol, src, srcPort, dst, dstPort, time);
+
+			flows.put(key, r);
+			createCount++;
+
+			if (flows.size() > maxFlows)
+				evict();
+		}
+
+		boolean tx = r.getClientPort() == srcPort && r.getClientIp().equals(src);
+		r.update(tx, bytes, flags, time);
+	}
+
+	/**
+	 * Expires idle flows. Call it with current time when no packet is
+	 * captured for a while.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void advance(long now) {
+		List<FlowRecord> l = null;
+		synchronized (this) {
+			expireIdle(now);
+			l = takeExpired();
+		}
+
+		fire(l);
+	}
+
+	/**
+	 * Passes all flows to callbacks and clears flow table.
+	 */
+	public void flush() {
+		List<FlowRecord> l = null;
+		synchronized (this) {
+			for (FlowRecord r : flows.values())
+				expire(r, FlowEndReason.Flush);
+
+			flows.clear();
+			l = takeExpired();
+		}
+
+		fire(l);
+	}
+
+	private void expireIdle(long now) {
+		Iterator<FlowRecord> it = flows.values().iterator();
+		while (it.hasNext()) {
+			FlowRecord r = it.next();
+			if (r.getLastSeen() + inactiveTimeout > now)
+				break;
+
+			it.remove();
+			expire(r, r.isFinished() ? FlowEndReason.EndOfFlow : FlowEndReason.IdleTimeout);
+		}
+	}
+
+	private void evict() {
+		Iterator<Entry<FlowKey, FlowRecord>> it = flows.entrySet().iterator();
+		FlowRecord r = it.next().getValue();
+		it.remove();
+		evictCount++;
+		expire(r, FlowEndReason.Evicted);
+	}
+
+	private void expire(FlowRecord r, FlowEndReason reason) {
+		r.setEndReason(reason);
+		expireCount++;
+		expired.add(r);
+	}
+
+	private List<FlowRecord> takeExpired() {
+		if (expired.isEmpty())
+			return null;
+
+		List<FlowRecord> l = expired;
+		expired = new ArrayList<FlowRecord>();
+		return l;
+	}
+
+	private void fire(List<FlowRecord> l) {
+		if (l == null)
+			return;
+
+		for (FlowRecord r : l) {
+			for (FlowCallback callback : callbacks) {
+				try {
+					callback.onFlow(r);
+				} catch (Exception e) {
+					logger.warn("kraken-pcap: flow callback should not throw any exception", e);
+				}
+			}
+		}
+	}
+
+	private static int getLength(IpPacket ip) {
+		if (ip instanceof Ipv4Packet)
+			return ((Ipv4Packet) ip).getTotalLength();
+		if (ip instanceof Ipv6Packet)
+			return ((Ipv6Packet) ip).getPayloadLength() + 40;
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("flows=%d/%d, created=%d, expired=%d, evicted=%d, active=%dms, inactive=%dms",
+				getFlowCount(), maxFlows, createCount, expireCount, evictCount, activeTimeout, inactiveTimeout);
+	}
+
+	/**
+	 * Direction independent 5-tuple. Lower endpoint is stored first.
+	 */
+	private static class FlowKey {
+		private int protocol;
+		private InetAddress ip1;
+		private int port1;
+		private InetAddress ip2;
+		private int port2;
+
+		public FlowKey(int protocol, InetAddress src, int srcPort, InetAddress dst, int dstPort) {
+			this.protocol = protocol;
+			if (compare(src, srcPort, dst, dstPort) <= 0) {
+				ip1 = src;
+				port1 = srcPort;
+				ip2 = dst;
+				port2 = dstPort;
+			} else {
+				ip1 = dst;
+				port1 = dstPort;
+				ip2 = src;
+				port2 = srcPort;
+			}
+		}
+
+		private static int compare(InetAddress a, int aPort, InetAddress b, int bPort) {
+			byte[] x = a.getAddress();
+			byte[] y = b.getAddress();
+			if (x.length != y.length)
+				return x.length - y.length;
+
+			for (int i = 0; i < x.length; i++) {
+				int d = (x[i] & 0xff) - (y[i] & 0xff);
+				if (d != 0)
+					return d;
+			}
+
+			return aPort - bPort;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = protocol;
+			h = h * 31 + ip1.hashCode();
+			h = h * 31 + port1;
+			h = h * 31 + ip2.hashCode();
+			return h * 31 + port2;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FlowKey))
+				return false;
+
+			FlowKey o = (FlowKey) obj;
+			return protocol == o.protocol && port1 == o.port1 && port2 == o.port2 && ip1.equals(o.ip1)
+					&& ip2.equals(o.ip2);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.flow;
+
+import java.net.InetAddress;
+import java.util.Date;
+
+import org.krakenapps.pcap.decoder.tcp.TcpFlag;
+
+/**
+ * Bidirectional flow record. Client is the sender of first packet, or the
+ * receiver of first packet if it is syn-ack. Tx counters are client to
+ * server, and rx counters are server to client.
+ * 
+ * @author xeraph
+ */
+public class FlowRecord {
+	private int protocol;
+	private InetAddress clientIp;
+	private int clientPort;
+	private InetAddress serverIp;
+	private int serverPort;
+
+	private long firstSeen;
+	private long lastSeen;
+	private long txPackets;
+	private long txBytes;
+	private long rxPackets;
+	private long rxBytes;
+	private int tcpFlags;
+	private FlowEndReason endReason;
+
+	// fin from client and server, or rst
+	private boolean clientFin;
+	private boolean serverFin;
+	private boolean reset;
+
+	public FlowRecord(int protocol, InetAddress clientIp, int clientPort, InetAddress serverIp, int serverPort,
+			long firstSeen) {
+		this.protocol = protocol;
+		this.clientIp = clientIp;
+		this.clientPort = clientPort;
+		this.serverIp = serverIp;
+		this.serverPort = serverPort;
+		this.firstSeen = firstSeen;
+		this.lastSeen = firstSeen;
+	}
+
+	void update(boolean tx, int bytes, int flags, long time) {
+		if (tx) {
+			txPackets++;
+			txBytes += bytes;
+			if ((flags & TcpFlag.FIN) != 0)
+				clientFin = true;
+		} else {
+			rxPackets++;
+			rxBytes += bytes;
+			if ((flags & TcpFlag.FIN) != 0)
+				serverFin = true;
+		}
+
+		if ((flags & TcpFlag.RST) != 0)
+			reset = true;
+
+		tcpFlags |= flags;
+		if (time > lastSeen)
+			lastSeen = time;
+	}
+
+	/**
+	 * Returns true if both sides sent fin, or rst is seen.
+	 */
+	public boolean isFinished() {
+		return reset || (clientFin && serverFin);
+	}
+
+	/**
+	 * Returns ip protocol number, 6 for tcp and 17 for udp.
+	 */
+	public int getProtocol() {
+		return protocol;
+	}
+
+	public InetAddress getClientIp() {
+		return clientIp;
+	}
+
+	public int getClientPort() {
+		return clientPort;
+	}
+
+	public InetAddress getServerIp() {
+		return serverIp;
+	}
+
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	/**
+	 * Returns capture time of first packet in milliseconds.
+	 */
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+
+	/**
+	 * Returns capture time of last packet in milliseconds.
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+
+	public long getDuration() {
+		return lastSeen - firstSeen;
+	}
+
+	public long getTxPackets() {
+		return txPackets;
+	}
+
+	public long getTxBytes() {
+		return txBytes;
+	}
+
+	public long getRxPackets() {
+		return rxPackets;
+	}
+
+	public long getRxBytes() {
+		return rxBytes;
+	}
+
+	/**
+	 * Returns logical or of tcp flags seen in both directions.
+	 */
+	public int getTcpFlags() {
+		return tcpFlags;
+	}
+
+	public FlowEndReason getEndReason() {
+		return endReason;
+	}
+
+	void setEndReason(FlowEndReason endReason) {
+		this.endReason = endReason;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"proto=%d, client=%s:%d, server=%s:%d, first=%s, last=%s, tx=%d/%d, rx=%d/%d, flags=0x%02x, end=%s",
+				protocol, clientIp.getHostAddress(), clientPort, serverIp.getHostAddress(), serverPort,
+				new Date(firstSeen), new Date(lastSeen), txPackets, txBytes, rxPackets, rxBytes, tcpFlags, endReason);
+	}
+}
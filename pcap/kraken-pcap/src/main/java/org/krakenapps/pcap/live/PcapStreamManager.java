@@ -36,6 +36,14 @@ public interface PcapStreamManager {
 
 	void start(String key, String deviceName, int milliseconds, Promiscuous promisc, String filter) throws IOException;
 
+	/**
+	 * @param workerCount
+	 *            the decode worker thread count, packets are hashed by flow
+	 *            onto workers if it is larger than 1
+	 */
+	void start(String key, String deviceName, int milliseconds, Promiscuous promisc, String filter, int workerCount)
+			throws IOException;
+
 	void stop(String key);
 
 	void addEventListener(PcapStreamEventListener callback);
@@ -102,6 +102,12 @@ public class PcapStreamManagerImpl implements PcapStreamManager {
 	@Override
 	public void start(String key, String deviceName, int milliseconds, Promiscuous promisc, String filter)
 			throws IOException {
+		start(key, deviceName, milliseconds, promisc, filter, 1);
+	}
+
+	@Override
+	public void start(String key, String deviceName, int milliseconds, Promiscuous promisc, String filter,
+			int workerCount) throws IOException {
 		PcapDeviceMetadata info = null;
 		for (PcapDeviceMetadata d : PcapDeviceManager.getDeviceMetadataList()) {
 			if (d.getName().equals(deviceName)) {
@@ -117,11 +123,11 @@ public class PcapStreamManagerImpl implements PcapStreamManager {
 		if (streamMap.containsKey(key))
 			throw new IllegalArgumentException("duplicated alias of pcap device: " + key);
 
-		logger.info("kraken-pcap: starting live runner [{}]", key);
+		logger.info("kraken-pcap: starting live runner [{}], workers [{}]", key, workerCount);
 
 		LiveStream stream = new LiveStream();
 
-		stream.runner = new PcapLiveRunner(device);
+		stream.runner = new PcapLiveRunner(device, workerCount);
 		stream.thread = new Thread(stream.runner);
 
 		streamMap.put(key, stream);
@@ -35,6 +35,11 @@ public class PacketHeader {
 	 */
 	private int tsUsec;
 
+	/**
+	 * timestamp nanoseconds, only nanosecond resolution file has exact value
+	 */
+	private int tsNsec;
+
 	/**
 	 * number of octets of packet saved in file
 	 */
@@ -46,10 +51,15 @@ public class PacketHeader {
 	private int origLen;
 
 	public PacketHeader(int tsSec, int tsUsec, int inclLen, int origLen) {
+		this(tsSec, tsUsec, inclLen, origLen, tsUsec * 1000);
+	}
+
+	public PacketHeader(int tsSec, int tsUsec, int inclLen, int origLen, int tsNsec) {
 		this.tsSec = tsSec;
 		this.tsUsec = tsUsec;
 		this.inclLen = inclLen;
 		this.origLen = origLen;
+		this.tsNsec = tsNsec;
 	}
 
 	/**
@@ -61,12 +71,13 @@ public class PacketHeader {
 	public PacketHeader(PacketHeader source) {
 		this.tsSec = source.tsSec;
 		this.tsUsec = source.tsUsec;
+		this.tsNsec = source.tsNsec;
 		this.inclLen = source.inclLen;
 		this.origLen = source.origLen;
 	}
 
 	public Date getDate() {
-		return new Date(getTsSec() * 1000L + getTsUsec());
+		return new Date(getTsSec() * 1000L + getTsUsec() / 1000);
 	}
 
 	public int getTsSec() {
@@ -77,6 +88,10 @@ public class PacketHeader {
 		return tsUsec;
 	}
 
+	public int getTsNsec() {
+		return tsNsec;
+	}
+
 	public int getInclLen() {
 		return inclLen;
 	}
@@ -93,6 +108,7 @@ public class PacketHeader {
 		result = prime * result + origLen;
 		result = prime * result + tsSec;
 		result = prime * result + tsUsec;
+		result = prime * result + tsNsec;
 		return result;
 	}
 
@@ -113,6 +129,8 @@ public class PacketHeader {
 			return false;
 		if (tsUsec != other.tsUsec)
 			return false;
+		if (tsNsec != other.tsNsec)
+			return false;
 		return true;
 	}
 
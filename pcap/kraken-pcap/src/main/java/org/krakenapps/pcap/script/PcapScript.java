@@ -15,10 +15,10 @@
  */
 package org.krakenapps.pcap.script;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -31,6 +31,7 @@ import org.krakenapps.api.ScriptArgument;
 import org.krakenapps.api.ScriptContext;
 import org.krakenapps.api.ScriptUsage;
 import org.krakenapps.pcap.Injectable;
+import org.krakenapps.pcap.PcapOutputStream;
 import org.krakenapps.pcap.decoder.ethernet.EthernetFrame;
 import org.krakenapps.pcap.decoder.ethernet.EthernetType;
 import org.krakenapps.pcap.decoder.ethernet.MacAddress;
@@ -38,6 +39,7 @@ import org.krakenapps.pcap.decoder.ip.InternetProtocol;
 import org.krakenapps.pcap.decoder.ip.Ipv4Packet;
 import org.krakenapps.pcap.decoder.tcp.TcpPacket;
 import org.krakenapps.pcap.decoder.tcp.TcpSession;
+import org.krakenapps.pcap.file.RotatingPcapWriter;
 import org.krakenapps.pcap.live.PcapDevice;
 import org.krakenapps.pcap.live.PcapDeviceManager;
 import org.krakenapps.pcap.live.PcapDeviceMetadata;
@@ -46,6 +48,7 @@ import org.krakenapps.pcap.live.PcapStat;
 import org.krakenapps.pcap.live.Promiscuous;
 import org.krakenapps.pcap.util.Arping;
 import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.PcapDecodeWorker;
 import org.krakenapps.pcap.util.PcapLiveRunner;
 import org.krakenapps.pcap.util.Ping;
 import org.krakenapps.pcap.util.Ping.PingResponse;
@@ -148,6 +151,20 @@ public class PcapScript implements Script {
 		context.println(stat.toString());
 	}
 
+	@ScriptUsage(description = "print decode worker stats", arguments = { @ScriptArgument(name = "alias", type = "string", description = "the alias of the pcap device") })
+	public void workers(String[] args) {
+		PcapLiveRunner runner = streamManager.get(args[0]);
+		if (runner == null) {
+			context.println("device not found");
+			return;
+		}
+
+		context.println("Decode Workers");
+		context.println("-----------------------");
+		for (PcapDecodeWorker worker : runner.getWorkers())
+			context.println(worker.toString());
+	}
+
 	@ScriptUsage(description = "print pcap device tcp sessions", arguments = {
 			@ScriptArgument(name = "alias", type = "string", description = "the alias of the pcap device"),
 			@ScriptArgument(name = "ip filter", type = "string", description = "ip filter", optional = true) })
@@ -158,7 +175,7 @@ public class PcapScript implements Script {
 			return;
 		}
 
-		List<TcpSession> sessions = new ArrayList<TcpSession>(runner.getTcpDecoder().getCurrentSessions());
+		List<TcpSession> sessions = runner.getCurrentTcpSessions();
 		Collections.sort(sessions, new Comparator<TcpSession>() {
 			@Override
 			public int compare(TcpSession o1, TcpSession o2) {
@@ -195,7 +212,7 @@ public class PcapScript implements Script {
 			}
 		}
 
-		for (TcpSession session : runner.getTcpDecoder().getCurrentSessions()) {
+		for (TcpSession session : runner.getCurrentTcpSessions()) {
 			try {
 				if (ids.contains(session.getId()))
 					sendTcpReset(device, session);
@@ -235,7 +252,8 @@ public class PcapScript implements Script {
 			@ScriptArgument(name = "device index", type = "int", description = "index of the pcap device"),
 			@ScriptArgument(name = "timeout", type = "int", description = "milliseconds"),
 			@ScriptArgument(name = "promiscuous mode", type = "string", description = "promisc or nonpromisc", optional = true),
-			@ScriptArgument(name = "bpf", type = "string", description = "bpf filter expression", optional = true) })
+			@ScriptArgument(name = "bpf", type = "string", description = "bpf filter expression", optional = true),
+			@ScriptArgument(name = "worker count", type = "int", description = "decode worker thread count, 1 by default", optional = true) })
 	public void open(String[] args) {
 		try {
 			String alias = args[0];
@@ -243,7 +261,10 @@ public class PcapScript implements Script {
 			int milliseconds = Integer.parseInt(args[2]);
 			Promiscuous promisc = null;
 			String filter = null;
+			int workerCount = 1;
 
+			if (args.length > 5)
+				workerCount = Integer.parseInt(args[5]);
 			if (args.length > 4)
 				filter = args[4];
 			if (args.length > 3)
@@ -260,13 +281,75 @@ public class PcapScript implements Script {
 				i++;
 			}
 
-			streamManager.start(alias, deviceName, milliseconds, promisc, filter);
+			streamManager.start(alias, deviceName, milliseconds, promisc, filter, workerCount);
 			context.println("stream opened");
 		} catch (IOException e) {
 			context.println("open failed");
 		}
 	}
 
+	@ScriptUsage(description = "write live stream to rotating capture files", arguments = {
+			@ScriptArgument(name = "alias", type = "string", description = "alias of the pcap device"),
+			@ScriptArgument(name = "directory", type = "string", description = "capture file directory"),
+			@ScriptArgument(name = "max file size", type = "int", description = "max file size in MB, 100 by default", optional = true),
+			@ScriptArgument(name = "file count", type = "int", description = "max file count, 0 for unlimited (default)", optional = true),
+			@ScriptArgument(name = "interval", type = "int", description = "rotation interval in seconds, 0 for no time rotation (default)", optional = true),
+			@ScriptArgument(name = "format", type = "string", description = "pcap (default) or pcapng", optional = true) })
+	public void capture(String[] args) {
+		PcapLiveRunner runner = streamManager.get(args[0]);
+		if (runner == null) {
+			context.println("stream not found");
+			return;
+		}
+
+		if (runner.getCaptureWriter() != null) {
+			context.println("already capturing");
+			return;
+		}
+
+		RotatingPcapWriter writer = new RotatingPcapWriter(new File(args[1]), args[0]);
+		if (args.length > 2)
+			writer.setMaxFileSize(Long.parseLong(args[2]) * 1024 * 1024);
+		if (args.length > 3)
+			writer.setMaxFileCount(Integer.parseInt(args[3]));
+		if (args.length > 4)
+			writer.setRotateInterval(Long.parseLong(args[4]) * 1000);
+		if (args.length > 5)
+			writer.setPcapng(args[5].equals("pcapng"));
+
+		PcapDeviceMetadata metadata = runner.getDevice().getMetadata();
+		if (metadata != null)
+			writer.setInterfaceName(metadata.getName());
+
+		writer.start();
+		runner.setCaptureWriter(writer);
+		context.println("capture started");
+	}
+
+	@ScriptUsage(description = "stop writing live stream to capture files", arguments = { @ScriptArgument(name = "alias", type = "string", description = "alias of the pcap device") })
+	public void stopCapture(String[] args) {
+		PcapLiveRunner runner = streamManager.get(args[0]);
+		if (runner == null) {
+			context.println("stream not found");
+			return;
+		}
+
+		PcapOutputStream writer = runner.getCaptureWriter();
+		if (writer == null) {
+			context.println("not capturing");
+			return;
+		}
+
+		runner.setCaptureWriter(null);
+		try {
+			writer.close();
+		} catch (IOException e) {
+			logger.warn("kraken-pcap: cannot close capture writer", e);
+		}
+
+		context.println("capture stopped, " + writer);
+	}
+
 	@ScriptUsage(description = "close and unregister the pcap device", arguments = { @ScriptArgument(name = "alias", type = "string", description = "alias of the pcap device") })
 	public void close(String[] args) {
 		String alias = args[0];
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.util;
+
+import org.krakenapps.pcap.decoder.ethernet.EthernetFrame;
+import org.krakenapps.pcap.decoder.ip.IpPacket;
+import org.krakenapps.pcap.packet.PacketHeader;
+
+/**
+ * Capture time of decoded packet. Timeouts of session and flow tables are
+ * driven by capture time, so that offline pcap file is processed same as live
+ * capture. Packet without pcap header, e.g. decoded from raw buffer, has no
+ * capture time, and caller should reuse last known time instead of wall
+ * clock, which is unrelated to capture time of pcap file.
+ * 
+ * @author xeraph
+ */
+public class CaptureTime {
+	private CaptureTime() {
+	}
+
+	/**
+	 * Returns capture time of packet in milliseconds, or -1 if packet is not
+	 * captured from ethernet.
+	 */
+	public static long getTime(IpPacket ip) {
+		Object frame = ip != null ? ip.getL2Frame() : null;
+		if (frame instanceof EthernetFrame && ((EthernetFrame) frame).getPcapPacket() != null) {
+			PacketHeader h = ((EthernetFrame) frame).getPcapPacket().getPacketHeader();
+			return h.getTsSec() * 1000L + h.getTsUsec() / 1000;
+		}
+
+		return -1;
+	}
+}
@@ -17,6 +17,7 @@ package org.krakenapps.pcap.util;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.InvalidMarkException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -24,10 +25,15 @@ import java.util.Arrays;
 import java.util.List;
 
 /**
+ * Chain of byte array segments. Each segment is a view of [offset, offset +
+ * length) of backing array, so that appending other buffer or part of array
+ * shares memory instead of copying. Backing arrays should not be modified
+ * after they are added.
+ * 
  * @author mindori
  */
 public class ChainBuffer implements Buffer {
-	private List<byte[]> buffers;
+	private List<Segment> segments;
 
 	/* start[0] = bufIndex of start point. baseOffset = offset of start point. */
 	private int baseIndex;
@@ -40,7 +46,7 @@ public class ChainBuffer implements Buffer {
 	private int bufOffset = 0;
 
 	public ChainBuffer() {
-		buffers = new ArrayList<byte[]>();
+		segments = new ArrayList<Segment>();
 
 		baseIndex = 0;
 		baseOffset = 0;
@@ -51,10 +57,18 @@ public class ChainBuffer implements Buffer {
 		addLast(b);
 	}
 
-	/* copy constructor */
+	/**
+	 * Creates buffer which shares [offset, offset + length) of array.
+	 */
+	public ChainBuffer(byte[] b, int offset, int length) {
+		this();
+		addLast(b, offset, length);
+	}
+
+	/* copy constructor, segments are shared */
 	public ChainBuffer(Buffer other) {
-		buffers = new ArrayList<byte[]>();
-		buffers.addAll(other.getBuffers());
+		segments = new ArrayList<Segment>();
+		segments.addAll(segmentsOf(other));
 
 		int[] metaData = other.getMetaData();
 
@@ -74,16 +88,34 @@ public class ChainBuffer implements Buffer {
 		return new int[] { baseIndex, baseOffset, markIndex, markOffset, bufIndex, bufOffset };
 	}
 
+	/**
+	 * Returns byte array of each segment. Segment which is a part of its
+	 * backing array is copied, use getByteBuffers() to avoid copy.
+	 */
 	@Override
 	public List<byte[]> getBuffers() {
-		return buffers;
+		List<byte[]> l = new ArrayList<byte[]>(segments.size());
+		for (Segment s : segments)
+			l.add(s.toArray());
+		return l;
+	}
+
+	/**
+	 * Returns view of each segment. Position and limit of returned buffer are
+	 * segment boundary in backing array.
+	 */
+	public List<ByteBuffer> getByteBuffers() {
+		List<ByteBuffer> l = new ArrayList<ByteBuffer>(segments.size());
+		for (Segment s : segments)
+			l.add(ByteBuffer.wrap(s.array, s.offset, s.length));
+		return l;
 	}
 
 	@Override
 	public int getCapacity() {
 		int capacity = 0;
-		for (byte[] b : buffers)
-			capacity += b.length;
+		for (Segment s : segments)
+			capacity += s.length;
 		return capacity;
 	}
 
@@ -110,15 +142,9 @@ public class ChainBuffer implements Buffer {
 	@Override
 	public int position() {
 		int absPos = 0;
-		if (bufIndex > 0) {
-			int loopCount = 0;
-			for (byte[] buffer : buffers) {
-				absPos += buffer.length;
-				if (loopCount >= (bufIndex - 1))
-					break;
-				loopCount++;
-			}
-		}
+		for (int i = 0; i < bufIndex && i < segments.size(); i++)
+			absPos += segments.get(i).length;
+
 		absPos += bufOffset;
 		return absPos;
 	}
@@ -131,13 +157,13 @@ public class ChainBuffer implements Buffer {
 		if (newPosition < 0)
 			throw new IllegalArgumentException();
 
-		for (byte[] buffer : buffers) {
-			if (absPos + buffer.length >= newPosition) {
+		for (Segment s : segments) {
+			if (absPos + s.length >= newPosition) {
 				bufIndex = i;
 				bufOffset = newPosition - absPos;
 				return this;
 			}
-			absPos += buffer.length;
+			absPos += s.length;
 			i++;
 		}
 		throw new IllegalArgumentException();
@@ -145,18 +171,33 @@ public class ChainBuffer implements Buffer {
 
 	@Override
 	public void addFirst(byte[] buffer) {
-		if (buffer == null)
+		if (buffer == null || buffer.length == 0)
 			return;
 
-		buffers.add(0, buffer);
+		segments.add(0, new Segment(buffer, 0, buffer.length));
 	}
 
 	@Override
 	public void addLast(byte[] buffer) {
-		if (buffer == null)
+		if (buffer == null || buffer.length == 0)
+			return;
+
+		segments.add(new Segment(buffer, 0, buffer.length));
+	}
+
+	/**
+	 * Add [offset, offset + length) of byte array to end of internal buffer
+	 * list without copy.
+	 */
+	public void addLast(byte[] buffer, int offset, int length) {
+		if (buffer == null || length == 0)
 			return;
 
-		buffers.add(buffer);
+		if (offset < 0 || length < 0 || offset + length > buffer.length)
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length "
+					+ buffer.length);
+
+		segments.add(new Segment(buffer, offset, length));
 	}
 
 	@Override
@@ -164,8 +205,7 @@ public class ChainBuffer implements Buffer {
 		if (buffer == null)
 			return;
 
-		List<byte[]> newBufList = buffer.getBuffers();
-		buffers.addAll(0, newBufList);
+		segments.addAll(0, segmentsOf(buffer));
 	}
 
 	@Override
@@ -173,27 +213,20 @@ public class ChainBuffer implements Buffer {
 		if (buffer == null)
 			return;
 
-		/* copy to current offset ~ EOB */
-		List<byte[]> l = buffer.getBuffers();
+		/* share base offset ~ EOB */
+		List<Segment> l = segmentsOf(buffer);
 		int i = buffer.getBaseIndex();
 		int j = buffer.getBaseOffset();
 
 		if (i >= l.size())
 			return;
 
-		byte[] b = l.get(i);
-		if (j > 0) {
-			byte[] t = new byte[b.length - j];
-			for (int k = 0; k < t.length; k++) {
-				t[k] = b[k + j];
-			}
-			buffers.add(t);
-			if (i + 1 < l.size())
-				buffers.addAll(l.subList(i + 1, l.size()));
-		} else {
-			if (i < l.size())
-				buffers.addAll(l.subList(i, l.size()));
-		}
+		Segment s = l.get(i);
+		if (j < s.length)
+			segments.add(s.slice(j, s.length - j));
+
+		if (i + 1 < l.size())
+			segments.addAll(l.subList(i + 1, l.size()));
 	}
 
 	@Override
@@ -201,100 +234,26 @@ public class ChainBuffer implements Buffer {
 		if (buffer == null)
 			return;
 
-		List<byte[]> l = buffer.getBuffers();
+		/* share current offset ~ current offset + length */
+		List<Segment> l = segmentsOf(buffer);
 		int i = buffer.getBufIndex();
 		int j = buffer.getOffset();
 		if (i >= l.size() || length <= 0)
 			return;
-		/* calculate bufIndex */
+
 		buffer.mark();
-		if (buffer.skip(length) == null)
+		if (buffer.readableBytes() < length)
 			return;
-		int m = buffer.getBufIndex();
-		int n = buffer.getOffset();
-		buffer.reset();
-
-		byte[] b = l.get(i);
-		if (j > 0) {
-			if (m == i) {
-				byte[] t = new byte[n - j];
-				for (int k = 0; k < t.length; k++) {
-					t[k] = b[k + j];
-				}
-				buffers.add(t);
-			}
 
-			else {
-				if (m == i + 1) {
-					byte[] t = new byte[b.length - j];
-					for (int k = 0; k < t.length; k++) {
-						t[k] = b[k + j];
-					}
-					buffers.add(t);
-
-					if (n > 0) {
-						byte[] b1 = l.get(m);
-						byte[] t1 = new byte[n];
-						for (int k = 0; k < t1.length; k++) {
-							t1[k] = b1[k];
-						}
-						buffers.add(t1);
-					}
-				} else {
-					byte[] t = new byte[b.length - j];
-					for (int k = 0; k < t.length; k++) {
-						t[k] = b[k + j];
-					}
-					buffers.add(t);
-
-					if (i + 1 == m - 1)
-						buffers.add(l.get(i + 1));
-					else
-						buffers.addAll(l.subList(i + 1, m));
-
-					if (n > 0) {
-						byte[] b1 = l.get(m);
-						byte[] t1 = new byte[n];
-						for (int k = 0; k < t1.length; k++) {
-							t1[k] = b1[k];
-						}
-						buffers.add(t1);
-					}
-				}
-			}
-		} else {
-			/* j == 0 */
-			if (m == i) {
-				byte[] t1 = new byte[n];
-				for (int k = 0; k < t1.length; k++) {
-					t1[k] = b[k];
-				}
-				buffers.add(t1);
-			}
+		int remain = length;
+		while (remain > 0) {
+			Segment s = l.get(i++);
+			int n = Math.min(remain, s.length - j);
+			if (n > 0)
+				segments.add(s.slice(j, n));
 
-			else {
-				if (i == m - 1) {
-					buffers.add(b);
-					if (n > 0) {
-						byte[] b1 = l.get(m);
-						byte[] t1 = new byte[n];
-						for (int k = 0; k < t1.length; k++) {
-							t1[k] = b1[k];
-						}
-						buffers.add(t1);
-					}
-				} else {
-					buffers.addAll(l.subList(i, m));
-					if (n > 0) {
-						byte[] b1 = l.get(m);
-						byte[] t1 = new byte[n];
-						for (int k = 0; k < t1.length; k++) {
-							t1[k] = b1[k];
-						}
-						buffers.add(t1);
-					}
-				}
-			}
+			remain -= n;
+			j = 0;
 		}
 	}
 
@@ -307,23 +266,22 @@ public class ChainBuffer implements Buffer {
 		int skipped = 0;
 
 		int i = bufIndex;
-		byte[] buf = buffers.get(i);
-		int next = buf.length - bufOffset;
+		Segment s = segments.get(i);
+		int next = s.length - bufOffset;
 
 		skipped += next;
 		if (skipped >= pos) {
 			bufOffset += pos;
-			if (bufOffset >= buf.length) {
+			if (bufOffset >= s.length) {
 				bufIndex += 1;
 				bufOffset = 0;
 			}
-			// discardReadBytes();
 			return this;
 		}
 		i++;
 
-		while (i < buffers.size()) {
-			next = buffers.get(i).length;
+		while (i < segments.size()) {
+			next = segments.get(i).length;
 			skipped += next;
 			if (skipped >= pos) {
 				int remain = skipped - pos;
@@ -334,7 +292,6 @@ public class ChainBuffer implements Buffer {
 					bufIndex += 1;
 					bufOffset = 0;
 				}
-				// discardReadBytes();
 				return this;
 			}
 			i++;
@@ -345,22 +302,22 @@ public class ChainBuffer implements Buffer {
 	@Override
 	public byte get() throws BufferUnderflowException {
 		/* fetch address: [bufIndex, offset] */
-		if (bufIndex >= buffers.size())
+		if (bufIndex >= segments.size())
 			throw new BufferUnderflowException();
-		byte[] buf = buffers.get(bufIndex);
+		Segment s = segments.get(bufIndex);
 
-		if (bufOffset >= buf.length) {
+		if (bufOffset >= s.length) {
 			bufOffset = 0;
 			bufIndex += 1;
-			if (bufIndex >= buffers.size())
+			if (bufIndex >= segments.size())
 				throw new BufferUnderflowException();
-			buf = buffers.get(bufIndex);
+			s = segments.get(bufIndex);
 		}
 
-		byte retVal = buf[bufOffset];
+		byte retVal = s.array[s.offset + bufOffset];
 
 		/* modify offset */
-		if ((bufOffset + 1) >= buf.length) {
+		if ((bufOffset + 1) >= s.length) {
 			bufIndex += 1;
 			bufOffset = 0;
 		} else
@@ -370,20 +327,17 @@ public class ChainBuffer implements Buffer {
 
 	@Override
 	public short getShort() throws BufferUnderflowException {
-		try {
-			byte[] b = new byte[2];
-			gets(b, 0, 2);
-
-			short s = 0;
-			for (int i = 0; i < 2; i++) {
-				s <<= 8;
-				s ^= (long) b[i] & 0xFF;
-			}
-
-			return s;
-		} catch (BufferUnderflowException e) {
-			throw e;
+		// fast path, value is in the middle of current segment
+		Segment s = current(2);
+		if (s != null) {
+			int p = s.offset + bufOffset;
+			bufOffset += 2;
+			return (short) ((s.array[p] & 0xff) << 8 | (s.array[p + 1] & 0xff));
 		}
+
+		byte[] b = new byte[2];
+		gets(b, 0, 2);
+		return (short) ((b[0] & 0xff) << 8 | (b[1] & 0xff));
 	}
 
 	@Override
@@ -393,20 +347,16 @@ public class ChainBuffer implements Buffer {
 
 	@Override
 	public int getInt() throws BufferUnderflowException {
-		try {
-			byte[] b = new byte[4];
-			gets(b, 0, 4);
-
-			int s = 0;
-			for (int i = 0; i < 4; i++) {
-				s <<= 8;
-				s ^= (long) b[i] & 0xFF;
-			}
-
-			return s;
-		} catch (BufferUnderflowException e) {
-			throw e;
+		Segment s = current(4);
+		if (s != null) {
+			int v = toInt(s.array, s.offset + bufOffset);
+			bufOffset += 4;
+			return v;
 		}
+
+		byte[] b = new byte[4];
+		gets(b, 0, 4);
+		return toInt(b, 0);
 	}
 
 	@Override
@@ -416,41 +366,47 @@ public class ChainBuffer implements Buffer {
 
 	@Override
 	public long getLong() throws BufferUnderflowException {
-		try {
-			byte[] b = new byte[8];
-			gets(b, 0, 8);
+		Segment s = current(8);
+		if (s != null) {
+			int p = s.offset + bufOffset;
+			bufOffset += 8;
+			return (long) toInt(s.array, p) << 32 | (toInt(s.array, p + 4) & 0xFFFFFFFFl);
+		}
 
-			long s = 0;
-			for (int i = 0; i < 8; i++) {
-				s <<= 8;
-				s ^= (long) b[i] & 0xFFl;
-			}
+		byte[] b = new byte[8];
+		gets(b, 0, 8);
+		return (long) toInt(b, 0) << 32 | (toInt(b, 4) & 0xFFFFFFFFl);
+	}
 
-			return s;
-		} catch (BufferUnderflowException e) {
-			throw e;
-		}
+	/**
+	 * Returns current segment if it has more than length bytes from current
+	 * offset, so that read does not move to next segment.
+	 */
+	private Segment current(int length) {
+		if (bufIndex >= segments.size())
+			return null;
+
+		Segment s = segments.get(bufIndex);
+		return s.length - bufOffset > length ? s : null;
+	}
+
+	private static int toInt(byte[] b, int p) {
+		return (b[p] & 0xff) << 24 | (b[p + 1] & 0xff) << 16 | (b[p + 2] & 0xff) << 8 | (b[p + 3] & 0xff);
 	}
 
 	@Override
 	public String getString(int length) throws BufferUnderflowException {
 		byte[] str = new byte[length];
-		try {
-			gets(str, 0, length);
-			return new String(str);
-		} catch (BufferUnderflowException e) {
-			throw e;
-		}
+		gets(str, 0, length);
+		return new String(str);
 	}
 
 	@Override
 	public String getString(int length, String charsetName) throws BufferUnderflowException {
 		byte[] str = new byte[length];
+		gets(str, 0, length);
 		try {
-			gets(str, 0, length);
 			return new String(str, charsetName);
-		} catch (BufferUnderflowException e) {
-			throw e;
 		} catch (UnsupportedEncodingException e) {
 			return new String(str);
 		}
@@ -459,12 +415,8 @@ public class ChainBuffer implements Buffer {
 	@Override
 	public String getString(int length, Charset charset) throws BufferUnderflowException {
 		byte[] str = new byte[length];
-		try {
-			gets(str, 0, length);
-			return new String(str, charset);
-		} catch (BufferUnderflowException e) {
-			throw e;
-		}
+		gets(str, 0, length);
+		return new String(str, charset);
 	}
 
 	@Override
@@ -477,7 +429,7 @@ public class ChainBuffer implements Buffer {
 		if (length == 0)
 			return;
 
-		if (bufIndex >= buffers.size())
+		if (bufIndex >= segments.size())
 			throw new BufferUnderflowException();
 
 		/* calculate length */
@@ -487,46 +439,21 @@ public class ChainBuffer implements Buffer {
 			throw new BufferUnderflowException();
 
 		int index = offset;
-
-		int i = 0;
-		int j = bufIndex;
-		int bufI = bufIndex;
-		int off = bufOffset;
-
-		int bufCount = 0;
-		int count = 0;
-
-		for (byte[] b : buffers) {
-			if (bufCount < j) {
-				/* skip buffer until count == bufIndex */
-				bufCount++;
-				continue;
-			}
-
-			for (i = off; i < b.length; i++) {
-				if (count == length) {
-					off = i;
-					break;
-				}
-				buffer[index] = b[i];
-				index++;
-				count++;
-			}
-
-			if (count == length) {
-				if (i == b.length) {
-					bufI++;
-					off = 0;
-				}
-				break;
-			} else {
-				/* go to next buffer */
-				bufI++;
-				off = 0;
+		remain = length;
+		while (remain > 0) {
+			Segment s = segments.get(bufIndex);
+			int n = Math.min(remain, s.length - bufOffset);
+			System.arraycopy(s.array, s.offset + bufOffset, buffer, index, n);
+			index += n;
+			remain -= n;
+			bufOffset += n;
+
+			/* go to next buffer */
+			if (bufOffset >= s.length) {
+				bufIndex++;
+				bufOffset = 0;
 			}
 		}
-		bufIndex = bufI;
-		bufOffset = off;
 	}
 
 	@Override
@@ -537,35 +464,15 @@ public class ChainBuffer implements Buffer {
 		int stateNum = 0;
 		int length = 0;
 
-		if (bufIndex >= buffers.size()) {
-			reset();
+		if (bufIndex >= segments.size())
 			return 0;
-		}
-
-		/* retrieve first byte array */
-		byte[] bs = buffers.get(bufIndex);
-
-		for (int i = bufOffset; i < bs.length; i++) {
-			if (bs[i] == target[stateNum])
-				stateNum++;
-			else if (bs[i] == target[0]) {
-				stateNum = 1;
-			} else
-				stateNum = 0;
-			length++;
-
-			if (stateNum == target.length) {
-				/* return length */
-				reset();
-				return (length - target.length);
-			}
-		}
 
-		/* get sublist from bufList */
-		int index = bufIndex + 1;
-		List<byte[]> subList = buffers.subList(index, buffers.size());
-		for (byte[] bs2 : subList) {
-			for (byte b : bs2) {
+		int off = bufOffset;
+		for (int i = bufIndex; i < segments.size(); i++) {
+			Segment s = segments.get(i);
+			int end = s.offset + s.length;
+			for (int p = s.offset + off; p < end; p++) {
+				byte b = s.array[p];
 				if (b == target[stateNum])
 					stateNum++;
 				else if (b == target[0])
@@ -576,12 +483,12 @@ public class ChainBuffer implements Buffer {
 
 				if (stateNum == target.length) {
 					/* return length */
-					reset();
 					return (length - target.length);
 				}
 			}
+			off = 0;
 		}
-		reset();
+
 		return 0;
 	}
 
@@ -607,21 +514,19 @@ public class ChainBuffer implements Buffer {
 
 		if (bufIndex > markIndex) {
 			int rewindOffset = bufOffset;
-			for (int i = bufIndex - 1; i > markIndex; i--) {
-				byte[] buf = buffers.get(i);
-				rewindOffset += buf.length;
-			}
-			byte[] markBuf = buffers.get(markIndex);
-			rewindOffset += (markBuf.length - markOffset);
+			for (int i = bufIndex - 1; i > markIndex; i--)
+				rewindOffset += segments.get(i).length;
+
+			rewindOffset += (segments.get(markIndex).length - markOffset);
 			return reset(rewindOffset);
 		} else if (bufIndex < markIndex) {
 			int absPos = 0;
 			int i = bufIndex + 1;
 			while (i < markIndex) {
-				absPos += buffers.get(i).length;
+				absPos += segments.get(i).length;
 				i++;
 			}
-			absPos += buffers.get(bufIndex).length - bufOffset;
+			absPos += segments.get(bufIndex).length - bufOffset;
 			absPos += markOffset;
 
 			return skip(absPos);
@@ -642,12 +547,10 @@ public class ChainBuffer implements Buffer {
 			} else {
 				int i = bufIndex;
 				int sumOffset = bufOffset;
-				byte[] b;
 
 				do {
 					i--;
-					b = buffers.get(i);
-					sumOffset += b.length;
+					sumOffset += segments.get(i).length;
 				} while (sumOffset < rewindOffset && i > 0);
 
 				if (sumOffset < rewindOffset) {
@@ -671,30 +574,26 @@ public class ChainBuffer implements Buffer {
 
 	public void discardReadBytes() {
 		/* Truncated start ~ current */
-		if (bufIndex >= buffers.size())
+		if (bufIndex >= segments.size())
 			return;
-		byte[] buf = buffers.get(bufIndex);
-		if (bufOffset >= buf.length) {
+
+		if (bufOffset >= segments.get(bufIndex).length) {
 			bufIndex += 1;
 			bufOffset = 0;
 		}
-		
+
 		baseIndex = bufIndex;
 		baseOffset = bufOffset;
 	}
 
 	@Override
 	public int readableBytes() {
-		if (buffers.size() <= 0 || isEOB())
+		if (segments.size() <= 0 || isEOB())
 			return 0;
 
-		byte[] buf = buffers.get(bufIndex);
-		int remain = buf.length - bufOffset;
-
-		for (int i = bufIndex + 1; i < buffers.size(); i++) {
-			buf = buffers.get(i);
-			remain += buf.length;
-		}
+		int remain = segments.get(bufIndex).length - bufOffset;
+		for (int i = bufIndex + 1; i < segments.size(); i++)
+			remain += segments.get(i).length;
 
 		return remain;
 	}
@@ -715,26 +614,26 @@ public class ChainBuffer implements Buffer {
 
 	@Override
 	public boolean isEOB() {
-		if (bufIndex >= buffers.size()) {
-			return true;
-		}
-		return false;
+		return bufIndex >= segments.size();
 	}
 
+	/**
+	 * Returns new buffer which shares segments, and has independent position
+	 * and mark.
+	 */
 	@Override
 	public Buffer duplicate() {
-		// TODO
-		return null;
+		return new ChainBuffer(this);
 	}
 
 	@Override
 	public Buffer flip() {
 		int i = bufIndex + 1;
-		while(i < buffers.size()) {
-			buffers.remove(i);
-		} 
+		while (i < segments.size()) {
+			segments.remove(i);
+		}
 
-		if(bufIndex >= buffers.size()) {
+		if (bufIndex >= segments.size()) {
 			bufIndex = baseIndex;
 			bufOffset = baseOffset;
 
@@ -742,11 +641,10 @@ public class ChainBuffer implements Buffer {
 			markOffset = -1;
 			return this;
 		}
-		
-		byte[] b = buffers.get(bufIndex);
-		byte[] newb = Arrays.copyOf(b, bufOffset);
-		buffers.remove(bufIndex);
-		buffers.add(bufIndex, newb);
+
+		// truncate current segment without copy
+		Segment s = segments.get(bufIndex);
+		segments.set(bufIndex, s.slice(0, bufOffset));
 
 		bufIndex = baseIndex;
 		bufOffset = baseOffset;
@@ -755,4 +653,36 @@ public class ChainBuffer implements Buffer {
 		markOffset = -1;
 		return this;
 	}
-}
\ No newline at end of file
+
+	private static List<Segment> segmentsOf(Buffer buffer) {
+		if (buffer instanceof ChainBuffer)
+			return ((ChainBuffer) buffer).segments;
+
+		List<Segment> l = new ArrayList<Segment>();
+		for (byte[] b : buffer.getBuffers())
+			l.add(new Segment(b, 0, b.length));
+		return l;
+	}
+
+	private static class Segment {
+		private final byte[] array;
+		private final int offset;
+		private final int length;
+
+		public Segment(byte[] array, int offset, int length) {
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public Segment slice(int begin, int length) {
+			return new Segment(array, offset + begin, length);
+		}
+
+		public byte[] toArray() {
+			if (offset == 0 && length == array.length)
+				return array;
+			return Arrays.copyOfRange(array, offset, offset + length);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.util;
+
+/**
+ * Symmetric flow hash of ethernet frame, both directions of a flow have same
+ * hash. IPv4 packets are hashed by address pair and protocol without ports,
+ * because ports are not available in non-first fragments, and every packet of
+ * a flow including its fragments should be dispatched to same decode worker,
+ * where fragments are reassembled and tcp session is tracked. IPv6 fragments
+ * are not reassembled, so IPv6 tcp and udp packets are hashed by address pair
+ * and ports, and other IPv6 packets by address pair. Non-IP frame is hashed to
+ * 0.
+ * 
+ * Buffer position is not changed.
+ * 
+ * @author xeraph
+ */
+public class FlowHash {
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int ETHERTYPE_IPV6 = 0x86dd;
+	private static final int ETHERTYPE_VLAN = 0x8100;
+	private static final int ETHERTYPE_QINQ = 0x88a8;
+
+	private static final int TCP = 6;
+	private static final int UDP = 17;
+
+	private FlowHash() {
+	}
+
+	public static int hash(Buffer buffer) {
+		int position = buffer.position();
+		try {
+			return hashFrame(buffer);
+		} finally {
+			buffer.position(position);
+		}
+	}
+
+	private static int hashFrame(Buffer buffer) {
+		if (buffer.readableBytes() < 14)
+			return 0;
+
+		// skip destination and source mac
+		buffer.skip(12);
+		int type = buffer.getUnsignedShort();
+
+		// skip 802.1q tags
+		while (type == ETHERTYPE_VLAN || type == ETHERTYPE_QINQ) {
+			if (buffer.readableBytes() < 4)
+				return 0;
+
+			buffer.skip(2);
+			type = buffer.getUnsignedShort();
+		}
+
+		if (type == ETHERTYPE_IPV4)
+			return hashIpv4(buffer);
+		else if (type == ETHERTYPE_IPV6)
+			return hashIpv6(buffer);
+
+		return 0;
+	}
+
+	private static int hashIpv4(Buffer buffer) {
+		if (buffer.readableBytes() < 20)
+			return 0;
+
+		// skip version, ihl, tos, total length, identification, flags,
+		// fragment offset and ttl
+		buffer.skip(9);
+		int protocol = buffer.get() & 0xff;
+
+		// skip checksum
+		buffer.skip(2);
+		int source = buffer.getInt();
+		int destination = buffer.getInt();
+
+		return mix(source, destination, protocol);
+	}
+
+	private static int hashIpv6(Buffer buffer) {
+		if (buffer.readableBytes() < 40)
+			return 0;
+
+		// skip version, traffic class, flow label and payload length
+		buffer.skip(6);
+		int nextHeader = buffer.get() & 0xff;
+
+		// skip hop limit
+		buffer.skip(1);
+		int source = foldAddress(buffer);
+		int destination = foldAddress(buffer);
+
+		// extension headers are not followed, same as ipv6 decoder
+		if ((nextHeader == TCP || nextHeader == UDP) && buffer.readableBytes() >= 4) {
+			int sourcePort = buffer.getUnsignedShort();
+			int destinationPort = buffer.getUnsignedShort();
+			return mix(source * 31 + sourcePort, destination * 31 + destinationPort, nextHeader);
+		}
+
+		return mix(source, destination, 0);
+	}
+
+	private static int foldAddress(Buffer buffer) {
+		int h = 0;
+		for (int i = 0; i < 4; i++)
+			h = h * 31 + buffer.getInt();
+		return h;
+	}
+
+	private static int mix(int source, int destination, int protocol) {
+		// sum and xor do not depend on direction
+		int h = (source + destination) * 0x9e3779b1 ^ (source ^ destination) ^ protocol;
+
+		// murmur3 finalizer
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.krakenapps.pcap.decoder.arp.ArpDecoder;
+import org.krakenapps.pcap.decoder.ethernet.EthernetDecoder;
+import org.krakenapps.pcap.decoder.ethernet.EthernetType;
+import org.krakenapps.pcap.decoder.icmp.IcmpDecoder;
+import org.krakenapps.pcap.decoder.icmpv6.Icmpv6Decoder;
+import org.krakenapps.pcap.decoder.ip.InternetProtocol;
+import org.krakenapps.pcap.decoder.ip.IpDecoder;
+import org.krakenapps.pcap.decoder.ipv6.Ipv6Decoder;
+import org.krakenapps.pcap.decoder.tcp.TcpDecoder;
+import org.krakenapps.pcap.decoder.tcp.TcpPortProtocolMapper;
+import org.krakenapps.pcap.decoder.udp.UdpDecoder;
+import org.krakenapps.pcap.decoder.udp.UdpPortProtocolMapper;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decoder chain of one decode worker. Each worker has its own decoders and tcp
+ * session table, and packets of a flow are always decoded by the same worker
+ * in capture order. Processors registered to a worker are called by the worker
+ * thread only.
+ * 
+ * Capture thread enqueues packets to the bounded ring buffer of the worker,
+ * and packet is dropped if the ring buffer is full.
+ * 
+ * @author xeraph
+ */
+public class PcapDecodeWorker implements Runnable {
+	public static final int DEFAULT_QUEUE_SIZE = 8192;
+
+	// spin count before parking idle worker
+	private static final int IDLE_SPINS = 100;
+	private static final long IDLE_PARK_NANOS = 100000;
+
+	private final Logger logger = LoggerFactory.getLogger(PcapDecodeWorker.class.getName());
+	private final int id;
+	private final SpscRingBuffer<PcapPacket> queue;
+	private volatile boolean stop;
+	private Thread thread;
+
+	private EthernetDecoder eth;
+	private ArpDecoder arp;
+	private IpDecoder ip;
+	private Ipv6Decoder ipv6;
+	private IcmpDecoder icmp;
+	private Icmpv6Decoder icmpv6;
+	private TcpDecoder tcp;
+	private UdpDecoder udp;
+
+	// updated by capture thread
+	private volatile long receiveCount;
+	private volatile long dropCount;
+
+	// updated by worker thread
+	private volatile long decodeCount;
+	private volatile long errorCount;
+
+	public PcapDecodeWorker(int id) {
+		this(id, DEFAULT_QUEUE_SIZE);
+	}
+
+	public PcapDecodeWorker(int id, int queueSize) {
+		this.id = id;
+		this.queue = new SpscRingBuffer<PcapPacket>(queueSize);
+
+		eth = new EthernetDecoder();
+		arp = new ArpDecoder();
+		ip = new IpDecoder();
+		ipv6 = new Ipv6Decoder();
+		icmp = new IcmpDecoder();
+		icmpv6 = new Icmpv6Decoder();
+		tcp = new TcpDecoder(new TcpPortProtocolMapper());
+		udp = new UdpDecoder(new UdpPortProtocolMapper());
+
+		eth.register(EthernetType.IPV4, ip);
+		eth.register(EthernetType.IPV6, ipv6);
+		eth.register(EthernetType.ARP, arp);
+
+		ip.register(InternetProtocol.ICMP, icmp);
+		ip.register(InternetProtocol.UDP, udp);
+		ip.register(InternetProtocol.TCP, tcp);
+
+		ipv6.register(InternetProtocol.ICMPV6, icmpv6);
+		ipv6.register(InternetProtocol.TCP, tcp);
+		ipv6.register(InternetProtocol.UDP, udp);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Enqueues packet. Called by capture thread only.
+	 * 
+	 * @return false if packet is dropped
+	 */
+	public boolean offer(PcapPacket packet) {
+		receiveCount++;
+		if (!queue.offer(packet)) {
+			dropCount++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes packet in caller thread.
+	 */
+	public void decode(PcapPacket packet) {
+		try {
+			eth.decode(packet);
+			decodeCount++;
+		} catch (Exception e) {
+			errorCount++;
+			logger.warn("kraken-pcap: decode error", e);
+		}
+	}
+
+	public void start(String name) {
+		stop = false;
+		thread = new Thread(this, name);
+		thread.start();
+	}
+
+	/**
+	 * Stops worker after decoding queued packets.
+	 */
+	public void stop() {
+		stop = true;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	public void join() throws InterruptedException {
+		if (thread != null)
+			thread.join();
+	}
+
+	@Override
+	public void run() {
+		int idle = 0;
+		while (true) {
+			PcapPacket packet = queue.poll();
+			if (packet != null) {
+				idle = 0;
+				decode(packet);
+				continue;
+			}
+
+			if (stop)
+				break;
+
+			if (++idle < IDLE_SPINS)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+		}
+
+		logger.trace("kraken-pcap: decode worker [{}] stopped", id);
+	}
+
+	public long getReceiveCount() {
+		return receiveCount;
+	}
+
+	public long getDropCount() {
+		return dropCount;
+	}
+
+	public long getDecodeCount() {
+		return decodeCount;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public int getQueueCapacity() {
+		return queue.capacity();
+	}
+
+	public EthernetDecoder getEthernetDecoder() {
+		return eth;
+	}
+
+	public ArpDecoder getArpDecoder() {
+		return arp;
+	}
+
+	public IpDecoder getIpDecoder() {
+		return ip;
+	}
+
+	public Ipv6Decoder getIpv6Decoder() {
+		return ipv6;
+	}
+
+	public IcmpDecoder getIcmpDecoder() {
+		return icmp;
+	}
+
+	public Icmpv6Decoder getIcmpv6Decoder() {
+		return icmpv6;
+	}
+
+	public TcpDecoder getTcpDecoder() {
+		return tcp;
+	}
+
+	public UdpDecoder getUdpDecoder() {
+		return udp;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("worker %d: received=%d, dropped=%d, decoded=%d, errors=%d, queue=%d/%d", id,
+				receiveCount, dropCount, decodeCount, errorCount, queue.size(), queue.capacity());
+	}
+}
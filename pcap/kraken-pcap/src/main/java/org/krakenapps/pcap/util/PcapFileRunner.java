@@ -15,11 +15,12 @@
  */
 package org.krakenapps.pcap.util;
 
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.krakenapps.pcap.Protocol;
+import org.krakenapps.pcap.bpf.BpfProgram;
 import org.krakenapps.pcap.decoder.arp.ArpDecoder;
 import org.krakenapps.pcap.decoder.ethernet.EthernetDecoder;
 import org.krakenapps.pcap.decoder.ethernet.EthernetType;
@@ -36,14 +37,26 @@ import org.krakenapps.pcap.decoder.tcp.TcpSegmentCallback;
 import org.krakenapps.pcap.decoder.udp.UdpDecoder;
 import org.krakenapps.pcap.decoder.udp.UdpPortProtocolMapper;
 import org.krakenapps.pcap.decoder.udp.UdpProcessor;
-import org.krakenapps.pcap.file.PcapFileInputStream;
+import org.krakenapps.pcap.file.PcapIndex;
+import org.krakenapps.pcap.file.PcapIndexBlock;
+import org.krakenapps.pcap.file.PcapIndexBuilder;
+import org.krakenapps.pcap.file.PcapIndexFilter;
+import org.krakenapps.pcap.file.PcapMappedFileInputStream;
 import org.krakenapps.pcap.packet.PcapPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author mindori
  */
 public class PcapFileRunner {
+	private static final int BATCH_SIZE = 256;
+
+	private final Logger logger = LoggerFactory.getLogger(PcapFileRunner.class.getName());
 	private File dumpFile;
+	private PcapIndexFilter filter;
+	private boolean indexing;
+	private BpfProgram bpf;
 
 	private EthernetDecoder eth;
 	private ArpDecoder arp;
@@ -80,23 +93,93 @@ public class PcapFileRunner {
 	}
 
 	public void run() throws IOException {
-		PcapFileInputStream is = null;
+		// sidecar index is used only for filtered scan, if enabled
+		PcapIndex index = null;
+		if (filter != null && indexing) {
+			try {
+				index = new PcapIndexBuilder(dumpFile).update();
+			} catch (IOException e) {
+				logger.warn("kraken-pcap: cannot update pcap index of " + dumpFile.getAbsolutePath(), e);
+			}
+		}
+
+		PcapMappedFileInputStream is = null;
 		try {
-			is = new PcapFileInputStream(dumpFile);
-			while (true) {
-				PcapPacket packet = is.getPacket();
-				if (packet == null)
-					break;
-				eth.decode(packet);
+			is = new PcapMappedFileInputStream(dumpFile);
+			is.setFilter(bpf);
+			if (index != null) {
+				for (PcapIndexBlock block : index.find(filter)) {
+					is.seek(block.getOffset());
+					decode(is, block.getEndOffset());
+				}
+
+				// packets after last block are not indexed yet
+				is.seek(index.getIndexedOffset());
 			}
-		} catch (EOFException e) {
-			// do nothing
+
+			decode(is, Long.MAX_VALUE);
 		} finally {
 			if (is != null)
 				is.close();
 		}
 	}
 
+	private void decode(PcapMappedFileInputStream is, long limit) throws IOException {
+		while (true) {
+			List<PcapPacket> packets = is.getPackets(BATCH_SIZE, limit);
+			if (packets.isEmpty())
+				break;
+
+			for (PcapPacket packet : packets)
+				if (filter == null || filter.matches(packet))
+					eth.decode(packet);
+		}
+	}
+
+	public PcapIndexFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Decodes matched packets only. Every packet is checked unless indexing
+	 * is enabled.
+	 */
+	public void setFilter(PcapIndexFilter filter) {
+		this.filter = filter;
+	}
+
+	public boolean isIndexing() {
+		return indexing;
+	}
+
+	/**
+	 * Builds or updates sidecar index of dump file before filtered scan, and
+	 * reads matched blocks only. Index file is written next to dump file.
+	 * Disabled by default.
+	 */
+	public void setIndexing(boolean indexing) {
+		this.indexing = indexing;
+	}
+
+	public BpfProgram getBpfFilter() {
+		return bpf;
+	}
+
+	/**
+	 * Decodes packets matched by tcpdump filter expression only. Rejected
+	 * packets are skipped before copy and decode. Null or empty expression
+	 * clears filter.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if expression is invalid
+	 */
+	public void setBpfFilter(String expression) {
+		if (expression == null || expression.trim().isEmpty())
+			bpf = null;
+		else
+			bpf = BpfProgram.compile(expression);
+	}
+
 	public void setTcpProcessor(Protocol protocol, TcpProcessor processor) {
 		tcp.getProtocolMapper().register(protocol, processor);
 	}
@@ -16,24 +16,28 @@
 package org.krakenapps.pcap.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+import org.krakenapps.pcap.PcapOutputStream;
 import org.krakenapps.pcap.Protocol;
 import org.krakenapps.pcap.decoder.arp.ArpDecoder;
 import org.krakenapps.pcap.decoder.ethernet.EthernetDecoder;
-import org.krakenapps.pcap.decoder.ethernet.EthernetType;
 import org.krakenapps.pcap.decoder.ethernet.MacAddress;
 import org.krakenapps.pcap.decoder.icmp.IcmpDecoder;
 import org.krakenapps.pcap.decoder.icmpv6.Icmpv6Decoder;
 import org.krakenapps.pcap.decoder.icmpv6.Icmpv6Processor;
-import org.krakenapps.pcap.decoder.ip.InternetProtocol;
 import org.krakenapps.pcap.decoder.ip.IpDecoder;
+import org.krakenapps.pcap.decoder.ip.IpFragmentBudget;
+import org.krakenapps.pcap.decoder.ip.IpReassembler;
 import org.krakenapps.pcap.decoder.ipv6.Ipv6Decoder;
 import org.krakenapps.pcap.decoder.tcp.TcpDecoder;
-import org.krakenapps.pcap.decoder.tcp.TcpPortProtocolMapper;
 import org.krakenapps.pcap.decoder.tcp.TcpProcessor;
 import org.krakenapps.pcap.decoder.tcp.TcpSegmentCallback;
+import org.krakenapps.pcap.decoder.tcp.TcpSession;
 import org.krakenapps.pcap.decoder.udp.UdpDecoder;
-import org.krakenapps.pcap.decoder.udp.UdpPortProtocolMapper;
 import org.krakenapps.pcap.decoder.udp.UdpProcessor;
 import org.krakenapps.pcap.live.PcapDevice;
 import org.krakenapps.pcap.live.PcapDeviceMetadata;
@@ -42,6 +46,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Captures packets from the device and decodes them. With one worker, packets
+ * are decoded in the capture thread. With N workers, packets are hashed by
+ * symmetric flow hash onto N decode worker threads, and each worker has its
+ * own decoder chain and tcp session table. IP fragment reassemblers of workers
+ * share one fragment memory budget.
+ * 
+ * Processors registered by runner methods are shared by all workers, so they
+ * should be thread-safe if there are multiple workers. Register per-worker
+ * processors to decoders of each worker instead. Decoder getters of runner
+ * return decoders of the first worker.
+ * 
  * @author delmitz
  */
 public class PcapLiveRunner implements Runnable {
@@ -49,41 +64,42 @@ public class PcapLiveRunner implements Runnable {
 			.getName());
 	private volatile boolean stop = false;
 	private PcapDevice device;
-
-	private EthernetDecoder eth;
-	private ArpDecoder arp;
-	private IpDecoder ip;
-	private Ipv6Decoder ipv6;
-	private IcmpDecoder icmp;
-	private Icmpv6Decoder icmpv6;
-	private TcpDecoder tcp;
-	private UdpDecoder udp;
+	private PcapDecodeWorker[] workers;
+	private IpFragmentBudget fragmentBudget;
+	private volatile PcapOutputStream captureWriter;
 
 	public PcapLiveRunner(PcapDevice device) {
-		this.device = device;
-		eth = new EthernetDecoder();
-		arp = new ArpDecoder();
-		ip = new IpDecoder();
-		ipv6 = new Ipv6Decoder();
-		icmp = new IcmpDecoder();
-		icmpv6 = new Icmpv6Decoder();
-		tcp = new TcpDecoder(new TcpPortProtocolMapper());
-		udp = new UdpDecoder(new UdpPortProtocolMapper());
+		this(device, 1);
+	}
 
-		eth.register(EthernetType.IPV4, ip);
-		eth.register(EthernetType.IPV6, ipv6);
-		eth.register(EthernetType.ARP, arp);
+	public PcapLiveRunner(PcapDevice device, int workerCount) {
+		this(device, workerCount, PcapDecodeWorker.DEFAULT_QUEUE_SIZE);
+	}
 
-		ip.register(InternetProtocol.ICMP, icmp);
-		ip.register(InternetProtocol.UDP, udp);
-		ip.register(InternetProtocol.TCP, tcp);
+	/**
+	 * @param workerCount
+	 *            the decode worker thread count, packets are decoded in
+	 *            capture thread if 1
+	 * @param queueSize
+	 *            the ring buffer size of each worker
+	 */
+	public PcapLiveRunner(PcapDevice device, int workerCount, int queueSize) {
+		if (workerCount <= 0)
+			throw new IllegalArgumentException("worker count should be positive: " + workerCount);
 
-		ipv6.register(InternetProtocol.ICMPV6, icmpv6);
-		ipv6.register(InternetProtocol.TCP, tcp);
-		ipv6.register(InternetProtocol.UDP, udp);
+		this.device = device;
+		this.workers = new PcapDecodeWorker[workerCount];
+		this.fragmentBudget = new IpFragmentBudget();
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new PcapDecodeWorker(i, queueSize);
+			workers[i].getIpDecoder().getReassembler().setBudget(fragmentBudget);
+		}
 	}
 
 	public void run() {
+		if (workers.length > 1)
+			startWorkers();
+
 		try {
 			while (true) {
 				try {
@@ -91,8 +107,10 @@ public class PcapLiveRunner implements Runnable {
 						break;
 
 					PcapPacket packet = device.getPacket();
-					if (packet != null)
-						eth.decode(packet);
+					if (packet != null) {
+						capture(packet);
+						dispatch(packet);
+					}
 				} catch (IOException e) {
 					if (e.getMessage().equalsIgnoreCase("Timeout"))
 						continue;
@@ -106,6 +124,9 @@ public class PcapLiveRunner implements Runnable {
 			logger.trace("pcap live runner failed", e);
 		} finally {
 			closeDevice();
+			if (workers.length > 1)
+				stopWorkers();
+			closeCaptureWriter();
 		}
 
 		PcapDeviceMetadata metadata = device.getMetadata();
@@ -115,73 +136,231 @@ public class PcapLiveRunner implements Runnable {
 				macAddress, desc);
 	}
 
+	/**
+	 * Reads and decodes one packet in caller thread. Worker threads are not
+	 * used, but packet is decoded by decoders of the worker which owns its
+	 * flow, so that flow state is kept in one worker.
+	 */
 	public void runOnce() throws IOException {
 		PcapPacket packet = device.getPacket();
-		eth.decode(packet);
+		if (packet == null)
+			return;
+
+		capture(packet);
+		getWorker(packet).getEthernetDecoder().decode(packet);
+	}
+
+	private void capture(PcapPacket packet) {
+		PcapOutputStream writer = captureWriter;
+		if (writer == null || packet == null)
+			return;
+
+		try {
+			writer.write(packet);
+		} catch (IOException e) {
+			logger.warn("kraken-pcap: cannot write captured packet", e);
+		}
+	}
+
+	private void closeCaptureWriter() {
+		PcapOutputStream writer = captureWriter;
+		captureWriter = null;
+		if (writer == null)
+			return;
+
+		try {
+			writer.close();
+		} catch (IOException e) {
+			logger.warn("kraken-pcap: cannot close capture writer", e);
+		}
+	}
+
+	private void dispatch(PcapPacket packet) {
+		if (workers.length == 1) {
+			workers[0].decode(packet);
+			return;
+		}
+
+		getWorker(packet).offer(packet);
+	}
+
+	/**
+	 * Returns the worker which owns flow of packet. Every packet of a flow,
+	 * including ip fragments, is decoded by same worker.
+	 */
+	public PcapDecodeWorker getWorker(PcapPacket packet) {
+		if (workers.length == 1)
+			return workers[0];
+
+		int hash = FlowHash.hash(packet.getPacketData());
+		return workers[(hash & 0x7fffffff) % workers.length];
+	}
+
+	private void startWorkers() {
+		String name = device.getMetadata() != null ? device.getMetadata().getName() : "";
+		for (PcapDecodeWorker worker : workers)
+			worker.start("Pcap Decoder " + name + " #" + worker.getId());
+	}
+
+	private void stopWorkers() {
+		for (PcapDecodeWorker worker : workers)
+			worker.stop();
+
+		for (PcapDecodeWorker worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	public List<PcapDecodeWorker> getWorkers() {
+		return Collections.unmodifiableList(Arrays.asList(workers));
+	}
+
+	/**
+	 * Returns tcp sessions of all workers.
+	 */
+	public List<TcpSession> getCurrentTcpSessions() {
+		List<TcpSession> sessions = new ArrayList<TcpSession>();
+		for (PcapDecodeWorker worker : workers)
+			sessions.addAll(worker.getTcpDecoder().getCurrentSessions());
+		return sessions;
+	}
+
+	/**
+	 * Returns ip fragment memory budget shared by workers.
+	 */
+	public IpFragmentBudget getFragmentBudget() {
+		return fragmentBudget;
+	}
+
+	/**
+	 * Returns ip fragment reassemblers of all workers. Counters can be read
+	 * while running.
+	 */
+	public List<IpReassembler> getIpReassemblers() {
+		List<IpReassembler> reassemblers = new ArrayList<IpReassembler>();
+		for (PcapDecodeWorker worker : workers)
+			reassemblers.add(worker.getIpDecoder().getReassembler());
+		return reassemblers;
 	}
 
 	public PcapDevice getDevice() {
 		return device;
 	}
 
+	public PcapOutputStream getCaptureWriter() {
+		return captureWriter;
+	}
+
+	/**
+	 * Writes every captured packet to writer in capture thread before decode,
+	 * or stops writing if writer is null. Writer should not block, e.g.
+	 * RotatingPcapWriter. Writer is closed when runner stops.
+	 */
+	public void setCaptureWriter(PcapOutputStream writer) {
+		this.captureWriter = writer;
+	}
+
+	/**
+	 * Registers processor to every worker. Same processor instance is called
+	 * by all worker threads, so it should be thread-safe if there are multiple
+	 * workers. Register to tcp decoder of each worker for per-worker state.
+	 */
 	public void setTcpProcessor(Protocol protocol, TcpProcessor processor) {
-		tcp.getProtocolMapper().register(protocol, processor);
+		for (PcapDecodeWorker worker : workers)
+			worker.getTcpDecoder().getProtocolMapper().register(protocol, processor);
 	}
 
 	public void unsetTcpProcessor(Protocol protocol, TcpProcessor processor) {
-		tcp.getProtocolMapper().unregister(protocol, processor);
+		for (PcapDecodeWorker worker : workers)
+			worker.getTcpDecoder().getProtocolMapper().unregister(protocol, processor);
 	}
 
+	/**
+	 * Registers processor to every worker. Processor should be thread-safe if
+	 * there are multiple workers.
+	 * 
+	 * @see #setTcpProcessor(Protocol, TcpProcessor)
+	 */
 	public void setUdpProcessor(Protocol protocol, UdpProcessor processor) {
-		udp.getProtocolMapper().register(protocol, processor);
+		for (PcapDecodeWorker worker : workers)
+			worker.getUdpDecoder().getProtocolMapper().register(protocol, processor);
 	}
 
 	public void unsetUdpProcessor(Protocol protocol, UdpProcessor processor) {
-		udp.getProtocolMapper().unregister(protocol, processor);
+		for (PcapDecodeWorker worker : workers)
+			worker.getUdpDecoder().getProtocolMapper().unregister(protocol, processor);
 	}
 
 	public void addTcpCallback(TcpSegmentCallback callback) {
-		tcp.registerSegmentCallback(callback);
+		for (PcapDecodeWorker worker : workers)
+			worker.getTcpDecoder().registerSegmentCallback(callback);
 	}
 
 	public void removeTcpCallback(TcpSegmentCallback callback) {
-		tcp.unregisterSegmentCallback(callback);
+		for (PcapDecodeWorker worker : workers)
+			worker.getTcpDecoder().unregisterSegmentCallback(callback);
+	}
+
+	public void addTcpPacketCallback(TcpSegmentCallback callback) {
+		for (PcapDecodeWorker worker : workers)
+			worker.getTcpDecoder().registerPacketCallback(callback);
+	}
+
+	public void removeTcpPacketCallback(TcpSegmentCallback callback) {
+		for (PcapDecodeWorker worker : workers)
+			worker.getTcpDecoder().unregisterPacketCallback(callback);
+	}
+
+	public void addUdpCallback(UdpProcessor callback) {
+		for (PcapDecodeWorker worker : workers)
+			worker.getUdpDecoder().registerUdpProcessor(callback);
+	}
+
+	public void removeUdpCallback(UdpProcessor callback) {
+		for (PcapDecodeWorker worker : workers)
+			worker.getUdpDecoder().unregisterUdpProcessor(callback);
 	}
 
 	public void addIcmpv6Processor(Icmpv6Processor processor) {
-		icmpv6.register(processor);
+		for (PcapDecodeWorker worker : workers)
+			worker.getIcmpv6Decoder().register(processor);
 	}
 
 	public EthernetDecoder getEthernetDecoder() {
-		return eth;
+		return workers[0].getEthernetDecoder();
 	}
 
 	public ArpDecoder getArpDecoder() {
-		return arp;
+		return workers[0].getArpDecoder();
 	}
 
 	public IpDecoder getIpDecoder() {
-		return ip;
+		return workers[0].getIpDecoder();
 	}
 
 	public Ipv6Decoder getIpv6Decoder() {
-		return ipv6;
+		return workers[0].getIpv6Decoder();
 	}
 
 	public IcmpDecoder getIcmpDecoder() {
-		return icmp;
+		return workers[0].getIcmpDecoder();
 	}
 
 	public Icmpv6Decoder getIcmpv6Decoder() {
-		return icmpv6;
+		return workers[0].getIcmpv6Decoder();
 	}
 
 	public TcpDecoder getTcpDecoder() {
-		return tcp;
+		return workers[0].getTcpDecoder();
 	}
 
 	public UdpDecoder getUdpDecoder() {
-		return udp;
+		return workers[0].getUdpDecoder();
 	}
 
 	public void stop() {
@@ -19,6 +19,7 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 
+import org.krakenapps.pcap.bpf.BpfProgram;
 import org.krakenapps.pcap.file.PcapFileInputStream;
 import org.krakenapps.pcap.file.PcapFileOutputStream;
 import org.krakenapps.pcap.packet.PcapPacket;
@@ -44,10 +45,31 @@ public class PcapMerger {
 	 *             related problems.
 	 */
 	public static void merge(File to, File from) throws IOException {
+		merge(to, from, (String) null);
+	}
+
+	/**
+	 * Appends packets matched by tcpdump filter expression.
+	 * 
+	 * @param to
+	 *            the target pcap file. pcap data will be appended to this file.
+	 * @param from
+	 *            the source pcap file.
+	 * @param filter
+	 *            the tcpdump filter expression, or null for all packets
+	 * @throws IOException
+	 *             if there is no file, no access permission, or other io
+	 *             related problems.
+	 * @throws IllegalArgumentException
+	 *             if filter expression is invalid
+	 */
+	public static void merge(File to, File from, String filter) throws IOException {
+		BpfProgram program = compile(filter);
 		PcapFileInputStream is = null;
 		PcapFileOutputStream os = null;
 		try {
 			is = new PcapFileInputStream(from);
+			is.setFilter(program);
 			os = new PcapFileOutputStream(to, is.getGlobalHeader());
 
 			writePacket(is, os);
@@ -74,6 +96,20 @@ public class PcapMerger {
 	 *             permissions, or anything else.
 	 */
 	public static void merge(File output, File file1, File file2) throws IOException {
+		merge(output, file1, file2, null);
+	}
+
+	/**
+	 * Merge packets of file1 and file2 matched by tcpdump filter expression,
+	 * and write to output file.
+	 * 
+	 * @param filter
+	 *            the tcpdump filter expression, or null for all packets
+	 * @throws IllegalArgumentException
+	 *             if filter expression is invalid
+	 */
+	public static void merge(File output, File file1, File file2, String filter) throws IOException {
+		BpfProgram program = compile(filter);
 		PcapFileInputStream is1 = null;
 		PcapFileInputStream is2 = null;
 		PcapFileOutputStream os = null;
@@ -81,6 +117,8 @@ public class PcapMerger {
 
 			is1 = new PcapFileInputStream(file1);
 			is2 = new PcapFileInputStream(file2);
+			is1.setFilter(program);
+			is2.setFilter(program);
 			os = new PcapFileOutputStream(output, is1.getGlobalHeader());
 
 			writePacket(is1, os);
@@ -92,6 +130,12 @@ public class PcapMerger {
 		}
 	}
 
+	private static BpfProgram compile(String filter) {
+		if (filter == null || filter.trim().isEmpty())
+			return null;
+		return BpfProgram.compile(filter);
+	}
+
 	private static void writePacket(PcapFileInputStream is, PcapFileOutputStream os) throws IOException {
 		try {
 			while (true) {
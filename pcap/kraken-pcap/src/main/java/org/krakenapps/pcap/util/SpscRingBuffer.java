@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue for exactly one producer thread and one consumer thread.
+ * Capacity is rounded up to power of two. Head and tail are published by
+ * lazySet, so offer() and poll() never block and never allocate.
+ * 
+ * @author xeraph
+ */
+public class SpscRingBuffer<E> {
+	private final Object[] buffer;
+	private final int mask;
+
+	// next slot to poll, written by consumer only
+	private final AtomicLong head = new AtomicLong();
+
+	// next slot to offer, written by producer only
+	private final AtomicLong tail = new AtomicLong();
+
+	// last seen head of producer, and last seen tail of consumer
+	private long headCache;
+	private long tailCache;
+
+	public SpscRingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("invalid ring buffer capacity: " + capacity);
+
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Called by producer thread only.
+	 * 
+	 * @return false if ring buffer is full
+	 */
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+
+		long t = tail.get();
+		if (t - headCache >= buffer.length) {
+			headCache = head.get();
+			if (t - headCache >= buffer.length)
+				return false;
+		}
+
+		buffer[(int) t & mask] = e;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Called by consumer thread only.
+	 * 
+	 * @return the oldest element, or null if ring buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if (h >= tailCache) {
+			tailCache = tail.get();
+			if (h >= tailCache)
+				return null;
+		}
+
+		int index = (int) h & mask;
+		E e = (E) buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns approximate size if it is called by neither producer nor
+	 * consumer.
+	 */
+	public int size() {
+		long h = head.get();
+		long size = tail.get() - h;
+		return (int) Math.max(0, Math.min(size, buffer.length));
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+}
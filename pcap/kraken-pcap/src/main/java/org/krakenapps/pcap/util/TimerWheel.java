@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hashed timer wheel driven by packet timestamp. Entry is not moved between
+ * slots when its deadline is extended, it is rescheduled when its slot is
+ * visited before its deadline. Entry far in the future is scheduled to last
+ * slot of current round, and rescheduled from there. Removed entry and stale
+ * entry of rescheduled one are left in slot, and skipped when slot is
+ * visited.
+ * 
+ * Wheel is not thread-safe, owner should guard it.
+ * 
+ * @author xeraph
+ */
+public class TimerWheel<T extends TimerWheel.Entry> {
+	public interface Entry {
+		/**
+		 * Returns deadline in milliseconds
+		 */
+		long getExpireTime();
+
+		/**
+		 * Returns scheduled tick, or -1 if entry is not scheduled yet
+		 */
+		long getWheelTick();
+
+		void setWheelTick(long tick);
+
+		boolean isRemoved();
+	}
+
+	// tick of entry scheduled before first advance
+	private static final long PENDING = Long.MAX_VALUE;
+
+	private final int size;
+	private final long tickMillis;
+	private List<List<T>> slots;
+	private List<T> pending;
+	private long currentTick = -1;
+
+	/**
+	 * @param size
+	 *            the slot count, deadline beyond one round is rescheduled
+	 * @param tickMillis
+	 *            the tick interval in milliseconds
+	 */
+	public TimerWheel(int size, long tickMillis) {
+		if (size < 2 || tickMillis <= 0)
+			throw new IllegalArgumentException("invalid timer wheel size " + size + ", tick " + tickMillis);
+
+		this.size = size;
+		this.tickMillis = tickMillis;
+		this.pending = new ArrayList<T>();
+
+		slots = new ArrayList<List<T>>(size);
+		for (int i = 0; i < size; i++)
+			slots.add(new ArrayList<T>());
+	}
+
+	/**
+	 * Schedules new entry, or moves entry to earlier slot if its deadline is
+	 * moved before its slot. Extended deadline is handled when its slot is
+	 * visited.
+	 */
+	public void schedule(T entry) {
+		// current tick is not known until first advance
+		if (currentTick < 0) {
+			if (entry.getWheelTick() != PENDING) {
+				entry.setWheelTick(PENDING);
+				pending.add(entry);
+			}
+			return;
+		}
+
+		long tick = getTick(entry);
+		if (entry.getWheelTick() >= 0 && entry.getWheelTick() <= tick)
+			return;
+
+		add(entry, tick);
+	}
+
+	/**
+	 * Visits slots between last tick and current tick, and returns entries
+	 * which are expired. Entries which are not expired yet are rescheduled
+	 * after current tick.
+	 * 
+	 * @param now
+	 *            packet timestamp in milliseconds
+	 * @return the expired entries, or empty list
+	 */
+	public List<T> advance(long now) {
+		long tick = now / tickMillis;
+		if (currentTick < 0) {
+			currentTick = tick;
+			for (T e : pending)
+				if (!e.isRemoved())
+					add(e, getTick(e));
+
+			pending = null;
+		}
+
+		if (tick <= currentTick)
+			return Collections.emptyList();
+
+		List<T> expired = null;
+		List<T> alive = null;
+
+		// every entry is scheduled within one round from last tick
+		long end = Math.min(tick, currentTick + size);
+		for (long t = currentTick + 1; t <= end; t++) {
+			int index = (int) (t % size);
+			List<T> slot = slots.get(index);
+			if (slot.isEmpty())
+				continue;
+
+			slots.set(index, new ArrayList<T>());
+			for (T e : slot) {
+				// removed or moved to other tick
+				if (e.isRemoved() || e.getWheelTick() != t)
+					continue;
+
+				// other copy of entry in same tick is stale
+				e.setWheelTick(-1);
+
+				if (e.getExpireTime() > now) {
+					if (alive == null)
+						alive = new ArrayList<T>();
+					alive.add(e);
+					continue;
+				}
+
+				if (expired == null)
+					expired = new ArrayList<T>();
+				expired.add(e);
+			}
+		}
+
+		currentTick = tick;
+		if (alive != null)
+			for (T e : alive)
+				add(e, getTick(e));
+
+		if (expired == null)
+			return Collections.emptyList();
+
+		return expired;
+	}
+
+	private long getTick(T entry) {
+		long tick = Math.max(entry.getExpireTime() / tickMillis, currentTick + 1);
+		return Math.min(tick, currentTick + size - 1);
+	}
+
+	private void add(T entry, long tick) {
+		entry.setWheelTick(tick);
+		slots.get((int) (tick % size)).add(entry);
+	}
+}
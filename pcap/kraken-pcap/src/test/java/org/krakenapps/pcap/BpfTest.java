@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.krakenapps.pcap.bpf.BpfProgram;
+
+public class BpfTest {
+	private byte[] tcp4 = ipv4(6, "10.0.0.1", "192.168.1.2", 1234, 80);
+	private byte[] udp4 = ipv4(17, "10.0.0.1", "8.8.8.8", 5353, 53);
+	private byte[] tcp6 = ipv6(6, 40000, 443);
+	private byte[] arp = arp();
+
+	@Test
+	public void testProtocol() {
+		assertMatch("", tcp4, udp4, tcp6, arp);
+		assertMatch("ip", tcp4, udp4);
+		assertMatch("ip6", tcp6);
+		assertMatch("arp", arp);
+		assertMatch("tcp", tcp4, tcp6);
+		assertMatch("udp", udp4);
+		assertMatch("ip proto 17", udp4);
+		assertMatch("ether proto 0x0806", arp);
+		assertMatch("not tcp", udp4, arp);
+	}
+
+	@Test
+	public void testHostAndNet() {
+		assertMatch("host 10.0.0.1", tcp4, udp4, arp);
+		assertMatch("ip host 10.0.0.1", tcp4, udp4);
+		assertMatch("src host 10.0.0.1 and dst 8.8.8.8", udp4);
+		assertMatch("dst host 10.0.0.1", arp);
+		assertMatch("net 192.168.0.0/16", tcp4);
+		assertMatch("dst net 192.168", tcp4);
+		assertMatch("host 2001:db8::1", tcp6);
+		assertMatch("ip6 net 2001:db8::/32", tcp6);
+		assertMatch("ether src 00:11:22:33:44:55", tcp4, udp4, tcp6, arp);
+		assertMatch("ether dst ff:ff:ff:ff:ff:ff", arp);
+	}
+
+	@Test
+	public void testPort() {
+		assertMatch("port 80", tcp4);
+		assertMatch("tcp port 80 or 443", tcp4, tcp6);
+		assertMatch("udp dst port 53", udp4);
+		assertMatch("src port 1234", tcp4);
+		assertMatch("portrange 50-500", tcp4, udp4, tcp6);
+		assertMatch("(tcp or udp) and not port 443", tcp4, udp4);
+		assertMatch("ip6 && !port 80", tcp6);
+		assertMatch("less 54", tcp4, udp4, arp);
+		assertMatch("greater 60", tcp6);
+
+		// non-first fragment has no port
+		byte[] fragment = ipv4(6, "10.0.0.1", "192.168.1.2", 1234, 80);
+		fragment[21] = 10;
+		assertFalse(BpfProgram.compile("port 80").matches(fragment, 0, fragment.length, fragment.length));
+		assertTrue(BpfProgram.compile("tcp").matches(fragment, 0, fragment.length, fragment.length));
+	}
+
+	@Test
+	public void testByteBuffer() {
+		BpfProgram p = BpfProgram.compile("tcp dst port 80");
+		ByteBuffer bb = ByteBuffer.allocate(tcp4.length + 16);
+		bb.position(16);
+		bb.put(tcp4);
+		assertTrue(p.matches(bb, 16, tcp4.length, tcp4.length));
+
+		// truncated packet is rejected
+		assertFalse(p.matches(tcp4, 0, 30, tcp4.length));
+	}
+
+	@Test
+	public void testInvalidExpression() {
+		String[] invalid = { "tcp port", "host", "port 80 and", "(tcp", "host example.com", "port 70000",
+				"ip6 host 10.0.0.1", "tcp ) " };
+		for (String s : invalid) {
+			try {
+				BpfProgram.compile(s);
+				throw new AssertionError("should fail: " + s);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidProgram() {
+		// unused bits and undefined operations are rejected like kernel does
+		int[] invalid = { BpfProgram.LD | BpfProgram.H | BpfProgram.IMM, BpfProgram.LD | BpfProgram.B | BpfProgram.LEN,
+				BpfProgram.LDX | BpfProgram.ABS, BpfProgram.LDX | BpfProgram.H | BpfProgram.MSH,
+				BpfProgram.ST | BpfProgram.H, BpfProgram.ALU | 0xb0, BpfProgram.ALU | BpfProgram.NEG | BpfProgram.X,
+				BpfProgram.JMP | 0x50, BpfProgram.JMP | BpfProgram.JA | BpfProgram.X, BpfProgram.RET | BpfProgram.X,
+				BpfProgram.MISC | 0x40, 0x10000 | BpfProgram.RET };
+		for (int c : invalid) {
+			try {
+				new BpfProgram(new int[] { c, BpfProgram.RET | BpfProgram.K }, new int[2], new int[2], new int[2]);
+				throw new AssertionError("should fail: 0x" + Integer.toHexString(c));
+			} catch (IllegalArgumentException e) {
+			}
+		}
+
+		try {
+			int mod = BpfProgram.ALU | BpfProgram.MOD | BpfProgram.K;
+			new BpfProgram(new int[] { mod, BpfProgram.RET | BpfProgram.A }, new int[2], new int[2], new int[2]);
+			throw new AssertionError("should fail: modulo by zero");
+		} catch (IllegalArgumentException e) {
+		}
+
+		// valid program: ldx 4*([14]&0xf); txa; mod #3; ret a
+		int[] code = { BpfProgram.LDX | BpfProgram.B | BpfProgram.MSH, BpfProgram.MISC | BpfProgram.TXA,
+				BpfProgram.ALU | BpfProgram.MOD | BpfProgram.K, BpfProgram.RET | BpfProgram.A };
+		BpfProgram p = new BpfProgram(code, new int[4], new int[4], new int[] { 14, 0, 3, 0 });
+		assertEquals(20 % 3, p.run(ByteBuffer.wrap(tcp4), 0, tcp4.length, tcp4.length));
+	}
+
+	private void assertMatch(String expression, byte[]... expected) {
+		BpfProgram p = BpfProgram.compile(expression);
+		byte[][] all = new byte[][] { tcp4, udp4, tcp6, arp };
+		for (byte[] b : all) {
+			boolean match = false;
+			for (byte[] e : expected)
+				match |= e == b;
+
+			assertEquals(expression + "\n" + p, match, p.matches(b, 0, b.length, b.length));
+		}
+	}
+
+	private static byte[] ipv4(int proto, String src, String dst, int srcPort, int dstPort) {
+		ByteBuffer bb = ByteBuffer.allocate(14 + 20 + 20);
+		ethernet(bb, 0x0800, false);
+		bb.put((byte) 0x45).put((byte) 0).putShort((short) 40).putInt(0);
+		bb.put((byte) 64).put((byte) proto).putShort((short) 0);
+		bb.put(ip(src)).put(ip(dst));
+		bb.putShort((short) srcPort).putShort((short) dstPort);
+		return bb.array();
+	}
+
+	private static byte[] ipv6(int next, int srcPort, int dstPort) {
+		ByteBuffer bb = ByteBuffer.allocate(14 + 40 + 20);
+		ethernet(bb, 0x86dd, false);
+		bb.putInt(0x60000000).putShort((short) 20).put((byte) next).put((byte) 64);
+		bb.putInt(0x20010db8).putInt(0).putInt(0).putInt(1);
+		bb.putInt(0x20010db8).putInt(0).putInt(0).putInt(2);
+		bb.putShort((short) srcPort).putShort((short) dstPort);
+		return bb.array();
+	}
+
+	private static byte[] arp() {
+		ByteBuffer bb = ByteBuffer.allocate(14 + 28);
+		ethernet(bb, 0x0806, true);
+		bb.putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4).putShort((short) 1);
+		bb.put(new byte[] { 0, 0x11, 0x22, 0x33, 0x44, 0x55 }).put(ip("10.0.0.2"));
+		bb.put(new byte[6]).put(ip("10.0.0.1"));
+		return bb.array();
+	}
+
+	private static void ethernet(ByteBuffer bb, int type, boolean broadcast) {
+		byte b = (byte) (broadcast ? 0xff : 0x66);
+		bb.put(new byte[] { b, b, b, b, b, b });
+		bb.put(new byte[] { 0, 0x11, 0x22, 0x33, 0x44, 0x55 });
+		bb.putShort((short) type);
+	}
+
+	private static byte[] ip(String s) {
+		String[] t = s.split("\\.");
+		byte[] b = new byte[4];
+		for (int i = 0; i < 4; i++)
+			b[i] = (byte) Integer.parseInt(t[i]);
+		return b;
+	}
+}
@@ -1685,4 +1685,41 @@ public class ChainBufferTest {
 		assertEquals(22, buffer.readableBytes());
 		assertEquals(5, buffer.get());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testSlice() {
+		byte[] b = new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		ChainBuffer buffer = new ChainBuffer(b, 2, 6);
+		assertEquals(6, buffer.readableBytes());
+		assertEquals(0x02030405, buffer.getInt());
+		assertEquals(0x0607, buffer.getShort());
+		assertTrue(buffer.isEOB());
+
+		// shared, not copied
+		assertSame(b, buffer.getByteBuffers().get(0).array());
+		assertEquals(2, buffer.getByteBuffers().get(0).position());
+		assertArrayEquals(new byte[] { 2, 3, 4, 5, 6, 7 }, buffer.getBuffers().get(0));
+	}
+
+	@Test
+	public void testSharedAddLast() {
+		Buffer buffer = initBuffer();
+		buffer.skip(3);
+
+		// 4, 5 | 6, 7, 8, 9 | 10
+		ChainBuffer part = new ChainBuffer();
+		part.addLast(buffer, 7);
+		assertEquals(3, part.getByteBuffers().size());
+		assertEquals(7, part.readableBytes());
+		assertEquals(3, buffer.position());
+
+		byte[] b = new byte[7];
+		part.gets(b);
+		assertArrayEquals(new byte[] { 4, 5, 6, 7, 8, 9, 10 }, b);
+
+		Buffer dup = part.duplicate();
+		dup.rewind();
+		assertEquals(4, dup.get());
+		assertTrue(part.isEOB());
+	}
+}
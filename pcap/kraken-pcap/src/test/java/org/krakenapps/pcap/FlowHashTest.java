@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.krakenapps.pcap.decoder.ip.InternetProtocol;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.ChainBuffer;
+import org.krakenapps.pcap.util.FlowHash;
+import org.krakenapps.pcap.util.SpscRingBuffer;
+
+public class FlowHashTest {
+	@Test
+	public void testSymmetricHash() {
+		Buffer request = frame(1, 40000, 2, 80, 0);
+		Buffer response = frame(2, 80, 1, 40000, 0);
+		Buffer other = frame(1, 40000, 3, 80, 0);
+
+		assertEquals(FlowHash.hash(request), FlowHash.hash(response));
+		assertFalse(FlowHash.hash(request) == FlowHash.hash(other));
+
+		// position should not be changed
+		assertEquals(0, request.position());
+	}
+
+	@Test
+	public void testFragmentHash() {
+		// fragments and other packets of flow have same hash
+		Buffer first = frame(1, 40000, 2, 80, 0x2000);
+		Buffer last = frame(1, 0, 2, 0, 0x0010);
+		Buffer whole = frame(2, 80, 1, 40000, 0);
+		assertEquals(FlowHash.hash(first), FlowHash.hash(last));
+		assertEquals(FlowHash.hash(first), FlowHash.hash(whole));
+	}
+
+	@Test
+	public void testIpv6Hash() {
+		// tcp and udp flows between same hosts are spread by ports
+		Buffer request = frame6(1, 40000, 2, 80, 6);
+		Buffer response = frame6(2, 80, 1, 40000, 6);
+		Buffer other = frame6(1, 40001, 2, 80, 6);
+		assertEquals(FlowHash.hash(request), FlowHash.hash(response));
+		assertFalse(FlowHash.hash(request) == FlowHash.hash(other));
+		assertEquals(FlowHash.hash(frame6(1, 53, 2, 5353, 17)), FlowHash.hash(frame6(2, 5353, 1, 53, 17)));
+
+		// fragment header hides ports, so address pair is used
+		assertEquals(FlowHash.hash(frame6(1, 40000, 2, 80, 44)), FlowHash.hash(frame6(2, 1, 1, 2, 44)));
+		assertEquals(0, request.position());
+	}
+
+	@Test
+	public void testRingBuffer() {
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<Integer>(3);
+		assertEquals(4, ring.capacity());
+
+		for (int i = 0; i < 4; i++)
+			assertTrue(ring.offer(i));
+
+		assertFalse(ring.offer(4));
+		assertEquals(4, ring.size());
+
+		for (int i = 0; i < 4; i++)
+			assertEquals(Integer.valueOf(i), ring.poll());
+
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+	}
+
+	private Buffer frame(int src, int srcPort, int dst, int dstPort, int fragment) {
+		byte[] segment = RawPackets.tcp(srcPort, dstPort, 0, 0, 0, 0);
+		byte[] ip = RawPackets.ipv4(InternetProtocol.TCP, src, dst, 0, fragment, segment);
+		return RawPackets.buffer(RawPackets.ethernet(ip));
+	}
+
+	private Buffer frame6(int src, int srcPort, int dst, int dstPort, int nextHeader) {
+		byte[] b = new byte[14 + 40 + 20];
+
+		// ethernet type ipv6
+		b[12] = (byte) 0x86;
+		b[13] = (byte) 0xdd;
+
+		// ipv6 header, addresses 2001:db8::src and 2001:db8::dst
+		b[14] = 0x60;
+		b[14 + 6] = (byte) nextHeader;
+		b[14 + 8] = 0x20;
+		b[14 + 9] = 0x01;
+		b[14 + 23] = (byte) src;
+		b[14 + 24] = 0x20;
+		b[14 + 25] = 0x01;
+		b[14 + 39] = (byte) dst;
+
+		// upper protocol ports
+		b[54] = (byte) (srcPort >> 8);
+		b[55] = (byte) srcPort;
+		b[56] = (byte) (dstPort >> 8);
+		b[57] = (byte) dstPort;
+
+		Buffer buffer = new ChainBuffer();
+		buffer.addLast(b);
+		return buffer;
+	}
+}
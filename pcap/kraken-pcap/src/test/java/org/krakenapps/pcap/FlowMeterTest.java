@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.krakenapps.pcap.decoder.ethernet.EthernetDecoder;
+import org.krakenapps.pcap.decoder.ethernet.EthernetType;
+import org.krakenapps.pcap.decoder.ip.InternetProtocol;
+import org.krakenapps.pcap.decoder.ip.IpDecoder;
+import org.krakenapps.pcap.decoder.tcp.TcpDecoder;
+import org.krakenapps.pcap.decoder.tcp.TcpFlag;
+import org.krakenapps.pcap.decoder.tcp.TcpPortProtocolMapper;
+import org.krakenapps.pcap.decoder.udp.UdpDecoder;
+import org.krakenapps.pcap.decoder.udp.UdpPortProtocolMapper;
+import org.krakenapps.pcap.flow.FlowCallback;
+import org.krakenapps.pcap.flow.FlowEndReason;
+import org.krakenapps.pcap.flow.FlowMeter;
+import org.krakenapps.pcap.flow.FlowRecord;
+
+public class FlowMeterTest {
+	private EthernetDecoder eth;
+	private FlowMeter meter;
+	private List<FlowRecord> records;
+
+	@Before
+	public void setUp() {
+		eth = new EthernetDecoder();
+		IpDecoder ip = new IpDecoder();
+		TcpDecoder tcp = new TcpDecoder(new TcpPortProtocolMapper());
+		UdpDecoder udp = new UdpDecoder(new UdpPortProtocolMapper());
+		eth.register(EthernetType.IPV4, ip);
+		ip.register(InternetProtocol.TCP, tcp);
+		ip.register(InternetProtocol.UDP, udp);
+
+		meter = new FlowMeter();
+		records = new ArrayList<FlowRecord>();
+		meter.register(new FlowCallback() {
+			@Override
+			public void onFlow(FlowRecord record) {
+				records.add(record);
+			}
+		});
+
+		tcp.registerPacketCallback(meter);
+		udp.registerUdpProcessor(meter);
+	}
+
+	@Test
+	public void testBidirectionalFlow() {
+		tcp(1000, 1, 40000, 2, 80, TcpFlag.SYN, 0);
+		tcp(1000, 2, 80, 1, 40000, TcpFlag.SYN + TcpFlag.ACK, 0);
+		tcp(1001, 1, 40000, 2, 80, TcpFlag.ACK + TcpFlag.PSH, 100);
+		tcp(1002, 2, 80, 1, 40000, TcpFlag.ACK + TcpFlag.PSH, 1000);
+		udp(1003, 1, 53000, 3, 53, 30);
+		udp(1003, 3, 53, 1, 53000, 80);
+		assertEquals(2, meter.getFlowCount());
+
+		meter.flush();
+		assertEquals(2, records.size());
+
+		FlowRecord r = records.get(0);
+		assertEquals(InternetProtocol.TCP, r.getProtocol());
+		assertEquals("10.0.0.1", r.getClientIp().getHostAddress());
+		assertEquals(80, r.getServerPort());
+		assertEquals(2, r.getTxPackets());
+		assertEquals(40 + 40 + 100, r.getTxBytes());
+		assertEquals(2, r.getRxPackets());
+		assertEquals(40 + 40 + 1000, r.getRxBytes());
+		assertEquals(TcpFlag.SYN | TcpFlag.ACK | TcpFlag.PSH, r.getTcpFlags());
+		assertEquals(2000, r.getDuration());
+		assertEquals(FlowEndReason.Flush, r.getEndReason());
+
+		FlowRecord u = records.get(1);
+		assertEquals(InternetProtocol.UDP, u.getProtocol());
+		assertEquals(53, u.getServerPort());
+		assertEquals(1, u.getTxPackets());
+		assertEquals(1, u.getRxPackets());
+		assertEquals(20 + 8 + 80, u.getRxBytes());
+	}
+
+	@Test
+	public void testTimeout() {
+		meter.setActiveTimeout(60 * 1000);
+		udp(1000, 1, 53000, 3, 53, 30);
+		for (int i = 0; i < 6; i++)
+			udp(1000 + i * 10, 1, 40000, 4, 161, 30);
+
+		// first flow is idle for 15 seconds
+		assertEquals(1, records.size());
+		assertEquals(53, records.get(0).getServerPort());
+		assertEquals(FlowEndReason.IdleTimeout, records.get(0).getEndReason());
+
+		// second flow lasts for 60 seconds
+		udp(1060, 1, 40000, 4, 161, 30);
+		assertEquals(2, records.size());
+		assertEquals(FlowEndReason.ActiveTimeout, records.get(1).getEndReason());
+		assertEquals(6, records.get(1).getTxPackets());
+		assertEquals(1, meter.getFlowCount());
+
+		meter.advance(1060 * 1000L + 15000);
+		assertEquals(3, records.size());
+	}
+
+	@Test
+	public void testFinishedFlow() {
+		meter.setMaxFlows(2);
+		tcp(1000, 1, 40000, 2, 80, TcpFlag.SYN, 0);
+		tcp(1000, 2, 80, 1, 40000, TcpFlag.RST + TcpFlag.ACK, 0);
+		tcp(1001, 1, 40000, 2, 80, TcpFlag.SYN, 0);
+		assertEquals(1, records.size());
+		assertEquals(FlowEndReason.EndOfFlow, records.get(0).getEndReason());
+
+		// table is full
+		tcp(1001, 1, 40001, 2, 80, TcpFlag.SYN, 0);
+		tcp(1001, 1, 40002, 2, 80, TcpFlag.SYN, 0);
+		assertEquals(2, records.size());
+		assertEquals(FlowEndReason.Evicted, records.get(1).getEndReason());
+		assertEquals(40000, records.get(1).getClientPort());
+		assertTrue(meter.getFlowCount() <= 2);
+	}
+
+	@Test
+	public void testCallbackOutsideLock() {
+		final List<Boolean> locked = new ArrayList<Boolean>();
+		meter.register(new FlowCallback() {
+			@Override
+			public void onFlow(FlowRecord record) {
+				locked.add(Thread.holdsLock(meter));
+			}
+		});
+
+		udp(1000, 1, 53000, 3, 53, 30);
+		udp(1020, 1, 53001, 3, 53, 30);
+		meter.advance(1040 * 1000L);
+		udp(1041, 1, 53002, 3, 53, 30);
+		meter.flush();
+
+		assertEquals(3, locked.size());
+		for (boolean b : locked)
+			assertFalse(b);
+	}
+
+	private void tcp(int time, int src, int srcPort, int dst, int dstPort, int flags, int len) {
+		byte[] segment = RawPackets.tcp(srcPort, dstPort, 100, 0, flags, len);
+		eth.decode(RawPackets.packet(time, InternetProtocol.TCP, src, dst, segment));
+	}
+
+	private void udp(int time, int src, int srcPort, int dst, int dstPort, int len) {
+		byte[] datagram = RawPackets.udp(srcPort, dstPort, len);
+		eth.decode(RawPackets.packet(time, InternetProtocol.UDP, src, dst, datagram));
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.krakenapps.pcap.decoder.ip.InternetProtocol;
+import org.krakenapps.pcap.decoder.ip.IpFragmentBudget;
+import org.krakenapps.pcap.decoder.ip.IpReassembler;
+import org.krakenapps.pcap.decoder.ip.Ipv4Packet;
+import org.krakenapps.pcap.decoder.tcp.TcpFlag;
+import org.krakenapps.pcap.decoder.tcp.TcpPacket;
+import org.krakenapps.pcap.decoder.tcp.TcpSegment;
+import org.krakenapps.pcap.decoder.tcp.TcpSegmentCallback;
+import org.krakenapps.pcap.decoder.tcp.TcpSession;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.PcapDecodeWorker;
+import org.krakenapps.pcap.util.PcapLiveRunner;
+
+public class IpReassemblerTest {
+	private IpReassembler reassembler;
+
+	@Before
+	public void setUp() {
+		reassembler = new IpReassembler();
+		reassembler.advance(1000000);
+	}
+
+	@Test
+	public void testKeyedReassembly() {
+		// same id from two sources, out of order
+		assertNull(reassembler.tryReassemble(fragment(1, 7, 8, false, fill(16, 'b'))));
+		assertNull(reassembler.tryReassemble(fragment(2, 7, 0, true, fill(8, 'x'))));
+		assertNull(reassembler.tryReassemble(fragment(2, 7, 1, true, fill(8, 'y'))));
+		assertEquals(2, reassembler.size());
+
+		Ipv4Packet p = reassembler.tryReassemble(fragment(1, 7, 0, true, fill(64, 'a')));
+		assertNotNull(p);
+		assertEquals(20 + 80, p.getTotalLength());
+		assertEquals(0, p.getFlags());
+
+		byte[] expected = new byte[80];
+		System.arraycopy(fill(64, 'a'), 0, expected, 0, 64);
+		System.arraycopy(fill(16, 'b'), 0, expected, 64, 16);
+		assertArrayEquals(expected, read(p.getData()));
+
+		assertEquals(1, reassembler.size());
+		assertEquals(1, reassembler.getReassembleCount());
+	}
+
+	@Test
+	public void testOverlap() {
+		reassembler.tryReassemble(fragment(1, 1, 0, true, fill(16, 'a')));
+
+		// first 8 bytes overlap, data received first wins
+		reassembler.tryReassemble(fragment(1, 1, 1, true, fill(16, 'b')));
+		Ipv4Packet p = reassembler.tryReassemble(fragment(1, 1, 3, false, fill(8, 'c')));
+		assertNotNull(p);
+		assertEquals(1, reassembler.getOverlapCount());
+
+		byte[] data = read(p.getData());
+		assertEquals(32, data.length);
+		assertEquals('a', data[15]);
+		assertEquals('b', data[16]);
+		assertEquals('c', data[31]);
+	}
+
+	@Test
+	public void testTimeout() {
+		reassembler.tryReassemble(fragment(1, 1, 0, true, fill(8, 'a')));
+		reassembler.advance(1010000);
+		reassembler.tryReassemble(fragment(1, 2, 0, true, fill(8, 'a')));
+
+		// first datagram is incomplete for 30 seconds
+		reassembler.advance(1031000);
+		assertEquals(1, reassembler.size());
+		assertEquals(1, reassembler.getTimeoutCount());
+
+		// time jump over wheel size
+		reassembler.advance(1500000);
+		assertEquals(0, reassembler.size());
+		assertEquals(2, reassembler.getTimeoutCount());
+		assertEquals(0, reassembler.getMemoryUsage());
+		assertEquals(0, reassembler.getBudget().getMemoryUsage());
+	}
+
+	@Test
+	public void testSharedBudget() {
+		IpFragmentBudget budget = new IpFragmentBudget(1024);
+		IpReassembler other = new IpReassembler(budget);
+		reassembler.setBudget(budget);
+
+		for (int i = 0; i < 2; i++)
+			other.tryReassemble(fragment(1, i, 0, true, fill(64, 'a')));
+		assertEquals(2, other.size());
+
+		// oldest datagrams of this reassembler are evicted
+		for (int i = 0; i < 10; i++)
+			reassembler.tryReassemble(fragment(2, i, 0, true, fill(64, 'a')));
+
+		assertTrue(reassembler.getEvictCount() > 0);
+		assertEquals(10, reassembler.size() + reassembler.getEvictCount());
+		assertTrue(budget.getMemoryUsage() <= 1024);
+		assertEquals(budget.getMemoryUsage(), reassembler.getMemoryUsage() + other.getMemoryUsage());
+
+		// fragment larger than budget is dropped
+		assertNull(other.tryReassemble(fragment(1, 100, 0, true, fill(1024, 'a'))));
+		assertEquals(1, other.getDropCount());
+		assertEquals(budget.getMemoryUsage(), reassembler.getMemoryUsage() + other.getMemoryUsage());
+	}
+
+	@Test
+	public void testFlowRouting() {
+		// device is not used without run()
+		PcapLiveRunner runner = new PcapLiveRunner(null, 4);
+		final List<String> segments = new ArrayList<String>();
+		for (final PcapDecodeWorker w : runner.getWorkers()) {
+			w.getTcpDecoder().registerSegmentCallback(new TcpSegmentCallback() {
+				@Override
+				public void onReceive(TcpSession session, TcpSegment segment) {
+					int length = ((TcpPacket) segment).getDataLength();
+					if (session != null && length > 0)
+						segments.add(w.getId() + ":" + segment.getSourcePort() + ":" + length);
+				}
+			});
+		}
+
+		for (int port = 40000; port < 40008; port++) {
+			List<PcapPacket> packets = new ArrayList<PcapPacket>();
+			packets.add(tcp(port, 100, 0, TcpFlag.SYN, 0, 0, false));
+			packets.add(tcp(port, 500, 101, TcpFlag.SYN + TcpFlag.ACK, 0, 0, true));
+			packets.add(tcp(port, 101, 501, TcpFlag.ACK, 0, 0, false));
+
+			// 100 bytes segment in two fragments, and unfragmented 50 bytes
+			// segment
+			packets.add(tcp(port, 101, 501, TcpFlag.ACK + TcpFlag.PSH, 100, 1, false));
+			packets.add(tcp(port, 101, 501, TcpFlag.ACK + TcpFlag.PSH, 100, 2, false));
+			packets.add(tcp(port, 201, 501, TcpFlag.ACK + TcpFlag.PSH, 50, 0, false));
+
+			PcapDecodeWorker owner = runner.getWorker(packets.get(0));
+			long reassembled = owner.getIpDecoder().getReassembler().getReassembleCount();
+			for (PcapPacket p : packets) {
+				assertEquals(owner, runner.getWorker(p));
+				owner.decode(p);
+			}
+
+			assertEquals(reassembled + 1, owner.getIpDecoder().getReassembler().getReassembleCount());
+			assertEquals(owner.getId() + ":" + port + ":100", segments.get(segments.size() - 2));
+			assertEquals(owner.getId() + ":" + port + ":50", segments.get(segments.size() - 1));
+		}
+
+		int sessions = 0;
+		for (PcapDecodeWorker w : runner.getWorkers())
+			sessions += w.getTcpDecoder().getCurrentSessions().size();
+		assertEquals(8, sessions);
+	}
+
+	/**
+	 * @param fragment
+	 *            0 for unfragmented packet, 1 for first fragment with tcp
+	 *            header and 4 bytes, 2 for the rest
+	 */
+	private PcapPacket tcp(int clientPort, int seq, int ack, int flags, int length, int fragment, boolean toClient) {
+		int srcPort = toClient ? 80 : clientPort;
+		int dstPort = toClient ? clientPort : 80;
+		byte[] segment = RawPackets.tcp(srcPort, dstPort, seq, ack, flags, length);
+		int offset = fragment == 2 ? 24 : 0;
+		int end = fragment == 1 ? 24 : segment.length;
+		byte[] payload = Arrays.copyOfRange(segment, offset, end);
+
+		int field = (fragment == 1 ? 0x2000 : 0) | offset / 8;
+		int src = toClient ? 2 : 1;
+		int dst = toClient ? 1 : 2;
+		byte[] ip = RawPackets.ipv4(InternetProtocol.TCP, src, dst, clientPort, field, payload);
+		return RawPackets.packet(1000, RawPackets.ethernet(ip));
+	}
+
+	private Ipv4Packet fragment(int src, int id, int offset, boolean more, byte[] payload) {
+		int field = (more ? 0x2000 : 0) | offset;
+		return Ipv4Packet.parse(RawPackets.buffer(RawPackets.ipv4(InternetProtocol.UDP, src, 200, id, field, payload)));
+	}
+
+	private byte[] fill(int length, char c) {
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++)
+			b[i] = (byte) c;
+		return b;
+	}
+
+	private byte[] read(Buffer buffer) {
+		byte[] b = new byte[buffer.readableBytes()];
+		buffer.gets(b);
+		return b;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.krakenapps.pcap.file.PcapIndex;
+import org.krakenapps.pcap.file.PcapIndexBlock;
+import org.krakenapps.pcap.file.PcapIndexBuilder;
+import org.krakenapps.pcap.file.PcapIndexFilter;
+import org.krakenapps.pcap.file.PcapMappedFileInputStream;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.PcapFileRunner;
+
+public class PcapIndexTest {
+	private static final int BASE_TIME = 1300000000;
+
+	@Test
+	public void testIncrementalUpdate() throws IOException {
+		File file = File.createTempFile("kraken-pcap", ".pcap");
+		File indexFile = PcapIndex.getIndexFile(file);
+		try {
+			write(file, 0, 20, false);
+			PcapIndex index = new PcapIndexBuilder(file, 8, 1024).update();
+			assertEquals(2, index.getBlocks().size());
+			assertEquals(24 + 16 * 58, index.getIndexedOffset());
+
+			// append to growing file, only new blocks are added
+			write(file, 20, 50, true);
+			index = new PcapIndexBuilder(file, 8, 1024).update();
+			assertEquals(6, index.getBlocks().size());
+			assertEquals(PcapIndex.HEADER_SIZE + 6 * PcapIndexBlock.getRecordSize(1024), indexFile.length());
+
+			PcapIndexBlock last = index.getBlocks().get(5);
+			assertEquals(8, last.getPacketCount());
+			assertEquals((BASE_TIME + 40) * 1000000L, last.getMinTime());
+			assertEquals((BASE_TIME + 47) * 1000000L, last.getMaxTime());
+
+			// rebuilt if parameter is changed
+			index = new PcapIndexBuilder(file, 16, 1024).update();
+			assertEquals(3, index.getBlocks().size());
+		} finally {
+			file.delete();
+			indexFile.delete();
+		}
+	}
+
+	@Test
+	public void testFilter() throws IOException {
+		File file = File.createTempFile("kraken-pcap", ".pcap");
+		File indexFile = PcapIndex.getIndexFile(file);
+		try {
+			write(file, 0, 50, false);
+			PcapIndex index = new PcapIndexBuilder(file, 8, 1024).update();
+
+			PcapIndexFilter filter = new PcapIndexFilter();
+			filter.setTimeRange(new Date((BASE_TIME + 17) * 1000L), new Date((BASE_TIME + 18) * 1000L));
+			List<PcapIndexBlock> blocks = index.find(filter);
+			assertEquals(1, blocks.size());
+			assertEquals(8, blocks.get(0).getPacketCount());
+
+			// host 10.0.0.42 sends packet 42 only, in 6th block
+			filter = new PcapIndexFilter();
+			filter.setHost(InetAddress.getByName("10.0.0.42"));
+			blocks = index.find(filter);
+			assertTrue(blocks.contains(index.getBlocks().get(5)));
+			assertTrue(blocks.size() < 3);
+			assertEquals(1, count(file, blocks, filter));
+
+			// port 1000 + 3 is used by packet 3 only
+			filter = new PcapIndexFilter();
+			filter.setPort(1003);
+			assertTrue(filter.matches(index.getBlocks().get(0)));
+			assertEquals(1, count(file, index.find(filter), filter));
+
+			filter.setHost(InetAddress.getByName("10.0.0.4"));
+			assertEquals(0, count(file, index.find(filter), filter));
+			assertFalse(filter.isEmpty());
+		} finally {
+			file.delete();
+			indexFile.delete();
+		}
+	}
+
+	@Test
+	public void testFragment() throws IOException {
+		File file = File.createTempFile("kraken-pcap", ".pcap");
+		File indexFile = PcapIndex.getIndexFile(file);
+		try {
+			write(file, 0, 8, false);
+			writeFragments(file, 8, 4);
+			PcapIndex index = new PcapIndexBuilder(file, 4, 1024).update();
+			assertEquals(3, index.getBlocks().size());
+
+			// ports of non-first fragments are unknown, host is checked
+			PcapIndexFilter filter = new PcapIndexFilter();
+			filter.setPort(2000);
+			List<PcapIndexBlock> blocks = index.find(filter);
+			assertTrue(blocks.contains(index.getBlocks().get(2)));
+			assertEquals(4, count(file, blocks, filter));
+
+			filter.setHost(InetAddress.getByName("10.0.0.99"));
+			assertEquals(4, count(file, index.find(filter), filter));
+
+			filter.setHost(InetAddress.getByName("10.0.0.3"));
+			assertEquals(0, count(file, index.find(filter), filter));
+		} finally {
+			file.delete();
+			indexFile.delete();
+		}
+	}
+
+	@Test
+	public void testRunnerIndexing() throws IOException {
+		File file = File.createTempFile("kraken-pcap", ".pcap");
+		File indexFile = PcapIndex.getIndexFile(file);
+		try {
+			// index file is written when first block is filled
+			write(file, 0, PcapIndexBuilder.DEFAULT_BLOCK_SIZE + 1, false);
+			PcapIndexFilter filter = new PcapIndexFilter();
+			filter.setPort(1003);
+
+			// filtered scan does not write index file unless requested
+			PcapFileRunner runner = new PcapFileRunner(file);
+			runner.setFilter(filter);
+			runner.run();
+			assertFalse(indexFile.exists());
+
+			runner.setIndexing(true);
+			runner.run();
+			assertTrue(indexFile.exists());
+		} finally {
+			file.delete();
+			indexFile.delete();
+		}
+	}
+
+	private int count(File file, List<PcapIndexBlock> blocks, PcapIndexFilter filter) throws IOException {
+		int count = 0;
+		PcapMappedFileInputStream is = new PcapMappedFileInputStream(file);
+		try {
+			for (PcapIndexBlock block : blocks) {
+				is.seek(block.getOffset());
+				for (PcapPacket packet : is.getPackets(block.getPacketCount()))
+					if (filter.matches(packet))
+						count++;
+			}
+		} finally {
+			is.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Writes udp packets from 10.0.0.i:1000+i to 192.168.0.1:53, one packet
+	 * per second.
+	 */
+	private void write(File file, int begin, int end, boolean append) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(24 + (end - begin) * 58);
+		if (!append) {
+			bb.putInt(0xA1B2C3D4);
+			bb.putShort((short) 2);
+			bb.putShort((short) 4);
+			bb.putInt(0);
+			bb.putInt(0);
+			bb.putInt(65535);
+			bb.putInt(1);
+		}
+
+		for (int i = begin; i < end; i++) {
+			bb.putInt(BASE_TIME + i);
+			bb.putInt(0);
+			bb.putInt(42);
+			bb.putInt(42);
+
+			// ethernet
+			bb.put(new byte[12]);
+			bb.putShort((short) 0x0800);
+
+			// ipv4
+			bb.put((byte) 0x45);
+			bb.put((byte) 0);
+			bb.putShort((short) 28);
+			bb.putInt(0);
+			bb.put((byte) 64);
+			bb.put((byte) 17);
+			bb.putShort((short) 0);
+			bb.put(new byte[] { 10, 0, 0, (byte) i });
+			bb.put(new byte[] { (byte) 192, (byte) 168, 0, 1 });
+
+			// udp
+			bb.putShort((short) (1000 + i));
+			bb.putShort((short) 53);
+			bb.putShort((short) 8);
+			bb.putShort((short) 0);
+		}
+
+		FileOutputStream os = new FileOutputStream(file, append);
+		try {
+			os.write(bb.array(), 0, bb.position());
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Appends non-first fragments of udp datagram from 10.0.0.99 to
+	 * 192.168.0.1, one packet per second.
+	 */
+	private void writeFragments(File file, int begin, int count) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(count * 58);
+		for (int i = begin; i < begin + count; i++) {
+			bb.putInt(BASE_TIME + i);
+			bb.putInt(0);
+			bb.putInt(42);
+			bb.putInt(42);
+
+			// ethernet
+			bb.put(new byte[12]);
+			bb.putShort((short) 0x0800);
+
+			// ipv4, fragment offset 8 bytes
+			bb.put((byte) 0x45);
+			bb.put((byte) 0);
+			bb.putShort((short) 28);
+			bb.putShort((short) 7);
+			bb.putShort((short) 1);
+			bb.put((byte) 64);
+			bb.put((byte) 17);
+			bb.putShort((short) 0);
+			bb.put(new byte[] { 10, 0, 0, 99 });
+			bb.put(new byte[] { (byte) 192, (byte) 168, 0, 1 });
+
+			// payload looks like udp header of port 1003
+			bb.putShort((short) 1003);
+			bb.putShort((short) 53);
+			bb.putShort((short) 8);
+			bb.putShort((short) 0);
+		}
+
+		FileOutputStream os = new FileOutputStream(file, true);
+		try {
+			os.write(bb.array(), 0, bb.position());
+		} finally {
+			os.close();
+		}
+	}
+}
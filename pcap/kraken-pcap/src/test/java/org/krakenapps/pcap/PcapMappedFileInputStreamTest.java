@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import org.junit.Test;
+import org.krakenapps.pcap.file.PcapMappedFileInputStream;
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+
+public class PcapMappedFileInputStreamTest {
+	@Test
+	public void testLittleEndian() throws IOException {
+		verify(ByteOrder.LITTLE_ENDIAN, false, PcapMappedFileInputStream.DEFAULT_WINDOW_SIZE);
+	}
+
+	@Test
+	public void testBigEndian() throws IOException {
+		verify(ByteOrder.BIG_ENDIAN, false, PcapMappedFileInputStream.DEFAULT_WINDOW_SIZE);
+	}
+
+	@Test
+	public void testNanosecond() throws IOException {
+		verify(ByteOrder.LITTLE_ENDIAN, true, PcapMappedFileInputStream.DEFAULT_WINDOW_SIZE);
+		verify(ByteOrder.BIG_ENDIAN, true, PcapMappedFileInputStream.DEFAULT_WINDOW_SIZE);
+	}
+
+	@Test
+	public void testSmallWindow() throws IOException {
+		// every record crosses window boundary
+		verify(ByteOrder.LITTLE_ENDIAN, false, 50);
+	}
+
+	@Test
+	public void testPacketDate() {
+		// microseconds are truncated to milliseconds, not added as is
+		assertEquals(1000500L, new PacketHeader(1000, 500000, 0, 0).getDate().getTime());
+		assertEquals(1000999L, new PacketHeader(1000, 999999, 0, 0).getDate().getTime());
+		assertEquals(1000000L, new PacketHeader(1000, 999, 0, 0, 999999).getDate().getTime());
+	}
+
+	private void verify(ByteOrder order, boolean nanosecond, int windowSize) throws IOException {
+		File file = File.createTempFile("kraken-pcap", ".pcap");
+		PcapMappedFileInputStream is = null;
+		try {
+			write(file, order, nanosecond, 10);
+			is = new PcapMappedFileInputStream(file, windowSize);
+			assertEquals(nanosecond, is.isNanosecondResolution());
+			assertEquals(1, is.getGlobalHeader().getNetwork());
+			assertEquals(65535, is.getGlobalHeader().getSnaplen());
+
+			List<PcapPacket> first = is.getPackets(4);
+			List<PcapPacket> second = is.getPackets(100);
+			assertEquals(4, first.size());
+			assertEquals(6, second.size());
+			assertTrue(is.getPackets(4).isEmpty());
+
+			for (int i = 0; i < 10; i++) {
+				PcapPacket packet = i < 4 ? first.get(i) : second.get(i - 4);
+				assertEquals(1300000000 + i, packet.getPacketHeader().getTsSec());
+				assertEquals((1300000000L + i) * 1000 + 123, packet.getPacketHeader().getDate().getTime());
+				if (nanosecond) {
+					assertEquals(123456789, packet.getPacketHeader().getTsNsec());
+					assertEquals(123456, packet.getPacketHeader().getTsUsec());
+				} else {
+					assertEquals(123456, packet.getPacketHeader().getTsUsec());
+					assertEquals(123456000, packet.getPacketHeader().getTsNsec());
+				}
+
+				assertEquals(20 + i, packet.getPacketHeader().getInclLen());
+				assertEquals(100 + i, packet.getPacketHeader().getOrigLen());
+
+				Buffer data = packet.getPacketData();
+				assertEquals(20 + i, data.readableBytes());
+				for (int j = 0; j < 20 + i; j++)
+					assertEquals((byte) (i + j), data.get());
+			}
+
+			try {
+				is.getPacket();
+				assertFalse(true);
+			} catch (EOFException e) {
+			}
+		} finally {
+			if (is != null)
+				is.close();
+			file.delete();
+		}
+	}
+
+	private void write(File file, ByteOrder order, boolean nanosecond, int count) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(24 + count * (16 + 20 + count)).order(order);
+		bb.putInt(nanosecond ? 0xA1B23C4D : 0xA1B2C3D4);
+		bb.putShort((short) 2);
+		bb.putShort((short) 4);
+		bb.putInt(0);
+		bb.putInt(0);
+		bb.putInt(65535);
+		bb.putInt(1);
+
+		for (int i = 0; i < count; i++) {
+			bb.putInt(1300000000 + i);
+			bb.putInt(nanosecond ? 123456789 : 123456);
+			bb.putInt(20 + i);
+			bb.putInt(100 + i);
+			for (int j = 0; j < 20 + i; j++)
+				bb.put((byte) (i + j));
+		}
+
+		// truncated record should be ignored
+		bb.putInt(0);
+
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(bb.array(), 0, bb.position());
+		} finally {
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.ChainBuffer;
+
+/**
+ * Builds raw ipv4 packets and ethernet frames for decoder tests. Host n is
+ * 10.0.0.n, and checksums are not set.
+ */
+public class RawPackets {
+	private RawPackets() {
+	}
+
+	/**
+	 * Returns unfragmented ipv4 packet in ethernet frame, captured at time in
+	 * seconds.
+	 */
+	public static PcapPacket packet(int time, int protocol, int src, int dst, byte[] payload) {
+		return packet(time, ethernet(ipv4(protocol, src, dst, 0, 0, payload)));
+	}
+
+	public static PcapPacket packet(int time, byte[] frame) {
+		return new PcapPacket(new PacketHeader(time, 0, frame.length, frame.length), buffer(frame));
+	}
+
+	public static Buffer buffer(byte[] b) {
+		Buffer buffer = new ChainBuffer();
+		buffer.addLast(b);
+		return buffer;
+	}
+
+	public static byte[] ethernet(byte[] ip) {
+		byte[] b = new byte[14 + ip.length];
+
+		// ethernet type ipv4
+		b[12] = 0x08;
+		System.arraycopy(ip, 0, b, 14, ip.length);
+		return b;
+	}
+
+	/**
+	 * @param fragment
+	 *            the flags and fragment offset field, e.g. 0x2000 for first
+	 *            fragment
+	 */
+	public static byte[] ipv4(int protocol, int src, int dst, int id, int fragment, byte[] payload) {
+		byte[] b = new byte[20 + payload.length];
+		b[0] = 0x45;
+		putShort(b, 2, b.length);
+		putShort(b, 4, id);
+		putShort(b, 6, fragment);
+		b[8] = 64;
+		b[9] = (byte) protocol;
+		b[12] = 10;
+		b[15] = (byte) src;
+		b[16] = 10;
+		b[19] = (byte) dst;
+		System.arraycopy(payload, 0, b, 20, payload.length);
+		return b;
+	}
+
+	/**
+	 * Returns tcp segment with zero filled data.
+	 */
+	public static byte[] tcp(int srcPort, int dstPort, int seq, int ack, int flags, int dataLength) {
+		byte[] b = new byte[20 + dataLength];
+		putShort(b, 0, srcPort);
+		putShort(b, 2, dstPort);
+		putInt(b, 4, seq);
+		putInt(b, 8, ack);
+		b[12] = 0x50;
+		b[13] = (byte) flags;
+		putShort(b, 14, 8192);
+		return b;
+	}
+
+	/**
+	 * Returns udp datagram with zero filled data.
+	 */
+	public static byte[] udp(int srcPort, int dstPort, int dataLength) {
+		byte[] b = new byte[8 + dataLength];
+		putShort(b, 0, srcPort);
+		putShort(b, 2, dstPort);
+		putShort(b, 4, b.length);
+		return b;
+	}
+
+	public static void putShort(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >> 8);
+		b[offset + 1] = (byte) value;
+	}
+
+	public static void putInt(byte[] b, int offset, int value) {
+		putShort(b, offset, value >> 16);
+		putShort(b, offset + 2, value);
+	}
+}
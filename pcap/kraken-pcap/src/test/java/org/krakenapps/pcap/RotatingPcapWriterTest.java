@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.krakenapps.pcap.file.PcapMappedFileInputStream;
+import org.krakenapps.pcap.file.RotatingPcapWriter;
+import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.ChainBuffer;
+
+public class RotatingPcapWriterTest {
+	@Test
+	public void testRotation() throws IOException {
+		File dir = createDir();
+		try {
+			RotatingPcapWriter writer = new RotatingPcapWriter(dir, "test");
+			writer.setMaxFileSize(1000);
+			writer.setMaxFileCount(3);
+			writer.setPreallocate(true);
+			writer.start();
+
+			// 24 + 116 * 9 > 1000, 9 packets per file
+			for (int i = 0; i < 100; i++)
+				writer.write(packet(i, 100));
+			writer.close();
+
+			assertEquals(100, writer.getWriteCount());
+			assertEquals(0, writer.getDropCount());
+
+			File[] files = dir.listFiles();
+			Arrays.sort(files);
+			assertEquals(3, files.length);
+			assertEquals("test-000012.pcap", files[2].getName());
+			assertEquals(24 + 116 * 9, files[0].length());
+
+			// last file has packets 99 only
+			PcapMappedFileInputStream is = new PcapMappedFileInputStream(files[2]);
+			try {
+				List<PcapPacket> packets = is.getPackets(100);
+				assertEquals(1, packets.size());
+				assertEquals(99, packets.get(0).getPacketHeader().getTsSec());
+				assertEquals(99, packets.get(0).getPacketData().get());
+			} finally {
+				is.close();
+			}
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testPcapng() throws IOException {
+		File dir = createDir();
+		try {
+			RotatingPcapWriter writer = new RotatingPcapWriter(dir, "test");
+			writer.setPcapng(true);
+			writer.setInterfaceName("eth0");
+			writer.setComment("test capture");
+			for (int i = 0; i < 10; i++)
+				writer.write(packet(i, 61));
+			writer.close();
+
+			File[] files = dir.listFiles();
+			assertEquals(1, files.length);
+			assertTrue(files[0].getName().endsWith(".pcapng"));
+
+			ByteBuffer bb = read(files[0]);
+			assertEquals(0x0A0D0D0A, bb.getInt(0));
+			assertEquals(0x1A2B3C4D, bb.getInt(8));
+
+			// walk blocks, leading and trailing lengths should match
+			int[] counts = new int[7];
+			int p = 0;
+			while (p < bb.limit()) {
+				int type = bb.getInt(p);
+				int len = bb.getInt(p + 4);
+				assertEquals(0, len % 4);
+				assertEquals(len, bb.getInt(p + len - 4));
+
+				if (type == 6) {
+					assertEquals(61, bb.getInt(p + 20));
+					long ts = (long) bb.getInt(p + 12) << 32 | (bb.getInt(p + 16) & 0xffffffffL);
+					assertEquals(counts[6] * 1000000000L + 1000, ts);
+				}
+
+				counts[type == 0x0A0D0D0A ? 0 : type]++;
+				p += len;
+			}
+
+			assertEquals(1, counts[0]);
+			assertEquals(1, counts[1]);
+			assertEquals(10, counts[6]);
+		} finally {
+			delete(dir);
+		}
+	}
+
+	private PcapPacket packet(int i, int len) {
+		byte[] b = new byte[len];
+		b[0] = (byte) i;
+		return new PcapPacket(new PacketHeader(i, 1, len, len), new ChainBuffer(b));
+	}
+
+	private ByteBuffer read(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			byte[] b = new byte[(int) raf.length()];
+			raf.readFully(b);
+			return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private File createDir() throws IOException {
+		File dir = File.createTempFile("kraken-pcap", "");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+
+	private void delete(File dir) {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+}
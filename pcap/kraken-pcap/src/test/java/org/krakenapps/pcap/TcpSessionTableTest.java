@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.krakenapps.pcap.decoder.ethernet.EthernetDecoder;
+import org.krakenapps.pcap.decoder.ethernet.EthernetType;
+import org.krakenapps.pcap.decoder.ip.InternetProtocol;
+import org.krakenapps.pcap.decoder.ip.IpDecoder;
+import org.krakenapps.pcap.decoder.tcp.TcpDecoder;
+import org.krakenapps.pcap.decoder.tcp.TcpFlag;
+import org.krakenapps.pcap.decoder.tcp.TcpPortProtocolMapper;
+import org.krakenapps.pcap.decoder.tcp.TcpProcessor;
+import org.krakenapps.pcap.decoder.tcp.TcpSessionKey;
+import org.krakenapps.pcap.decoder.tcp.TcpSessionTable;
+import org.krakenapps.pcap.decoder.tcp.TcpState;
+import org.krakenapps.pcap.util.Buffer;
+
+public class TcpSessionTableTest {
+	private EthernetDecoder eth;
+	private TcpDecoder tcp;
+	private TcpSessionTable table;
+
+	@Before
+	public void setUp() {
+		eth = new EthernetDecoder();
+		IpDecoder ip = new IpDecoder();
+		tcp = new TcpDecoder(new TcpPortProtocolMapper());
+		eth.register(EthernetType.IPV4, ip);
+		ip.register(InternetProtocol.TCP, tcp);
+		table = tcp.getSessionTable();
+	}
+
+	@Test
+	public void testIdleTimeout() {
+		syn(1000, 1, 40000);
+		syn(1010, 3, 40001);
+		assertEquals(2, table.size());
+
+		// first half-open session is idle for 30 seconds
+		syn(1031, 4, 40002);
+		assertEquals(2, table.size());
+		assertEquals(1, table.getExpireCount());
+
+		// time jump over wheel size expires every handshake session
+		table.setTimeout(TcpState.SYN_SENT, 600);
+		syn(5000, 5, 40003);
+		assertEquals(1, table.size());
+		assertEquals(3, table.getExpireCount());
+	}
+
+	@Test
+	public void testTimeoutLongerThanWheel() {
+		table.setTimeout(TcpState.SYN_SENT, 2000);
+		table.setTimeout(TcpState.SYN_RCVD, 2000);
+		syn(1000, 1, 40000);
+
+		// session is kept over time jump longer than wheel size
+		syn(2000, 2, 40001);
+		assertEquals(2, table.size());
+		assertEquals(0, table.getExpireCount());
+
+		syn(2999, 3, 40002);
+		assertEquals(3, table.size());
+
+		syn(3001, 4, 40003);
+		assertEquals(3, table.size());
+		assertEquals(1, table.getExpireCount());
+	}
+
+	@Test
+	public void testMemoryLimit() {
+		table.setMaxMemory(2048);
+		for (int i = 0; i < 10; i++)
+			syn(1000, i + 1, 40000 + i);
+
+		assertEquals(2, table.size());
+		assertEquals(8, table.getEvictCount());
+		assertTrue(table.getMemoryUsage() <= 2048);
+	}
+
+	@Test
+	public void testResetOnExpiry() {
+		final List<TcpSessionKey> resets = new ArrayList<TcpSessionKey>();
+		tcp.getProtocolMapper().register(Protocol.HTTP, new TcpProcessor() {
+			@Override
+			public void onReset(TcpSessionKey key) {
+				resets.add(key);
+			}
+
+			@Override
+			public void onEstablish(TcpSessionKey key) {
+			}
+
+			@Override
+			public void onFinish(TcpSessionKey key) {
+			}
+
+			@Override
+			public void handleTx(TcpSessionKey session, Buffer data) {
+			}
+
+			@Override
+			public void handleRx(TcpSessionKey session, Buffer data) {
+			}
+		});
+
+		// established session to port 80
+		decode(1000, 1, 40000, 2, 80, 100, 0, TcpFlag.SYN);
+		decode(1000, 2, 80, 1, 40000, 500, 101, TcpFlag.SYN + TcpFlag.ACK);
+		decode(1000, 1, 40000, 2, 80, 101, 501, TcpFlag.ACK);
+		assertEquals(TcpState.ESTABLISHED, table.getCurrentSessions().get(0).getClientState());
+
+		syn(1000 + 3599, 3, 40001);
+		assertEquals(0, resets.size());
+
+		syn(1000 + 3601, 4, 40002);
+		assertEquals(1, resets.size());
+		assertEquals(40000, resets.get(0).getClientPort());
+	}
+
+	private void syn(int time, int client, int clientPort) {
+		decode(time, client, clientPort, 200, 8080, 100, 0, TcpFlag.SYN);
+	}
+
+	private void decode(int time, int src, int srcPort, int dst, int dstPort, int seq, int ack, int flags) {
+		byte[] segment = RawPackets.tcp(srcPort, dstPort, seq, ack, flags, 0);
+		eth.decode(RawPackets.packet(time, InternetProtocol.TCP, src, dst, segment));
+	}
+}
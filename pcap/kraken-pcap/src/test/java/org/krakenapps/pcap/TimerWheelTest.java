@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.pcap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.krakenapps.pcap.util.TimerWheel;
+
+public class TimerWheelTest {
+	@Test
+	public void testExpire() {
+		TimerWheel<Timer> wheel = new TimerWheel<Timer>(8, 1000);
+		wheel.advance(100000);
+
+		Timer t1 = new Timer(103000);
+		Timer t2 = new Timer(105500);
+		wheel.schedule(t1);
+		wheel.schedule(t2);
+
+		assertTrue(wheel.advance(102999).isEmpty());
+		assertEquals(t1, wheel.advance(103000).get(0));
+		assertTrue(wheel.advance(105000).isEmpty());
+		assertEquals(t2, wheel.advance(106000).get(0));
+	}
+
+	@Test
+	public void testDeadlineChange() {
+		TimerWheel<Timer> wheel = new TimerWheel<Timer>(8, 1000);
+		wheel.advance(100000);
+
+		// extended deadline is rescheduled when slot is visited
+		Timer t = new Timer(102000);
+		wheel.schedule(t);
+		t.expireTime = 104000;
+		wheel.schedule(t);
+		assertTrue(wheel.advance(103000).isEmpty());
+
+		// stale entry in later slot is skipped
+		t.expireTime = 103500;
+		wheel.schedule(t);
+		assertEquals(1, wheel.advance(104000).size());
+		assertTrue(wheel.advance(110000).isEmpty());
+	}
+
+	@Test
+	public void testDeadlineBeyondWheel() {
+		TimerWheel<Timer> wheel = new TimerWheel<Timer>(8, 1000);
+		wheel.advance(100000);
+
+		Timer t = new Timer(120000);
+		wheel.schedule(t);
+		assertTrue(wheel.advance(107000).isEmpty());
+		assertTrue(wheel.advance(119999).isEmpty());
+		assertEquals(t, wheel.advance(120000).get(0));
+	}
+
+	@Test
+	public void testTimeJump() {
+		TimerWheel<Timer> wheel = new TimerWheel<Timer>(8, 1000);
+		wheel.advance(100000);
+
+		Timer t1 = new Timer(101000);
+		Timer t2 = new Timer(150000);
+		wheel.schedule(t1);
+		wheel.schedule(t2);
+
+		List<Timer> expired = wheel.advance(130000);
+		assertEquals(1, expired.size());
+		assertEquals(t1, expired.get(0));
+		assertEquals(t2, wheel.advance(150000).get(0));
+	}
+
+	@Test
+	public void testScheduleBeforeAdvance() {
+		TimerWheel<Timer> wheel = new TimerWheel<Timer>(8, 1000);
+		Timer t1 = new Timer(103000);
+		Timer t2 = new Timer(104000);
+		wheel.schedule(t1);
+		wheel.schedule(t1);
+		wheel.schedule(t2);
+		t2.removed = true;
+
+		assertTrue(wheel.advance(100000).isEmpty());
+		assertEquals(1, wheel.advance(110000).size());
+	}
+
+	private static class Timer implements TimerWheel.Entry {
+		private long expireTime;
+		private long wheelTick = -1;
+		private boolean removed;
+
+		public Timer(long expireTime) {
+			this.expireTime = expireTime;
+		}
+
+		@Override
+		public long getExpireTime() {
+			return expireTime;
+		}
+
+		@Override
+		public long getWheelTick() {
+			return wheelTick;
+		}
+
+		@Override
+		public void setWheelTick(long tick) {
+			this.wheelTick = tick;
+		}
+
+		@Override
+		public boolean isRemoved() {
+			return removed;
+		}
+	}
+}
@@ -38,7 +38,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Validate;
-import org.krakenapps.ahocorasick.AhoCorasickSearch;
+import org.krakenapps.ahocorasick.AhoCorasickDfa;
+import org.krakenapps.ahocorasick.GroupMatchCallback;
+import org.krakenapps.ahocorasick.MatchCallback;
 import org.krakenapps.ahocorasick.Pair;
 import org.krakenapps.ahocorasick.Pattern;
 import org.krakenapps.ahocorasick.SearchContext;
@@ -62,7 +64,7 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 
 	private GenericRuleSyntax syntax = new GenericRuleSyntax();
 
-	private volatile AhoCorasickSearch acm = null;
+	private volatile AhoCorasickDfa acm = null;
 	private volatile Map<String, List<HttpRequestRule>> requestRuleMap = new ConcurrentHashMap<String, List<HttpRequestRule>>();
 	private volatile Map<String, List<HttpResponseRule>> responseRuleMap = new ConcurrentHashMap<String, List<HttpResponseRule>>();
 
@@ -98,21 +100,28 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 		File dir = new File(System.getProperty("kraken.data.dir"), "kraken-http-rule");
 		dir.mkdirs();
 
-		AhoCorasickSearch s = new AhoCorasickSearch();
+		AhoCorasickDfa s = new AhoCorasickDfa();
 		Map<String, List<HttpRequestRule>> reqs = new ConcurrentHashMap<String, List<HttpRequestRule>>();
 		Map<String, List<HttpResponseRule>> resps = new ConcurrentHashMap<String, List<HttpResponseRule>>();
 
+		// each rule file and rule storage is tagged as group, and all groups
+		// are scanned in one pass
+		List<String> ruleSets = new ArrayList<String>();
+
 		File[] files = dir.listFiles(new RuleFileFilter());
 		for (File f : files) {
-			loadRules(s, reqs, resps, f);
+			String ruleSet = f.getName().substring(0, f.getName().length() - ".rules".length());
+			loadRules(s, reqs, resps, f, groupOf(ruleSets, ruleSet), ruleSet);
 		}
 
 		RuleDatabase ruleDb = getRuleDatabase();
 		if (ruleDb != null) {
 			for (RuleGroup group : ruleDb.getRuleGroups("http")) {
+				String ruleSet = group.getStorage() != null ? group.getStorage().getName() : group.getName();
+				int groupId = groupOf(ruleSets, ruleSet);
 				for (Rule rule : group.getRules()) {
 					try {
-						parse(s, reqs, resps, rule.toString());
+						parse(s, reqs, resps, rule.toString(), groupId, ruleSet);
 					} catch (ParseException e) {
 					}
 				}
@@ -126,6 +135,15 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 		this.responseRuleMap = resps;
 	}
 
+	private int groupOf(List<String> ruleSets, String ruleSet) {
+		int group = ruleSets.indexOf(ruleSet);
+		if (group < 0) {
+			group = ruleSets.size();
+			ruleSets.add(ruleSet);
+		}
+		return group;
+	}
+
 	private RuleDatabase getRuleDatabase() {
 		String className = RuleDatabase.class.getName();
 		ServiceReference ref = bc.getServiceReference(className);
@@ -140,8 +158,8 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 		reload();
 	}
 
-	private void loadRules(AhoCorasickSearch fsm, Map<String, List<HttpRequestRule>> reqs,
-			Map<String, List<HttpResponseRule>> resps, File f) {
+	private void loadRules(AhoCorasickDfa fsm, Map<String, List<HttpRequestRule>> reqs,
+			Map<String, List<HttpResponseRule>> resps, File f, int group, String ruleSet) {
 		BufferedReader br = null;
 		try {
 			br = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
@@ -150,7 +168,7 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 				if (line == null)
 					break;
 
-				parse(fsm, reqs, resps, line);
+				parse(fsm, reqs, resps, line, group, ruleSet);
 			}
 		} catch (Exception e) {
 			logger.error("kraken http rule: cannot open http-rule file", e);
@@ -163,8 +181,8 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 		}
 	}
 
-	private void parse(AhoCorasickSearch fsm, Map<String, List<HttpRequestRule>> reqs,
-			Map<String, List<HttpResponseRule>> resps, String line) throws ParseException {
+	private void parse(AhoCorasickDfa fsm, Map<String, List<HttpRequestRule>> reqs,
+			Map<String, List<HttpResponseRule>> resps, String line, int group, String ruleSet) throws ParseException {
 		line = line.trim();
 		if (line.isEmpty() || line.startsWith(";"))
 			return;
@@ -228,7 +246,9 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 				rule.getReferences().addAll(convert(r.getAll("reference")));
 				rule.getCveNames().addAll(r.getAll("cve"));
 
-				fsm.addKeyword(new RulePattern(path, rule));
+				// nocase: true matches path case insensitively
+				boolean ignoreCase = "true".equals(r.get("nocase"));
+				fsm.addKeyword(new RulePattern(path, rule, ruleSet), group, ignoreCase);
 
 				if (!reqs.containsKey(rule.getId()))
 					reqs.put(rule.getId(), new ArrayList<HttpRequestRule>());
@@ -297,20 +317,53 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 	}
 
 	@Override
-	public HttpRequestRule match(HttpRequestContext context) {
+	public Map<String, Collection<HttpRequestRule>> matchAllByRuleSet(final HttpRequestContext context) {
+		final Map<String, Collection<HttpRequestRule>> matches = new HashMap<String, Collection<HttpRequestRule>>();
 		byte[] bytes = getPathBytes(context.getPath());
 		SearchContext sctx = new SearchContext();
 		sctx.setIncludeFailurePatterns(true);
-		List<Pair> pairs = acm.search(bytes, sctx);
 
-		for (Pair p : pairs) {
-			Rule rule = ((RulePattern) p.getPattern()).getRule();
-			HttpRequestRule httpRule = (HttpRequestRule) rule;
-			if (httpRule.match(context))
-				return httpRule;
-		}
+		acm.search(bytes, 0, bytes.length, sctx, new GroupMatchCallback() {
+			@Override
+			public boolean onMatch(int group, int position, Pattern pattern) {
+				RulePattern p = (RulePattern) pattern;
+				HttpRequestRule httpRule = (HttpRequestRule) p.getRule();
+				if (httpRule.match(context)) {
+					Collection<HttpRequestRule> l = matches.get(p.getRuleSet());
+					if (l == null) {
+						l = new HashSet<HttpRequestRule>();
+						matches.put(p.getRuleSet(), l);
+					}
+					l.add(httpRule);
+				}
+				return true;
+			}
+		});
 
-		return null;
+		return matches;
+	}
+
+	@Override
+	public HttpRequestRule match(final HttpRequestContext context) {
+		byte[] bytes = getPathBytes(context.getPath());
+		SearchContext sctx = new SearchContext();
+		sctx.setIncludeFailurePatterns(true);
+
+		// stop at first matched rule
+		final HttpRequestRule[] matched = new HttpRequestRule[1];
+		acm.search(bytes, 0, bytes.length, sctx, new MatchCallback() {
+			@Override
+			public boolean onMatch(int position, Pattern pattern) {
+				HttpRequestRule httpRule = (HttpRequestRule) ((RulePattern) pattern).getRule();
+				if (httpRule.match(context)) {
+					matched[0] = httpRule;
+					return false;
+				}
+				return true;
+			}
+		});
+
+		return matched[0];
 	}
 
 	private byte[] getPathBytes(String path) {
@@ -342,16 +395,22 @@ public class DefaultHttpRuleEngine implements HttpRuleEngine {
 	private static class RulePattern implements Pattern {
 		private byte[] b;
 		private Rule rule;
+		private String ruleSet;
 
-		public RulePattern(String path, Rule rule) throws UnsupportedEncodingException {
+		public RulePattern(String path, Rule rule, String ruleSet) throws UnsupportedEncodingException {
 			this.b = path.getBytes("utf-8");
 			this.rule = rule;
+			this.ruleSet = ruleSet;
 		}
 
 		public Rule getRule() {
 			return rule;
 		}
 
+		public String getRuleSet() {
+			return ruleSet;
+		}
+
 		@Override
 		public byte[] getKeyword() {
 			return b;
@@ -16,6 +16,7 @@
 package org.krakenapps.rule.http;
 
 import java.util.Collection;
+import java.util.Map;
 
 import org.krakenapps.rule.RuleEngine;
 
@@ -30,6 +31,13 @@ public interface HttpRuleEngine extends RuleEngine {
 
 	Collection<HttpRequestRule> matchAll(HttpRequestContext req);
 
+	/**
+	 * Matches request rules of all rule sets in one scan.
+	 * 
+	 * @return the matched rules by rule set name
+	 */
+	Map<String, Collection<HttpRequestRule>> matchAllByRuleSet(HttpRequestContext req);
+
 	HttpRequestRule match(HttpRequestContext req);
 
 	Collection<HttpResponseRule> matchAll(HttpRequestContext req, HttpResponseContext resp);
@@ -17,6 +17,7 @@ package org.krakenapps.log.api;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -386,14 +387,38 @@ public abstract class AbstractLogger implements Logger, Runnable {
 			try {
 				pipe.onLog(this, log);
 			} catch (Exception e) {
-				if (e.getMessage() != null && e.getMessage().startsWith("invalid time"))
-					this.log.warn("kraken-log-api: log pipe should not throw exception" + e.getMessage());
-				else
-					this.log.warn("kraken-log-api: log pipe should not throw exception", e);
+				warnPipeException(e);
 			}
 		}
 	}
 
+	/**
+	 * Writes logs in batch. Batch log pipes receive the list as is, so do not
+	 * modify the list after write.
+	 */
+	protected void write(List<Log> logs) {
+		if (stopped || logs.isEmpty())
+			return;
+
+		// update last log date
+		lastLogDate = logs.get(logs.size() - 1).getDate();
+		logCounter.addAndGet(logs.size());
+
+		// notify all
+		LogPipe[] capturedPipes = pipes;
+		for (LogPipe pipe : capturedPipes) {
+			try {
+				LogBatches.onLogs(pipe, this, logs);
+			} catch (Exception e) {
+				warnPipeException(e);
+			}
+		}
+	}
+
+	private void warnPipeException(Exception e) {
+		LogBatches.warnPipeException(log, e);
+	}
+
 	@Override
 	public void updateConfig(Properties config) {
 		for (LoggerEventListener callback : eventListeners) {
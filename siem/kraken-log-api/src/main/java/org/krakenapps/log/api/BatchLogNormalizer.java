@@ -0,0 +1,32 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.log.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log normalizer which normalizes logs in batch. Use {@link LogBatches} to
+ * normalize batch with plain log normalizer.
+ */
+public interface BatchLogNormalizer extends LogNormalizer {
+	/**
+	 * Clears output buffer and adds normalized result per input params. Output
+	 * is aligned to input, and input may contain null (e.g. parse failure).
+	 * Null is added for null input or the log which cannot be normalized.
+	 */
+	void normalizeBatch(List<Map<String, Object>> params, List<Map<String, Object>> output);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.log.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log parser which parses logs in batch. Use {@link LogBatches} to parse batch
+ * with plain log parser.
+ */
+public interface BatchLogParser extends LogParser {
+	/**
+	 * Clears output buffer and adds parse result per input params. Output is
+	 * aligned to input, and null is added for the log which cannot be parsed.
+	 * Caller may reuse both buffers for next batch, but added maps are owned by
+	 * caller.
+	 */
+	void parseBatch(List<Map<String, Object>> params, List<Map<String, Object>> output);
+}
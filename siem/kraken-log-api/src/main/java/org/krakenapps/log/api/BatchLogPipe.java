@@ -0,0 +1,27 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.log.api;
+
+import java.util.List;
+
+/**
+ * Log pipe which receives logs of same logger in batch. Logger may hand off
+ * batch list as is, so pipe should not modify the list, and logger should not
+ * reuse the list after write.
+ */
+public interface BatchLogPipe extends LogPipe {
+	void onLogs(Logger logger, List<Log> logs);
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.log.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch adapters for log pipe, parser and normalizer. Batch interface is used
+ * if implemented, otherwise logs are passed one at a time.
+ */
+public class LogBatches {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(LogBatches.class.getName());
+
+	private LogBatches() {
+	}
+
+	/**
+	 * Passes logs to pipe. If pipe does not support batch, failure of a log
+	 * does not break the batch.
+	 */
+	public static void onLogs(LogPipe pipe, Logger logger, List<Log> logs) {
+		if (pipe instanceof BatchLogPipe) {
+			((BatchLogPipe) pipe).onLogs(logger, logs);
+			return;
+		}
+
+		for (Log log : logs) {
+			try {
+				pipe.onLog(logger, log);
+			} catch (Exception e) {
+				warnPipeException(LogBatches.logger, e);
+			}
+		}
+	}
+
+	static void warnPipeException(org.slf4j.Logger log, Exception e) {
+		if (e.getMessage() != null && e.getMessage().startsWith("invalid time"))
+			log.warn("kraken-log-api: log pipe should not throw exception" + e.getMessage());
+		else
+			log.warn("kraken-log-api: log pipe should not throw exception", e);
+	}
+
+	/**
+	 * Parses logs in batch. Failure of a log does not break the batch, and
+	 * null is added for the log instead.
+	 * 
+	 * @see BatchLogParser#parseBatch(List, List)
+	 */
+	public static void parseBatch(LogParser parser, List<Map<String, Object>> params, List<Map<String, Object>> output) {
+		if (parser instanceof BatchLogParser) {
+			((BatchLogParser) parser).parseBatch(params, output);
+			return;
+		}
+
+		output.clear();
+		for (Map<String, Object> m : params) {
+			Map<String, Object> parsed = null;
+			try {
+				parsed = parser.parse(m);
+			} catch (Exception e) {
+				if (logger.isDebugEnabled())
+					logger.debug("kraken log api: cannot parse log [" + m + "]", e);
+			}
+			output.add(parsed);
+		}
+	}
+
+	/**
+	 * Normalizes logs in batch. Null input is skipped, and null is added for
+	 * the log which cannot be normalized.
+	 * 
+	 * @see BatchLogNormalizer#normalizeBatch(List, List)
+	 */
+	public static void normalizeBatch(LogNormalizer normalizer, List<Map<String, Object>> params,
+			List<Map<String, Object>> output) {
+		if (normalizer instanceof BatchLogNormalizer) {
+			((BatchLogNormalizer) normalizer).normalizeBatch(params, output);
+			return;
+		}
+
+		output.clear();
+		for (Map<String, Object> m : params) {
+			Map<String, Object> normalized = null;
+			if (m != null) {
+				try {
+					normalized = normalizer.normalize(m);
+				} catch (Exception e) {
+					if (logger.isDebugEnabled())
+						logger.debug("kraken log api: cannot normalize log [" + m + "]", e);
+				}
+			}
+			output.add(normalized);
+		}
+	}
+}
@@ -19,9 +19,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -30,6 +32,7 @@ import java.util.regex.Pattern;
 
 public class TextFileLogger extends AbstractLogger {
 	private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TextFileLogger.class.getName());
+	private static final int BATCH_SIZE = 1000;
 	private RotatingLogFileReader reader;
 	private DateParser dateParser;
 
@@ -185,6 +188,7 @@ public class TextFileLogger extends AbstractLogger {
 
 	@Override
 	protected void runOnce() {
+		List<Log> batch = new ArrayList<Log>(BATCH_SIZE);
 		try {
 			this.reader.open();
 			while (true) {
@@ -204,6 +208,7 @@ public class TextFileLogger extends AbstractLogger {
 				Date date = dateParser.parse(line);
 				if (date == null) {
 					logger.trace("kraken log api: cannot parse date [{}]", line);
+					write(batch);
 					return;
 				}
 
@@ -211,10 +216,17 @@ public class TextFileLogger extends AbstractLogger {
 				params.put("date", date);
 				params.put("line", line);
 
-				Log log = new SimpleLog(date, getFullName(), params);
-				write(log);
+				batch.add(new SimpleLog(date, getFullName(), params));
+
+				// batch is handed off to pipes as is
+				if (batch.size() >= BATCH_SIZE) {
+					write(batch);
+					batch = new ArrayList<Log>(BATCH_SIZE);
+				}
 			}
 
+			write(batch);
+
 			getConfig().put("first_line", reader.getFirstLine());
 			getConfig().put("last_offset", reader.getLastOffset());
 
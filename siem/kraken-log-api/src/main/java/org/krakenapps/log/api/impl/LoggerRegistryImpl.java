@@ -28,7 +28,9 @@ import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Validate;
+import org.krakenapps.log.api.BatchLogPipe;
 import org.krakenapps.log.api.Log;
+import org.krakenapps.log.api.LogBatches;
 import org.krakenapps.log.api.LogPipe;
 import org.krakenapps.log.api.Logger;
 import org.krakenapps.log.api.LoggerFactory;
@@ -40,7 +42,7 @@ import org.krakenapps.log.api.LoggerRegistryEventListener;
 @Component(name = "logger-registry")
 @Provides(specifications = { LoggerRegistry.class })
 public class LoggerRegistryImpl implements LoggerRegistry, LoggerFactoryRegistryEventListener, LoggerFactoryEventListener,
-		LogPipe {
+		BatchLogPipe {
 	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LoggerRegistryImpl.class.getName());
 	private ConcurrentMap<String, Logger> loggers;
 	private Set<LoggerRegistryEventListener> callbacks;
@@ -217,4 +219,15 @@ public class LoggerRegistryImpl implements LoggerRegistry, LoggerFactoryRegistry
 			pipe.onLog(logger, log);
 		}
 	}
+
+	@Override
+	public void onLogs(Logger logger, List<Log> logs) {
+		Set<LogPipe> pipes = pipeMap.get(logger.getFactoryName());
+		if (pipes == null)
+			return;
+
+		for (LogPipe pipe : pipes) {
+			LogBatches.onLogs(pipe, logger, logs);
+		}
+	}
 }
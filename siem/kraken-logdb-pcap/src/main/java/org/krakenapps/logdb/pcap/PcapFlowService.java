@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logdb.pcap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.krakenapps.pcap.flow.FlowMeter;
+
+/**
+ * Meters tcp and udp flows of live pcap streams or pcap files, and writes
+ * flow records to log storage table in batches.
+ * 
+ * @author xeraph
+ */
+public interface PcapFlowService {
+	Collection<String> getMeteredStreams();
+
+	/**
+	 * Returns flow meters of decode workers of metered stream, or null if
+	 * stream is not metered.
+	 */
+	List<FlowMeter> getFlowMeters(String streamKey);
+
+	/**
+	 * Returns written flow record count of metered stream, or -1 if stream is
+	 * not metered.
+	 */
+	long getWriteCount(String streamKey);
+
+	/**
+	 * Starts metering live pcap stream. Table is created if not exists.
+	 */
+	void startMetering(String streamKey, String tableName);
+
+	/**
+	 * Stops metering, and writes all remaining flows.
+	 */
+	void stopMetering(String streamKey);
+
+	/**
+	 * Writes flow records of pcap file, and returns written record count.
+	 */
+	long importFile(File f, String tableName) throws IOException;
+}
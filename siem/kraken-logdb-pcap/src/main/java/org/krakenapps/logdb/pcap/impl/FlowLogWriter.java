@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logdb.pcap.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.krakenapps.logstorage.Log;
+import org.krakenapps.logstorage.LogStorage;
+import org.krakenapps.pcap.flow.FlowCallback;
+import org.krakenapps.pcap.flow.FlowRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts flow records to logs and writes them in batches. Log date is last
+ * seen time of flow, since flows are expired roughly in last seen order.
+ * 
+ * @author xeraph
+ */
+public class FlowLogWriter implements FlowCallback {
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(FlowLogWriter.class.getName());
+	private LogStorage storage;
+	private String tableName;
+	private int batchSize;
+	private List<Log> batch;
+	private long writeCount;
+	private long dropCount;
+
+	public FlowLogWriter(LogStorage storage, String tableName) {
+		this(storage, tableName, DEFAULT_BATCH_SIZE);
+	}
+
+	public FlowLogWriter(LogStorage storage, String tableName, int batchSize) {
+		this.storage = storage;
+		this.tableName = tableName;
+		this.batchSize = batchSize;
+		this.batch = new ArrayList<Log>(batchSize);
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public synchronized long getWriteCount() {
+		return writeCount;
+	}
+
+	public synchronized long getDropCount() {
+		return dropCount;
+	}
+
+	@Override
+	public synchronized void onFlow(FlowRecord r) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("proto", r.getProtocol());
+		m.put("client_ip", r.getClientIp().getHostAddress());
+		m.put("client_port", r.getClientPort());
+		m.put("server_ip", r.getServerIp().getHostAddress());
+		m.put("server_port", r.getServerPort());
+		m.put("first_seen", new Date(r.getFirstSeen()));
+		m.put("duration", r.getDuration());
+		m.put("tx_pkts", r.getTxPackets());
+		m.put("tx_bytes", r.getTxBytes());
+		m.put("rx_pkts", r.getRxPackets());
+		m.put("rx_bytes", r.getRxBytes());
+		m.put("tcp_flags", r.getTcpFlags());
+		m.put("end", r.getEndReason().toString());
+
+		batch.add(new Log(tableName, new Date(r.getLastSeen()), m));
+		if (batch.size() >= batchSize)
+			flush();
+	}
+
+	/**
+	 * Writes pending logs. Failed batch is dropped so that memory usage is
+	 * bounded when storage is not available.
+	 */
+	public synchronized void flush() {
+		if (batch.isEmpty())
+			return;
+
+		try {
+			storage.write(batch);
+			writeCount += batch.size();
+		} catch (Exception e) {
+			dropCount += batch.size();
+			logger.error("kraken logdb pcap: cannot write flows to table " + tableName, e);
+		}
+
+		batch = new ArrayList<Log>(batchSize);
+	}
+}
@@ -33,7 +33,7 @@ import org.krakenapps.pcap.decoder.tcp.TcpSegmentCallback;
 import org.krakenapps.pcap.decoder.tcp.TcpSession;
 import org.krakenapps.pcap.decoder.udp.UdpPacket;
 import org.krakenapps.pcap.decoder.udp.UdpProcessor;
-import org.krakenapps.pcap.packet.PacketHeader;
+import org.krakenapps.pcap.file.PcapIndexFilter;
 import org.krakenapps.pcap.util.Buffer;
 import org.krakenapps.pcap.util.PcapFileRunner;
 import org.slf4j.Logger;
@@ -44,15 +44,34 @@ public class PcapCommand extends LogQueryCommand {
 	private PcapFileRunner runner;
 
 	public PcapCommand(File f) {
+		this(f, null);
+	}
+
+	/**
+	 * @param filter
+	 *            time range, host and port condition, or null for all packets
+	 */
+	public PcapCommand(File f, PcapIndexFilter filter) {
+		this(f, filter, null);
+	}
+
+	/**
+	 * @param filter
+	 *            time range, host and port condition, or null for all packets
+	 * @param expression
+	 *            tcpdump filter expression, or null for all packets
+	 */
+	public PcapCommand(File f, PcapIndexFilter filter, String expression) {
 		headerColumn.put("date", "_time");
 		runner = new PcapFileRunner(f);
+		runner.setFilter(filter);
+		runner.setBpfFilter(expression);
 		runner.getEthernetDecoder().register(new EthernetProcessor() {
 
 			@Override
 			public void process(EthernetFrame frame) {
 				LogMap m = new LogMap();
-				PacketHeader h = frame.getPcapPacket().getPacketHeader();
-				Date date = new Date(h.getTsSec() * 1000L + h.getTsUsec());
+				Date date = frame.getPcapPacket().getPacketHeader().getDate();
 				m.put("_time", date);
 				m.put("proto", "eth");
 				m.put("ether_type", frame.getType());
@@ -163,6 +182,13 @@ public class PcapCommand extends LogQueryCommand {
 		return date;
 	}
 
+	/**
+	 * Builds or updates sidecar index of pcap file for filtered scan
+	 */
+	public void setIndexing(boolean indexing) {
+		runner.setIndexing(indexing);
+	}
+
 	@Override
 	public void start() {
 		status = Status.Running;
@@ -16,24 +16,79 @@
 package org.krakenapps.logdb.pcap.impl;
 
 import static org.krakenapps.bnf.Syntax.k;
+import static org.krakenapps.bnf.Syntax.option;
+import static org.krakenapps.bnf.Syntax.ref;
 
 import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
 
 import org.krakenapps.bnf.Binding;
 import org.krakenapps.bnf.Syntax;
 import org.krakenapps.logdb.LogQueryParser;
+import org.krakenapps.pcap.file.PcapIndexFilter;
 
 public class PcapCommandParser implements LogQueryParser {
 	@Override
 	public void addSyntax(Syntax syntax) {
-		syntax.add("pcap", this, k("pcap"), new StringPlaceholder());
+		syntax.add("pcap", this, k("pcap "), ref("option"), new StringPlaceholder(),
+				option(k("filter "), new StringPlaceholder(new char[0])));
 		syntax.addRoot("pcap");
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public Object parse(Binding b) {
-		String filename = (String) b.getChildren()[1].getValue();
-		return new PcapCommand(new File(filename));
+		Map<String, String> options = (Map<String, String>) b.getChildren()[1].getValue();
+		String filename = (String) b.getChildren()[2].getValue();
+
+		// tcpdump filter expression
+		String expression = null;
+		if (b.getChildren().length == 4)
+			expression = (String) b.getChildren()[3].getChildren()[1].getValue();
+
+		PcapIndexFilter filter = new PcapIndexFilter();
+		filter.setTimeRange(getDate(options.get("from")), getDate(options.get("to")));
+
+		if (options.containsKey("host")) {
+			try {
+				filter.setHost(InetAddress.getByName(options.get("host")));
+			} catch (UnknownHostException e) {
+				throw new IllegalArgumentException("invalid host: " + options.get("host"));
+			}
+		}
+
+		if (options.containsKey("port"))
+			filter.setPort(Integer.parseInt(options.get("port")));
+
+		PcapCommand command = new PcapCommand(new File(filename), filter.isEmpty() ? null : filter, expression);
+
+		// index file is written only if requested
+		command.setIndexing(Boolean.parseBoolean(options.get("index")));
+		return command;
+	}
+
+	private Date getDate(String value) {
+		if (value == null)
+			return null;
+
+		String[] formats = { "yyyy", "yyyyMM", "yyyyMMdd", "yyyyMMddHH", "yyyyMMddHHmm", "yyyyMMddHHmmss" };
+		for (String format : formats) {
+			if (format.length() != value.length())
+				continue;
+
+			try {
+				return new SimpleDateFormat(format).parse(value);
+			} catch (ParseException e) {
+				break;
+			}
+		}
+
+		throw new IllegalArgumentException("invalid date: " + value);
 	}
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logdb.pcap.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.krakenapps.api.Script;
+import org.krakenapps.api.ScriptArgument;
+import org.krakenapps.api.ScriptContext;
+import org.krakenapps.api.ScriptUsage;
+import org.krakenapps.logdb.pcap.PcapFlowService;
+import org.krakenapps.pcap.flow.FlowMeter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PcapFlowScript implements Script {
+	private final Logger logger = LoggerFactory.getLogger(PcapFlowScript.class.getName());
+
+	private PcapFlowService flowService;
+	private ScriptContext context;
+
+	public PcapFlowScript(PcapFlowService flowService) {
+		this.flowService = flowService;
+	}
+
+	@Override
+	public void setScriptContext(ScriptContext context) {
+		this.context = context;
+	}
+
+	public void streams(String[] args) {
+		context.println("Metered Streams");
+		context.println("-----------------");
+		for (String key : flowService.getMeteredStreams()) {
+			List<FlowMeter> meters = flowService.getFlowMeters(key);
+			if (meters == null)
+				continue;
+
+			context.println(key + ": written=" + flowService.getWriteCount(key));
+			for (int i = 0; i < meters.size(); i++)
+				context.println("  worker " + i + ": " + meters.get(i));
+		}
+	}
+
+	@ScriptUsage(description = "write flow records of live pcap stream to log table", arguments = {
+			@ScriptArgument(name = "alias", type = "string", description = "the alias of the pcap device"),
+			@ScriptArgument(name = "table name", type = "string", description = "log table name"),
+			@ScriptArgument(name = "active timeout", type = "integer", description = "max flow duration in seconds, 1800 by default", optional = true),
+			@ScriptArgument(name = "inactive timeout", type = "integer", description = "max flow idle time in seconds, 15 by default", optional = true) })
+	public void start(String[] args) {
+		try {
+			flowService.startMetering(args[0], args[1]);
+
+			for (FlowMeter meter : flowService.getFlowMeters(args[0])) {
+				if (args.length > 2)
+					meter.setActiveTimeout(Long.parseLong(args[2]) * 1000);
+				if (args.length > 3)
+					meter.setInactiveTimeout(Long.parseLong(args[3]) * 1000);
+			}
+
+			context.println("flow metering started");
+		} catch (IllegalStateException e) {
+			context.println(e.getMessage());
+		}
+	}
+
+	@ScriptUsage(description = "stop flow metering of live pcap stream", arguments = { @ScriptArgument(name = "alias", type = "string", description = "the alias of the pcap device") })
+	public void stop(String[] args) {
+		flowService.stopMetering(args[0]);
+		context.println("flow metering stopped");
+	}
+
+	@ScriptUsage(description = "write flow records of pcap file to log table", arguments = {
+			@ScriptArgument(name = "file path", type = "string", description = "pcap file path"),
+			@ScriptArgument(name = "table name", type = "string", description = "log table name") })
+	public void importFile(String[] args) {
+		try {
+			long count = flowService.importFile(new File(args[0]), args[1]);
+			context.println(count + " flows written");
+		} catch (IOException e) {
+			context.println(e.getMessage());
+			logger.error("kraken logdb pcap: cannot import pcap file", e);
+		}
+	}
+}
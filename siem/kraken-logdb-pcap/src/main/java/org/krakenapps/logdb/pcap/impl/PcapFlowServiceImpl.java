@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logdb.pcap.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.krakenapps.logdb.pcap.PcapFlowService;
+import org.krakenapps.logstorage.LogStorage;
+import org.krakenapps.logstorage.LogTableRegistry;
+import org.krakenapps.pcap.flow.FlowCallback;
+import org.krakenapps.pcap.flow.FlowMeter;
+import org.krakenapps.pcap.flow.FlowRecord;
+import org.krakenapps.pcap.live.PcapStreamEventListener;
+import org.krakenapps.pcap.live.PcapStreamManager;
+import org.krakenapps.pcap.util.PcapDecodeWorker;
+import org.krakenapps.pcap.util.PcapFileRunner;
+import org.krakenapps.pcap.util.PcapLiveRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Component(name = "logdb-pcap-flow")
+@Provides
+public class PcapFlowServiceImpl implements PcapFlowService, PcapStreamEventListener {
+	private final Logger logger = LoggerFactory.getLogger(PcapFlowServiceImpl.class.getName());
+
+	// expires idle flows and writes pending batches
+	private static final int SWEEP_INTERVAL = 1000;
+
+	// expired flows waiting for sweeper, per stream
+	private static final int QUEUE_SIZE = 100000;
+
+	@Requires
+	private LogStorage storage;
+
+	@Requires
+	private LogTableRegistry tableRegistry;
+
+	@Requires
+	private PcapStreamManager streamManager;
+
+	private ConcurrentMap<String, MeteredStream> streams;
+	private Sweeper sweeper;
+	private Thread sweeperThread;
+
+	@Validate
+	public void start() {
+		streams = new ConcurrentHashMap<String, MeteredStream>();
+		streamManager.addEventListener(this);
+
+		sweeper = new Sweeper();
+		sweeperThread = new Thread(sweeper, "LogDB Pcap Flow Sweeper");
+		sweeperThread.start();
+	}
+
+	@Invalidate
+	public void stop() {
+		if (streamManager != null)
+			streamManager.removeEventListener(this);
+
+		sweeper.doStop = true;
+		sweeperThread.interrupt();
+		try {
+			sweeperThread.join(5000);
+		} catch (InterruptedException e) {
+		}
+
+		for (String key : new ArrayList<String>(streams.keySet()))
+			stopMetering(key);
+	}
+
+	@Override
+	public Collection<String> getMeteredStreams() {
+		return new ArrayList<String>(streams.keySet());
+	}
+
+	@Override
+	public List<FlowMeter> getFlowMeters(String streamKey) {
+		MeteredStream s = streams.get(streamKey);
+		return s != null ? new ArrayList<FlowMeter>(s.meters) : null;
+	}
+
+	@Override
+	public long getWriteCount(String streamKey) {
+		MeteredStream s = streams.get(streamKey);
+		return s != null ? s.writer.getWriteCount() : -1;
+	}
+
+	@Override
+	public void startMetering(String streamKey, String tableName) {
+		PcapLiveRunner runner = streamManager.get(streamKey);
+		if (runner == null)
+			throw new IllegalStateException("pcap stream not found: " + streamKey);
+
+		ensureTable(tableName);
+		MeteredStream s = new MeteredStream(runner, new FlowLogWriter(storage, tableName));
+		if (streams.putIfAbsent(streamKey, s) != null)
+			throw new IllegalStateException("pcap stream already metered: " + streamKey);
+
+		// flow is always decoded by same worker, so meter is not shared
+		for (PcapDecodeWorker worker : runner.getWorkers()) {
+			FlowMeter meter = new FlowMeter();
+			meter.register(s);
+			worker.getTcpDecoder().registerPacketCallback(meter);
+			worker.getUdpDecoder().registerUdpProcessor(meter);
+			s.meters.add(meter);
+		}
+
+		logger.info("kraken logdb pcap: start flow metering of stream [{}] to table [{}]", streamKey, tableName);
+	}
+
+	@Override
+	public void stopMetering(String streamKey) {
+		MeteredStream s = streams.remove(streamKey);
+		if (s == null)
+			return;
+
+		for (PcapDecodeWorker worker : s.runner.getWorkers()) {
+			for (FlowMeter meter : s.meters) {
+				worker.getTcpDecoder().unregisterPacketCallback(meter);
+				worker.getUdpDecoder().unregisterUdpProcessor(meter);
+			}
+		}
+
+		for (FlowMeter meter : s.meters)
+			meter.flush();
+
+		s.drain();
+		s.writer.flush();
+		logger.info("kraken logdb pcap: stop flow metering of stream [{}], {} flows written", streamKey,
+				s.writer.getWriteCount());
+	}
+
+	@Override
+	public long importFile(File f, String tableName) throws IOException {
+		ensureTable(tableName);
+
+		PcapFileRunner runner = new PcapFileRunner(f);
+		FlowMeter meter = new FlowMeter();
+		FlowLogWriter writer = new FlowLogWriter(storage, tableName);
+		meter.register(writer);
+		runner.getTcpDecoder().registerPacketCallback(meter);
+		runner.getUdpDecoder().registerUdpProcessor(meter);
+
+		try {
+			runner.run();
+		} finally {
+			meter.flush();
+			writer.flush();
+		}
+
+		return writer.getWriteCount();
+	}
+
+	private void ensureTable(String tableName) {
+		if (!tableRegistry.exists(tableName))
+			storage.createTable(tableName);
+	}
+
+	@Override
+	public void onOpen(String key, PcapLiveRunner runner) {
+	}
+
+	@Override
+	public void onClose(String key, PcapLiveRunner runner) {
+		stopMetering(key);
+	}
+
+	/**
+	 * Meters of decode workers put expired flows into queue, and sweeper
+	 * writes them, so that storage write does not block packet decoding.
+	 * Flows are dropped if queue is full.
+	 */
+	private class MeteredStream implements FlowCallback {
+		private PcapLiveRunner runner;
+		private List<FlowMeter> meters;
+		private FlowLogWriter writer;
+		private BlockingQueue<FlowRecord> queue;
+		private AtomicLong dropCount;
+
+		public MeteredStream(PcapLiveRunner runner, FlowLogWriter writer) {
+			this.runner = runner;
+			this.meters = new ArrayList<FlowMeter>();
+			this.writer = writer;
+			this.queue = new ArrayBlockingQueue<FlowRecord>(QUEUE_SIZE);
+			this.dropCount = new AtomicLong();
+		}
+
+		@Override
+		public void onFlow(FlowRecord r) {
+			if (!queue.offer(r))
+				dropCount.incrementAndGet();
+		}
+
+		public void drain() {
+			List<FlowRecord> l = new ArrayList<FlowRecord>();
+			queue.drainTo(l);
+			for (FlowRecord r : l)
+				writer.onFlow(r);
+
+			long dropped = dropCount.getAndSet(0);
+			if (dropped > 0)
+				logger.warn("kraken logdb pcap: flow queue of table [{}] is full, {} flows dropped",
+						writer.getTableName(), dropped);
+		}
+	}
+
+	private class Sweeper implements Runnable {
+		private volatile boolean doStop = false;
+
+		@Override
+		public void run() {
+			while (!doStop) {
+				try {
+					Thread.sleep(SWEEP_INTERVAL);
+					sweep();
+				} catch (InterruptedException e) {
+					logger.trace("kraken logdb pcap: flow sweeper interrupted");
+				} catch (Exception e) {
+					logger.error("kraken logdb pcap: flow sweeper error", e);
+				}
+			}
+
+			logger.info("kraken logdb pcap: flow sweeper stopped");
+		}
+
+		private void sweep() {
+			long now = System.currentTimeMillis();
+			for (MeteredStream s : streams.values()) {
+				for (FlowMeter meter : s.meters)
+					meter.advance(now);
+
+				s.drain();
+				s.writer.flush();
+			}
+		}
+	}
+}
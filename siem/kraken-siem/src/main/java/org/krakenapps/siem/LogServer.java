@@ -17,6 +17,8 @@ package org.krakenapps.siem;
 
 import java.util.Collection;
 import org.krakenapps.logstorage.Log;
+import org.krakenapps.siem.model.LogStageConfig;
+import org.krakenapps.siem.model.LogStageStatus;
 import org.krakenapps.siem.model.ManagedLogger;
 
 public interface LogServer {
@@ -34,4 +36,16 @@ public interface LogServer {
 
 	void removeNormalizedLogListener(String category, NormalizedLogListener callback);
 
+	/**
+	 * @return the status of store, parse and dispatch stages
+	 */
+	Collection<LogStageStatus> getStageStatuses();
+
+	LogStageConfig getStageConfig(String name);
+
+	/**
+	 * Saves and applies worker and queue settings of the stage
+	 */
+	void setStageConfig(LogStageConfig config);
+
 }
@@ -17,6 +17,8 @@ package org.krakenapps.siem.engine;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -36,14 +38,15 @@ import org.krakenapps.confdb.ConfigCollection;
 import org.krakenapps.confdb.ConfigDatabase;
 import org.krakenapps.confdb.ConfigIterator;
 import org.krakenapps.confdb.Predicates;
+import org.krakenapps.log.api.BatchLogPipe;
 import org.krakenapps.log.api.Log;
+import org.krakenapps.log.api.LogBatches;
 import org.krakenapps.log.api.LogNormalizer;
 import org.krakenapps.log.api.LogNormalizerFactory;
 import org.krakenapps.log.api.LogNormalizerFactoryRegistry;
 import org.krakenapps.log.api.LogParser;
 import org.krakenapps.log.api.LogParserFactory;
 import org.krakenapps.log.api.LogParserFactoryRegistry;
-import org.krakenapps.log.api.LogPipe;
 import org.krakenapps.log.api.Logger;
 import org.krakenapps.log.api.LoggerRegistry;
 import org.krakenapps.log.api.LoggerRegistryEventListener;
@@ -53,13 +56,40 @@ import org.krakenapps.siem.ConfigManager;
 import org.krakenapps.siem.LogServer;
 import org.krakenapps.siem.NormalizedLog;
 import org.krakenapps.siem.NormalizedLogListener;
+import org.krakenapps.siem.model.LogStageConfig;
+import org.krakenapps.siem.model.LogStageStatus;
 import org.krakenapps.siem.model.ManagedLogger;
 
+/**
+ * Receives logs of managed loggers, and runs them through staged pipeline.
+ * Store stage writes logs to log storage, parse stage parses and normalizes
+ * logs, and dispatch stage calls normalized log listeners of the category.
+ * Logs are passed to store and parse stages in batch of the logger.
+ * Stages are connected by bounded queues, so slow analyzer cannot stall
+ * logger threads unless the stage is configured to block.
+ */
 @Component(name = "siem-log-server")
 @Provides
-public class LogServerEngine implements LogServer, LogPipe, LoggerRegistryEventListener {
+public class LogServerEngine implements LogServer, BatchLogPipe, LoggerRegistryEventListener {
 	private final org.slf4j.Logger slog = org.slf4j.LoggerFactory.getLogger(LogServerEngine.class.getName());
 
+	private static final String STORE_STAGE = "store";
+	private static final String PARSE_STAGE = "parse";
+	private static final String DISPATCH_STAGE = "dispatch";
+	private static final long STOP_TIMEOUT = 5000;
+
+	/**
+	 * logs are always stored (backpressure to logger), but parse and dispatch
+	 * are best-effort
+	 */
+	private static final Map<String, LogStageConfig> DEFAULT_STAGE_CONFIGS = new HashMap<String, LogStageConfig>();
+	static {
+		int cpuCount = Runtime.getRuntime().availableProcessors();
+		DEFAULT_STAGE_CONFIGS.put(STORE_STAGE, new LogStageConfig(STORE_STAGE, 2, 10000, false));
+		DEFAULT_STAGE_CONFIGS.put(PARSE_STAGE, new LogStageConfig(PARSE_STAGE, cpuCount, 10000, true));
+		DEFAULT_STAGE_CONFIGS.put(DISPATCH_STAGE, new LogStageConfig(DISPATCH_STAGE, 2, 10000, true));
+	}
+
 	@Requires
 	private ConfigManager configManager;
 
@@ -96,6 +126,10 @@ public class LogServerEngine implements LogServer, LogPipe, LoggerRegistryEventL
 	 */
 	private ConcurrentMap<String, LogNormalizer> normalizers;
 
+	private volatile LogStage<RawLogBatch> storeStage;
+	private volatile LogStage<RawLogBatch> parseStage;
+	private volatile LogStage<NormalizedLog> dispatchStage;
+
 	@Validate
 	public void start() {
 		normalizedLogCallbacks = new ConcurrentHashMap<String, CopyOnWriteArrayList<NormalizedLogListener>>();
@@ -104,6 +138,14 @@ public class LogServerEngine implements LogServer, LogPipe, LoggerRegistryEventL
 		parsers = new ConcurrentHashMap<String, LogParser>();
 		normalizers = new ConcurrentHashMap<String, LogNormalizer>();
 
+		// start pipeline from the last stage
+		dispatchStage = newStage(loadStageConfig(DISPATCH_STAGE));
+		dispatchStage.start();
+		parseStage = newStage(loadStageConfig(PARSE_STAGE));
+		parseStage.start();
+		storeStage = newStage(loadStageConfig(STORE_STAGE));
+		storeStage.start();
+
 		// add logger registration monitor
 		loggerRegistry.addListener(this);
 
@@ -127,6 +169,14 @@ public class LogServerEngine implements LogServer, LogPipe, LoggerRegistryEventL
 			disconnectManagedLogger(logger);
 
 		loggerRegistry.removeListener(this);
+
+		// drain pipeline from the first stage
+		if (storeStage != null)
+			storeStage.stop(STOP_TIMEOUT);
+		if (parseStage != null)
+			parseStage.stop(STOP_TIMEOUT);
+		if (dispatchStage != null)
+			dispatchStage.stop(STOP_TIMEOUT);
 	}
 
 	@Override
@@ -225,59 +275,249 @@ public class LogServerEngine implements LogServer, LogPipe, LoggerRegistryEventL
 	@Override
 	public void onLog(Logger logger, Log log) {
 		String fullName = logger.getFullName();
-		logStorage.write(convert(fullName, log));
+		storeStage.offer(fullName, new RawLogBatch(fullName, Collections.singletonList(log)));
+	}
 
-		ManagedLogger ml = managedLoggers.get(fullName);
-		if (ml == null) {
-			slog.trace("kraken siem: managed logger not found, {}", fullName);
+	@Override
+	public void onLogs(Logger logger, List<Log> logs) {
+		if (logs.isEmpty())
 			return;
-		}
 
-		LogParser parser = parsers.get(fullName);
-		if (parser == null) {
-			slog.trace("kraken siem: parser not found for logger [{}]", fullName);
-			return;
+		String fullName = logger.getFullName();
+		storeStage.offer(fullName, new RawLogBatch(fullName, logs));
+	}
+
+	//
+	// pipeline stages
+	//
+
+	private class StoreHandler implements LogStage.Handler<RawLogBatch> {
+		@Override
+		public void process(RawLogBatch batch) {
+			// bad log should not abort storing and parsing of the rest
+			List<Log> stored = null;
+			for (int i = 0; i < batch.logs.size(); i++) {
+				Log log = batch.logs.get(i);
+				try {
+					logStorage.write(convert(batch.fullName, log));
+					if (stored != null)
+						stored.add(log);
+				} catch (Exception e) {
+					slog.warn("kraken siem: cannot store log of logger [" + batch.fullName + "]", e);
+					if (stored == null)
+						stored = new ArrayList<Log>(batch.logs.subList(0, i));
+				}
+			}
+
+			if (stored != null) {
+				if (stored.isEmpty())
+					return;
+				batch = new RawLogBatch(batch.fullName, stored);
+			}
+
+			if (managedLoggers.containsKey(batch.fullName) && parsers.containsKey(batch.fullName))
+				parseStage.offer(batch.fullName, batch);
 		}
+	}
 
-		Map<String, Object> parsed = parser.parse(log.getParams());
-		if (parsed == null) {
-			slog.debug("kraken siem: parser returned null");
-			return;
+	private class ParseHandler implements LogStage.Handler<RawLogBatch> {
+		// parse buffers are reused by each worker thread
+		private ThreadLocal<ParseBuffers> buffers = new ThreadLocal<ParseBuffers>() {
+			@Override
+			protected ParseBuffers initialValue() {
+				return new ParseBuffers();
+			}
+		};
+
+		@Override
+		public void process(RawLogBatch batch) {
+			String fullName = batch.fullName;
+			ManagedLogger ml = managedLoggers.get(fullName);
+			if (ml == null) {
+				slog.trace("kraken siem: managed logger not found, {}", fullName);
+				return;
+			}
+
+			LogParser parser = parsers.get(fullName);
+			if (parser == null) {
+				slog.trace("kraken siem: parser not found for logger [{}]", fullName);
+				return;
+			}
+
+			LogNormalizer normalizer = normalizers.get(fullName);
+			if (normalizer == null) {
+				slog.trace("kraken siem: normalizer not found for logger [{}]", fullName);
+				return;
+			}
+
+			ParseBuffers b = buffers.get();
+			try {
+				for (Log log : batch.logs)
+					b.params.add(log.getParams());
+
+				LogBatches.parseBatch(parser, b.params, b.parsed);
+				LogBatches.normalizeBatch(normalizer, b.parsed, b.normalized);
+
+				for (int i = 0; i < b.normalized.size(); i++) {
+					Map<String, Object> normalized = b.normalized.get(i);
+					if (normalized == null) {
+						if (b.parsed.get(i) == null)
+							slog.debug("kraken siem: parser returned null");
+						else
+							slog.debug("kraken siem: normalizer returned null");
+						continue;
+					}
+
+					NormalizedLog normalizedLog = new NormalizedLog(ml.getOrgDomain(), normalized);
+					String category = (String) normalizedLog.get("category");
+					if (category == null) {
+						slog.debug("kraken siem: normalization category not found");
+						continue;
+					}
+
+					if (normalizedLogCallbacks.containsKey(category))
+						dispatchStage.offer(category, normalizedLog);
+				}
+			} finally {
+				b.clear();
+			}
 		}
+	}
 
-		LogNormalizer normalizer = normalizers.get(fullName);
-		if (normalizer == null) {
-			slog.trace("kraken siem: normalizer not found for logger [{}]", fullName);
-			return;
+	private class DispatchHandler implements LogStage.Handler<NormalizedLog> {
+		@Override
+		public void process(NormalizedLog normalizedLog) {
+			String category = (String) normalizedLog.get("category");
+			CopyOnWriteArrayList<NormalizedLogListener> callbacks = normalizedLogCallbacks.get(category);
+			if (callbacks == null)
+				return;
+
+			for (NormalizedLogListener callback : callbacks) {
+				try {
+					if (slog.isTraceEnabled())
+						slog.trace("kraken siem: normalized log [{}]", normalizedLog);
+
+					callback.onLog(normalizedLog);
+				} catch (Exception e) {
+					slog.warn("kraken siem: normalized log listener callback should not throw any exception", e);
+				}
+			}
 		}
+	}
 
-		Map<String, Object> normalized = normalizer.normalize(parsed);
-		if (normalized == null) {
-			slog.debug("kraken siem: normalizer returned null");
-			return;
+	private static class RawLogBatch {
+		private final String fullName;
+		private final List<Log> logs;
+
+		public RawLogBatch(String fullName, List<Log> logs) {
+			this.fullName = fullName;
+			this.logs = logs;
 		}
+	}
 
-		NormalizedLog normalizedLog = new NormalizedLog(ml.getOrgDomain(), normalized);
-		String category = (String) normalizedLog.get("category");
-		if (category == null) {
-			slog.debug("kraken siem: normalization category not found");
-			return;
+	private static class ParseBuffers {
+		private List<Map<String, Object>> params = new ArrayList<Map<String, Object>>();
+		private List<Map<String, Object>> parsed = new ArrayList<Map<String, Object>>();
+		private List<Map<String, Object>> normalized = new ArrayList<Map<String, Object>>();
+
+		public void clear() {
+			params.clear();
+			parsed.clear();
+			normalized.clear();
 		}
+	}
 
-		CopyOnWriteArrayList<NormalizedLogListener> callbacks = normalizedLogCallbacks.get(category);
-		if (callbacks == null)
-			return;
+	@Override
+	public Collection<LogStageStatus> getStageStatuses() {
+		List<LogStageStatus> l = new ArrayList<LogStageStatus>();
+		l.add(storeStage.getStatus());
+		l.add(parseStage.getStatus());
+		l.add(dispatchStage.getStatus());
+		return l;
+	}
 
-		for (NormalizedLogListener callback : callbacks) {
-			try {
-				if (slog.isTraceEnabled())
-					slog.trace("kraken siem: normalized log [{}]", normalizedLog);
+	@Override
+	public LogStageConfig getStageConfig(String name) {
+		LogStage<?> stage = getStage(name);
+		return stage == null ? null : stage.getConfig();
+	}
 
-				callback.onLog(normalizedLog);
-			} catch (Exception e) {
-				slog.warn("kraken siem: normalized log listener callback should not throw any exception", e);
-			}
+	/**
+	 * Saves stage config, and replaces the stage. Blocks until old stage
+	 * completes queued logs, and new stage starts after that, so that per
+	 * logger order is kept and a parser is never used by two threads at once.
+	 */
+	@Override
+	public synchronized void setStageConfig(LogStageConfig config) {
+		String name = config.getName();
+		if (getStage(name) == null)
+			throw new IllegalArgumentException("log stage not found: " + name);
+		if (config.getWorkers() < 1)
+			throw new IllegalArgumentException("workers should be positive: " + config.getWorkers());
+		if (config.getQueueSize() < 1)
+			throw new IllegalArgumentException("queue size should be positive: " + config.getQueueSize());
+
+		ConfigCollection col = getStageCol();
+		Config c = col.findOne(Predicates.field("name", name));
+		if (c == null) {
+			col.add(PrimitiveConverter.serialize(config));
+		} else {
+			c.setDocument(PrimitiveConverter.serialize(config));
+			col.update(c);
 		}
+
+		if (name.equals(STORE_STAGE))
+			storeStage = replaceStage(storeStage, config);
+		else if (name.equals(PARSE_STAGE))
+			parseStage = replaceStage(parseStage, config);
+		else
+			dispatchStage = replaceStage(dispatchStage, config);
+
+		slog.info("kraken siem: log stage changed, {}", config);
+	}
+
+	private <T> LogStage<T> replaceStage(LogStage<T> old, LogStageConfig config) {
+		// logs offered during hand-over are queued to new stage
+		LogStage<T> stage = newStage(config);
+		old.handOver(stage);
+		stage.start();
+		return stage;
+	}
+
+	private LogStage<?> getStage(String name) {
+		if (name.equals(STORE_STAGE))
+			return storeStage;
+		else if (name.equals(PARSE_STAGE))
+			return parseStage;
+		else if (name.equals(DISPATCH_STAGE))
+			return dispatchStage;
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> LogStage<T> newStage(LogStageConfig config) {
+		LogStage.Handler<?> handler = null;
+		if (config.getName().equals(STORE_STAGE))
+			handler = new StoreHandler();
+		else if (config.getName().equals(PARSE_STAGE))
+			handler = new ParseHandler();
+		else
+			handler = new DispatchHandler();
+
+		return new LogStage<T>(config, (LogStage.Handler<T>) handler);
+	}
+
+	private LogStageConfig loadStageConfig(String name) {
+		Config c = getStageCol().findOne(Predicates.field("name", name));
+		if (c != null)
+			return PrimitiveConverter.parse(LogStageConfig.class, c.getDocument());
+
+		return DEFAULT_STAGE_CONFIGS.get(name);
+	}
+
+	private ConfigCollection getStageCol() {
+		ConfigDatabase db = configManager.getDatabase();
+		return db.ensureCollection("log_stage");
 	}
 
 	private Properties getTableMetadata(String tableName) {
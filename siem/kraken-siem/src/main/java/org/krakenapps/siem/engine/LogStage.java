@@ -0,0 +1,240 @@
+/*
+ * Copyright 2011 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.siem.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.krakenapps.siem.model.LogStageConfig;
+import org.krakenapps.siem.model.LogStageStatus;
+
+/**
+ * Pipeline stage with bounded queue per worker. Items are routed to worker by
+ * key hash, so items of same key (e.g. logger or category) are processed in
+ * order by one thread, and stateful handlers such as log parsers are confined
+ * to a thread. If the queue is full, new item is dropped or producer waits,
+ * according to stage config.
+ *
+ * Stage is replaced by handing over to next stage, which is started only after
+ * every worker of this stage drained its queue and exited, so that handlers of
+ * a key never run on two threads at once.
+ *
+ * @author xeraph
+ *
+ */
+class LogStage<T> {
+	private final org.slf4j.Logger slog = org.slf4j.LoggerFactory.getLogger(LogStage.class.getName());
+
+	public interface Handler<T> {
+		void process(T item);
+	}
+
+	private final LogStageConfig config;
+	private final Handler<T> handler;
+	private final List<Worker> workers;
+	private volatile boolean doStop;
+
+	// producers in offer(), to close race with handOver()
+	private final AtomicInteger offering = new AtomicInteger();
+
+	// items offered after stop are forwarded if stage is replaced
+	private volatile LogStage<T> next;
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong maxLatency = new AtomicLong();
+
+	public LogStage(LogStageConfig config, Handler<T> handler) {
+		this.config = config;
+		this.handler = handler;
+		this.workers = new ArrayList<Worker>();
+
+		int count = Math.max(1, config.getWorkers());
+		int queueSize = Math.max(1, config.getQueueSize());
+		for (int i = 0; i < count; i++)
+			workers.add(new Worker(config.getName() + " #" + i, queueSize));
+	}
+
+	public LogStageConfig getConfig() {
+		return config;
+	}
+
+	public void start() {
+		for (Worker w : workers)
+			w.thread.start();
+	}
+
+	/**
+	 * Stops accepting items, and waits until workers process queued items.
+	 */
+	public void stop(long timeout) {
+		doStop = true;
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Worker w : workers) {
+			try {
+				w.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting items, and waits until every worker processed its queued
+	 * items and exited. Items offered after that are forwarded to next stage,
+	 * so next stage should be started after this method returns.
+	 */
+	public void handOver(LogStage<T> next) {
+		this.next = next;
+		doStop = true;
+
+		boolean interrupted = false;
+
+		// no item is queued after in-progress offers are completed
+		while (offering.get() > 0)
+			Thread.yield();
+
+		// worker exits when its queue is empty, wait regardless of interrupt
+		for (Worker w : workers) {
+			while (w.thread.isAlive()) {
+				try {
+					w.thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * @return true if item is queued, false if it is dropped
+	 */
+	public boolean offer(String key, T item) {
+		offering.incrementAndGet();
+		try {
+			if (!doStop) {
+				Worker w = workers.get((key.hashCode() & 0x7fffffff) % workers.size());
+				Entry<T> e = new Entry<T>(item);
+				if (w.queue.offer(e))
+					return true;
+
+				if (config.isDropWhenFull()) {
+					dropped.incrementAndGet();
+					return false;
+				}
+
+				blocked.incrementAndGet();
+				try {
+					while (!doStop) {
+						if (w.queue.offer(e, 500, TimeUnit.MILLISECONDS))
+							return true;
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return false;
+				}
+			}
+		} finally {
+			offering.decrementAndGet();
+		}
+
+		// next stage may block, so forward after leaving this stage
+		LogStage<T> n = next;
+		if (n != null)
+			return n.offer(key, item);
+
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	public LogStageStatus getStatus() {
+		int queued = 0;
+		for (Worker w : workers)
+			queued += w.queue.size();
+
+		long count = processed.get();
+		long avg = count == 0 ? 0 : totalLatency.get() / count;
+		return new LogStageStatus(config, queued, count, dropped.get(), blocked.get(), failed.get(), avg,
+				maxLatency.get());
+	}
+
+	private void record(long latency) {
+		processed.incrementAndGet();
+		totalLatency.addAndGet(latency);
+
+		long max = maxLatency.get();
+		while (latency > max && !maxLatency.compareAndSet(max, latency))
+			max = maxLatency.get();
+	}
+
+	private static class Entry<T> {
+		private final T item;
+		private final long enqueued;
+
+		public Entry(T item) {
+			this.item = item;
+			this.enqueued = System.currentTimeMillis();
+		}
+	}
+
+	private class Worker implements Runnable {
+		private final BlockingQueue<Entry<T>> queue;
+		private final Thread thread;
+
+		public Worker(String name, int queueSize) {
+			this.queue = new ArrayBlockingQueue<Entry<T>>(queueSize);
+			this.thread = new Thread(this, "SIEM Log " + name);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Entry<T> e = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (e == null) {
+						if (doStop)
+							break;
+						continue;
+					}
+
+					try {
+						handler.process(e.item);
+					} catch (Throwable t) {
+						failed.incrementAndGet();
+						slog.warn("kraken siem: log stage [" + config.getName() + "] error", t);
+					}
+
+					record(System.currentTimeMillis() - e.enqueued);
+				}
+			} catch (InterruptedException e) {
+				slog.debug("kraken siem: log stage [{}] worker interrupted", config.getName());
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.siem.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.krakenapps.msgbus.Marshalable;
+
+/**
+ * Worker and queue settings of log server pipeline stage (store, parse,
+ * dispatch)
+ */
+public class LogStageConfig implements Marshalable {
+	private String name;
+
+	private int workers;
+
+	/**
+	 * queue capacity per worker
+	 */
+	private int queueSize;
+
+	/**
+	 * drop new log if queue is full, or block the producer (backpressure)
+	 */
+	private boolean dropWhenFull;
+
+	public LogStageConfig() {
+	}
+
+	public LogStageConfig(String name, int workers, int queueSize, boolean dropWhenFull) {
+		this.name = name;
+		this.workers = workers;
+		this.queueSize = queueSize;
+		this.dropWhenFull = dropWhenFull;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public boolean isDropWhenFull() {
+		return dropWhenFull;
+	}
+
+	public void setDropWhenFull(boolean dropWhenFull) {
+		this.dropWhenFull = dropWhenFull;
+	}
+
+	@Override
+	public Map<String, Object> marshal() {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", name);
+		m.put("workers", workers);
+		m.put("queue_size", queueSize);
+		m.put("drop_when_full", dropWhenFull);
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return "stage=" + name + ", workers=" + workers + ", queue size=" + queueSize + ", policy="
+				+ (dropWhenFull ? "drop" : "block");
+	}
+}
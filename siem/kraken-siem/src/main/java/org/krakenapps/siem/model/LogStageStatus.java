@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.siem.model;
+
+import java.util.Map;
+
+import org.krakenapps.msgbus.Marshalable;
+
+/**
+ * Snapshot of log server pipeline stage. Latency is measured from enqueue to
+ * the end of stage processing.
+ */
+public class LogStageStatus implements Marshalable {
+	private LogStageConfig config;
+	private int queued;
+	private long processed;
+	private long dropped;
+	private long blocked;
+	private long failed;
+	private long averageLatency;
+	private long maxLatency;
+
+	public LogStageStatus(LogStageConfig config, int queued, long processed, long dropped, long blocked, long failed,
+			long averageLatency, long maxLatency) {
+		this.config = config;
+		this.queued = queued;
+		this.processed = processed;
+		this.dropped = dropped;
+		this.blocked = blocked;
+		this.failed = failed;
+		this.averageLatency = averageLatency;
+		this.maxLatency = maxLatency;
+	}
+
+	public LogStageConfig getConfig() {
+		return config;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	public long getProcessed() {
+		return processed;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the count of producer waits caused by full queue
+	 */
+	public long getBlocked() {
+		return blocked;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return the average latency in milliseconds
+	 */
+	public long getAverageLatency() {
+		return averageLatency;
+	}
+
+	/**
+	 * @return the max latency in milliseconds
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@Override
+	public Map<String, Object> marshal() {
+		Map<String, Object> m = config.marshal();
+		m.put("queued", queued);
+		m.put("processed", processed);
+		m.put("dropped", dropped);
+		m.put("blocked", blocked);
+		m.put("failed", failed);
+		m.put("avg_latency", averageLatency);
+		m.put("max_latency", maxLatency);
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return config + ", queued=" + queued + ", processed=" + processed + ", dropped=" + dropped + ", blocked="
+				+ blocked + ", failed=" + failed + ", avg latency=" + averageLatency + "ms, max latency=" + maxLatency
+				+ "ms";
+	}
+}
@@ -47,6 +47,8 @@ import org.krakenapps.siem.LogServer;
 import org.krakenapps.siem.engine.EventResponseMapper;
 import org.krakenapps.siem.engine.IscHttpRuleManager;
 import org.krakenapps.siem.engine.ResponseKey;
+import org.krakenapps.siem.model.LogStageConfig;
+import org.krakenapps.siem.model.LogStageStatus;
 import org.krakenapps.siem.model.ManagedLogger;
 import org.krakenapps.siem.response.ResponseAction;
 import org.krakenapps.siem.response.ResponseActionManager;
@@ -124,6 +126,39 @@ public class SiemScript implements Script {
 		}
 	}
 
+	@ScriptUsage(description = "print log pipeline stages")
+	public void stages(String[] args) {
+		LogServer logServer = getLogServer();
+		context.println("Log Pipeline Stages");
+		context.println("---------------------");
+		for (LogStageStatus status : logServer.getStageStatuses())
+			context.println(status.toString());
+	}
+
+	@ScriptUsage(description = "set workers and queue of log pipeline stage", arguments = {
+			@ScriptArgument(name = "stage", type = "string", description = "store, parse, or dispatch"),
+			@ScriptArgument(name = "workers", type = "int", description = "worker thread count"),
+			@ScriptArgument(name = "queue size", type = "int", description = "queue capacity per worker"),
+			@ScriptArgument(name = "policy", type = "string", description = "drop or block, when queue is full") })
+	public void setStage(String[] args) {
+		try {
+			String policy = args[3];
+			if (!policy.equals("drop") && !policy.equals("block")) {
+				context.println("policy should be drop or block");
+				return;
+			}
+
+			LogStageConfig c = new LogStageConfig(args[0], Integer.valueOf(args[1]), Integer.valueOf(args[2]),
+					policy.equals("drop"));
+			getLogServer().setStageConfig(c);
+			context.println("set " + c);
+		} catch (NumberFormatException e) {
+			context.println("invalid number format");
+		} catch (IllegalArgumentException e) {
+			context.println(e.getMessage());
+		}
+	}
+
 	public void updateHttpRules(String[] args) {
 		IscHttpRuleManager manager = getIscHttpRuleManager();
 
@@ -15,17 +15,19 @@
  */
 package org.krakenapps.logparser.syslog.fortinet;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.krakenapps.log.api.LogParser;
-import org.krakenapps.util.QuotedKeyValueParser;
+import org.krakenapps.logparser.syslog.internal.FieldBuffer;
+import org.krakenapps.logparser.syslog.internal.FieldTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class FortigateLogParser implements LogParser {
 	private Logger logger = LoggerFactory.getLogger(this.getClass());
+	private FieldTokenizer tokenizer = new FieldTokenizer();
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
 		Integer severity = (Integer) params.get("severity");
@@ -33,7 +35,9 @@ public class FortigateLogParser implements LogParser {
 
 		String line = (String) params.get("msg");
 		try {
-			Map<String, Object> map = (Map<String, Object>) (Object) QuotedKeyValueParser.parse(line);
+			FieldBuffer fields = tokenizer.keyValues(line);
+			Map<String, Object> map = new HashMap<String, Object>(fields.size() * 2);
+			fields.putAll(map);
 
 			map.put("severity", severity);
 			map.put("facility", (Integer) params.get("facility"));
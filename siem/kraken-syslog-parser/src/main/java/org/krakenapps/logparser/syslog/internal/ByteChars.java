@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logparser.syslog.internal;
+
+import java.nio.charset.Charset;
+
+/**
+ * Char sequence view of byte range. Each byte is mapped to one char for
+ * scanning, which is safe for ascii delimiters of ascii compatible charsets
+ * (e.g. utf-8, euc-kr). Substrings are decoded using the charset.
+ *
+ * @author xeraph
+ *
+ */
+public class ByteChars implements CharSequence {
+	private byte[] b;
+	private int offset;
+	private int length;
+	private Charset charset;
+
+	public ByteChars() {
+	}
+
+	public ByteChars(byte[] b, int offset, int length, Charset charset) {
+		set(b, offset, length, charset);
+	}
+
+	/**
+	 * Points other byte range, for reuse
+	 */
+	public ByteChars set(byte[] b, int offset, int length, Charset charset) {
+		this.b = b;
+		this.offset = offset;
+		this.length = length;
+		this.charset = charset;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (b[offset + index] & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return substring(start, end);
+	}
+
+	public String substring(int start, int end) {
+		return new String(b, offset + start, end - start, charset);
+	}
+
+	@Override
+	public String toString() {
+		return substring(0, length);
+	}
+}
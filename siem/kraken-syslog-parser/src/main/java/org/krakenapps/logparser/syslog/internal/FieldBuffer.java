@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logparser.syslog.internal;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Reusable field ranges filled by {@link FieldTokenizer}. Values are decoded
+ * only when requested, and numbers are parsed without substring. Contents are
+ * valid until next tokenize call of the owner tokenizer.
+ *
+ * @author xeraph
+ *
+ */
+public class FieldBuffer {
+	// value is plain range
+	static final int PLAIN = 0;
+
+	// value range is quoted, and contains no escape
+	static final int QUOTED = 1;
+
+	// value contains quotes or escapes, and should be unescaped
+	static final int ESCAPED = 2;
+
+	// csv value with doubled quotes or text after closing quote
+	static final int CSV_ESCAPED = 3;
+
+	private CharSequence source;
+	private int size;
+	private String[] keys = new String[32];
+	private int[] begins = new int[32];
+	private int[] ends = new int[32];
+	private byte[] types = new byte[32];
+
+	void reset(CharSequence source) {
+		this.source = source;
+		this.size = 0;
+	}
+
+	void add(String key, int begin, int end, int type) {
+		if (size == keys.length) {
+			int n = size * 2;
+			keys = Arrays.copyOf(keys, n);
+			begins = Arrays.copyOf(begins, n);
+			ends = Arrays.copyOf(ends, n);
+			types = Arrays.copyOf(types, n);
+		}
+
+		keys[size] = key;
+		begins[size] = begin;
+		ends[size] = end;
+		types[size] = (byte) type;
+		size++;
+	}
+
+	public CharSequence getSource() {
+		return source;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the interned key, or null for positional field
+	 */
+	public String key(int i) {
+		check(i);
+		return keys[i];
+	}
+
+	/**
+	 * @return the begin offset of field value in source
+	 */
+	public int begin(int i) {
+		check(i);
+		return types[i] == QUOTED ? begins[i] + 1 : begins[i];
+	}
+
+	/**
+	 * @return the end offset (exclusive) of field value in source
+	 */
+	public int end(int i) {
+		check(i);
+		return types[i] == QUOTED ? ends[i] - 1 : ends[i];
+	}
+
+	/**
+	 * @return the index of the key, or -1 if not found
+	 */
+	public int indexOf(String key) {
+		for (int i = 0; i < size; i++)
+			if (keys[i] == key)
+				return i;
+
+		for (int i = 0; i < size; i++)
+			if (key.equals(keys[i]))
+				return i;
+
+		return -1;
+	}
+
+	/**
+	 * @return the value of the key, or null if not found
+	 */
+	public String get(String key) {
+		int i = indexOf(key);
+		return i < 0 ? null : value(i);
+	}
+
+	public String value(int i) {
+		check(i);
+		if (types[i] == ESCAPED)
+			return unescape(substring(begins[i], ends[i]));
+		if (types[i] == CSV_ESCAPED)
+			return unescapeCsv(substring(begins[i], ends[i]));
+
+		return substring(begin(i), end(i));
+	}
+
+	public boolean valueEquals(int i, String s) {
+		check(i);
+		if (types[i] == ESCAPED || types[i] == CSV_ESCAPED)
+			return s.equals(value(i));
+
+		int b = begin(i);
+		int e = end(i);
+		if (e - b != s.length())
+			return false;
+
+		for (int j = b; j < e; j++)
+			if (source.charAt(j) != s.charAt(j - b))
+				return false;
+
+		return true;
+	}
+
+	public int intValue(int i) {
+		return (int) parseLong(begin(i), end(i));
+	}
+
+	public long longValue(int i) {
+		return parseLong(begin(i), end(i));
+	}
+
+	/**
+	 * Puts all keyed fields to map. Positional fields are ignored.
+	 */
+	public void putAll(Map<String, Object> m) {
+		for (int i = 0; i < size; i++)
+			if (keys[i] != null)
+				m.put(keys[i], value(i));
+	}
+
+	/**
+	 * @return the first index of c in [begin, end) of source, or -1
+	 */
+	public int indexOf(char c, int begin, int end) {
+		for (int i = begin; i < end; i++)
+			if (source.charAt(i) == c)
+				return i;
+		return -1;
+	}
+
+	public String substring(int begin, int end) {
+		if (source instanceof String)
+			return ((String) source).substring(begin, end);
+		if (source instanceof ByteChars)
+			return ((ByteChars) source).substring(begin, end);
+		return source.subSequence(begin, end).toString();
+	}
+
+	/**
+	 * Parses signed decimal number in [begin, end) of source
+	 *
+	 * @throws NumberFormatException
+	 *             if the range is not a number
+	 */
+	public long parseLong(int begin, int end) {
+		if (begin >= end)
+			throw new NumberFormatException("empty number");
+
+		boolean negative = false;
+		int i = begin;
+		char c = source.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			if (++i == end)
+				throw new NumberFormatException("invalid number: " + substring(begin, end));
+		}
+
+		long n = 0;
+		for (; i < end; i++) {
+			c = source.charAt(i);
+			if (c < '0' || c > '9')
+				throw new NumberFormatException("invalid number: " + substring(begin, end));
+			n = n * 10 + (c - '0');
+		}
+
+		return negative ? -n : n;
+	}
+
+	public int parseInt(int begin, int end) {
+		return (int) parseLong(begin, end);
+	}
+
+	private void check(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("field index " + i + ", size " + size);
+	}
+
+	/**
+	 * Removes quotes around quoted parts and backslashes in quoted parts. For
+	 * example, k="a \"b\" c"d becomes a "b" cd.
+	 */
+	static String unescape(String raw) {
+		StringBuilder sb = new StringBuilder(raw.length());
+		char quote = 0;
+		for (int i = 0; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (quote == 0) {
+				if (c == '"' || c == '\'')
+					quote = c;
+				else
+					sb.append(c);
+			} else if (c == '\\') {
+				if (i + 1 < raw.length())
+					sb.append(raw.charAt(++i));
+			} else if (c == quote) {
+				quote = 0;
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Removes enclosing double quotes of csv field, and unescapes doubled
+	 * quotes. For example, "a ""b"" c" becomes a "b" c.
+	 */
+	static String unescapeCsv(String raw) {
+		if (raw.length() == 0 || raw.charAt(0) != '"')
+			return raw;
+
+		StringBuilder sb = new StringBuilder(raw.length());
+		int i = 1;
+		while (i < raw.length()) {
+			char c = raw.charAt(i++);
+			if (c == '"') {
+				if (i < raw.length() && raw.charAt(i) == '"') {
+					sb.append('"');
+					i++;
+				} else {
+					// closing quote, keep trailing text as is
+					sb.append(raw, i, raw.length());
+					break;
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logparser.syslog.internal;
+
+import java.nio.charset.Charset;
+
+/**
+ * Single pass tokenizer for vendor log lines. Tokenizer records field ranges
+ * of the source into reusable {@link FieldBuffer}, and interns keys through
+ * its {@link KeyDictionary}, so that no substring is created until value is
+ * requested. Tokenizer is not thread-safe, so each parser instance should own
+ * one.
+ *
+ * @author xeraph
+ *
+ */
+public class FieldTokenizer {
+	private final KeyDictionary dict;
+	private final FieldBuffer buf = new FieldBuffer();
+	private final ByteChars bytes = new ByteChars();
+
+	public FieldTokenizer() {
+		this(new KeyDictionary());
+	}
+
+	public FieldTokenizer(KeyDictionary dict) {
+		this.dict = dict;
+	}
+
+	public KeyDictionary getKeyDictionary() {
+		return dict;
+	}
+
+	public FieldBuffer keyValues(CharSequence s) {
+		return keyValues(s, 0, s.length());
+	}
+
+	public FieldBuffer keyValues(byte[] b, int offset, int length, Charset charset) {
+		bytes.set(b, offset, length, charset);
+		return keyValues(bytes, 0, length);
+	}
+
+	/**
+	 * Tokenizes space separated key=value pairs. Key is the last word before
+	 * '='. Value ends with space, but spaces in single or double quoted part
+	 * are preserved, and backslash escapes the next char in quoted part. Words
+	 * without '=' are skipped.
+	 */
+	public FieldBuffer keyValues(CharSequence s, int begin, int end) {
+		buf.reset(s);
+
+		int i = begin;
+		while (i < end) {
+			// skip spaces
+			while (i < end && s.charAt(i) == ' ')
+				i++;
+
+			// find key
+			int keyBegin = i;
+			while (i < end) {
+				char c = s.charAt(i);
+				if (c == '=')
+					break;
+				if (c == ' ')
+					keyBegin = i + 1;
+				i++;
+			}
+
+			if (i >= end)
+				break;
+
+			String key = dict.intern(s, keyBegin, i);
+
+			// find value
+			int valueBegin = ++i;
+			int type = FieldBuffer.PLAIN;
+			char quote = 0;
+			while (i < end) {
+				char c = s.charAt(i);
+				if (quote == 0) {
+					if (c == ' ')
+						break;
+
+					if (c == '"' || c == '\'') {
+						quote = c;
+						type = i == valueBegin ? FieldBuffer.QUOTED : FieldBuffer.ESCAPED;
+					}
+				} else if (c == '\\') {
+					type = FieldBuffer.ESCAPED;
+					i++;
+				} else if (c == quote) {
+					quote = 0;
+
+					// text follows closing quote
+					if (i + 1 < end && s.charAt(i + 1) != ' ')
+						type = FieldBuffer.ESCAPED;
+				}
+				i++;
+			}
+
+			int valueEnd = Math.min(i, end);
+
+			// unterminated quote
+			if (quote != 0 && type == FieldBuffer.QUOTED)
+				type = FieldBuffer.ESCAPED;
+
+			buf.add(key, valueBegin, valueEnd, type);
+		}
+
+		return buf;
+	}
+
+	public FieldBuffer split(CharSequence s, char delimiter) {
+		return split(s, 0, s.length(), delimiter);
+	}
+
+	public FieldBuffer split(byte[] b, int offset, int length, Charset charset, char delimiter) {
+		bytes.set(b, offset, length, charset);
+		return split(bytes, 0, length, delimiter);
+	}
+
+	/**
+	 * Tokenizes delimiter separated positional fields (e.g. csv). Field which
+	 * begins with double quote ends with closing quote, and delimiters in the
+	 * quote are preserved. Empty fields are kept.
+	 */
+	public FieldBuffer split(CharSequence s, int begin, int end, char delimiter) {
+		buf.reset(s);
+
+		int i = begin;
+		while (true) {
+			int fieldBegin = i;
+			int type = FieldBuffer.PLAIN;
+
+			if (i < end && s.charAt(i) == '"') {
+				type = FieldBuffer.QUOTED;
+				i++;
+				while (i < end) {
+					char c = s.charAt(i);
+					if (c == '"') {
+						// doubled quote is escaped quote in csv
+						if (i + 1 < end && s.charAt(i + 1) == '"') {
+							type = FieldBuffer.CSV_ESCAPED;
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+
+				if (i >= end)
+					type = FieldBuffer.CSV_ESCAPED;
+				else
+					i++;
+			}
+
+			while (i < end && s.charAt(i) != delimiter)
+				i++;
+
+			// text follows closing quote
+			if (type == FieldBuffer.QUOTED && s.charAt(i - 1) != '"')
+				type = FieldBuffer.CSV_ESCAPED;
+
+			buf.add(null, fieldBegin, i, type);
+
+			if (i >= end)
+				break;
+			i++;
+		}
+
+		return buf;
+	}
+
+	public FieldBuffer words(CharSequence s) {
+		return words(s, 0, s.length());
+	}
+
+	/**
+	 * Tokenizes words separated by one or more spaces or tabs
+	 */
+	public FieldBuffer words(CharSequence s, int begin, int end) {
+		buf.reset(s);
+
+		int i = begin;
+		while (true) {
+			while (i < end && isSpace(s.charAt(i)))
+				i++;
+
+			if (i >= end)
+				break;
+
+			int wordBegin = i;
+			while (i < end && !isSpace(s.charAt(i)))
+				i++;
+
+			buf.add(null, wordBegin, i, FieldBuffer.PLAIN);
+		}
+
+		return buf;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t';
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logparser.syslog.internal;
+
+/**
+ * Interns keys of character range without substring allocation. Dictionary is
+ * bounded, so garbage keys cannot grow it forever. Not thread-safe, use one
+ * dictionary per parser.
+ *
+ * @author xeraph
+ *
+ */
+public class KeyDictionary {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private final String[] table;
+	private final int[] hashes;
+	private final int mask;
+	private final int limit;
+	private int size;
+
+	public KeyDictionary() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the max key count
+	 */
+	public KeyDictionary(int capacity) {
+		int n = 16;
+		while (n < capacity * 2)
+			n <<= 1;
+
+		this.table = new String[n];
+		this.hashes = new int[n];
+		this.mask = n - 1;
+		this.limit = capacity;
+	}
+
+	/**
+	 * Creates dictionary with known keys
+	 */
+	public KeyDictionary(String... keys) {
+		this(Math.max(DEFAULT_CAPACITY, keys.length));
+		for (String key : keys)
+			intern(key, 0, key.length());
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the interned key, or new string if dictionary is full
+	 */
+	public String intern(CharSequence s, int begin, int end) {
+		int h = 0;
+		for (int i = begin; i < end; i++)
+			h = 31 * h + s.charAt(i);
+
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (true) {
+			String key = table[slot];
+			if (key == null)
+				break;
+
+			if (hashes[slot] == h && matches(key, s, begin, end))
+				return key;
+
+			slot = (slot + 1) & mask;
+		}
+
+		String key = s.subSequence(begin, end).toString();
+		if (size < limit) {
+			table[slot] = key;
+			hashes[slot] = h;
+			size++;
+		}
+
+		return key;
+	}
+
+	private static boolean matches(String key, CharSequence s, int begin, int end) {
+		int len = end - begin;
+		if (key.length() != len)
+			return false;
+
+		for (int i = 0; i < len; i++)
+			if (key.charAt(i) != s.charAt(begin + i))
+				return false;
+
+		return true;
+	}
+}
@@ -17,14 +17,16 @@ package org.krakenapps.logparser.syslog.juniper;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Scanner;
 
 import org.krakenapps.log.api.LogParser;
+import org.krakenapps.logparser.syslog.internal.FieldBuffer;
+import org.krakenapps.logparser.syslog.internal.FieldTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SrxLogParser implements LogParser {
 	private final Logger logger = LoggerFactory.getLogger(SrxLogParser.class.getName());
+	private final FieldTokenizer tokenizer = new FieldTokenizer();
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
@@ -34,47 +36,41 @@ public class SrxLogParser implements LogParser {
 			return null;
 
 		try {
-			Scanner s = new Scanner(line);
-			s.useDelimiter(" +");
-
-			String month = s.next();
-			String day = s.next();
-			String time = s.next();
-			String type = s.next();
-			String logtype = s.next();
-			s.next();
-			s.next();
-
-			if (logtype.equals("RT_FLOW_SESSION_CREATE:")) {
+			// month, day, time, type, logtype, and 2 words of description
+			FieldBuffer f = tokenizer.words(line);
+			int i = 7;
+
+			if (f.valueEquals(4, "RT_FLOW_SESSION_CREATE:")) {
 				m.put("action", "create");
-				parseCommon(m, s);
-			} else if (logtype.equals("RT_FLOW_SESSION_CLOSE:")) {
+				i = parseCommon(m, f, i);
+			} else if (f.valueEquals(4, "RT_FLOW_SESSION_CLOSE:")) {
 				m.put("action", "close");
 
-				String reason = s.next();
-				if (!reason.endsWith(":"))
-					reason += " " + s.next();
+				int reasonBegin = f.begin(i);
+				int reasonEnd = f.end(i++);
+				if (f.getSource().charAt(reasonEnd - 1) != ':')
+					reasonEnd = f.end(i++);
 
-				m.put("reason", reason.substring(0, reason.length() - 1));
-				parseCommon(m, s);
-				parseStat(m, "sent", s.next());
-				parseStat(m, "rcvd", s.next());
+				m.put("reason", f.substring(reasonBegin, reasonEnd - 1));
+				i = parseCommon(m, f, i);
+				parseStat(m, "sent", f, i++);
+				parseStat(m, "rcvd", f, i++);
 
-				m.put("elapsed_time", Long.valueOf(s.next()));
-			} else if (logtype.equals("RT_FLOW_SESSION_DENY:")) {
+				m.put("elapsed_time", f.longValue(i++));
+			} else if (f.valueEquals(4, "RT_FLOW_SESSION_DENY:")) {
 				m.put("action", "deny");
-				parseFlow(m, s);
+				i = parseFlow(m, f, i);
 
-				String token = s.next();
-				int p1 = token.indexOf('(');
-				String protocol = token.substring(0, p1);
-				String icmpType = token.substring(p1 + 1, token.length() - 1);
+				int p1 = f.indexOf('(', f.begin(i), f.end(i));
+				String protocol = f.substring(f.begin(i), p1);
+				String icmpType = f.substring(p1 + 1, f.end(i) - 1);
+				i++;
 
 				m.put("protocol", protocol);
 				m.put("icmp_type", icmpType);
-				m.put("policy", s.next());
-				m.put("src_zone", s.next());
-				m.put("dst_zone", s.next());
+				m.put("policy", f.value(i++));
+				m.put("src_zone", f.value(i++));
+				m.put("dst_zone", f.value(i++));
 			} else
 				return params;
 
@@ -86,44 +82,48 @@ public class SrxLogParser implements LogParser {
 		return m;
 	}
 
-	private void parseStat(Map<String, Object> m, String prefix, String source) {
-		int p1 = source.indexOf('(');
-		m.put(prefix + "_" + "pkts", Long.valueOf(source.substring(0, p1)));
-		m.put(prefix + "_" + "bytes", Long.valueOf(source.substring(p1 + 1, source.length() - 1)));
+	private void parseStat(Map<String, Object> m, String prefix, FieldBuffer f, int i) {
+		int p1 = f.indexOf('(', f.begin(i), f.end(i));
+		m.put(prefix + "_" + "pkts", f.parseLong(f.begin(i), p1));
+		m.put(prefix + "_" + "bytes", f.parseLong(p1 + 1, f.end(i) - 1));
 	}
 
-	private void parseCommon(Map<String, Object> m, Scanner s) {
-		parseFlow(m, s);
-
-		String natFlow = s.next();
-		int p4 = natFlow.indexOf('/');
-		int p5 = natFlow.indexOf('-', p4);
-		int p6 = natFlow.indexOf('/', p5);
-
-		m.put("nat_src_ip", natFlow.substring(0, p4));
-		m.put("nat_src_port", Integer.valueOf(natFlow.substring(p4 + 1, p5)));
-		m.put("nat_dst_ip", natFlow.substring(p5 + 2, p6));
-		m.put("nat_dst_port", Integer.valueOf(natFlow.substring(p6 + 1)));
-		m.put("src_nat_rule", s.next());
-		m.put("dst_nat_rule", s.next());
-		m.put("protocol", s.next());
-		m.put("policy", s.next());
-		m.put("src_zone", s.next());
-		m.put("dst_zone", s.next());
-		m.put("session_id", s.next());
+	private int parseCommon(Map<String, Object> m, FieldBuffer f, int i) {
+		i = parseFlow(m, f, i);
+
+		int begin = f.begin(i);
+		int end = f.end(i++);
+		int p4 = f.indexOf('/', begin, end);
+		int p5 = f.indexOf('-', p4, end);
+		int p6 = f.indexOf('/', p5, end);
+
+		m.put("nat_src_ip", f.substring(begin, p4));
+		m.put("nat_src_port", f.parseInt(p4 + 1, p5));
+		m.put("nat_dst_ip", f.substring(p5 + 2, p6));
+		m.put("nat_dst_port", f.parseInt(p6 + 1, end));
+		m.put("src_nat_rule", f.value(i++));
+		m.put("dst_nat_rule", f.value(i++));
+		m.put("protocol", f.value(i++));
+		m.put("policy", f.value(i++));
+		m.put("src_zone", f.value(i++));
+		m.put("dst_zone", f.value(i++));
+		m.put("session_id", f.value(i++));
+		return i;
 	}
 
-	private void parseFlow(Map<String, Object> m, Scanner s) {
-		String flow = s.next();
-		int p1 = flow.indexOf('/');
-		int p2 = flow.indexOf('-', p1);
-		int p3 = flow.indexOf('/', p2);
-
-		m.put("src_ip", flow.substring(0, p1));
-		m.put("src_port", Integer.valueOf(flow.substring(p1 + 1, p2)));
-		m.put("dst_ip", flow.substring(p2 + 2, p3));
-		m.put("dst_port", Integer.valueOf(flow.substring(p3 + 1)));
-		m.put("service", s.next());
+	private int parseFlow(Map<String, Object> m, FieldBuffer f, int i) {
+		int begin = f.begin(i);
+		int end = f.end(i++);
+		int p1 = f.indexOf('/', begin, end);
+		int p2 = f.indexOf('-', p1, end);
+		int p3 = f.indexOf('/', p2, end);
+
+		m.put("src_ip", f.substring(begin, p1));
+		m.put("src_port", f.parseInt(p1 + 1, p2));
+		m.put("dst_ip", f.substring(p2 + 2, p3));
+		m.put("dst_port", f.parseInt(p3 + 1, end));
+		m.put("service", f.value(i++));
+		return i;
 	}
 
 }
@@ -15,12 +15,12 @@
  */
 package org.krakenapps.logparser.syslog.paloaltonetworks;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.krakenapps.log.api.LogParser;
+import org.krakenapps.logparser.syslog.internal.FieldBuffer;
+import org.krakenapps.logparser.syslog.internal.FieldTokenizer;
 
 /**
  * Log Parser for Palo Alto Networks PA Series
@@ -29,148 +29,129 @@ import org.krakenapps.log.api.LogParser;
  * 
  */
 public class PaloAltoLogParser implements LogParser {
+	private FieldTokenizer tokenizer = new FieldTokenizer();
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
 		String line = (String) params.get("line");
 
-		List<String> tokens = tokenize(line);
-		String type = tokens.get(3);
-		if (type.equals("TRAFFIC"))
+		// csv fields, quoted field may contain comma
+		FieldBuffer tokens = tokenizer.split(line, ',');
+		if (tokens.valueEquals(3, "TRAFFIC"))
 			return decodeTrafficLog(tokens);
-		else if (type.equals("THREAT"))
+		else if (tokens.valueEquals(3, "THREAT"))
 			return decodeThreatLog(tokens);
-		else if (type.equals("CONFIG"))
+		else if (tokens.valueEquals(3, "CONFIG"))
 			return decodeConfigLog(tokens);
-		else if (type.equals("SYSTEM"))
+		else if (tokens.valueEquals(3, "SYSTEM"))
 			return decodeSystemLog(tokens);
 
 		return null;
 	}
 
-	private List<String> tokenize(String line) {
-		List<String> l = new ArrayList<String>();
-
-		int offset = 0;
-
-		while (true) {
-			int pos = line.indexOf(',', offset);
-			if (pos < 0) {
-				l.add(line.substring(offset));
-				break;
-			}
-
-			l.add(line.substring(offset, pos));
-			offset = pos + 1;
-		}
-
-		return l;
-	}
-
-	private Map<String, Object> decodeTrafficLog(List<String> tokens) {
+	private Map<String, Object> decodeTrafficLog(FieldBuffer tokens) {
 		Map<String, Object> m = new HashMap<String, Object>();
-		m.put("recv_time", tokens.get(1));
-		m.put("serial", tokens.get(2));
-		m.put("type", tokens.get(3));
-		m.put("subtype", tokens.get(4));
-		m.put("src_ip", tokens.get(7));
-		m.put("dst_ip", tokens.get(8));
-		m.put("nat_src_ip", tokens.get(9));
-		m.put("nat_dst_ip", tokens.get(10));
-		m.put("rule", tokens.get(11));
-		m.put("src_user", tokens.get(12));
-		m.put("dst_user", tokens.get(13));
-		m.put("application", tokens.get(14));
-		m.put("virtual_system", tokens.get(15));
-		m.put("src_zone", tokens.get(16));
-		m.put("dst_zone", tokens.get(17));
-		m.put("in_iface", tokens.get(18));
-		m.put("out_iface", tokens.get(19));
-		m.put("log_profile", tokens.get(20));
-		m.put("session_id", tokens.get(22));
-		m.put("repeat", Integer.valueOf(tokens.get(23)));
-		m.put("src_port", Integer.valueOf(tokens.get(24)));
-		m.put("dst_port", Integer.valueOf(tokens.get(25)));
-		m.put("nat_src_port", Integer.valueOf(tokens.get(26)));
-		m.put("nat_dst_port", Integer.valueOf(tokens.get(27)));
-		m.put("flags", tokens.get(28));
-		m.put("protocol", tokens.get(29));
-		m.put("action", tokens.get(30));
-		m.put("bytes", Long.valueOf(tokens.get(31)));
-		m.put("packets", Long.valueOf(tokens.get(34)));
-		m.put("start_time", tokens.get(35));
-		m.put("elapsed_time", Integer.valueOf(tokens.get(36)));
-		m.put("category", tokens.get(37));
+		m.put("recv_time", tokens.value(1));
+		m.put("serial", tokens.value(2));
+		m.put("type", tokens.value(3));
+		m.put("subtype", tokens.value(4));
+		m.put("src_ip", tokens.value(7));
+		m.put("dst_ip", tokens.value(8));
+		m.put("nat_src_ip", tokens.value(9));
+		m.put("nat_dst_ip", tokens.value(10));
+		m.put("rule", tokens.value(11));
+		m.put("src_user", tokens.value(12));
+		m.put("dst_user", tokens.value(13));
+		m.put("application", tokens.value(14));
+		m.put("virtual_system", tokens.value(15));
+		m.put("src_zone", tokens.value(16));
+		m.put("dst_zone", tokens.value(17));
+		m.put("in_iface", tokens.value(18));
+		m.put("out_iface", tokens.value(19));
+		m.put("log_profile", tokens.value(20));
+		m.put("session_id", tokens.value(22));
+		m.put("repeat", tokens.intValue(23));
+		m.put("src_port", tokens.intValue(24));
+		m.put("dst_port", tokens.intValue(25));
+		m.put("nat_src_port", tokens.intValue(26));
+		m.put("nat_dst_port", tokens.intValue(27));
+		m.put("flags", tokens.value(28));
+		m.put("protocol", tokens.value(29));
+		m.put("action", tokens.value(30));
+		m.put("bytes", tokens.longValue(31));
+		m.put("packets", tokens.longValue(34));
+		m.put("start_time", tokens.value(35));
+		m.put("elapsed_time", tokens.intValue(36));
+		m.put("category", tokens.value(37));
 
 		return m;
 	}
 
-	private Map<String, Object> decodeThreatLog(List<String> tokens) {
+	private Map<String, Object> decodeThreatLog(FieldBuffer tokens) {
 		Map<String, Object> m = new HashMap<String, Object>();
-		m.put("recv_time", tokens.get(1));
-		m.put("serial", tokens.get(2));
-		m.put("type", tokens.get(3));
-		m.put("subtype", tokens.get(4));
-		m.put("src_ip", tokens.get(7));
-		m.put("dst_ip", tokens.get(8));
-		m.put("nat_src_ip", tokens.get(9));
-		m.put("nat_dst_ip", tokens.get(10));
-		m.put("rule", tokens.get(11));
-		m.put("src_user", tokens.get(12));
-		m.put("dst_user", tokens.get(13));
-		m.put("application", tokens.get(14));
-		m.put("virtual_system", tokens.get(15));
-		m.put("src_zone", tokens.get(16));
-		m.put("dst_zone", tokens.get(17));
-		m.put("in_iface", tokens.get(18));
-		m.put("out_iface", tokens.get(19));
-		m.put("log_profile", tokens.get(20));
-		m.put("session_id", tokens.get(22));
-		m.put("repeat", Integer.valueOf(tokens.get(23)));
-		m.put("src_port", Integer.valueOf(tokens.get(24)));
-		m.put("dst_port", Integer.valueOf(tokens.get(25)));
-		m.put("nat_src_port", Integer.valueOf(tokens.get(26)));
-		m.put("nat_dst_port", Integer.valueOf(tokens.get(27)));
-		m.put("flags", tokens.get(28));
-		m.put("protocol", tokens.get(29));
-		m.put("action", tokens.get(30));
-		String misc = tokens.get(31);
-		m.put("misc", misc.substring(1, misc.length() - 1));
-		m.put("threat_id", tokens.get(32));
-		m.put("category", tokens.get(33));
-		m.put("severity", tokens.get(34));
-		m.put("direction", tokens.get(35));
+		m.put("recv_time", tokens.value(1));
+		m.put("serial", tokens.value(2));
+		m.put("type", tokens.value(3));
+		m.put("subtype", tokens.value(4));
+		m.put("src_ip", tokens.value(7));
+		m.put("dst_ip", tokens.value(8));
+		m.put("nat_src_ip", tokens.value(9));
+		m.put("nat_dst_ip", tokens.value(10));
+		m.put("rule", tokens.value(11));
+		m.put("src_user", tokens.value(12));
+		m.put("dst_user", tokens.value(13));
+		m.put("application", tokens.value(14));
+		m.put("virtual_system", tokens.value(15));
+		m.put("src_zone", tokens.value(16));
+		m.put("dst_zone", tokens.value(17));
+		m.put("in_iface", tokens.value(18));
+		m.put("out_iface", tokens.value(19));
+		m.put("log_profile", tokens.value(20));
+		m.put("session_id", tokens.value(22));
+		m.put("repeat", tokens.intValue(23));
+		m.put("src_port", tokens.intValue(24));
+		m.put("dst_port", tokens.intValue(25));
+		m.put("nat_src_port", tokens.intValue(26));
+		m.put("nat_dst_port", tokens.intValue(27));
+		m.put("flags", tokens.value(28));
+		m.put("protocol", tokens.value(29));
+		m.put("action", tokens.value(30));
+		m.put("misc", tokens.value(31));
+		m.put("threat_id", tokens.value(32));
+		m.put("category", tokens.value(33));
+		m.put("severity", tokens.value(34));
+		m.put("direction", tokens.value(35));
 		return m;
 	}
 
-	private Map<String, Object> decodeConfigLog(List<String> tokens) {
+	private Map<String, Object> decodeConfigLog(FieldBuffer tokens) {
 		Map<String, Object> m = new HashMap<String, Object>();
-		m.put("recv_time", tokens.get(1));
-		m.put("serial", tokens.get(2));
-		m.put("type", tokens.get(3));
-		m.put("subtype", tokens.get(4));
-		m.put("host", tokens.get(7));
-		m.put("virtual_system", tokens.get(8));
-		m.put("command", tokens.get(9));
-		m.put("admin", tokens.get(10));
-		m.put("client", tokens.get(11));
-		m.put("result", tokens.get(12));
-		m.put("config_path", tokens.get(13));
+		m.put("recv_time", tokens.value(1));
+		m.put("serial", tokens.value(2));
+		m.put("type", tokens.value(3));
+		m.put("subtype", tokens.value(4));
+		m.put("host", tokens.value(7));
+		m.put("virtual_system", tokens.value(8));
+		m.put("command", tokens.value(9));
+		m.put("admin", tokens.value(10));
+		m.put("client", tokens.value(11));
+		m.put("result", tokens.value(12));
+		m.put("config_path", tokens.value(13));
 		return m;
 	}
 
-	private Map<String, Object> decodeSystemLog(List<String> tokens) {
+	private Map<String, Object> decodeSystemLog(FieldBuffer tokens) {
 		Map<String, Object> m = new HashMap<String, Object>();
-		m.put("recv_time", tokens.get(1));
-		m.put("serial", tokens.get(2));
-		m.put("type", tokens.get(3));
-		m.put("subtype", tokens.get(4));
-		m.put("virtual_system", tokens.get(7));
-		m.put("event_id", tokens.get(8));
-		m.put("object", tokens.get(9));
-		m.put("module", tokens.get(12));
-		m.put("severity", tokens.get(13));
-		m.put("description", tokens.get(14));
+		m.put("recv_time", tokens.value(1));
+		m.put("serial", tokens.value(2));
+		m.put("type", tokens.value(3));
+		m.put("subtype", tokens.value(4));
+		m.put("virtual_system", tokens.value(7));
+		m.put("event_id", tokens.value(8));
+		m.put("object", tokens.value(9));
+		m.put("module", tokens.value(12));
+		m.put("severity", tokens.value(13));
+		m.put("description", tokens.value(14));
 		return m;
 	}
 
@@ -21,60 +21,63 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.krakenapps.log.api.LogParser;
+import org.krakenapps.logparser.syslog.internal.FieldBuffer;
+import org.krakenapps.logparser.syslog.internal.FieldTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SnortLogParser implements LogParser {
 	private Logger logger = LoggerFactory.getLogger(this.getClass());
+	private FieldTokenizer tokenizer = new FieldTokenizer();
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
 		Map<String, Object> m = new HashMap<String, Object>();
 		String msg = (String) params.get("message");
 		try {
-			if (!msg.contains("snort["))
+			int snort = msg.indexOf("snort[");
+			if (snort < 0)
 				return null;
 
-			Token pid = nextToken(msg, 0, '[', ']');
-			Token numbers = nextToken(msg, pid.end, '[', ']');
-			Token proto = nextToken(msg, numbers.end, '{', '}');
-			if (proto.value.startsWith("PROTO:")) {
-				proto.value = TextTokenizer.split(proto.value, ":")[1];
-			}
-
-			m.put("pid", Integer.parseInt(pid.value));
-
-			String[] numberTokens = TextTokenizer.split(numbers.value, ":");
-
-			m.put("gid", Integer.parseInt(numberTokens[0]));
-			m.put("sid", Integer.parseInt(numberTokens[1]));
-			m.put("rev", Integer.parseInt(numberTokens[2]));
-			m.put("proto", proto.value);
-
-			int endOfRule = msg.indexOf("{", numbers.end);
-			int endOfRule2 = msg.indexOf("[", numbers.end);
+			// snort[pid]: [gid:sid:rev] msg [metadata].. {proto} src -> dst
+			int pidBegin = snort + 5;
+			int pidEnd = msg.indexOf(']', pidBegin);
+			int numbersBegin = msg.indexOf('[', pidEnd);
+			int numbersEnd = msg.indexOf(']', numbersBegin);
+			int protoBegin = msg.indexOf('{', numbersEnd);
+			int protoEnd = msg.indexOf('}', protoBegin);
+
+			FieldBuffer numbers = tokenizer.split(msg, numbersBegin + 1, numbersEnd, ':');
+			m.put("pid", numbers.parseInt(pidBegin + 1, pidEnd));
+			m.put("gid", numbers.intValue(0));
+			m.put("sid", numbers.intValue(1));
+			m.put("rev", numbers.intValue(2));
+
+			int protoValueBegin = protoBegin + 1;
+			if (msg.startsWith("PROTO:", protoValueBegin))
+				protoValueBegin += 6;
+			m.put("proto", msg.substring(protoValueBegin, protoEnd));
+
+			int endOfRule = protoBegin;
+			int endOfRule2 = msg.indexOf('[', numbersEnd);
 			if ((endOfRule2 < endOfRule) && endOfRule2 > 0)
 				endOfRule = endOfRule2;
 
 			if (msg.charAt(endOfRule - 1) == ' ')
 				endOfRule -= 1;
 
-			String newMsg = msg.substring(numbers.end + 2, endOfRule);
-			m.put("msg", newMsg);
+			m.put("msg", msg.substring(numbersEnd + 2, endOfRule));
 
-			String conversation = msg.substring(proto.end + 1);
-			String[] conversationTokens = TextTokenizer.split(conversation, "->");
-			String[] srcPair = TextTokenizer.split(conversationTokens[0], ":");
-			String[] dstPair = TextTokenizer.split(conversationTokens[1], ":");
+			int arrow = msg.indexOf("->", protoEnd);
+			FieldBuffer src = tokenizer.split(msg, protoEnd + 1, arrow, ':');
+			InetAddress srcIp = InetAddress.getByName(src.value(0).trim());
+			if (src.size() == 2)
+				m.put("src_port", Integer.parseInt(src.value(1).trim()));
 
-			InetAddress srcIp = InetAddress.getByName(srcPair[0].trim());
-			InetAddress dstIp = InetAddress.getByName(dstPair[0].trim());
-
-			if (srcPair.length == 2)
-				m.put("src_port", Integer.parseInt(srcPair[1].trim()));
-
-			if (dstPair.length == 2)
-				m.put("dst_port", Integer.parseInt(dstPair[1].trim()));
+			FieldBuffer dst = tokenizer.split(msg, arrow + 2, msg.length(), ':');
+			InetAddress dstIp = InetAddress.getByName(dst.value(0).trim());
+			if (dst.size() == 2)
+				m.put("dst_port", Integer.parseInt(dst.value(1).trim()));
 
 			m.put("src_ip", srcIp);
 			m.put("dst_ip", dstIp);
@@ -92,52 +95,23 @@ public class SnortLogParser implements LogParser {
 	}
 
 	private void parseAllMetadata(Map<String, Object> m, String msg, int offset) {
-		if (offset >= msg.length())
-			return;
-
-		int begin = msg.indexOf("[", offset);
-		if (begin < 0)
-			return;
-
-		int end = msg.indexOf("]", begin);
-		if (end < 0)
-			return;
-
-		String metadata = msg.substring(begin + 1, end);
-		String[] tokens = metadata.split(":");
-		String key = tokens[0];
-		String value = tokens[1];
-
-		if (key.equals("Priority")) {
-			int priority = Integer.parseInt(value.trim());
-			m.put("priority", priority);
-		} else if (key.equals("Classification")) {
-			m.put("class", value.trim());
-		}
-
-		parseAllMetadata(m, msg, end);
-	}
-
-	private Token nextToken(String target, int offset, char openChar, char closeChar) {
-		if (offset >= target.length())
-			return null;
-
-		Token token = new Token();
-		token.begin = target.indexOf(openChar, offset);
-		if (token.begin < 0)
-			return null;
-
-		token.end = target.indexOf(closeChar, token.begin);
-		if (token.end < 0)
-			return null;
-
-		token.value = target.substring(token.begin + 1, token.end);
-		return token;
-	}
+		while (offset < msg.length()) {
+			int begin = msg.indexOf('[', offset);
+			if (begin < 0)
+				return;
+
+			int end = msg.indexOf(']', begin);
+			if (end < 0)
+				return;
+
+			FieldBuffer f = tokenizer.split(msg, begin + 1, end, ':');
+			if (f.valueEquals(0, "Priority")) {
+				m.put("priority", Integer.parseInt(f.value(1).trim()));
+			} else if (f.valueEquals(0, "Classification")) {
+				m.put("class", f.value(1).trim());
+			}
 
-	private class Token {
-		private int begin;
-		private int end;
-		private String value;
+			offset = end;
+		}
 	}
 }
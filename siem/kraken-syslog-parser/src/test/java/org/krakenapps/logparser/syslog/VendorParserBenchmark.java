@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logparser.syslog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.krakenapps.log.api.LogParser;
+import org.krakenapps.logparser.syslog.fortinet.FortigateLogParser;
+import org.krakenapps.logparser.syslog.juniper.SrxLogParser;
+import org.krakenapps.logparser.syslog.paloaltonetworks.PaloAltoLogParser;
+import org.krakenapps.logparser.syslog.sourcefire.SnortLogParser;
+import org.krakenapps.util.QuotedKeyValueParser;
+
+/**
+ * Measures lines/sec per vendor parser. Run main() manually, it is not a unit
+ * test. Each case is warmed up before measurement.
+ *
+ * @author xeraph
+ *
+ */
+public class VendorParserBenchmark {
+	private static final int WARMUP_MILLIS = 2000;
+	private static final int MEASURE_MILLIS = 5000;
+
+	private static final String FORTIGATE = "date=2012-02-22 time=16:27:11 devname=FG300B3909600539 device_id=FG300B3909600539 "
+			+ "log_id=0021000002 type=traffic subtype=allowed pri=notice vd=root src=172.16.246.56 src_port=3744 src_int=\"internal\" "
+			+ "dst=112.76.169.110 dst_port=80 dst_int=\"wan1\" SN=344092 status=accept policyid=12 dst_country=\"Korea, Republic of\" "
+			+ "src_country=\"Reserved\" service=http proto=6 duration=130 sent=1732 rcvd=1732 msg=\"allowed by policy\"";
+
+	private static final String PALOALTO = "Feb 22 16:27:11 1,2012/02/22 16:27:11,0002C101615,TRAFFIC,end,0,2012/02/22 16:27:10,172.16.246.56,112.76.169.110,0.0.0.0,0.0.0.0,"
+			+ "VPN,,,web-browsing,vsys1,L3_VPN,L3_DMZ,vlan,vlan.2,traffic_IPS_182,2012/02/22 16:27:10,344092,1,3744,80,0,0,0x0,tcp,allow,"
+			+ "1732,1732,1732,7,2012/02/22 16:24:30,130,any,0,0,0x0,172.16.0.0-172.31.255.255,Korea Republic Of,0";
+
+	private static final String SRX = "May  8 02:52:02 RT_FLOW: RT_FLOW_SESSION_CLOSE: session closed TCP RST: 10.254.251.48/35639->72.14.203.188/5228 "
+			+ "None 211.36.132.123/40488->72.14.203.188/5228 r1 None 6 TCP_1H trust untrust 80888035 46(4109) 42(4812) 13512";
+
+	private static final String SNORT = "snort[24858]: [1:486:4] ICMP Destination Unreachable Communication with Destination Host is "
+			+ "Administratively Prohibited [Classification: Misc activity] [Priority: 3]: {ICMP} 220.45.142.139 -> 10.10.0.2";
+
+	private interface Case {
+		Object run();
+	}
+
+	public static void main(String[] args) {
+		final Map<String, Object> fortigate = params("msg", FORTIGATE);
+		final Map<String, Object> paloalto = params("line", PALOALTO);
+		final Map<String, Object> srx = params("line", SRX);
+		final Map<String, Object> snort = params("message", SNORT);
+
+		final LogParser fortigateParser = new FortigateLogParser();
+		final LogParser paloaltoParser = new PaloAltoLogParser();
+		final LogParser srxParser = new SrxLogParser();
+		final LogParser snortParser = new SnortLogParser();
+
+		measure("fortigate (quoted key value parser)", new Case() {
+			@Override
+			public Object run() {
+				return QuotedKeyValueParser.parse(FORTIGATE);
+			}
+		});
+
+		measure("fortigate", new Case() {
+			@Override
+			public Object run() {
+				return fortigateParser.parse(fortigate);
+			}
+		});
+
+		measure("paloalto", new Case() {
+			@Override
+			public Object run() {
+				return paloaltoParser.parse(paloalto);
+			}
+		});
+
+		measure("srx", new Case() {
+			@Override
+			public Object run() {
+				return srxParser.parse(srx);
+			}
+		});
+
+		measure("snort", new Case() {
+			@Override
+			public Object run() {
+				return snortParser.parse(snort);
+			}
+		});
+	}
+
+	private static void measure(String name, Case c) {
+		run(c, WARMUP_MILLIS);
+		long count = run(c, MEASURE_MILLIS);
+		System.out.println(String.format("%-40s %,12d lines/sec", name, count * 1000 / MEASURE_MILLIS));
+	}
+
+	private static long run(Case c, long duration) {
+		long count = 0;
+		int sink = 0;
+		long end = System.currentTimeMillis() + duration;
+		while (System.currentTimeMillis() < end) {
+			for (int i = 0; i < 1000; i++) {
+				Object o = c.run();
+				if (o != null)
+					sink++;
+			}
+			count += 1000;
+		}
+
+		if (sink == 0)
+			System.out.println("all parse failed");
+
+		return count;
+	}
+
+	private static Map<String, Object> params(String key, String line) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put(key, line);
+		m.put("severity", 5);
+		m.put("facility", 1);
+		return m;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.logparser.syslog.internal;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FieldTokenizerTest {
+	@Test
+	public void testKeyValues() {
+		FieldTokenizer tokenizer = new FieldTokenizer();
+		String line = "Oct 11 fgt date=2012-01-01 msg=\"hello \\\"world\\\"\" user='a b' empty= k9=asdf\"asdf asdf\" last=x";
+		FieldBuffer f = tokenizer.keyValues(line);
+
+		assertEquals(6, f.size());
+		assertEquals("2012-01-01", f.get("date"));
+		assertEquals("hello \"world\"", f.get("msg"));
+		assertEquals("a b", f.get("user"));
+		assertEquals("", f.get("empty"));
+		assertEquals("asdfasdf asdf", f.get("k9"));
+		assertEquals("x", f.get("last"));
+		assertNull(f.get("Oct"));
+	}
+
+	@Test
+	public void testInternedKeys() {
+		FieldTokenizer tokenizer = new FieldTokenizer(new KeyDictionary("srcip", "dstip"));
+		String k1 = tokenizer.keyValues("srcip=1.2.3.4 dstip=5.6.7.8 proto=6").key(0);
+		String k2 = tokenizer.keyValues(new StringBuilder("srcip=1.1.1.1")).key(0);
+		assertSame(k1, k2);
+
+		String p1 = tokenizer.keyValues("proto=17").key(0);
+		String p2 = tokenizer.keyValues("proto=6").key(0);
+		assertSame(p1, p2);
+	}
+
+	@Test
+	public void testBytes() {
+		Charset utf8 = Charset.forName("utf-8");
+		byte[] b = "xx result=성공 msg=\"로그인 성공\" port=8080".getBytes(utf8);
+
+		FieldBuffer f = new FieldTokenizer().keyValues(b, 3, b.length - 3, utf8);
+		assertEquals("성공", f.get("result"));
+		assertEquals("로그인 성공", f.get("msg"));
+		assertEquals(8080, f.intValue(f.indexOf("port")));
+	}
+
+	@Test
+	public void testSplit() {
+		FieldTokenizer tokenizer = new FieldTokenizer();
+		FieldBuffer f = tokenizer.split("1,,\"a,b\",\"\",\"say \"\"hi\"\"\",-42", ',');
+
+		assertEquals(6, f.size());
+		assertEquals("1", f.value(0));
+		assertEquals("", f.value(1));
+		assertEquals("a,b", f.value(2));
+		assertEquals("", f.value(3));
+		assertEquals("say \"hi\"", f.value(4));
+		assertEquals(-42, f.intValue(5));
+		assertTrue(f.valueEquals(2, "a,b"));
+	}
+
+	@Test
+	public void testWords() {
+		FieldBuffer f = new FieldTokenizer().words("  May  8\t02:52:01 RT_FLOW: ");
+		assertEquals(4, f.size());
+		assertEquals("May", f.value(0));
+		assertEquals("8", f.value(1));
+		assertEquals("02:52:01", f.value(2));
+		assertEquals("RT_FLOW:", f.value(3));
+	}
+}
@@ -15,13 +15,16 @@
  */
 package org.krakenapps.syslogmon;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.krakenapps.log.api.AbstractLogger;
+import org.krakenapps.log.api.Log;
 import org.krakenapps.log.api.LoggerFactory;
 import org.krakenapps.log.api.LoggerSpecification;
 import org.krakenapps.log.api.SimpleLog;
@@ -54,12 +57,27 @@ public class SyslogLogger extends AbstractLogger {
 		if (!facilities.contains(syslog.getFacility()))
 			return;
 
-		if (isRunning()) {
-			Map<String, Object> m = new HashMap<String, Object>();
-			m.put("facility", syslog.getFacility());
-			m.put("severity", syslog.getSeverity());
-			m.put("line", syslog.getMessage());
-			write(new SimpleLog(new Date(), getFullName(), m));
-		}
+		if (isRunning())
+			write(toLog(syslog));
+	}
+
+	public void push(List<Syslog> syslogs) {
+		if (!isRunning())
+			return;
+
+		List<Log> logs = new ArrayList<Log>(syslogs.size());
+		for (Syslog syslog : syslogs)
+			if (facilities.contains(syslog.getFacility()))
+				logs.add(toLog(syslog));
+
+		write(logs);
+	}
+
+	private Log toLog(Syslog syslog) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("facility", syslog.getFacility());
+		m.put("severity", syslog.getSeverity());
+		m.put("line", syslog.getMessage());
+		return new SimpleLog(new Date(), getFullName(), m);
 	}
 }
@@ -37,13 +37,13 @@ import org.krakenapps.log.api.LoggerConfigOption;
 import org.krakenapps.log.api.LoggerSpecification;
 import org.krakenapps.log.api.StringConfigType;
 import org.krakenapps.syslog.Syslog;
-import org.krakenapps.syslog.SyslogListener;
+import org.krakenapps.syslog.SyslogBatchListener;
 import org.krakenapps.syslog.SyslogServerRegistry;
 import org.osgi.framework.BundleContext;
 
 @Component(name = "syslog-logger-factory")
 @Provides
-public class SyslogLoggerFactory extends AbstractLoggerFactory implements SyslogListener {
+public class SyslogLoggerFactory extends AbstractLoggerFactory implements SyslogBatchListener {
 
 	/**
 	 * remote ip to logger mappings
@@ -165,4 +165,25 @@ public class SyslogLoggerFactory extends AbstractLoggerFactory implements Syslog
 
 		logger.push(syslog);
 	}
+
+	@Override
+	public void onReceiveBatch(Syslog[] syslogs) {
+		// group by logger, and keep receive order of each logger
+		Map<SyslogLogger, List<Syslog>> batches = new HashMap<SyslogLogger, List<Syslog>>();
+		for (Syslog syslog : syslogs) {
+			SyslogLogger logger = loggerMappings.get(syslog.getRemoteAddress().getAddress());
+			if (logger == null)
+				continue;
+
+			List<Syslog> batch = batches.get(logger);
+			if (batch == null) {
+				batch = new ArrayList<Syslog>();
+				batches.put(logger, batch);
+			}
+			batch.add(syslog);
+		}
+
+		for (Map.Entry<SyslogLogger, List<Syslog>> e : batches.entrySet())
+			e.getKey().push(e.getValue());
+	}
 }
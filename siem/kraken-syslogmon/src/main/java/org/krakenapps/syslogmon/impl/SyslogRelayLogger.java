@@ -15,11 +15,14 @@
  */
 package org.krakenapps.syslogmon.impl;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.krakenapps.log.api.AbstractLogger;
+import org.krakenapps.log.api.Log;
 import org.krakenapps.log.api.LoggerFactory;
 import org.krakenapps.log.api.LoggerSpecification;
 import org.krakenapps.log.api.SimpleLog;
@@ -49,12 +52,29 @@ public class SyslogRelayLogger extends AbstractLogger {
 		if (slog.isDebugEnabled())
 			slog.debug("kraken syslogmon: passed to syslog virtual logger [{}]", syslog);
 
-		if (isRunning()) {
-			Map<String, Object> m = new HashMap<String, Object>();
-			m.put("facility", syslog.getFacility());
-			m.put("severity", syslog.getSeverity());
-			m.put("line", syslog.getMessage());
-			write(new SimpleLog(new Date(), getFullName(), m));
-		}
+		if (isRunning())
+			write(toLog(syslog));
+	}
+
+	/**
+	 * Pass syslogs through log pipeline in batch
+	 */
+	public void push(List<Syslog> syslogs) {
+		if (!isRunning())
+			return;
+
+		List<Log> logs = new ArrayList<Log>(syslogs.size());
+		for (Syslog syslog : syslogs)
+			logs.add(toLog(syslog));
+
+		write(logs);
+	}
+
+	private Log toLog(Syslog syslog) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("facility", syslog.getFacility());
+		m.put("severity", syslog.getSeverity());
+		m.put("line", syslog.getMessage());
+		return new SimpleLog(new Date(), getFullName(), m);
 	}
 }
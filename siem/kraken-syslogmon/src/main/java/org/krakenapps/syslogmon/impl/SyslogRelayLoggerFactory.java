@@ -38,14 +38,14 @@ import org.krakenapps.log.api.LoggerConfigOption;
 import org.krakenapps.log.api.LoggerSpecification;
 import org.krakenapps.log.api.StringConfigType;
 import org.krakenapps.syslog.Syslog;
-import org.krakenapps.syslog.SyslogListener;
+import org.krakenapps.syslog.SyslogBatchListener;
 import org.krakenapps.syslog.SyslogServerRegistry;
 import org.krakenapps.syslogmon.SyslogClassifier;
 import org.krakenapps.syslogmon.SyslogClassifierRegistry;
 
 @Component(name = "syslog-relay-logger-factory")
 @Provides
-public class SyslogRelayLoggerFactory extends AbstractLoggerFactory implements SyslogListener {
+public class SyslogRelayLoggerFactory extends AbstractLoggerFactory implements SyslogBatchListener {
 	private org.slf4j.Logger slog = org.slf4j.LoggerFactory.getLogger(SyslogRelayLoggerFactory.class.getName());
 
 	@Requires
@@ -150,31 +150,56 @@ public class SyslogRelayLoggerFactory extends AbstractLoggerFactory implements S
 
 	@Override
 	public void onReceive(Syslog syslog) {
+		SyslogRelayLogger logger = route(syslog);
+		if (logger == null)
+			return;
+
+		logger.push(syslog);
+	}
+
+	@Override
+	public void onReceiveBatch(Syslog[] syslogs) {
+		// group by virtual logger, and keep receive order of each logger
+		Map<SyslogRelayLogger, List<Syslog>> batches = new HashMap<SyslogRelayLogger, List<Syslog>>();
+		for (Syslog syslog : syslogs) {
+			SyslogRelayLogger logger = route(syslog);
+			if (logger == null)
+				continue;
+
+			List<Syslog> batch = batches.get(logger);
+			if (batch == null) {
+				batch = new ArrayList<Syslog>();
+				batches.put(logger, batch);
+			}
+			batch.add(syslog);
+		}
+
+		for (Map.Entry<SyslogRelayLogger, List<Syslog>> e : batches.entrySet())
+			e.getKey().push(e.getValue());
+	}
+
+	private SyslogRelayLogger route(Syslog syslog) {
 		InetAddress remoteAddr = syslog.getRemoteAddress().getAddress();
 		String classifierName = classifierMappings.get(remoteAddr);
 
 		if (classifierName == null)
-			return;
+			return null;
 
 		SyslogClassifier classifier = classifierRegistry.getClassifier(classifierName);
 		if (classifier == null) {
 			slog.warn("kraken syslogmon: classifier not found, ip [{}], classifier [{}]", remoteAddr, classifierName);
-			return;
+			return null;
 		}
 
 		String identifier = classifier.classify(syslog);
 		if (identifier == null) {
 			if (slog.isDebugEnabled())
 				slog.debug("kraken syslogmon: identifier not found, ip [{}], syslog [{}]", remoteAddr, syslog);
-			return;
+			return null;
 		}
 
 		VirtualLoggerKey key = new VirtualLoggerKey(remoteAddr, identifier);
-		SyslogRelayLogger logger = loggerMappings.get(key);
-		if (logger == null)
-			return;
-
-		logger.push(syslog);
+		return loggerMappings.get(key);
 	}
 
 	private static class VirtualLoggerKey {
@@ -24,4 +24,23 @@ public interface GeoIpService {
 	GeoIpLocation locate(InetAddress address);
 
 	void compileIpBlocks(File f) throws FileNotFoundException, IOException;
+
+	/**
+	 * Compiles ipv6 blocks csv ("begin ip","end ip","location id") to binary
+	 * format
+	 */
+	void compileIpv6Blocks(File f) throws FileNotFoundException, IOException;
+
+	/**
+	 * Reloads in-memory index from data directory
+	 */
+	void reload() throws IOException;
+
+	int getCacheSize();
+
+	/**
+	 * @param size
+	 *            the max cached ip count, or 0 to disable cache
+	 */
+	void setCacheSize(int size);
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.geoip.impl;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.krakenapps.geoip.GeoIpLocation;
+
+/**
+ * LRU cache of lookup results per ip address. Cache is split into segments by
+ * address hash to reduce lock contention, and each segment evicts least
+ * recently used entry. Negative results are also cached.
+ *
+ * @author xeraph
+ *
+ */
+class GeoIpCache {
+	private static final int SEGMENT_COUNT = 16;
+	private static final Object NOT_FOUND = new Object();
+
+	private final int capacity;
+	private final Segment[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public GeoIpCache(int capacity) {
+		this.capacity = capacity;
+		this.segments = new Segment[SEGMENT_COUNT];
+		int segmentCapacity = Math.max(1, (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment(segmentCapacity);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				size += s.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns cached result, or locates using index and caches the result.
+	 */
+	public GeoIpLocation locate(InetAddress address, GeoIpIndex index) {
+		Segment s = segmentOf(address);
+		Object value;
+		synchronized (s) {
+			value = s.get(address);
+		}
+
+		if (value != null) {
+			hits.incrementAndGet();
+			return value == NOT_FOUND ? null : (GeoIpLocation) value;
+		}
+
+		misses.incrementAndGet();
+		GeoIpLocation location = index.locate(address);
+		synchronized (s) {
+			s.put(address, location == null ? NOT_FOUND : location);
+		}
+
+		return location;
+	}
+
+	private Segment segmentOf(InetAddress address) {
+		int h = address.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENT_COUNT];
+	}
+
+	private static class Segment extends LinkedHashMap<InetAddress, Object> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		public Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<InetAddress, Object> eldest) {
+			return size() > capacity;
+		}
+	}
+}
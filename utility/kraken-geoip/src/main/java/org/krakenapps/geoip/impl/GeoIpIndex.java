@@ -0,0 +1,270 @@
+/*
+ * Copyright 2010 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.krakenapps.geoip.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.krakenapps.geoip.GeoIpLocation;
+
+/**
+ * Immutable in-memory geoip index. Ip blocks are kept in sorted primitive
+ * arrays, and locations are parsed once at load time, so lookup is binary
+ * search without any lock or file access. Reload builds new index, and
+ * replaces old index as a whole.
+ *
+ * @author xeraph
+ *
+ */
+class GeoIpIndex {
+	public static final GeoIpIndex EMPTY = new GeoIpIndex(new int[0], new int[0], new int[0], new long[0], new long[0],
+			new long[0], new long[0], new int[0], new GeoIpLocation[0]);
+
+	// ipv4 range, stored with sign bit flipped for unsigned comparison
+	private final int[] begins;
+	private final int[] ends;
+	private final int[] locs;
+
+	// ipv6 range, high and low 64 bits with sign bit flipped
+	private final long[] begins6Hi;
+	private final long[] begins6Lo;
+	private final long[] ends6Hi;
+	private final long[] ends6Lo;
+	private final int[] locs6;
+
+	private final GeoIpLocation[] locations;
+
+	private GeoIpIndex(int[] begins, int[] ends, int[] locs, long[] begins6Hi, long[] begins6Lo, long[] ends6Hi,
+			long[] ends6Lo, int[] locs6, GeoIpLocation[] locations) {
+		this.begins = begins;
+		this.ends = ends;
+		this.locs = locs;
+		this.begins6Hi = begins6Hi;
+		this.begins6Lo = begins6Lo;
+		this.ends6Hi = ends6Hi;
+		this.ends6Lo = ends6Lo;
+		this.locs6 = locs6;
+		this.locations = locations;
+	}
+
+	/**
+	 * Loads compiled blocks and location csv. Blocks of unknown location are
+	 * skipped.
+	 *
+	 * @param blocks6
+	 *            the compiled ipv6 blocks, or null if not exists
+	 */
+	public static GeoIpIndex load(File blocks, File blocks6, File locationCsv) throws IOException {
+		GeoIpLocation[] locations = loadLocations(locationCsv);
+		int[] ids = new int[locations.length];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = locations[i].getId();
+
+		// ipv4 blocks: begin(4), end(4), location id(4)
+		int count = (int) (blocks.length() / GeoIpServiceImpl.BLOCK_SIZE);
+		int[] begins = new int[count];
+		int[] ends = new int[count];
+		int[] locs = new int[count];
+		int n = 0;
+
+		DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(blocks), 65536));
+		try {
+			for (int i = 0; i < count; i++) {
+				int begin = is.readInt();
+				int end = is.readInt();
+				int loc = Arrays.binarySearch(ids, is.readInt());
+				if (loc < 0)
+					continue;
+
+				begins[n] = begin ^ Integer.MIN_VALUE;
+				if (n > 0 && begins[n] < begins[n - 1])
+					throw new IOException("ip blocks are not sorted at " + i);
+
+				ends[n] = end ^ Integer.MIN_VALUE;
+				locs[n] = loc;
+				n++;
+			}
+		} finally {
+			is.close();
+		}
+
+		// ipv6 blocks: begin(16), end(16), location id(4)
+		long[] begins6Hi = new long[0];
+		long[] begins6Lo = new long[0];
+		long[] ends6Hi = new long[0];
+		long[] ends6Lo = new long[0];
+		int[] locs6 = new int[0];
+		int n6 = 0;
+
+		if (blocks6 != null && blocks6.exists()) {
+			int count6 = (int) (blocks6.length() / GeoIpServiceImpl.BLOCK6_SIZE);
+			begins6Hi = new long[count6];
+			begins6Lo = new long[count6];
+			ends6Hi = new long[count6];
+			ends6Lo = new long[count6];
+			locs6 = new int[count6];
+
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(blocks6), 65536));
+			try {
+				for (int i = 0; i < count6; i++) {
+					long beginHi = is.readLong();
+					long beginLo = is.readLong();
+					long endHi = is.readLong();
+					long endLo = is.readLong();
+					int loc = Arrays.binarySearch(ids, is.readInt());
+					if (loc < 0)
+						continue;
+
+					begins6Hi[n6] = beginHi ^ Long.MIN_VALUE;
+					begins6Lo[n6] = beginLo ^ Long.MIN_VALUE;
+					if (n6 > 0 && compare(begins6Hi[n6], begins6Lo[n6], begins6Hi[n6 - 1], begins6Lo[n6 - 1]) < 0)
+						throw new IOException("ipv6 blocks are not sorted at " + i);
+
+					ends6Hi[n6] = endHi ^ Long.MIN_VALUE;
+					ends6Lo[n6] = endLo ^ Long.MIN_VALUE;
+					locs6[n6] = loc;
+					n6++;
+				}
+			} finally {
+				is.close();
+			}
+		}
+
+		return new GeoIpIndex(Arrays.copyOf(begins, n), Arrays.copyOf(ends, n), Arrays.copyOf(locs, n), Arrays.copyOf(
+				begins6Hi, n6), Arrays.copyOf(begins6Lo, n6), Arrays.copyOf(ends6Hi, n6), Arrays.copyOf(ends6Lo, n6),
+				Arrays.copyOf(locs6, n6), locations);
+	}
+
+	/**
+	 * @return the locations sorted by id
+	 */
+	private static GeoIpLocation[] loadLocations(File f) throws IOException {
+		List<GeoIpLocation> l = new ArrayList<GeoIpLocation>();
+
+		// geolite csv is latin-1 encoded
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "iso-8859-1"), 65536);
+		try {
+			while (true) {
+				String line = br.readLine();
+				if (line == null)
+					break;
+
+				// skip copyright and column header
+				if (line.isEmpty() || line.charAt(0) < '0' || line.charAt(0) > '9')
+					continue;
+
+				l.add(new GeoIpLocationImpl(line));
+			}
+		} finally {
+			br.close();
+		}
+
+		GeoIpLocation[] locations = l.toArray(new GeoIpLocation[0]);
+		for (int i = 1; i < locations.length; i++) {
+			if (locations[i - 1].getId() >= locations[i].getId())
+				throw new IOException("location csv is not sorted by id: " + locations[i].getId());
+		}
+
+		return locations;
+	}
+
+	public int getBlockCount() {
+		return begins.length;
+	}
+
+	public int getIpv6BlockCount() {
+		return locs6.length;
+	}
+
+	public int getLocationCount() {
+		return locations.length;
+	}
+
+	public GeoIpLocation locate(InetAddress address) {
+		byte[] b = address.getAddress();
+		if (address instanceof Inet4Address)
+			return locate4(toInt(b, 0));
+
+		return locate6(toLong(b, 0), toLong(b, 8));
+	}
+
+	private GeoIpLocation locate4(int ip) {
+		int key = ip ^ Integer.MIN_VALUE;
+
+		// find last block which begins at or before ip
+		int low = 0;
+		int high = begins.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (begins[mid] <= key)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		if (high < 0 || key > ends[high])
+			return null;
+
+		return locations[locs[high]];
+	}
+
+	private GeoIpLocation locate6(long hi, long lo) {
+		long keyHi = hi ^ Long.MIN_VALUE;
+		long keyLo = lo ^ Long.MIN_VALUE;
+
+		int low = 0;
+		int high = locs6.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (compare(begins6Hi[mid], begins6Lo[mid], keyHi, keyLo) <= 0)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		if (high < 0 || compare(keyHi, keyLo, ends6Hi[high], ends6Lo[high]) > 0)
+			return null;
+
+		return locations[locs6[high]];
+	}
+
+	private static int compare(long hi1, long lo1, long hi2, long lo2) {
+		if (hi1 != hi2)
+			return hi1 < hi2 ? -1 : 1;
+		if (lo1 != lo2)
+			return lo1 < lo2 ? -1 : 1;
+		return 0;
+	}
+
+	private static int toInt(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8)
+				| (b[offset + 3] & 0xFF);
+	}
+
+	private static long toLong(byte[] b, int offset) {
+		return ((long) toInt(b, offset) << 32) | (toInt(b, offset + 4) & 0xFFFFFFFFL);
+	}
+}
@@ -52,7 +52,7 @@ public class GeoIpScript implements Script {
 		this.context = context;
 	}
 
-	@ScriptUsage(description = "query ip location", arguments = { @ScriptArgument(name = "ip", type = "string", description = "ipv4 address") })
+	@ScriptUsage(description = "query ip location", arguments = { @ScriptArgument(name = "ip", type = "string", description = "ipv4 or ipv6 address") })
 	public void locate(String[] args) {
 		try {
 			InetAddress address = InetAddress.getByName(args[0]);
@@ -107,7 +107,37 @@ public class GeoIpScript implements Script {
 			file.delete();
 		}
 
-		context.println("install completed");
+		try {
+			geoip.reload();
+			context.println("install completed");
+		} catch (IOException e) {
+			context.println("reload failed: " + e.getMessage());
+			logger.warn("geoip reload failed:", e);
+		}
+	}
+
+	public void reload(String[] args) {
+		try {
+			geoip.reload();
+			context.println("reloaded");
+		} catch (IOException e) {
+			context.println("reload failed: " + e.getMessage());
+			logger.warn("geoip reload failed:", e);
+		}
+	}
+
+	@ScriptUsage(description = "set or print lookup cache size", arguments = { @ScriptArgument(name = "size", type = "integer", description = "max cached ip count, 0 to disable cache", optional = true) })
+	public void cache(String[] args) {
+		if (args.length > 0) {
+			try {
+				geoip.setCacheSize(Integer.valueOf(args[0]));
+			} catch (IllegalArgumentException e) {
+				context.println("invalid cache size: " + args[0]);
+				return;
+			}
+		}
+
+		context.println("cache size: " + geoip.getCacheSize());
 	}
 
 	private void writeFile(File file, InputStream is) throws IOException {
@@ -165,4 +195,16 @@ public class GeoIpScript implements Script {
 			context.println("io error: " + e.getMessage());
 		}
 	}
+
+	@ScriptUsage(description = "compile ipv6 blocks to binary format", arguments = { @ScriptArgument(name = "file path", type = "string", description = "ipv6 blocks csv file path (begin ip, end ip, location id)") })
+	public void compileIpv6Blocks(String[] args) {
+		try {
+			geoip.compileIpv6Blocks(new File(args[0]));
+			context.println("compile completed");
+		} catch (FileNotFoundException e) {
+			context.println("file not found: " + e.getMessage());
+		} catch (IOException e) {
+			context.println("io error: " + e.getMessage());
+		}
+	}
 }
@@ -29,113 +29,135 @@ import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.krakenapps.geoip.GeoIpLocation;
 import org.krakenapps.geoip.GeoIpService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Component(name = "geoip-service")
 @Provides
 public class GeoIpServiceImpl implements GeoIpService {
-	private static final int BLOCK_SIZE = 12;
+	private final Logger logger = LoggerFactory.getLogger(GeoIpServiceImpl.class.getName());
+
+	static final int BLOCK_SIZE = 12;
+	static final int BLOCK6_SIZE = 36;
 	private static final int INDEX_ITEM_SIZE = 8;
 
 	private static final String LOCATION_CSV = "geoip_locs.csv";
 	private static final String GEOIP_LOCS_IDX = "geoip_locs.idx";
 	private static final String GEOIP_BLOCKS_BIN = "geoip_blocks.bin";
+	private static final String GEOIP_BLOCKS6_BIN = "geoip_blocks6.bin";
 	private static final File base = new File(System.getProperty("kraken.data.dir"), "kraken-geoip/");
 
+	private final Object loadLock = new Object();
+
+	/**
+	 * index and cache are replaced together, so that cache never holds result
+	 * of old index
+	 */
+	private volatile Lookup lookup;
+
+	private volatile int cacheSize;
+
 	@Override
 	public GeoIpLocation locate(InetAddress address) {
-		RandomAccessFile raf = null;
-		RandomAccessFile idx = null;
-		RandomAccessFile csv = null;
-		try {
-			byte[] b = address.getAddress();
-			long ip = (((long) (b[0] & 0xFF)) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
-
-			raf = new RandomAccessFile(new File(base, GEOIP_BLOCKS_BIN), "r");
-			idx = new RandomAccessFile(new File(base, GEOIP_LOCS_IDX), "r");
-			csv = new RandomAccessFile(new File(base, LOCATION_CSV), "r");
-
-			int id = searchBlocks(raf, ip);
-			if (id < 0)
-				return null;
-
-			long location = searchLocations(idx, id);
-			if (location < 0)
-				return null;
-
-			csv.seek(location);
-			return new GeoIpLocationImpl(csv.readLine());
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		} finally {
-			closeFile(raf);
-			closeFile(csv);
-			closeFile(idx);
-		}
-	}
+		Lookup l = getLookup();
+		if (l.cache != null)
+			return l.cache.locate(address, l.index);
 
-	private void closeFile(RandomAccessFile raf) {
-		if (raf == null)
-			return;
+		return l.index.locate(address);
+	}
 
-		try {
-			raf.close();
-		} catch (IOException e) {
+	private Lookup getLookup() {
+		Lookup l = lookup;
+		if (l != null)
+			return l;
+
+		synchronized (loadLock) {
+			if (lookup == null) {
+				try {
+					load();
+				} catch (IOException e) {
+					logger.error("kraken geoip: cannot load geoip index", e);
+					lookup = new Lookup(GeoIpIndex.EMPTY, newCache());
+				}
+			}
+			return lookup;
 		}
 	}
 
-	private long searchLocations(RandomAccessFile raf, int locId) throws IOException {
-		long low = 0;
-		long high = raf.length() / INDEX_ITEM_SIZE - 1;
-
-		while (low <= high) {
-			long mid = low + (high - low) / 2;
-			long pos = mid * INDEX_ITEM_SIZE;
-
-			raf.seek(pos);
-			int id = raf.readInt();
+	@Override
+	public void reload() throws IOException {
+		synchronized (loadLock) {
+			load();
+		}
+	}
 
-			if (locId > id)
-				low = mid + 1;
-			else if (locId < id)
-				high = mid - 1;
-			else {
-				return raf.readInt();
-			}
+	private void load() throws IOException {
+		File blocks = new File(base, GEOIP_BLOCKS_BIN);
+		File locations = new File(base, LOCATION_CSV);
+		if (!blocks.exists() || !locations.exists()) {
+			logger.warn("kraken geoip: geoip data not found in [{}]", base.getAbsolutePath());
+			lookup = new Lookup(GeoIpIndex.EMPTY, newCache());
+			return;
 		}
 
-		return -1;
+		long begin = System.currentTimeMillis();
+		GeoIpIndex index = GeoIpIndex.load(blocks, new File(base, GEOIP_BLOCKS6_BIN), locations);
+		lookup = new Lookup(index, newCache());
+
+		logger.info("kraken geoip: loaded {} blocks, {} ipv6 blocks, {} locations in {}ms", new Object[] {
+				index.getBlockCount(), index.getIpv6BlockCount(), index.getLocationCount(),
+				System.currentTimeMillis() - begin });
 	}
 
-	private int searchBlocks(RandomAccessFile raf, long ip) throws IOException {
-		long lowerBound = 0;
-		long upperBound = raf.length() / BLOCK_SIZE - 1;
+	private GeoIpCache newCache() {
+		int size = cacheSize;
+		return size > 0 ? new GeoIpCache(size) : null;
+	}
 
-		while (lowerBound <= upperBound) {
-			// bound value is item index
-			long mid = lowerBound + (upperBound - lowerBound) / 2;
-			long pos = mid * BLOCK_SIZE;
+	@Override
+	public int getCacheSize() {
+		return cacheSize;
+	}
 
-			raf.seek(pos);
+	@Override
+	public void setCacheSize(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("cache size should be zero or positive");
+
+		synchronized (loadLock) {
+			cacheSize = size;
+			Lookup l = lookup;
+			if (l != null)
+				lookup = new Lookup(l.index, newCache());
+		}
+	}
 
-			long begin = raf.readInt() & 0xFFFFFFFFL;
-			long end = raf.readInt() & 0xFFFFFFFFL;
-			long id = raf.readInt() & 0xFFFFFFFFL;
+	private static class Lookup {
+		private final GeoIpIndex index;
+		private final GeoIpCache cache;
 
-			if (begin <= ip && ip <= end) {
-				return (int) id;
-			} else if (ip < begin)
-				upperBound = mid - 1;
-			else if (end < ip)
-				lowerBound = mid + 1;
+		public Lookup(GeoIpIndex index, GeoIpCache cache) {
+			this.index = index;
+			this.cache = cache;
 		}
-
-		return -1;
 	}
 
+	/**
+	 * Installs location csv to data directory with its offset index, and
+	 * reloads in-memory index.
+	 */
 	public void indexLocation(File f) throws IOException {
+		base.mkdirs();
+		File csv = new File(base, LOCATION_CSV);
+		if (!f.getCanonicalFile().equals(csv.getCanonicalFile())) {
+			File tmp = new File(base, LOCATION_CSV + ".tmp");
+			copy(f, tmp);
+			replace(tmp, csv);
+		}
+
 		int pos = 0;
-		FileOutputStream bw = new FileOutputStream(new File(GEOIP_LOCS_IDX));
+		File output = new File(base, GEOIP_LOCS_IDX + ".tmp");
+		FileOutputStream bw = new FileOutputStream(output);
 		RandomAccessFile raf = new RandomAccessFile(f, "r");
 
 		byte[] all = new byte[(int) f.length()];
@@ -182,11 +204,14 @@ public class GeoIpServiceImpl implements GeoIpService {
 			bw.close();
 		}
 
+		replace(output, new File(base, GEOIP_LOCS_IDX));
+		reload();
 	}
 
 	@Override
 	public void compileIpBlocks(File f) throws IOException {
-		File output = new File(GEOIP_BLOCKS_BIN);
+		base.mkdirs();
+		File output = new File(base, GEOIP_BLOCKS_BIN + ".tmp");
 		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
 		FileOutputStream bw = new FileOutputStream(output);
 
@@ -222,5 +247,88 @@ public class GeoIpServiceImpl implements GeoIpService {
 			if (bw != null)
 				bw.close();
 		}
+
+		replace(output, new File(base, GEOIP_BLOCKS_BIN));
+		reload();
+	}
+
+	@Override
+	public void compileIpv6Blocks(File f) throws IOException {
+		base.mkdirs();
+		File output = new File(base, GEOIP_BLOCKS6_BIN + ".tmp");
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+		FileOutputStream bw = new FileOutputStream(output);
+
+		ByteBuffer bb = ByteBuffer.allocate(BLOCK6_SIZE); // 16 + 16 + 4
+
+		try {
+			while (true) {
+				String line = br.readLine();
+				if (line == null)
+					break;
+
+				if (line.isEmpty() || line.charAt(0) != '"')
+					continue;
+
+				String[] tokens = line.replaceAll("\"", "").split(",");
+
+				// ip literal, no name resolution
+				byte[] begin = InetAddress.getByName(tokens[0].trim()).getAddress();
+				byte[] end = InetAddress.getByName(tokens[1].trim()).getAddress();
+				long location = Long.parseLong(tokens[2].trim());
+
+				// ipv4 mapped range is covered by ipv4 blocks
+				if (begin.length != 16 || end.length != 16)
+					continue;
+
+				bb.clear();
+				bb.put(begin);
+				bb.put(end);
+				bb.putInt((int) location);
+				bb.flip();
+
+				bw.write(bb.array());
+			}
+		} finally {
+			br.close();
+			bw.close();
+		}
+
+		replace(output, new File(base, GEOIP_BLOCKS6_BIN));
+		reload();
+	}
+
+	private void copy(File from, File to) throws IOException {
+		FileInputStream is = new FileInputStream(from);
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(to);
+			byte[] b = new byte[65536];
+			while (true) {
+				int readBytes = is.read(b);
+				if (readBytes <= 0)
+					break;
+
+				os.write(b, 0, readBytes);
+			}
+		} finally {
+			is.close();
+			if (os != null)
+				os.close();
+		}
+	}
+
+	/**
+	 * Replaces data file with completely written temporary file, so that
+	 * reload never reads partial file.
+	 */
+	private void replace(File tmp, File target) throws IOException {
+		if (tmp.renameTo(target))
+			return;
+
+		// rename cannot overwrite existing file on some platforms
+		target.delete();
+		if (!tmp.renameTo(target))
+			throw new IOException("cannot replace " + target.getAbsolutePath());
 	}
 }